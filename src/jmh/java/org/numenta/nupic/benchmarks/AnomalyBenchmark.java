@@ -0,0 +1,139 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.numenta.nupic.algorithms.Anomaly;
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.MersenneTwister;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class AnomalyBenchmark {
+
+    /** Number of columns */
+    @Param({ "2048" })
+    public int numColumns;
+
+    /** Number of active (and of predicted) columns */
+    @Param({ "40" })
+    public int numActive;
+
+    /** Number of records cycled through, so that results are not all cached */
+    private static final int NUM_RECORDS = 64;
+
+    private int[][] activeColumns;
+    private int[][] predictedColumns;
+    private long[][] activeBits;
+    private long[][] predictedBits;
+
+    @Setup
+    public void init() {
+        Random random = new MersenneTwister(42);
+        activeColumns = new int[NUM_RECORDS][];
+        predictedColumns = new int[NUM_RECORDS][];
+        activeBits = new long[NUM_RECORDS][];
+        predictedBits = new long[NUM_RECORDS][];
+        for(int i = 0;i < NUM_RECORDS;i++) {
+            activeColumns[i] = randomColumns(random);
+            predictedColumns[i] = randomColumns(random);
+            // Most active columns are usually predicted
+            int numPredicted = random.nextInt(numActive);
+            System.arraycopy(activeColumns[i], 0, predictedColumns[i], 0, numPredicted);
+            predictedColumns[i] = ArrayUtils.unique(predictedColumns[i]);
+            activeBits[i] = toBits(activeColumns[i]);
+            predictedBits[i] = toBits(predictedColumns[i]);
+        }
+    }
+
+    private int[] randomColumns(Random random) {
+        int[] columns = ArrayUtils.range(0, numColumns);
+        for(int i = 0;i < numActive;i++) {
+            int j = i + random.nextInt(numColumns - i);
+            int tmp = columns[i];
+            columns[i] = columns[j];
+            columns[j] = tmp;
+        }
+        int[] retVal = Arrays.copyOf(columns, numActive);
+        Arrays.sort(retVal);
+        return retVal;
+    }
+
+    private long[] toBits(int[] columns) {
+        long[] bits = new long[(numColumns + 63) / 64];
+        for(int c : columns) {
+            bits[c >>> 6] |= 1L << c;
+        }
+        return bits;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double measureRawScoreSortedIndices() {
+        double sum = 0;
+        for(int i = 0;i < NUM_RECORDS;i++) {
+            sum += Anomaly.computeRawAnomalyScore(activeColumns[i], predictedColumns[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double measureRawScoreBitSets() {
+        double sum = 0;
+        for(int i = 0;i < NUM_RECORDS;i++) {
+            sum += Anomaly.computeRawAnomalyScore(activeBits[i], predictedBits[i]);
+        }
+        return sum;
+    }
+
+    /**
+     * The hash set intersection previously used for every record
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double measureRawScoreHashSet() {
+        double sum = 0;
+        for(int i = 0;i < NUM_RECORDS;i++) {
+            int[] active = activeColumns[i];
+            int predictedActive = ArrayUtils.in1d(active, predictedColumns[i]).length;
+            sum += (active.length - predictedActive) / (double)active.length;
+        }
+        return sum;
+    }
+
+}
@@ -22,6 +22,7 @@
 
 package org.numenta.nupic.benchmarks;
 
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 import org.numenta.nupic.Parameters;
@@ -30,20 +31,37 @@ import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Setup;
-import org.openjdk.jmh.infra.Blackhole;
 
+/**
+ * Times {@link org.numenta.nupic.research.SpatialPooler#inhibitColumnsGlobal(org.numenta.nupic.Connections, double[], double)}
+ * alone, over precomputed overlaps, so that the selection of the winning
+ * columns is measured apart from the overlap computation and learning.
+ */
 public class SpatialPoolerGlobalInhibitionBenchmark extends AbstractAlgorithmBenchmark {
 
-    private int[][] input;
+    /** Number of columns, to show how global inhibition scales */
+    @Param({ "2048", "16384", "65536" })
+    public int numColumns;
+
+    /** Fraction of the columns selected as winners */
+    @Param({ "0.02", "0.1" })
+    public double density;
+
+    private double[][] overlaps;
 
     @Setup
     public void init() {
         super.init();
 
-        input = new int[7][8];
+        // Small integer overlaps with a little noise to break ties, as after boosting
+        Random random = new Random(42);
+        overlaps = new double[7][numColumns];
         for(int i = 0;i < 7;i++) {
-            input[i] = encoder.encode((double) i + 1);
+            for(int j = 0;j < numColumns;j++) {
+                overlaps[i][j] = random.nextInt(8) + random.nextDouble() * 0.01;
+            }
         }
     }
 
@@ -51,18 +69,20 @@ public class SpatialPoolerGlobalInhibitionBenchmark extends AbstractAlgorithmBen
     protected Parameters getParameters() {
         Parameters parameters = super.getParameters();
         parameters.setParameterByKey(KEY.GLOBAL_INHIBITIONS, true);
+        parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { numColumns });
         return parameters;
     }
 
     @Benchmark
     @BenchmarkMode(Mode.AverageTime)
-    @OutputTimeUnit(TimeUnit.MILLISECONDS)
-    public int[] measureAvgCompute_7_Times(Blackhole bh) throws InterruptedException {
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int measureAvgInhibitColumnsGlobal_7_Times() {
+        int winners = 0;
         for(int i = 0;i < 7;i++) {
-            pooler.compute(memory, input[i], SDR, true, false);
+            winners += pooler.inhibitColumnsGlobal(memory, overlaps[i], density).length;
         }
 
-        return SDR;
+        return winners;
     }
 
 }
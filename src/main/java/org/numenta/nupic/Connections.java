@@ -23,13 +23,16 @@
 package org.numenta.nupic;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.numenta.nupic.model.Cell;
 import org.numenta.nupic.model.Column;
@@ -38,6 +41,8 @@ import org.numenta.nupic.model.Pool;
 import org.numenta.nupic.model.ProximalDendrite;
 import org.numenta.nupic.model.Segment;
 import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.ColumnNeighborhoods;
+import org.numenta.nupic.research.IndexedComputeCycle;
 import org.numenta.nupic.research.SpatialPooler;
 import org.numenta.nupic.research.TemporalMemory;
 import org.numenta.nupic.util.MersenneTwister;
@@ -69,6 +74,10 @@ public class Connections {
     private int dutyCyclePeriod = 1000;
     private double maxBoost = 10.0;
     private int spVerbosity = 0;
+    /** Number of threads used by the {@link SpatialPooler}; 1 is serial */
+    private int spParallelism = 1;
+    /** Pool of {@code spParallelism} threads, created on first use */
+    private ForkJoinPool spForkJoinPool;
     
     private int numInputs = 1;  //product of input dimensions
     private int numColumns = 1; //product of column dimensions
@@ -122,6 +131,8 @@ public class Connections {
      * average number of connected synapses per column.
      */
     private int inhibitionRadius = 0;
+    /** Cached column neighborhoods of local inhibition */
+    private ColumnNeighborhoods neighborhoods;
     
     private int proximalSynapseCounter = 0;
     
@@ -140,6 +151,10 @@ public class Connections {
     protected Set<DistalDendrite> activeSegments = new LinkedHashSet<DistalDendrite>();
     protected Set<DistalDendrite> learningSegments = new LinkedHashSet<DistalDendrite>();
     protected Map<DistalDendrite, Set<Synapse>> activeSynapsesForSegment = new LinkedHashMap<DistalDendrite, Set<Synapse>>();
+    /** State and scratch buffers of {@link TemporalMemory#computeIndexed(Connections, int[], boolean)} */
+    protected IndexedComputeCycle indexedComputeCycle;
+    /** Scratch buffer of {@link SpatialPooler#inhibitColumnsGlobal(Connections, double[], double)} */
+    protected int[] inhibitionIndexes;
     
     /** Total number of columns */
     protected int[] columnDimensions = new int[] { 2048 };
@@ -231,6 +246,9 @@ public class Connections {
         activeSegments.clear();
         learningSegments.clear();
         activeSynapsesForSegment.clear();
+        if(indexedComputeCycle != null) {
+            indexedComputeCycle.reset();
+        }
     }
     
     /**
@@ -415,6 +433,31 @@ public class Connections {
         this.inhibitionRadius = radius;
     }
     
+    /**
+     * Returns the cached {@link ColumnNeighborhoods},
+     * or null if none are cached.
+     * 
+     * @return
+     */
+    public ColumnNeighborhoods getColumnNeighborhoods() {
+        return neighborhoods;
+    }
+    
+    /**
+     * Caches the specified {@link ColumnNeighborhoods}
+     * @param n
+     */
+    public void setColumnNeighborhoods(ColumnNeighborhoods n) {
+        this.neighborhoods = n;
+    }
+    
+    /**
+     * Discards the cached {@link ColumnNeighborhoods}
+     */
+    public void clearColumnNeighborhoods() {
+        this.neighborhoods = null;
+    }
+    
     /**
      * Returns the product of the input dimensions 
      * @return  the product of the input dimensions 
@@ -889,6 +932,46 @@ public class Connections {
     public int getSpVerbosity() {
         return spVerbosity;
     }
+    
+    /**
+     * Sets the number of threads the {@link SpatialPooler} uses to compute
+     * overlaps and update permanences of columns in parallel. A value of 1
+     * (the default) computes on the calling thread.
+     * 
+     * @param spParallelism
+     */
+    public void setSpParallelism(int spParallelism) {
+        if(spParallelism < 1) {
+            throw new IllegalArgumentException("spParallelism must be at least 1: " + spParallelism);
+        }
+        if(spParallelism != this.spParallelism && spForkJoinPool != null) {
+            spForkJoinPool.shutdown();
+            spForkJoinPool = null;
+        }
+        this.spParallelism = spParallelism;
+    }
+    
+    /**
+     * Returns the number of threads used by the {@link SpatialPooler}
+     * @return
+     * @see {@link #setSpParallelism(int)}
+     */
+    public int getSpParallelism() {
+        return spParallelism;
+    }
+    
+    /**
+     * Returns the {@link ForkJoinPool} used by the {@link SpatialPooler},
+     * or null if it computes serially.
+     * @return
+     */
+    public synchronized ForkJoinPool getSpForkJoinPool() {
+        if(spParallelism < 2) return null;
+        if(spForkJoinPool == null) {
+            spForkJoinPool = new ForkJoinPool(spParallelism);
+        }
+        return spForkJoinPool;
+    }
 
     /**
      * Sets the synPermTrimThreshold
@@ -1054,6 +1137,7 @@ public class Connections {
         System.out.println("dutyCyclePeriod            = " + getDutyCyclePeriod());
         System.out.println("maxBoost                   = " + getMaxBoost());
         System.out.println("spVerbosity                = " + getSpVerbosity());
+        System.out.println("spParallelism              = " + getSpParallelism());
         System.out.println("version                    = " + getVersion());
     }
     
@@ -1174,6 +1258,46 @@ public class Connections {
     	this.activeSynapsesForSegment = syns;
     }
     
+    /**
+     * Returns the reusable state of the index based temporal memory
+     * compute cycle, or null if it hasn't been used yet.
+     * @return
+     */
+    public IndexedComputeCycle getIndexedComputeCycle() {
+        return indexedComputeCycle;
+    }
+    
+    /**
+     * Sets the reusable state of the index based temporal memory compute cycle
+     * @param cycle
+     */
+    public void setIndexedComputeCycle(IndexedComputeCycle cycle) {
+        this.indexedComputeCycle = cycle;
+    }
+    
+    /**
+     * Returns the scratch buffer of column indexes used by global inhibition,
+     * sized to the number of columns. It is shared by all computes on this
+     * {@code Connections} object, and so may not be used concurrently.
+     * @return
+     */
+    public int[] getInhibitionIndexes() {
+        if(inhibitionIndexes == null || inhibitionIndexes.length != numColumns) {
+            inhibitionIndexes = new int[numColumns];
+        }
+        return inhibitionIndexes;
+    }
+
+    /**
+     * Returns true if the permanences and topology of this {@code Connections}
+     * object may not be changed, in which case the {@link SpatialPooler} and
+     * {@link TemporalMemory} may only be run with learning off.
+     * @return
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+
     /**
      * Returns the mapping of {@link Cell}s to their reverse mapped 
      * {@link Synapse}s.
@@ -1199,6 +1323,27 @@ public class Connections {
         return retVal;
     }
     
+    /**
+     * Reorders the specified {@link Cell}'s receptor {@link Synapse}s by their
+     * indexes, which is the order in which they were created. Used when restoring
+     * synapses in an order other than that of their creation.
+     * 
+     * @param cell      the {@link Cell} whose receptor synapses are reordered
+     */
+    void sortReceptorSynapses(Cell cell) {
+        Set<Synapse> receptors = getReceptorSynapses(cell);
+        if(receptors.size() < 2) return;
+        
+        Synapse[] sorted = receptors.toArray(new Synapse[receptors.size()]);
+        Arrays.sort(sorted, new Comparator<Synapse>() {
+            @Override public int compare(Synapse a, Synapse b) {
+                return Integer.compare(a.getIndex(), b.getIndex());
+            }
+        });
+        receptors.clear();
+        receptors.addAll(Arrays.asList(sorted));
+    }
+    
     /**
      * Returns the mapping of {@link Cell}s to their {@link DistalDendrite}s.
      * 
@@ -1244,7 +1389,64 @@ public class Connections {
         
         return retVal;
     }
-    
+
+    /**
+     * Creates a new {@link DistalDendrite} owned by the specified {@link Cell}
+     * and adds it to that cell's list of segments.
+     *
+     * @param cell      the owner of the new segment
+     * @param index     the index of the new {@link DistalDendrite}
+     * @return          the newly created {@link DistalDendrite}
+     */
+    public DistalDendrite createSegment(Cell cell, int index) {
+        DistalDendrite dd = new DistalDendrite(cell, index);
+        getSegments(cell).add(dd);
+
+        return dd;
+    }
+
+    /**
+     * Creates a new {@link Synapse} on the specified {@link DistalDendrite}
+     * which will be activated by the specified source {@link Cell}.
+     *
+     * @param segment       the segment which will own the new synapse
+     * @param sourceCell    the source cell which will activate the new {@code Synapse}
+     * @param permanence    the new {@link Synapse}'s initial permanence.
+     * @param index         the new {@link Synapse}'s index.
+     * @return              the newly created {@link Synapse}
+     */
+    public Synapse createSynapse(DistalDendrite segment, Cell sourceCell, double permanence, int index) {
+        Pool pool = new Pool(1);
+        Synapse s = segment.createSynapse(this, getSynapses(segment), sourceCell, pool, index, sourceCell.getIndex());
+        pool.setPermanence(this, s, permanence);
+        return s;
+    }
+
+    /**
+     * Removes the specified {@link DistalDendrite} and all of its
+     * {@link Synapse}s from this {@code Connections} object.
+     *
+     * @param segment   the segment to destroy
+     */
+    public void destroySegment(DistalDendrite segment) {
+        for(Synapse s : new ArrayList<Synapse>(getSynapses(segment))) {
+            destroySynapse(s);
+        }
+        synapses.remove(segment);
+        getSegments(segment.getParentCell()).remove(segment);
+    }
+
+    /**
+     * Removes the specified distal {@link Synapse} from its owning segment
+     * and from its source cell's receptor synapses.
+     *
+     * @param synapse   the synapse to destroy
+     */
+    public void destroySynapse(Synapse synapse) {
+        getSynapses((DistalDendrite)synapse.getSegment()).remove(synapse);
+        getReceptorSynapses(synapse.getSourceCell()).remove(synapse);
+    }
+
     /**
      * Returns the mapping of {@link ProximalDendrite}s to their {@link Synapse}s.
      * 
@@ -0,0 +1,715 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Pool;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.BeanUtil;
+import org.numenta.nupic.util.BeanUtil.PropertyInfo;
+import org.numenta.nupic.util.MersenneTwister;
+import org.numenta.nupic.util.SparseBinaryMatrix;
+
+/**
+ * Writes the state of a trained {@link Connections} object to a stream in a
+ * compact, versioned binary format, and restores it from that format. The
+ * snapshot holds the {@link Parameters}, the state of the random number
+ * generator (if it is a {@link MersenneTwister}), the potential pools, permanences,
+ * connected counts and duty cycles of the {@link SpatialPooler}, and the distal
+ * segments, synapses and active state of the {@link TemporalMemory}.
+ * 
+ * Indexes are written as variable length integers, mostly as differences to
+ * the previous index, and permanences may be written with float precision.
+ * The body of the snapshot may be compressed. Both writing and reading stream
+ * through the model, without building an intermediate representation of it.
+ * 
+ * Segments and synapses are written cell by cell and segment by segment, and
+ * are referred to by their position in those lists, so that no map of the
+ * model's objects is built. All lists and sets of the restored object iterate
+ * in the same order as the original's.
+ * The state of {@link TemporalMemory#computeIndexed(Connections, int[], boolean)}
+ * is not part of the snapshot, and starts out reset.
+ * 
+ * Usage:
+ * <pre>
+ * ConnectionsSnapshot.write(connections, out);
+ * ...
+ * Connections restored = ConnectionsSnapshot.read(new BufferedInputStream(in));
+ * </pre>
+ */
+public class ConnectionsSnapshot {
+    /** The first bytes of every snapshot: "HTMC" */
+    public static final int MAGIC = 0x48544D43;
+    /** The version of the format written */
+    public static final int VERSION = 1;
+    
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_FLOAT_PERMANENCES = 2;
+    
+    private static final int SECTION_SPATIAL = 1;
+    private static final int SECTION_TEMPORAL = 2;
+    
+    private static final byte TYPE_INT = 'I';
+    private static final byte TYPE_DOUBLE = 'D';
+    private static final byte TYPE_BOOLEAN = 'Z';
+    private static final byte TYPE_INT_ARRAY = 'A';
+    
+    private ConnectionsSnapshot() {}
+    
+    /**
+     * Writes the specified {@link Connections} uncompressed, with
+     * float precision permanences.
+     * 
+     * @param c     the {@link Connections} to write
+     * @param out   the stream to write to, which is flushed but not closed
+     * @throws IOException
+     */
+    public static void write(Connections c, OutputStream out) throws IOException {
+        write(c, out, false, true);
+    }
+    
+    /**
+     * Writes the specified {@link Connections} to the specified stream.
+     * 
+     * @param c                     the {@link Connections} to write
+     * @param out                   the stream to write to, which is flushed but not closed
+     * @param compress              whether to compress the snapshot
+     * @param floatPermanences      whether to write permanences with float rather
+     *                              than double precision, which halves their size
+     *                              but restores them rounded to the nearest float
+     * @throws IOException
+     */
+    public static void write(Connections c, OutputStream out, boolean compress, boolean floatPermanences) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte((compress ? FLAG_COMPRESSED : 0) | (floatPermanences ? FLAG_FLOAT_PERMANENCES : 0));
+        header.flush();
+        
+        DeflaterOutputStream deflater = compress ? new DeflaterOutputStream(new NonClosingOutputStream(out), true) : null;
+        Writer w = new Writer(new DataOutputStream(new BufferedOutputStream(
+            compress ? deflater : new NonClosingOutputStream(out), 1 << 16)), floatPermanences);
+        
+        w.writeParameters(c);
+        w.writeRandom(c);
+        w.out.writeInt(c.getIterationNum());
+        w.out.writeInt(c.iterationLearnNum);
+        w.writeVarInt(c.getUpdatePeriod());
+        w.writeVarInt(c.getSegmentCount());
+        w.writeVarInt(c.getSynapseCount());
+        
+        boolean spatial = c.getPotentialPools() != null && c.getConnectedCounts() != null;
+        boolean temporal = c.getCells() != null;
+        w.out.writeByte((spatial ? SECTION_SPATIAL : 0) | (temporal ? SECTION_TEMPORAL : 0));
+        if(spatial) {
+            w.writeSpatial(c);
+        }
+        if(temporal) {
+            w.writeTemporal(c);
+        }
+        w.out.writeInt(MAGIC);
+        w.out.flush();
+        if(compress) {
+            deflater.finish();
+        }
+        out.flush();
+    }
+    
+    /**
+     * Restores a new {@link Connections} object from the specified stream.
+     * 
+     * @param in    the stream holding the snapshot, which should be buffered
+     * @return  the restored {@link Connections}
+     * @throws IOException  if the stream doesn't hold a snapshot of a supported version
+     */
+    public static Connections read(InputStream in) throws IOException {
+        return read(in, new Connections());
+    }
+    
+    /**
+     * Restores the specified newly constructed {@link Connections} (or subclass,
+     * such as {@link FlatConnections}) from the specified stream. The stream is
+     * read up to the end of the snapshot and no further, so that any data
+     * following the snapshot may be read from it next. It is read in small
+     * pieces, and should therefore be buffered by the caller.
+     * 
+     * @param in    the stream holding the snapshot, which should be buffered
+     * @param c     the empty {@link Connections} object to restore
+     * @return  the restored {@link Connections}
+     * @throws IOException  if the stream doesn't hold a snapshot of a supported version
+     */
+    public static Connections read(InputStream in, Connections c) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if(header.readInt() != MAGIC) {
+            throw new IOException("Not a Connections snapshot");
+        }
+        int version = header.readUnsignedByte();
+        if(version != VERSION) {
+            throw new IOException("Unsupported snapshot version: " + version);
+        }
+        int flags = header.readUnsignedByte();
+        boolean compressed = (flags & FLAG_COMPRESSED) != 0;
+        InflatingInputStream inflater = compressed ? new InflatingInputStream(in) : null;
+        InputStream body = compressed ? new BufferedInputStream(inflater, 1 << 16) : in;
+        Reader r = new Reader(new DataInputStream(body), (flags & FLAG_FLOAT_PERMANENCES) != 0);
+        
+        r.readParameters(c);
+        MersenneTwister random = r.readRandom();
+        c.setIterationNum(r.in.readInt());
+        c.iterationLearnNum = r.in.readInt();
+        c.setUpdatePeriod(r.readVarInt());
+        int segmentCount = r.readVarInt();
+        int synapseCount = r.readVarInt();
+        
+        int sections = r.in.readUnsignedByte();
+        if((sections & SECTION_SPATIAL) != 0) {
+            r.readSpatial(c);
+        }
+        if((sections & SECTION_TEMPORAL) != 0) {
+            r.readTemporal(c);
+        }
+        if(r.in.readInt() != MAGIC) {
+            throw new IOException("Corrupt Connections snapshot");
+        }
+        if(compressed) {
+            // Reaches the end of the compressed data, which hands back what was read past it
+            boolean atEnd = body.read() == -1;
+            inflater.end();
+            if(!atEnd) {
+                throw new IOException("Corrupt Connections snapshot");
+            }
+        }
+        
+        c.setSegmentCount(segmentCount);
+        c.setSynapseCount(synapseCount);
+        if(random != null) {
+            c.setRandom(random);
+        }
+        return c;
+    }
+    
+    /**
+     * Writes the sections of a snapshot
+     */
+    static class Writer {
+        private final DataOutputStream out;
+        private final boolean floatPermanences;
+        
+        Writer(DataOutputStream out, boolean floatPermanences) {
+            this.out = out;
+            this.floatPermanences = floatPermanences;
+        }
+        
+        void writeVarInt(int value) throws IOException {
+            while((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+        
+        /** Writes a signed value, such as a difference, in as few bytes as its magnitude needs */
+        void writeSignedVarInt(int value) throws IOException {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+        
+        void writePermanence(double permanence) throws IOException {
+            if(floatPermanences) {
+                out.writeFloat((float)permanence);
+            }else{
+                out.writeDouble(permanence);
+            }
+        }
+        
+        void writeDoubles(double[] values) throws IOException {
+            writeVarInt(values == null ? 0 : values.length + 1);
+            if(values == null) return;
+            for(double d : values) {
+                out.writeDouble(d);
+            }
+        }
+        
+        /**
+         * Writes each parameter of {@link KEY} which may be read from, and
+         * written to, the {@link Connections}, by name.
+         */
+        void writeParameters(Connections c) throws IOException {
+            BeanUtil beanUtil = BeanUtil.getInstance();
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            for(KEY key : KEY.values()) {
+                PropertyInfo info = beanUtil.getPropertyInfo(c, key.getFieldName());
+                if(info == null || info.getReadMethod() == null || info.getWriteMethod() == null) continue;
+                Object value = beanUtil.getSimpleProperty(c, key.getFieldName());
+                if(value instanceof Integer || value instanceof Double || 
+                    value instanceof Boolean || value instanceof int[]) {
+                    values.put(key.getFieldName(), value);
+                }
+            }
+            writeVarInt(values.size());
+            for(Map.Entry<String, Object> entry : values.entrySet()) {
+                out.writeUTF(entry.getKey());
+                Object value = entry.getValue();
+                if(value instanceof Integer) {
+                    out.writeByte(TYPE_INT);
+                    out.writeInt((Integer)value);
+                }else if(value instanceof Double) {
+                    out.writeByte(TYPE_DOUBLE);
+                    out.writeDouble((Double)value);
+                }else if(value instanceof Boolean) {
+                    out.writeByte(TYPE_BOOLEAN);
+                    out.writeBoolean((Boolean)value);
+                }else{
+                    int[] array = (int[])value;
+                    out.writeByte(TYPE_INT_ARRAY);
+                    writeVarInt(array.length);
+                    for(int i : array) {
+                        out.writeInt(i);
+                    }
+                }
+            }
+        }
+        
+        void writeRandom(Connections c) throws IOException {
+            boolean hasState = c.getRandom() instanceof MersenneTwister;
+            out.writeBoolean(hasState);
+            if(hasState) {
+                ((MersenneTwister)c.getRandom()).writeState(out);
+            }
+        }
+        
+        void writeSpatial(Connections c) throws IOException {
+            int numColumns = c.getNumColumns();
+            writeVarInt(numColumns);
+            writeVarInt(c.getNumInputs());
+            for(int i = 0;i < numColumns;i++) {
+                List<Synapse> synapses = c.getSynapses(c.getColumn(i).getProximalDendrite());
+                writeVarInt(synapses.isEmpty() ? 0 : synapses.get(0).getIndex());
+                writeVarInt(synapses.size());
+                int previous = 0;
+                for(Synapse s : synapses) {
+                    writeSignedVarInt(s.getInputIndex() - previous);
+                    previous = s.getInputIndex();
+                }
+                for(Synapse s : synapses) {
+                    writePermanence(s.getPermanence());
+                }
+            }
+            
+            SparseBinaryMatrix connectedCounts = c.getConnectedCounts();
+            for(int i = 0;i < numColumns;i++) {
+                int[] row = (int[])connectedCounts.getSlice(i);
+                int count = 0;
+                for(int bit : row) {
+                    count += bit;
+                }
+                writeVarInt(count);
+                for(int j = 0, previous = 0;j < row.length;j++) {
+                    if(row[j] == 0) continue;
+                    writeVarInt(j - previous);
+                    previous = j;
+                }
+                writeVarInt(connectedCounts.getTrueCount(i));
+            }
+            
+            writeDoubles(c.getTieBreaker());
+            writeDoubles(c.getOverlapDutyCycles());
+            writeDoubles(c.getActiveDutyCycles());
+            writeDoubles(c.getMinOverlapDutyCycles());
+            writeDoubles(c.getMinActiveDutyCycles());
+            writeDoubles(c.getBoostFactors());
+        }
+        
+        void writeTemporal(Connections c) throws IOException {
+            Cell[] cells = c.getCells();
+            writeVarInt(cells.length);
+            
+            int previousSegment = 0;
+            int previousSynapse = 0;
+            for(Cell cell : cells) {
+                List<DistalDendrite> segments = c.getSegments(cell);
+                writeVarInt(segments.size());
+                for(DistalDendrite dd : segments) {
+                    writeSignedVarInt(dd.getIndex() - previousSegment);
+                    previousSegment = dd.getIndex();
+                    List<Synapse> synapses = c.getSynapses(dd);
+                    writeVarInt(synapses.size());
+                    for(Synapse s : synapses) {
+                        writeVarInt(s.getSourceCell().getIndex());
+                        writeSignedVarInt(s.getIndex() - previousSynapse);
+                        writePermanence(s.getPermanence());
+                        previousSynapse = s.getIndex();
+                    }
+                }
+            }
+            
+            writeCells(c.getActiveCells());
+            writeCells(c.getWinnerCells());
+            writeCells(c.getPredictiveCells());
+            writeVarInt(c.getPredictedColumns().size());
+            for(Column column : c.getPredictedColumns()) {
+                writeVarInt(column.getIndex());
+            }
+            writeSegments(c, c.getActiveSegments());
+            writeSegments(c, c.getLearningSegments());
+            Map<DistalDendrite, Set<Synapse>> activeSynapses = c.getActiveSynapsesForSegment();
+            writeSegments(c, activeSynapses.keySet());
+            for(Map.Entry<DistalDendrite, Set<Synapse>> entry : activeSynapses.entrySet()) {
+                List<Synapse> synapses = c.getSynapses(entry.getKey());
+                writeVarInt(entry.getValue().size());
+                for(Synapse s : entry.getValue()) {
+                    writeVarInt(position(synapses, s));
+                }
+            }
+        }
+        
+        void writeCells(Collection<Cell> cells) throws IOException {
+            writeVarInt(cells.size());
+            for(Cell cell : cells) {
+                writeVarInt(cell.getIndex());
+            }
+        }
+        
+        /**
+         * Writes each segment as the index of its cell and its position on the cell
+         */
+        void writeSegments(Connections c, Collection<DistalDendrite> segments) throws IOException {
+            writeVarInt(segments.size());
+            for(DistalDendrite dd : segments) {
+                writeVarInt(dd.getParentCell().getIndex());
+                writeVarInt(position(c.getSegments(dd.getParentCell()), dd));
+            }
+        }
+        
+        /**
+         * Returns the position of the element in the list, walking
+         * it with an iterator, which is efficient for all views.
+         */
+        <T> int position(List<T> list, T element) {
+            int position = 0;
+            for(T t : list) {
+                if(t.equals(element)) return position;
+                position++;
+            }
+            throw new IllegalArgumentException(element + " is not held by the Connections");
+        }
+    }
+    
+    /**
+     * Reads the sections of a snapshot
+     */
+    static class Reader {
+        private final DataInputStream in;
+        private final boolean floatPermanences;
+        
+        Reader(DataInputStream in, boolean floatPermanences) {
+            this.in = in;
+            this.floatPermanences = floatPermanences;
+        }
+        
+        int readVarInt() throws IOException {
+            int value = 0;
+            for(int shift = 0;shift < 35;shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt Connections snapshot");
+        }
+        
+        int readSignedVarInt() throws IOException {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+        
+        double readPermanence() throws IOException {
+            return floatPermanences ? in.readFloat() : in.readDouble();
+        }
+        
+        double[] readDoubles() throws IOException {
+            int length = readVarInt() - 1;
+            if(length < 0) return null;
+            double[] values = new double[length];
+            for(int i = 0;i < length;i++) {
+                values[i] = in.readDouble();
+            }
+            return values;
+        }
+        
+        void readParameters(Connections c) throws IOException {
+            BeanUtil beanUtil = BeanUtil.getInstance();
+            int count = readVarInt();
+            for(int i = 0;i < count;i++) {
+                String name = in.readUTF();
+                Object value;
+                byte type = in.readByte();
+                switch(type) {
+                    case TYPE_INT: value = in.readInt(); break;
+                    case TYPE_DOUBLE: value = in.readDouble(); break;
+                    case TYPE_BOOLEAN: value = in.readBoolean(); break;
+                    case TYPE_INT_ARRAY: {
+                        int[] array = new int[readVarInt()];
+                        for(int j = 0;j < array.length;j++) {
+                            array[j] = in.readInt();
+                        }
+                        value = array;
+                        break;
+                    }
+                    default: throw new IOException("Unknown parameter type: " + type);
+                }
+                beanUtil.setSimpleProperty(c, name, value);
+            }
+        }
+        
+        MersenneTwister readRandom() throws IOException {
+            if(!in.readBoolean()) return null;
+            MersenneTwister random = new MersenneTwister();
+            random.readState(in);
+            return random;
+        }
+        
+        void readSpatial(Connections c) throws IOException {
+            new SpatialPooler().initMatrices(c);
+            int numColumns = readVarInt();
+            int numInputs = readVarInt();
+            if(numColumns != c.getNumColumns() || numInputs != c.getNumInputs()) {
+                throw new IOException("Corrupt Connections snapshot");
+            }
+            for(int i = 0;i < numColumns;i++) {
+                Column column = c.getColumn(i);
+                c.setSynapseCount(readVarInt());
+                int[] inputIndexes = new int[readVarInt()];
+                for(int j = 0, previous = 0;j < inputIndexes.length;j++) {
+                    inputIndexes[j] = previous += readSignedVarInt();
+                }
+                Pool pool = column.createPotentialPool(c, inputIndexes);
+                c.getPotentialPools().set(i, pool);
+                for(Synapse s : c.getSynapses(column.getProximalDendrite())) {
+                    s.setPermanence(c, readPermanence());
+                }
+            }
+            
+            SparseBinaryMatrix connectedCounts = c.getConnectedCounts();
+            for(int i = 0;i < numColumns;i++) {
+                int count = readVarInt();
+                for(int j = 0, input = 0;j < count;j++) {
+                    connectedCounts.set(1, i, input += readVarInt());
+                }
+                connectedCounts.setTrueCount(i, readVarInt());
+            }
+            
+            c.setTieBreaker(readDoubles());
+            c.setOverlapDutyCycles(readDoubles());
+            c.setActiveDutyCycles(readDoubles());
+            c.setMinOverlapDutyCycles(readDoubles());
+            c.setMinActiveDutyCycles(readDoubles());
+            c.setBoostFactors(readDoubles());
+        }
+        
+        void readTemporal(Connections c) throws IOException {
+            new TemporalMemory().init(c);
+            Cell[] cells = c.getCells();
+            if(readVarInt() != cells.length) {
+                throw new IOException("Corrupt Connections snapshot");
+            }
+            
+            int segmentIndex = 0;
+            int synapseIndex = 0;
+            for(Cell cell : cells) {
+                for(int i = readVarInt();i > 0;i--) {
+                    DistalDendrite dd = c.createSegment(cell, segmentIndex += readSignedVarInt());
+                    for(int j = readVarInt();j > 0;j--) {
+                        Cell sourceCell = cells[readVarInt()];
+                        synapseIndex += readSignedVarInt();
+                        c.createSynapse(dd, sourceCell, readPermanence(), synapseIndex);
+                    }
+                }
+            }
+            // Synapses were created segment by segment rather than in the order of
+            // their indexes, in which the receptor synapses of each cell were held
+            for(Cell cell : cells) {
+                c.sortReceptorSynapses(cell);
+            }
+            
+            c.setActiveCells(readCells(cells));
+            c.setWinnerCells(readCells(cells));
+            c.setPredictiveCells(readCells(cells));
+            Set<Column> predictedColumns = new LinkedHashSet<Column>();
+            for(int i = readVarInt();i > 0;i--) {
+                predictedColumns.add(c.getColumn(readVarInt()));
+            }
+            c.setPredictedColumns(predictedColumns);
+            c.setActiveSegments(readSegments(c, cells));
+            c.setLearningSegments(readSegments(c, cells));
+            Map<DistalDendrite, Set<Synapse>> activeSynapses = new LinkedHashMap<DistalDendrite, Set<Synapse>>();
+            for(DistalDendrite dd : readSegments(c, cells)) {
+                List<Synapse> synapses = c.getSynapses(dd);
+                Set<Synapse> set = new LinkedHashSet<Synapse>();
+                for(int i = readVarInt();i > 0;i--) {
+                    set.add(synapses.get(readVarInt()));
+                }
+                activeSynapses.put(dd, set);
+            }
+            c.setActiveSynapsesForSegment(activeSynapses);
+        }
+        
+        Set<Cell> readCells(Cell[] cells) throws IOException {
+            Set<Cell> set = new LinkedHashSet<Cell>();
+            for(int i = readVarInt();i > 0;i--) {
+                set.add(cells[readVarInt()]);
+            }
+            return set;
+        }
+        
+        Set<DistalDendrite> readSegments(Connections c, Cell[] cells) throws IOException {
+            Set<DistalDendrite> set = new LinkedHashSet<DistalDendrite>();
+            for(int i = readVarInt();i > 0;i--) {
+                Cell cell = cells[readVarInt()];
+                set.add(c.getSegments(cell).get(readVarInt()));
+            }
+            return set;
+        }
+    }
+    
+    /**
+     * Inflates the compressed body of a snapshot without consuming the caller's
+     * stream beyond its end. Compressed data is read in blocks when the stream
+     * supports {@link InputStream#mark(int)}, in which case the bytes read past
+     * the end are handed back, and one byte at a time otherwise.
+     */
+    private static class InflatingInputStream extends InputStream {
+        private final InputStream in;
+        private final Inflater inflater = new Inflater();
+        private final byte[] input;
+        private int inputLength;
+        private boolean handedBack;
+        
+        InflatingInputStream(InputStream in) {
+            this.in = in;
+            this.input = new byte[in.markSupported() ? 1 << 13 : 1];
+        }
+        
+        @Override public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+        
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            try {
+                while(true) {
+                    int n = inflater.inflate(b, off, len);
+                    if(inflater.finished()) {
+                        handBack();
+                        return n == 0 ? -1 : n;
+                    }
+                    if(n > 0) return n;
+                    if(inflater.needsDictionary()) {
+                        throw new IOException("Corrupt Connections snapshot");
+                    }
+                    if(inflater.needsInput()) {
+                        fill();
+                    }
+                }
+            }catch(DataFormatException e) {
+                throw new IOException("Corrupt Connections snapshot", e);
+            }
+        }
+        
+        private void fill() throws IOException {
+            if(input.length > 1) {
+                in.mark(input.length);
+            }
+            inputLength = in.read(input, 0, input.length);
+            if(inputLength == -1) {
+                throw new EOFException("Unexpected end of Connections snapshot");
+            }
+            inflater.setInput(input, 0, inputLength);
+        }
+        
+        /**
+         * Rewinds the caller's stream to just past the compressed data
+         */
+        private void handBack() throws IOException {
+            if(handedBack) return;
+            handedBack = true;
+            int remaining = inflater.getRemaining();
+            if(remaining > 0) {
+                in.reset();
+                for(long skip = inputLength - remaining;skip > 0;) {
+                    long skipped = in.skip(skip);
+                    if(skipped <= 0) {
+                        throw new EOFException("Unexpected end of Connections snapshot");
+                    }
+                    skip -= skipped;
+                }
+            }
+        }
+        
+        void end() {
+            inflater.end();
+        }
+    }
+    
+    /**
+     * Lets the streams wrapped around the caller's stream be closed
+     * or finished without closing the caller's stream.
+     */
+    private static class NonClosingOutputStream extends java.io.FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        
+        @Override public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.FlatSynapse;
+import org.numenta.nupic.model.FlatSynapseStore;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.TemporalMemory;
+
+/**
+ * A {@link Connections} object which keeps the distal topology of the
+ * {@link TemporalMemory} (segments, synapses and the reverse mapping from source
+ * cells to synapses) in a {@link FlatSynapseStore} instead of maps of
+ * {@link Synapse} objects. The distal API ({@link #getSegments(Cell)},
+ * {@link #getSynapses(DistalDendrite)} and {@link #getReceptorSynapses(Cell)})
+ * is unchanged, but returns read-only views over the store. Segments and
+ * synapses must therefore be created and destroyed through this object
+ * (or through {@link Cell#createSegment(Connections, int)} and
+ * {@link DistalDendrite#createSynapse(Connections, Cell, double, int)}).
+ *
+ * Permanences of distal synapses are kept with float precision.
+ *
+ * Usage:
+ * <pre>
+ * Connections c = new FlatConnections();
+ * parameters.apply(c);
+ * tm.init(c);
+ * </pre>
+ *
+ * @see FlatSynapseStore
+ */
+public class FlatConnections extends Connections {
+    private FlatSynapseStore store;
+
+    /**
+     * Constructs a new {@code FlatConnections}
+     */
+    public FlatConnections() {}
+
+    /**
+     * Sets the flat array of cells, and creates an empty
+     * {@link FlatSynapseStore} sized to hold them.
+     *
+     * @param cells
+     */
+    @Override
+    public void setCells(Cell[] cells) {
+        super.setCells(cells);
+        store = new FlatSynapseStore(cells);
+    }
+
+    /**
+     * Returns the store holding the distal segments and synapses.
+     * @return
+     */
+    public FlatSynapseStore getSynapseStore() {
+        return store;
+    }
+
+    /**
+     * Returns a read-only view of the {@link Synapse}s which have the specified
+     * {@link Cell} as their source cell.
+     *
+     * @param cell      the {@link Cell} used as a key.
+     * @return          the {@link Synapse}s activated by the specified cell
+     */
+    @Override
+    public Set<Synapse> getReceptorSynapses(Cell cell) {
+        if(cell == null) {
+            throw new IllegalArgumentException("Cell was null");
+        }
+        return store.receptors(cell.getIndex());
+    }
+
+    @Override
+    void sortReceptorSynapses(Cell cell) {
+        store.sortReceptors(cell.getIndex());
+    }
+
+    /**
+     * Returns a read-only view of the specified {@link Cell}'s {@link DistalDendrite}s.
+     *
+     * @param cell      the {@link Cell} used as a key.
+     * @return          the specified cell's segments
+     */
+    @Override
+    public List<DistalDendrite> getSegments(Cell cell) {
+        if(cell == null) {
+            throw new IllegalArgumentException("Cell was null");
+        }
+        return store.segments(cell.getIndex());
+    }
+
+    /**
+     * Returns a read-only view of the specified {@link DistalDendrite}'s {@link Synapse}s.
+     *
+     * @param segment   the {@link DistalDendrite} used as a key.
+     * @return          the specified segment's synapses
+     */
+    @Override
+    public List<Synapse> getSynapses(DistalDendrite segment) {
+        if(segment == null) {
+            throw new IllegalArgumentException("Segment was null");
+        }
+        int seg = store.segmentSlot(segment);
+        return seg == FlatSynapseStore.NIL ? Collections.<Synapse>emptyList() : store.synapses(seg);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DistalDendrite createSegment(Cell cell, int index) {
+        DistalDendrite dd = new DistalDendrite(cell, index);
+        store.createSegment(dd);
+        return dd;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Synapse createSynapse(DistalDendrite segment, Cell sourceCell, double permanence, int index) {
+        int seg = store.segmentSlot(segment);
+        if(seg == FlatSynapseStore.NIL) {
+            throw new IllegalArgumentException("Segment " + segment + " was not created by this Connections object");
+        }
+        return new FlatSynapse(store, store.createSynapse(seg, sourceCell.getIndex(), (float)permanence, index));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroySegment(DistalDendrite segment) {
+        int seg = store.segmentSlot(segment);
+        if(seg == FlatSynapseStore.NIL) {
+            throw new IllegalArgumentException("Segment " + segment + " was not created by this Connections object");
+        }
+        store.destroySegment(seg);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroySynapse(Synapse synapse) {
+        if(!(synapse instanceof FlatSynapse)) {
+            throw new IllegalArgumentException("Synapse " + synapse + " was not created by this Connections object");
+        }
+        store.destroySynapse(((FlatSynapse)synapse).getSlot());
+    }
+}
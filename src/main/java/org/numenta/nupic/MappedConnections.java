@@ -0,0 +1,348 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.MappedSynapseStore;
+import org.numenta.nupic.model.Pool;
+import org.numenta.nupic.model.ProximalDendrite;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MappedFile;
+import org.numenta.nupic.util.MersenneTwister;
+import org.numenta.nupic.util.SparseMatrix;
+import org.numenta.nupic.util.SparseObjectMatrix;
+
+/**
+ * A read-only {@link Connections} object for inference, whose potential pools,
+ * permanences and distal topology are held in a memory mapped model file by a
+ * {@link MappedSynapseStore} instead of on the Java heap. Any number of processes
+ * opening the same file share a single page cached copy of the model, and
+ * opening a model only reads its parameters and per column statistics.
+ *
+ * The proximal API ({@link #getPotentialPools()}, {@link #getSynapses(ProximalDendrite)})
+ * and the distal API ({@link #getSegments(Cell)}, {@link #getSynapses(DistalDendrite)}
+ * and {@link #getReceptorSynapses(Cell)}) return read-only views over the mapped
+ * arrays. The connected matrix, which holds one bit per column and input, is
+ * copied into a heap {@link org.numenta.nupic.util.SparseBinaryMatrix} when
+ * the model is opened, for use by the overlap computation.
+ *
+ * The {@link SpatialPooler} and {@link TemporalMemory} may only be run with
+ * learning off, and segments and synapses may not be created or destroyed.
+ * The temporal memory starts out reset.
+ *
+ * Usage:
+ * <pre>
+ * MappedConnections.write(trainedConnections, file);
+ * ...
+ * Connections c = MappedConnections.open(file);
+ * sp.compute(c, input, activeArray, false, false);
+ * tm.compute(c, activeColumns, false);
+ * </pre>
+ *
+ * @see MappedSynapseStore
+ */
+public class MappedConnections extends Connections {
+    /** The first bytes of every model file: "HTMM" */
+    public static final int MAGIC = 0x48544D4D;
+    /** The version of the format written */
+    public static final int VERSION = 1;
+    
+    private static final int SECTION_SPATIAL = 1;
+    private static final int SECTION_TEMPORAL = 2;
+    
+    private MappedSynapseStore store;
+    
+    private MappedConnections() {}
+    
+    /**
+     * Writes the specified trained {@link Connections} to a model file
+     * which may be opened with {@link #open(File)}.
+     * 
+     * @param c     the {@link Connections} to write
+     * @param file  the file to write to
+     * @throws IOException
+     */
+    public static void write(Connections c, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            boolean spatial = c.getPotentialPools() != null && c.getConnectedCounts() != null;
+            boolean temporal = c.getCells() != null;
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte((spatial ? SECTION_SPATIAL : 0) | (temporal ? SECTION_TEMPORAL : 0));
+            
+            ConnectionsSnapshot.Writer w = new ConnectionsSnapshot.Writer(out, false);
+            w.writeParameters(c);
+            w.writeRandom(c);
+            out.writeInt(c.getIterationNum());
+            out.writeInt(c.iterationLearnNum);
+            w.writeVarInt(c.getUpdatePeriod());
+            w.writeVarInt(c.getSegmentCount());
+            w.writeVarInt(c.getSynapseCount());
+            if(spatial) {
+                w.writeDoubles(c.getTieBreaker());
+                w.writeDoubles(c.getOverlapDutyCycles());
+                w.writeDoubles(c.getActiveDutyCycles());
+                w.writeDoubles(c.getMinOverlapDutyCycles());
+                w.writeDoubles(c.getMinActiveDutyCycles());
+                w.writeDoubles(c.getBoostFactors());
+            }
+            
+            MappedSynapseStore.write(c, out, spatial, temporal);
+        }finally{
+            out.close();
+        }
+    }
+    
+    /**
+     * Maps the specified model file, written by {@link #write(Connections, File)},
+     * read-only into memory and returns the {@link Connections} reading from it.
+     * The file is mapped in regions, so that it may be larger than 2GB. The 
+     * mapping remains valid after the file is closed.
+     * 
+     * @param file  the model file
+     * @return  the read-only {@link Connections}
+     * @throws IOException  if the file isn't a model file of a supported version
+     */
+    public static MappedConnections open(File file) throws IOException {
+        return open(MappedFile.map(file));
+    }
+    
+    /**
+     * Returns the read-only {@link Connections} reading from the specified 
+     * mapped model file.
+     * 
+     * @param file  the mapped model file
+     * @return  the read-only {@link Connections}
+     * @throws IOException  if the file isn't a model file of a supported version
+     */
+    static MappedConnections open(MappedFile file) throws IOException {
+        MappedFile.Input input = file.newInput(0);
+        DataInputStream in = new DataInputStream(input);
+        if(file.size() < 6 || in.readInt() != MAGIC) {
+            throw new IOException("Not a Connections model file");
+        }
+        int version = in.readUnsignedByte();
+        if(version != VERSION) {
+            throw new IOException("Unsupported model file version: " + version);
+        }
+        int sections = in.readUnsignedByte();
+        boolean spatial = (sections & SECTION_SPATIAL) != 0;
+        boolean temporal = (sections & SECTION_TEMPORAL) != 0;
+        
+        MappedConnections c = new MappedConnections();
+        ConnectionsSnapshot.Reader r = new ConnectionsSnapshot.Reader(in, false);
+        r.readParameters(c);
+        MersenneTwister random = r.readRandom();
+        c.setIterationNum(in.readInt());
+        c.iterationLearnNum = in.readInt();
+        c.setUpdatePeriod(r.readVarInt());
+        int segmentCount = r.readVarInt();
+        int synapseCount = r.readVarInt();
+        if(spatial) {
+            new SpatialPooler().initMatrices(c);
+            c.setTieBreaker(r.readDoubles());
+            c.setOverlapDutyCycles(r.readDoubles());
+            c.setActiveDutyCycles(r.readDoubles());
+            c.setMinOverlapDutyCycles(r.readDoubles());
+            c.setMinActiveDutyCycles(r.readDoubles());
+            c.setBoostFactors(r.readDoubles());
+        }
+        if(temporal) {
+            new TemporalMemory().init(c);
+        }
+        
+        c.store = new MappedSynapseStore(c, file, input.position(), spatial, temporal);
+        if(spatial) {
+            c.setPotentialPools(new PoolMatrix(c.store, c.getMemory().getDimensions()));
+            c.store.copyConnectedCounts(c.getConnectedCounts());
+        }
+        c.setSegmentCount(segmentCount);
+        c.setSynapseCount(synapseCount);
+        if(random != null) {
+            c.setRandom(random);
+        }
+        return c;
+    }
+    
+    /**
+     * Returns the store holding the mapped pools, segments and synapses.
+     * @return
+     */
+    public MappedSynapseStore getSynapseStore() {
+        return store;
+    }
+    
+    /**
+     * Returns true, as the mapped model may not be changed.
+     * @return
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+    
+    /**
+     * Returns a read-only view of the specified {@link ProximalDendrite}'s {@link Synapse}s.
+     * 
+     * @param segment   the {@link ProximalDendrite} used as a key.
+     * @return          the specified segment's synapses
+     */
+    @Override
+    public List<Synapse> getSynapses(ProximalDendrite segment) {
+        if(segment == null) {
+            throw new IllegalArgumentException("Segment was null");
+        }
+        return store.proximalSynapses(segment.getIndex());
+    }
+    
+    /**
+     * Returns a read-only view of the {@link Synapse}s which have the specified
+     * {@link Cell} as their source cell.
+     *
+     * @param cell      the {@link Cell} used as a key.
+     * @return          the {@link Synapse}s activated by the specified cell
+     */
+    @Override
+    public Set<Synapse> getReceptorSynapses(Cell cell) {
+        if(cell == null) {
+            throw new IllegalArgumentException("Cell was null");
+        }
+        return store.receptors(cell.getIndex());
+    }
+
+    /**
+     * Returns a read-only view of the specified {@link Cell}'s {@link DistalDendrite}s.
+     *
+     * @param cell      the {@link Cell} used as a key.
+     * @return          the specified cell's segments
+     */
+    @Override
+    public List<DistalDendrite> getSegments(Cell cell) {
+        if(cell == null) {
+            throw new IllegalArgumentException("Cell was null");
+        }
+        return store.segments(cell.getIndex());
+    }
+
+    /**
+     * Returns a read-only view of the specified {@link DistalDendrite}'s {@link Synapse}s.
+     *
+     * @param segment   the {@link DistalDendrite} used as a key.
+     * @return          the specified segment's synapses
+     */
+    @Override
+    public List<Synapse> getSynapses(DistalDendrite segment) {
+        if(segment == null) {
+            throw new IllegalArgumentException("Segment was null");
+        }
+        int seg = store.segmentSlot(segment);
+        if(seg == MappedSynapseStore.NIL) {
+            throw new IllegalArgumentException("Segment " + segment + " is not held by this Connections object");
+        }
+        return store.synapses(seg);
+    }
+    
+    /**
+     * Always throws, as the mapped model is read-only.
+     */
+    @Override
+    public DistalDendrite createSegment(Cell cell, int index) {
+        throw new UnsupportedOperationException("MappedConnections are read-only");
+    }
+    
+    /**
+     * Always throws, as the mapped model is read-only.
+     */
+    @Override
+    public Synapse createSynapse(DistalDendrite segment, Cell sourceCell, double permanence, int index) {
+        throw new UnsupportedOperationException("MappedConnections are read-only");
+    }
+    
+    /**
+     * Always throws, as the mapped model is read-only.
+     */
+    @Override
+    public void destroySegment(DistalDendrite segment) {
+        throw new UnsupportedOperationException("MappedConnections are read-only");
+    }
+    
+    /**
+     * Always throws, as the mapped model is read-only.
+     */
+    @Override
+    public void destroySynapse(Synapse synapse) {
+        throw new UnsupportedOperationException("MappedConnections are read-only");
+    }
+    
+    /**
+     * Read-only matrix of the potential pools of all columns, materialized
+     * from the {@link MappedSynapseStore} on first access.
+     */
+    private static class PoolMatrix extends SparseObjectMatrix<Pool> {
+        private final MappedSynapseStore store;
+        
+        PoolMatrix(MappedSynapseStore store, int[] dimensions) {
+            super(dimensions);
+            this.store = store;
+        }
+        
+        @Override
+        public <S extends SparseMatrix<Pool>> S set(int index, Pool object) {
+            throw new UnsupportedOperationException("MappedConnections are read-only");
+        }
+        
+        @Override
+        public <S extends SparseMatrix<Pool>> S set(int[] coordinates, Pool object) {
+            throw new UnsupportedOperationException("MappedConnections are read-only");
+        }
+        
+        @Override
+        public Pool getObject(int index) {
+            return store.pool(index);
+        }
+        
+        @Override
+        public Pool get(int... coordinates) {
+            return store.pool(computeIndex(coordinates));
+        }
+        
+        @Override
+        public int[] getSparseIndices() {
+            return get1DIndexes();
+        }
+    }
+}
@@ -100,6 +100,7 @@ public class Parameters {
         defaultSpatialParams.put(KEY.DUTY_CYCLE_PERIOD, 1000);
         defaultSpatialParams.put(KEY.MAX_BOOST, 10.0);
         defaultSpatialParams.put(KEY.SP_VERBOSITY, 0);
+        defaultSpatialParams.put(KEY.SP_PARALLELISM, 1);
         DEFAULTS_SPATIAL = Collections.unmodifiableMap(defaultSpatialParams);
         defaultParams.putAll(DEFAULTS_SPATIAL);
 
@@ -189,7 +190,12 @@ public class Parameters {
         MIN_PCT_ACTIVE_DUTY_CYCLE("minPctActiveDutyCycles", Double.class),//TODO add range here?
         DUTY_CYCLE_PERIOD("dutyCyclePeriod", Integer.class),//TODO add range here?
         MAX_BOOST("maxBoost", Double.class), //TODO add range here?
-        SP_VERBOSITY("spVerbosity", Integer.class, 0, 10);
+        SP_VERBOSITY("spVerbosity", Integer.class, 0, 10),
+        /**
+         * Number of threads used by the {@link SpatialPooler} to work on
+         * columns in parallel. 1 computes on the calling thread.
+         */
+        SP_PARALLELISM("spParallelism", Integer.class, 1, null);
 
         private static final Map<String, KEY> fieldMap = new HashMap<>();
 
@@ -807,6 +813,17 @@ public class Parameters {
         paramMap.put(KEY.SP_VERBOSITY, spVerbosity);
     }
 
+    /**
+     * Number of threads used by the {@link SpatialPooler} to compute
+     * overlaps and update permanences in parallel. The results do not
+     * depend on the number of threads. 1 (the default) computes serially.
+     *
+     * @param spParallelism
+     */
+    public void setSpParallelism(int spParallelism) {
+        paramMap.put(KEY.SP_PARALLELISM, spParallelism);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -95,6 +95,7 @@ public abstract class Anomaly {
     public static final String KEY_USE_MOVING_AVG = "useMovingAverage";
     public static final String KEY_WINDOW_SIZE = "windowSize".intern();
     public static final String KEY_IS_WEIGHTED = "isWeighted";
+    public static final String KEY_HISTORIC_WINDOW_SIZE = "historicWindowSize";
     // Configs
     public static final String KEY_DIST = "distribution".intern();
     public static final String KEY_MVG_AVG = "movingAverage".intern();
@@ -172,8 +173,10 @@ public abstract class Anomaly {
                boolean isWeighted = (boolean)params.getOrDefault(KEY_IS_WEIGHTED, false);
                int claLearningPeriod = (int)params.getOrDefault(KEY_LEARNING_PERIOD, VALUE_NONE);
                int estimationSamples = (int)params.getOrDefault(KEY_ESTIMATION_SAMPLES, VALUE_NONE);
+               int historicWindowSize = (int)params.getOrDefault(KEY_HISTORIC_WINDOW_SIZE, VALUE_NONE);
                
-               return new AnomalyLikelihood(useMovingAvg, windowSize, isWeighted, claLearningPeriod, estimationSamples);
+               return new AnomalyLikelihood(useMovingAvg, windowSize, isWeighted, claLearningPeriod, 
+                   estimationSamples, historicWindowSize);
            }
            default: return null;
        }
@@ -182,6 +185,10 @@ public abstract class Anomaly {
     /**
      * The raw anomaly score is the fraction of active columns not predicted.
      * 
+     * Sorted column indices, as produced by the {@link org.numenta.nupic.research.SpatialPooler},
+     * are intersected by a linear merge without allocating. Unsorted indices
+     * are still accepted, at the cost of a hash set.
+     * 
      * @param   activeColumns           an array of active column indices
      * @param   prevPredictedColumns    array of column indices predicted in the 
      *                                  previous step
@@ -192,10 +199,14 @@ public abstract class Anomaly {
         
         int nActiveColumns = activeColumns.length;
         if(nActiveColumns > 0) {
-            // Test whether each element of a 1-D array is also present in a second
-            // array. Sum to get the total # of columns that are active and were
-            // predicted.
-            score = ArrayUtils.in1d(activeColumns, prevPredictedColumns).length;
+            // Count the columns that are active and were predicted.
+            if(prevPredictedColumns == null) {
+                score = 0;
+            }else if(isSorted(activeColumns) && isSorted(prevPredictedColumns)) {
+                score = countSortedIntersection(activeColumns, prevPredictedColumns);
+            }else{
+                score = ArrayUtils.in1d(activeColumns, prevPredictedColumns).length;
+            }
             // Get the percent of active columns that were NOT predicted, that is
             // our anomaly score.
             score = (nActiveColumns - score) / (double)nActiveColumns;
@@ -206,6 +217,76 @@ public abstract class Anomaly {
         return score;
     }
     
+    /**
+     * The raw anomaly score is the fraction of active columns not predicted,
+     * for columns given as bit sets: bit i of word i / 64 is set when column
+     * i is active (or predicted). The arrays may differ in length, missing
+     * words being all zeros.
+     * 
+     * @param   activeColumns           bit set of the active columns
+     * @param   prevPredictedColumns    bit set of the columns predicted in the 
+     *                                  previous step
+     * @return  anomaly score 0..1 
+     */
+    public static double computeRawAnomalyScore(long[] activeColumns, long[] prevPredictedColumns) {
+        int nActiveColumns = 0;
+        int nPredictedActive = 0;
+        for(int i = 0;i < activeColumns.length;i++) {
+            long active = activeColumns[i];
+            nActiveColumns += Long.bitCount(active);
+            if(i < prevPredictedColumns.length) {
+                nPredictedActive += Long.bitCount(active & prevPredictedColumns[i]);
+            }
+        }
+        
+        if(nActiveColumns > 0) {
+            return (nActiveColumns - nPredictedActive) / (double)nActiveColumns;
+        }
+        for(long predicted : prevPredictedColumns) {
+            if(predicted != 0) return 1.0d;
+        }
+        return 0;
+    }
+    
+    /**
+     * Returns true if the specified array is in ascending order
+     * @param a
+     * @return
+     */
+    private static boolean isSorted(int[] a) {
+        for(int i = 1;i < a.length;i++) {
+            if(a[i] < a[i - 1]) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the number of distinct values present in both of the specified
+     * arrays, which must be in ascending order.
+     * 
+     * @param a
+     * @param b
+     * @return
+     */
+    private static int countSortedIntersection(int[] a, int[] b) {
+        int count = 0;
+        int i = 0, j = 0;
+        while(i < a.length && j < b.length) {
+            int x = a[i], y = b[j];
+            if(x < y) {
+                i++;
+            }else if(x > y) {
+                j++;
+            }else{
+                count++;
+                // Skip duplicates of the common value
+                while(++i < a.length && a[i] == x);
+                while(++j < b.length && b[j] == x);
+            }
+        }
+        return count;
+    }
+    
     /**
      * Compute the anomaly score as the percent of active columns not predicted.
      * 
@@ -111,29 +111,75 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 public class AnomalyLikelihood extends Anomaly {
     private static final Logger LOG = LoggerFactory.getLogger(AnomalyLikelihood.class);
     
+    /** Window over which anomaly scores are averaged before estimating their distribution */
+    static final int AVERAGING_WINDOW = 10;
+    /** How often, in records, the distribution is re-estimated */
+    static final int REESTIMATION_PERIOD = 100;
+    /** Variance of the metric values below which the metric is considered flat */
+    static final double FLAT_METRIC_VARIANCE = 1.5e-5;
+    /** Default thresholds of {@link #filterLikelihoods(double[])}, as likelihoods */
+    static final double RED_THRESHOLD = 1.0 - 0.99999;
+    static final double YELLOW_THRESHOLD = 1.0 - 0.999;
+    /** A distribution that makes every anomaly score between 0 and 1 pretty likely */
+    static final Statistic NULL_DISTRIBUTION = new Statistic(0.5, 1e6, 1e3);
+    
     private int claLearningPeriod = 300;
     private int estimationSamples = 300;
+    private int historicWindowSize = 8640;
     private int probationaryPeriod;
     private int iteration;
     private int reestimationPeriod;
     
     private boolean isWeighted;
     
-    private List<Sample> historicalScores = new ArrayList<>();
+    /** Moving average of the anomaly scores over {@link #AVERAGING_WINDOW} */
+    private MovingAverage scoreAverage = new MovingAverage(null, AVERAGING_WINDOW);
+    /** Ring buffer of the averaged anomaly scores of the last historicWindowSize records */
+    private double[] averagedScores;
+    /** Ring buffer of the metric values of the last historicWindowSize records */
+    private double[] values;
+    /** Statistics of the averaged scores held which are past the learning period */
+    private RunningStatistic scoreStatistic = new RunningStatistic();
+    /** Statistics of the metric values held which are past the learning period */
+    private RunningStatistic valueStatistic = new RunningStatistic();
     private AnomalyParams distribution;
     
     public AnomalyLikelihood(boolean useMovingAvg, int windowSize, boolean isWeighted, int claLearningPeriod, int estimationSamples) {
+        this(useMovingAvg, windowSize, isWeighted, claLearningPeriod, estimationSamples, VALUE_NONE);
+    }
+    
+    /**
+     * Constructs a new {@code AnomalyLikelihood}
+     * 
+     * @param useMovingAvg          indicates whether to apply a moving average to the output
+     * @param windowSize            size of the window of the output moving average
+     * @param isWeighted            whether to weight the raw anomaly score by the likelihood
+     * @param claLearningPeriod     number of records during which the model is still learning
+     * @param estimationSamples     number of records used for the first estimate of the distribution
+     * @param historicWindowSize    number of most recent records over which the distribution
+     *                              is estimated
+     */
+    public AnomalyLikelihood(boolean useMovingAvg, int windowSize, boolean isWeighted, int claLearningPeriod, 
+        int estimationSamples, int historicWindowSize) {
+        
         super(useMovingAvg, windowSize);
         
         this.isWeighted = isWeighted;
         this.claLearningPeriod = claLearningPeriod == VALUE_NONE ? this.claLearningPeriod : claLearningPeriod;
         this.estimationSamples = estimationSamples == VALUE_NONE ? this.estimationSamples : estimationSamples;
-        this.probationaryPeriod = claLearningPeriod + estimationSamples;
+        this.historicWindowSize = historicWindowSize == VALUE_NONE ? this.historicWindowSize : historicWindowSize;
+        this.probationaryPeriod = this.claLearningPeriod + this.estimationSamples;
+        if(this.historicWindowSize < this.estimationSamples) {
+            throw new IllegalArgumentException("historicWindowSize must be >= estimationSamples");
+        }
         // How often we re-estimate the Gaussian distribution. The ideal is to
         // re-estimate every iteration but this is a performance hit. In general the
         // system is not very sensitive to this number as long as it is small
         // relative to the total number of records processed.
-        this.reestimationPeriod = 100;
+        this.reestimationPeriod = REESTIMATION_PERIOD;
+        
+        this.averagedScores = new double[this.historicWindowSize];
+        this.values = new double[this.historicWindowSize];
     }
     
     /**
@@ -168,25 +214,95 @@ public class AnomalyLikelihood extends Anomaly {
             timestamp = new DateTime();
         }
         
-        Sample dataPoint = new Sample(timestamp, value, anomalyScore);
         double likelihoodRetval;
-        if(historicalScores.size() < probationaryPeriod) {
+        if(iteration < probationaryPeriod) {
             likelihoodRetval = 0.5;
         }else{
             if(distribution == null || iteration % reestimationPeriod == 0) {
-                this.distribution = estimateAnomalyLikelihoods(
-                    historicalScores, 10, claLearningPeriod).getParams();
+                this.distribution = estimateFromHistory();
             }
+            Sample dataPoint = new Sample(timestamp, value, anomalyScore);
             AnomalyLikelihoodMetrics metrics = updateAnomalyLikelihoods(Arrays.asList(dataPoint), this.distribution);
             this.distribution = metrics.getParams();
             likelihoodRetval = 1.0 - metrics.getLikelihoods()[0];
         }
-        historicalScores.add(dataPoint);
+        addToHistory(value, anomalyScore);
         this.iteration += 1;
         
         return likelihoodRetval;
     }
     
+    /**
+     * Adds a record to the bounded history, replacing the oldest record once
+     * historicWindowSize records are held, and updates the running statistics
+     * of the records past the learning period. Every historicWindowSize records
+     * the statistics are recomputed from the history, so that rounding errors
+     * from removing records do not build up.
+     * 
+     * @param value             input value
+     * @param anomalyScore      raw anomaly score
+     */
+    private void addToHistory(double value, double anomalyScore) {
+        double averagedScore = scoreAverage.next(anomalyScore);
+        int slot = iteration % historicWindowSize;
+        if(iteration >= historicWindowSize && iteration - historicWindowSize >= claLearningPeriod) {
+            scoreStatistic.remove(averagedScores[slot]);
+            valueStatistic.remove(values[slot]);
+        }
+        averagedScores[slot] = averagedScore;
+        values[slot] = value;
+        if(iteration >= claLearningPeriod) {
+            scoreStatistic.add(averagedScore);
+            valueStatistic.add(value);
+        }
+        
+        if(slot == historicWindowSize - 1) {
+            scoreStatistic.clear();
+            valueStatistic.clear();
+            int first = Math.max(iteration - historicWindowSize + 1, claLearningPeriod);
+            for(int i = first;i <= iteration;i++) {
+                scoreStatistic.add(averagedScores[i % historicWindowSize]);
+                valueStatistic.add(values[i % historicWindowSize]);
+            }
+        }
+    }
+    
+    /**
+     * Estimates the distribution of the averaged anomaly scores held in the
+     * history, skipping those of the learning period. This is the equivalent
+     * of calling {@link #estimateAnomalyLikelihoods(List, int, int)} on the
+     * history, from the running statistics instead of from every record.
+     * 
+     * @return
+     */
+    private AnomalyParams estimateFromHistory() {
+        Statistic distribution;
+        if(scoreStatistic.count() == 0) {
+            distribution = nullDistribution();
+        }else{
+            distribution = estimateNormal(scoreStatistic.mean(), scoreStatistic.variance(), true);
+            
+            // Flat metric values are reported as not anomalous, see estimateAnomalyLikelihoods()
+            if(valueStatistic.variance() < FLAT_METRIC_VARIANCE) {
+                distribution = nullDistribution();
+            }
+        }
+        
+        // Likelihoods of the last records under the new distribution
+        int len = Math.min(iteration, historicWindowSize);
+        double[] likelihoods = new double[Math.min(AVERAGING_WINDOW, len)];
+        for(int i = 0;i < likelihoods.length;i++) {
+            int record = iteration - likelihoods.length + i;
+            likelihoods[i] = normalProbability(averagedScores[record % historicWindowSize], distribution);
+        }
+        
+        return new AnomalyParams(
+            new String[] { "distribution", "movingAverage", "historicalLikelihoods" },
+                distribution, 
+                new MovingAverage(scoreAverage.getSlidingWindow(), scoreAverage.getTotal(), AVERAGING_WINDOW), 
+                likelihoods);
+    }
+    
     /**
      * Given a series of anomaly scores, compute the likelihood for each score. This
      * function should be called once on a bunch of historical anomaly scores for an
@@ -212,7 +328,7 @@ public class AnomalyLikelihood extends Anomaly {
             distribution = nullDistribution();
         }else{
             TDoubleList samples = records.getMetrics();
-            distribution = estimateNormal(samples.toArray(skipRecords, samples.size()), true);
+            distribution = estimateNormal(samples.toArray(skipRecords, samples.size() - skipRecords), true);
             
             /*  Taken from the Python Documentation
                
@@ -224,9 +340,9 @@ public class AnomalyLikelihood extends Anomaly {
              
              */
             samples = records.getSamples();
-            Statistic metricDistribution = estimateNormal(samples.toArray(skipRecords, samples.size()), false);
+            Statistic metricDistribution = estimateNormal(samples.toArray(skipRecords, samples.size() - skipRecords), false);
             
-            if(metricDistribution.variance < 1.5e-5) {
+            if(metricDistribution.variance < FLAT_METRIC_VARIANCE) {
                 distribution = nullDistribution();
             }
         }
@@ -352,6 +468,24 @@ public class AnomalyLikelihood extends Anomaly {
         return filterLikelihoods(likelihoods, 0.99999, 0.999);
     }
     
+    /**
+     * Filters one likelihood given the raw likelihood preceding it. A likelihood
+     * in the red zone is only kept if the previous one was not, otherwise it is
+     * replaced by the yellow threshold.
+     * 
+     * @param previous          the previous raw likelihood
+     * @param likelihood        the raw likelihood to filter
+     * @param redThreshold      1 - the red threshold of {@link #filterLikelihoods(double[], double, double)}
+     * @param yellowThreshold   1 - the yellow threshold of {@link #filterLikelihoods(double[], double, double)}
+     * @return
+     */
+    static double filterLikelihood(double previous, double likelihood, double redThreshold, double yellowThreshold) {
+        if(likelihood <= redThreshold && previous <= redThreshold) {
+            return yellowThreshold;
+        }
+        return likelihood;
+    }
+    
     /**
      * Filter the list of raw (pre-filtered) likelihoods so that we only preserve
      * sharp increases in likelihood. 'likelihoods' can be a numpy array of floats or
@@ -371,19 +505,7 @@ public class AnomalyLikelihood extends Anomaly {
         filteredLikelihoods[0] = likelihoods[0];
         
         for(int i = 0;i < likelihoods.length - 1;i++) {
-            double v = likelihoods[i + 1];
-            if(v <= redThreshold) {
-                // If value is in redzone
-                if(likelihoods[i] > redThreshold) {
-                    // Previous value is not in redzone, so leave as-is
-                    filteredLikelihoods[i + 1] = v;
-                }else{
-                    filteredLikelihoods[i + 1] = yellowThreshold;
-                }
-            }else{
-                // Value is below the redzone, so leave as-is
-                filteredLikelihoods[i + 1] = v;
-            }
+            filteredLikelihoods[i + 1] = filterLikelihood(likelihoods[i], likelihoods[i + 1], redThreshold, yellowThreshold);
         }
         
         return filteredLikelihoods;
@@ -441,7 +563,20 @@ public class AnomalyLikelihood extends Anomaly {
     public Statistic estimateNormal(double[] sampleData, boolean performLowerBoundCheck) {
         double d = ArrayUtils.average(sampleData);
         double v = ArrayUtils.variance(sampleData, d);
-                
+        
+        return estimateNormal(d, v, performLowerBoundCheck);
+    }
+    
+    /**
+     * A Map containing the parameters of a normal distribution with the
+     * specified mean and variance.
+     * 
+     * @param d                         the mean
+     * @param v                         the variance
+     * @param performLowerBoundCheck
+     * @return
+     */
+    static Statistic estimateNormal(double d, double v, boolean performLowerBoundCheck) {
         if(performLowerBoundCheck) {
             if(d < 0.03) {
                 d = 0.03;
@@ -467,7 +602,7 @@ public class AnomalyLikelihood extends Anomaly {
         if(LOG.isDebugEnabled()) {
             LOG.debug("Returning nullDistribution");
         }
-        return new Statistic(0.5, 1e6, 1e3);
+        return NULL_DISTRIBUTION;
     }
     
     /**
@@ -494,14 +629,27 @@ public class AnomalyLikelihood extends Anomaly {
      * @return
      */
     public double normalProbability(double x, Statistic s) {
+        return normalProbability(x, s.mean, s.stdev);
+    }
+    
+    /**
+     * Given the normal distribution with the specified mean and standard
+     * deviation, return the probability of getting samples > x
+     * 
+     * @param x
+     * @param mean
+     * @param stdev
+     * @return
+     */
+    static double normalProbability(double x, double mean, double stdev) {
         // Distribution is symmetrical around mean
-        if(x < s.mean) {
-            double xp = 2*s.mean - x ;
-            return 1.0 - normalProbability(xp, s);
+        if(x < mean) {
+            double xp = 2*mean - x ;
+            return 1.0 - normalProbability(xp, mean, stdev);
         }
         
         // How many standard deviations above the mean are we - scaled by 10X for table
-        double xs = 10*(x - s.mean) / s.stdev;
+        double xs = 10*(x - mean) / stdev;
         
         xs = Math.round(xs);
         if(xs > 70) {
@@ -561,6 +709,68 @@ public class AnomalyLikelihood extends Anomaly {
     
     
     
+    /////////////////////////////////////////////////////////////////////////////
+    //                   RunningStatistic Class Definition                     //
+    /////////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Mean and variance of a window of values, maintained with Welford's
+     * algorithm as values are added to and removed from the window.
+     */
+    private static final class RunningStatistic {
+        private int count;
+        private double mean;
+        /** Sum of the squared differences from the mean */
+        private double m2;
+        
+        void add(double x) {
+            count++;
+            double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+        }
+        
+        /**
+         * Removes a value previously added
+         * @param x
+         */
+        void remove(double x) {
+            if(count == 1) {
+                clear();
+                return;
+            }
+            count--;
+            double delta = x - mean;
+            mean -= delta / count;
+            m2 -= delta * (x - mean);
+            if(m2 < 0) m2 = 0;
+        }
+        
+        void clear() {
+            count = 0;
+            mean = 0;
+            m2 = 0;
+        }
+        
+        int count() {
+            return count;
+        }
+        
+        double mean() {
+            return mean;
+        }
+        
+        /**
+         * Returns the population variance
+         * @return
+         */
+        double variance() {
+            return count == 0 ? 0 : m2 / count;
+        }
+    }
+    
+    
+    
     /////////////////////////////////////////////////////////////////////////////
     //                     AnomalyParams Class Definition                      //
     /////////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,562 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.algorithms;
+
+import static org.numenta.nupic.algorithms.Anomaly.KEY_ESTIMATION_SAMPLES;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_HISTORIC_WINDOW_SIZE;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_IS_WEIGHTED;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_LEARNING_PERIOD;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_USE_MOVING_AVG;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_WINDOW_SIZE;
+import static org.numenta.nupic.algorithms.Anomaly.VALUE_NONE;
+import static org.numenta.nupic.algorithms.AnomalyLikelihood.AVERAGING_WINDOW;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.numenta.nupic.util.ParallelRange;
+
+/**
+ * Computes the anomaly likelihoods of many metrics at once, with the same
+ * results as one {@link AnomalyLikelihood} per metric. Instead of a set of
+ * objects per metric, the state of all of the metrics is held in arrays
+ * indexed by metric id (or by metric id times the size of a window, for the
+ * windows of values), so that a metric costs only its raw data.
+ * 
+ * The state held per metric is about 16 * historicWindowSize bytes, for the
+ * averaged anomaly scores and the metric values of its most recent records.
+ * Unlike {@link AnomalyLikelihood}, whose default window of 8640 records would
+ * cost about 138KB per metric, the bank has no default historicWindowSize: it
+ * must be set to suit the number of metrics.
+ * 
+ * Usage:
+ * <pre>
+ * Map&lt;String, Object&gt; params = new HashMap&lt;&gt;();
+ * params.put(Anomaly.KEY_HISTORIC_WINDOW_SIZE, 1000);
+ * AnomalyLikelihoodBank bank = new AnomalyLikelihoodBank(50000, params);
+ * bank.setParallelism(8);
+ * double[] anomalies = bank.computeBatch(metricIds, activeColumns, predictedColumns, values, timestamps);
+ * </pre>
+ * 
+ * @see AnomalyLikelihood
+ */
+public class AnomalyLikelihoodBank {
+    private final int numMetrics;
+    private final boolean useMovingAverage;
+    private final int windowSize;
+    private final boolean isWeighted;
+    private final int claLearningPeriod;
+    private final int probationaryPeriod;
+    private final int historicWindowSize;
+    
+    private int parallelism = 1;
+    private ForkJoinPool forkJoinPool;
+    
+    /** Number of records processed for each metric */
+    private final int[] iterations;
+    /** Time stamp of the last record of each metric */
+    private final long[] timestamps;
+    
+    // Moving average of the anomaly scores, AVERAGING_WINDOW values per metric
+    private final double[] scoreWindows;
+    private final int[] scoreWindowStarts;
+    private final int[] scoreWindowSizes;
+    private final double[] scoreTotals;
+    
+    // Averaged scores and metric values of the last historicWindowSize records
+    private final double[] averagedScores;
+    private final double[] values;
+    
+    // Running statistics of the held records past the learning period
+    private final int[] statCounts;
+    private final double[] scoreMeans;
+    private final double[] scoreM2s;
+    private final double[] valueMeans;
+    private final double[] valueM2s;
+    
+    // Estimated distribution of the averaged anomaly scores
+    private final boolean[] hasDistribution;
+    private final double[] distributionMeans;
+    private final double[] distributionStdevs;
+    
+    // Historical likelihoods, up to AVERAGING_WINDOW per metric
+    private final double[] historicalLikelihoods;
+    private final int[] historicalLikelihoodCounts;
+    
+    // Moving average of the output, windowSize values per metric
+    private final double[] outputWindows;
+    private final int[] outputWindowStarts;
+    private final int[] outputWindowSizes;
+    private final double[] outputTotals;
+    
+    /** Largest length of an array the bank allocates */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    
+    /**
+     * Constructs a new {@code AnomalyLikelihoodBank} for the specified number
+     * of metrics, whose ids are 0 to numMetrics - 1. The params are those of
+     * {@link Anomaly#create(Map)} for an {@link AnomalyLikelihood}, and apply
+     * to every metric, except that {@link Anomaly#KEY_HISTORIC_WINDOW_SIZE}
+     * is required.
+     * 
+     * @param numMetrics    the number of metrics
+     * @param params        the parameters shared by all metrics
+     * @throws IllegalArgumentException if historicWindowSize is not set, or if
+     *         the windows of all metrics do not fit in an array
+     */
+    public AnomalyLikelihoodBank(int numMetrics, Map<String, Object> params) {
+        if(numMetrics < 1) {
+            throw new IllegalArgumentException("numMetrics must be > 0");
+        }
+        this.numMetrics = numMetrics;
+        
+        useMovingAverage = (boolean)params.getOrDefault(KEY_USE_MOVING_AVG, false);
+        windowSize = (int)params.getOrDefault(KEY_WINDOW_SIZE, -1);
+        if(useMovingAverage && windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be > 0, when using moving average.");
+        }
+        isWeighted = (boolean)params.getOrDefault(KEY_IS_WEIGHTED, false);
+        int learningPeriod = (int)params.getOrDefault(KEY_LEARNING_PERIOD, VALUE_NONE);
+        int estimationSamples = (int)params.getOrDefault(KEY_ESTIMATION_SAMPLES, VALUE_NONE);
+        int historicWindow = (int)params.getOrDefault(KEY_HISTORIC_WINDOW_SIZE, VALUE_NONE);
+        
+        // Same defaults as AnomalyLikelihood
+        claLearningPeriod = learningPeriod == VALUE_NONE ? 300 : learningPeriod;
+        estimationSamples = estimationSamples == VALUE_NONE ? 300 : estimationSamples;
+        if(historicWindow == VALUE_NONE) {
+            throw new IllegalArgumentException("historicWindowSize must be set for a bank of metrics");
+        }
+        historicWindowSize = historicWindow;
+        probationaryPeriod = claLearningPeriod + estimationSamples;
+        if(historicWindowSize < estimationSamples) {
+            throw new IllegalArgumentException("historicWindowSize must be >= estimationSamples");
+        }
+        int historyLength = arrayLength(numMetrics, historicWindowSize, "historicWindowSize");
+        int averagingLength = arrayLength(numMetrics, AVERAGING_WINDOW, "AVERAGING_WINDOW");
+        int outputLength = useMovingAverage ? numMetrics : 0;
+        int outputWindowLength = arrayLength(outputLength, Math.max(windowSize, 0), "windowSize");
+        
+        iterations = new int[numMetrics];
+        timestamps = new long[numMetrics];
+        
+        scoreWindows = new double[averagingLength];
+        scoreWindowStarts = new int[numMetrics];
+        scoreWindowSizes = new int[numMetrics];
+        scoreTotals = new double[numMetrics];
+        
+        averagedScores = new double[historyLength];
+        values = new double[historyLength];
+        
+        statCounts = new int[numMetrics];
+        scoreMeans = new double[numMetrics];
+        scoreM2s = new double[numMetrics];
+        valueMeans = new double[numMetrics];
+        valueM2s = new double[numMetrics];
+        
+        hasDistribution = new boolean[numMetrics];
+        distributionMeans = new double[numMetrics];
+        distributionStdevs = new double[numMetrics];
+        
+        historicalLikelihoods = new double[averagingLength];
+        historicalLikelihoodCounts = new int[numMetrics];
+        
+        outputWindows = new double[outputWindowLength];
+        outputWindowStarts = new int[outputLength];
+        outputWindowSizes = new int[outputLength];
+        outputTotals = new double[outputLength];
+    }
+    
+    /**
+     * Returns the length of an array holding the specified number of values
+     * for each metric, so that the offsets of all metrics fit in an int.
+     * 
+     * @param numMetrics    the number of metrics
+     * @param perMetric     the number of values per metric
+     * @param name          the name of the parameter setting perMetric
+     * @return  the length of the array
+     */
+    private static int arrayLength(int numMetrics, int perMetric, String name) {
+        try {
+            int length = Math.multiplyExact(numMetrics, perMetric);
+            if(length <= MAX_ARRAY_LENGTH) {
+                return length;
+            }
+        }catch(ArithmeticException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Too many metrics for " + name + " of " + perMetric + 
+            ": " + numMetrics + " metrics need more than " + MAX_ARRAY_LENGTH + " values");
+    }
+    
+    /**
+     * Returns the number of metrics
+     * @return
+     */
+    public int getNumMetrics() {
+        return numMetrics;
+    }
+    
+    /**
+     * Sets the number of threads {@link #computeBatch(int[], int[][], int[][], double[], long[])}
+     * uses to compute metrics in parallel. A value of 1 (the default)
+     * computes on the calling thread.
+     * 
+     * @param parallelism
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        if(parallelism != this.parallelism && forkJoinPool != null) {
+            forkJoinPool.shutdown();
+            forkJoinPool = null;
+        }
+        this.parallelism = parallelism;
+    }
+    
+    /**
+     * Returns the number of threads used by {@link #computeBatch(int[], int[][], int[][], double[], long[])}
+     * @return
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    private synchronized ForkJoinPool getForkJoinPool() {
+        if(parallelism < 2) return null;
+        if(forkJoinPool == null) {
+            forkJoinPool = new ForkJoinPool(parallelism);
+        }
+        return forkJoinPool;
+    }
+    
+    /**
+     * Returns the time stamp of the last record computed for the specified metric
+     * 
+     * @param metric    the metric id
+     * @return
+     */
+    public long getTimestamp(int metric) {
+        return timestamps[checkMetric(metric)];
+    }
+    
+    /**
+     * Computes the anomaly of a record of the specified metric, as
+     * {@link AnomalyLikelihood#compute(int[], int[], double, long)} does.
+     * Unlike that method, an input value of 0 is accepted.
+     * 
+     * @param metric            the metric id
+     * @param activeColumns     the active columns
+     * @param predictedColumns  the columns predicted at the previous step
+     * @param inputValue        the metric value
+     * @param timestamp         the time stamp of the record
+     * @return  the anomaly
+     */
+    public double compute(int metric, int[] activeColumns, int[] predictedColumns, double inputValue, long timestamp) {
+        checkMetric(metric);
+        timestamps[metric] = timestamp;
+        
+        // First compute raw anomaly score
+        double retVal = Anomaly.computeRawAnomalyScore(activeColumns, predictedColumns);
+        
+        // low likelihood -> high anomaly
+        double probability = anomalyProbability(metric, inputValue, retVal);
+        
+        // Apply weighting if configured
+        retVal = isWeighted ? retVal * (1 - probability) : 1 - probability;
+        
+        // Last, do moving-average if windowSize was specified
+        if(useMovingAverage) {
+            retVal = nextOutputAverage(metric, retVal);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Computes the anomalies of a batch of records, each of which belongs to
+     * the metric at the same index of metricIds. Records of the same metric are
+     * computed in the order they appear in the batch. Records of different
+     * metrics are independent, and are computed in parallel when the
+     * parallelism is greater than 1, with the same results.
+     * 
+     * @param metricIds         the metric id of each record
+     * @param activeColumns     the active columns of each record
+     * @param predictedColumns  the columns predicted at the previous step of each record
+     * @param inputValues       the metric value of each record
+     * @param timestamps        the time stamp of each record
+     * @return  the anomaly of each record
+     */
+    public double[] computeBatch(final int[] metricIds, final int[][] activeColumns, final int[][] predictedColumns, 
+        final double[] inputValues, final long[] timestamps) {
+        
+        final int n = metricIds.length;
+        if(activeColumns.length != n || predictedColumns.length != n || inputValues.length != n || timestamps.length != n) {
+            throw new IllegalArgumentException("All batch arrays must have the same length");
+        }
+        for(int metric : metricIds) {
+            checkMetric(metric);
+        }
+        
+        final double[] results = new double[n];
+        ForkJoinPool pool = getForkJoinPool();
+        if(pool == null || n < 2) {
+            for(int i = 0;i < n;i++) {
+                results[i] = compute(metricIds[i], activeColumns[i], predictedColumns[i], inputValues[i], timestamps[i]);
+            }
+            return results;
+        }
+        
+        // Group the records by lane (metric id modulo the number of lanes), keeping
+        // their order within each lane, so that each metric is only computed on one thread.
+        final int numLanes = Math.min(n, parallelism * 4);
+        final int[] laneStarts = new int[numLanes + 1];
+        for(int metric : metricIds) {
+            laneStarts[metric % numLanes + 1]++;
+        }
+        for(int i = 0;i < numLanes;i++) {
+            laneStarts[i + 1] += laneStarts[i];
+        }
+        final int[] order = new int[n];
+        int[] next = laneStarts.clone();
+        for(int i = 0;i < n;i++) {
+            order[next[metricIds[i] % numLanes]++] = i;
+        }
+        
+        ParallelRange.forEach(pool, numLanes, new ParallelRange.Range() {
+            public void apply(int from, int to) {
+                for(int i = laneStarts[from];i < laneStarts[to];i++) {
+                    int r = order[i];
+                    results[r] = compute(metricIds[r], activeColumns[r], predictedColumns[r], inputValues[r], timestamps[r]);
+                }
+            }
+        });
+        
+        return results;
+    }
+    
+    /**
+     * Returns the probability that the specified anomaly score of a record of
+     * the specified metric represents an anomaly, as
+     * {@link AnomalyLikelihood#anomalyProbability(double, double, org.joda.time.DateTime)} does.
+     * 
+     * @param metric        the metric id
+     * @param value         the metric value
+     * @param anomalyScore  the raw anomaly score
+     * @return
+     */
+    public double anomalyProbability(int metric, double value, double anomalyScore) {
+        checkMetric(metric);
+        int iteration = iterations[metric];
+        
+        boolean probation = iteration < probationaryPeriod;
+        if(!probation && (!hasDistribution[metric] || iteration % AnomalyLikelihood.REESTIMATION_PERIOD == 0)) {
+            estimate(metric);
+        }
+        
+        double averagedScore = nextScoreAverage(metric, anomalyScore);
+        
+        double likelihoodRetval = 0.5;
+        if(!probation) {
+            // Filter the likelihood of this record against the last historical likelihood
+            int offset = metric * AVERAGING_WINDOW;
+            int count = historicalLikelihoodCounts[metric];
+            if(count == 0) {
+                historicalLikelihoods[offset] = 1;
+                count = 1;
+            }
+            double likelihood = AnomalyLikelihood.normalProbability(
+                averagedScore, distributionMeans[metric], distributionStdevs[metric]);
+            double filtered = AnomalyLikelihood.filterLikelihood(
+                historicalLikelihoods[offset + count - 1], likelihood, 
+                    AnomalyLikelihood.RED_THRESHOLD, AnomalyLikelihood.YELLOW_THRESHOLD);
+            
+            // Keep what AnomalyLikelihood#updateAnomalyLikelihoods() keeps of the
+            // historical likelihoods followed by this one
+            historicalLikelihoodCounts[metric] = count + 1 - Math.min(AVERAGING_WINDOW, count + 1);
+            
+            likelihoodRetval = 1.0 - filtered;
+        }
+        
+        addToHistory(metric, value, averagedScore);
+        iterations[metric] = iteration + 1;
+        
+        return likelihoodRetval;
+    }
+    
+    /**
+     * Estimates the distribution of the averaged anomaly scores held for the
+     * specified metric, and the likelihoods of its last records.
+     * 
+     * @param metric    the metric id
+     */
+    private void estimate(int metric) {
+        Statistic distribution;
+        if(statCounts[metric] == 0) {
+            distribution = AnomalyLikelihood.NULL_DISTRIBUTION;
+        }else{
+            double scoreVariance = scoreM2s[metric] / statCounts[metric];
+            distribution = AnomalyLikelihood.estimateNormal(scoreMeans[metric], scoreVariance, true);
+            
+            // Flat metric values are reported as not anomalous
+            if(valueM2s[metric] / statCounts[metric] < AnomalyLikelihood.FLAT_METRIC_VARIANCE) {
+                distribution = AnomalyLikelihood.NULL_DISTRIBUTION;
+            }
+        }
+        hasDistribution[metric] = true;
+        distributionMeans[metric] = distribution.mean;
+        distributionStdevs[metric] = distribution.stdev;
+        
+        int iteration = iterations[metric];
+        int count = Math.min(AVERAGING_WINDOW, Math.min(iteration, historicWindowSize));
+        int offset = metric * AVERAGING_WINDOW;
+        for(int i = 0;i < count;i++) {
+            int record = iteration - count + i;
+            historicalLikelihoods[offset + i] = AnomalyLikelihood.normalProbability(
+                averagedScores[metric * historicWindowSize + record % historicWindowSize], 
+                    distribution.mean, distribution.stdev);
+        }
+        historicalLikelihoodCounts[metric] = count;
+    }
+    
+    /**
+     * Adds a record to the history of the specified metric, replacing its
+     * oldest record once historicWindowSize records are held, and updates the
+     * running statistics as {@link AnomalyLikelihood} does.
+     * 
+     * @param metric            the metric id
+     * @param value             the metric value
+     * @param averagedScore     the averaged anomaly score
+     */
+    private void addToHistory(int metric, double value, double averagedScore) {
+        int iteration = iterations[metric];
+        int offset = metric * historicWindowSize;
+        int slot = offset + iteration % historicWindowSize;
+        if(iteration >= historicWindowSize && iteration - historicWindowSize >= claLearningPeriod) {
+            removeStatistic(metric, averagedScores[slot], values[slot]);
+        }
+        averagedScores[slot] = averagedScore;
+        values[slot] = value;
+        if(iteration >= claLearningPeriod) {
+            addStatistic(metric, averagedScore, value);
+        }
+        
+        if(iteration % historicWindowSize == historicWindowSize - 1) {
+            // Recompute from the history so that rounding errors do not build up
+            statCounts[metric] = 0;
+            scoreMeans[metric] = scoreM2s[metric] = 0;
+            valueMeans[metric] = valueM2s[metric] = 0;
+            int first = Math.max(iteration - historicWindowSize + 1, claLearningPeriod);
+            for(int i = first;i <= iteration;i++) {
+                int s = offset + i % historicWindowSize;
+                addStatistic(metric, averagedScores[s], values[s]);
+            }
+        }
+    }
+    
+    /**
+     * Adds a record to the running statistics (Welford's algorithm)
+     */
+    private void addStatistic(int metric, double score, double value) {
+        int count = ++statCounts[metric];
+        double delta = score - scoreMeans[metric];
+        scoreMeans[metric] += delta / count;
+        scoreM2s[metric] += delta * (score - scoreMeans[metric]);
+        delta = value - valueMeans[metric];
+        valueMeans[metric] += delta / count;
+        valueM2s[metric] += delta * (value - valueMeans[metric]);
+    }
+    
+    /**
+     * Removes a record previously added from the running statistics
+     */
+    private void removeStatistic(int metric, double score, double value) {
+        if(statCounts[metric] == 1) {
+            statCounts[metric] = 0;
+            scoreMeans[metric] = scoreM2s[metric] = 0;
+            valueMeans[metric] = valueM2s[metric] = 0;
+            return;
+        }
+        int count = --statCounts[metric];
+        double delta = score - scoreMeans[metric];
+        scoreMeans[metric] -= delta / count;
+        scoreM2s[metric] = Math.max(0, scoreM2s[metric] - delta * (score - scoreMeans[metric]));
+        delta = value - valueMeans[metric];
+        valueMeans[metric] -= delta / count;
+        valueM2s[metric] = Math.max(0, valueM2s[metric] - delta * (value - valueMeans[metric]));
+    }
+    
+    /**
+     * Adds an anomaly score to the moving average of the scores of the
+     * specified metric, as {@link MovingAverage#next(double)} does.
+     * 
+     * @return  the new average
+     */
+    private double nextScoreAverage(int metric, double score) {
+        return nextAverage(scoreWindows, metric * AVERAGING_WINDOW, AVERAGING_WINDOW, 
+            scoreWindowStarts, scoreWindowSizes, scoreTotals, metric, score);
+    }
+    
+    /**
+     * Adds an anomaly to the moving average of the output of the
+     * specified metric, as {@link MovingAverage#next(double)} does.
+     * 
+     * @return  the new average
+     */
+    private double nextOutputAverage(int metric, double anomaly) {
+        return nextAverage(outputWindows, metric * windowSize, windowSize, 
+            outputWindowStarts, outputWindowSizes, outputTotals, metric, anomaly);
+    }
+    
+    /**
+     * Adds a value to a moving average held in a ring of the specified window
+     * array, removing the oldest value once the window is full.
+     */
+    private static double nextAverage(double[] window, int offset, int length, 
+        int[] starts, int[] sizes, double[] totals, int metric, double newVal) {
+        
+        double total = totals[metric];
+        int size = sizes[metric];
+        int start = starts[metric];
+        if(size == length) {
+            total -= window[offset + start];
+            window[offset + start] = newVal;
+            starts[metric] = (start + 1) % length;
+        }else{
+            window[offset + (start + size) % length] = newVal;
+            sizes[metric] = ++size;
+        }
+        total += newVal;
+        totals[metric] = total;
+        
+        return total / (double)size;
+    }
+    
+    private int checkMetric(int metric) {
+        if(metric < 0 || metric >= numMetrics) {
+            throw new IllegalArgumentException("Metric id must be in [0, " + numMetrics + "): " + metric);
+        }
+        return metric;
+    }
+}
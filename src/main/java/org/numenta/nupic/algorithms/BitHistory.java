@@ -22,10 +22,7 @@
 
 package org.numenta.nupic.algorithms;
 
-import org.numenta.nupic.util.ArrayUtils;
-
-import gnu.trove.list.TDoubleList;
-import gnu.trove.list.array.TDoubleArrayList;
+import java.util.Arrays;
 
 /**
  * Stores an activationPattern bit history.
@@ -36,13 +33,18 @@ import gnu.trove.list.array.TDoubleArrayList;
 public class BitHistory {
 	/** Store reference to the classifier */
 	CLAClassifier classifier;
-	/** Form our "id" */
-	String id;
+	/** Activation pattern bit number this history is for */
+	int bitNum;
+	/** Number of steps of prediction this history is for */
+	int nSteps;
 	/**
-	 * Dictionary of bucket entries. The key is the bucket index, the
-     * value is the dutyCycle, which is the rolling average of the duty cycle
+	 * Dense array of bucket entries. The index is the bucket index, the
+     * value is the dutyCycle, which is the rolling average of the duty cycle.
+     * Only the first {@link #numBuckets} entries are in use.
 	 */
-	TDoubleList stats;
+	float[] stats;
+	/** The number of buckets stored in {@link #stats} */
+	int numBuckets;
 	/** lastUpdate is the iteration number of the last time it was updated. */
 	int lastTotalUpdate = -1;
 	
@@ -68,8 +70,25 @@ public class BitHistory {
 	 */
 	public BitHistory(CLAClassifier classifier, int bitNum, int nSteps) {
 		this.classifier = classifier;
-		this.id = String.format("%d[%d]", bitNum, nSteps);
-		this.stats = new TDoubleArrayList();
+		this.bitNum = bitNum;
+		this.nSteps = nSteps;
+		this.stats = new float[0];
+	}
+	
+	/**
+	 * Returns the id of this history, in the form "bitNum[nSteps]"
+	 * @return
+	 */
+	public String getId() {
+		return bitNum + "[" + nSteps + "]";
+	}
+	
+	/**
+	 * Returns the duty cycles of the buckets seen so far, indexed by bucket index
+	 * @return
+	 */
+	public float[] getStats() {
+		return Arrays.copyOf(stats, numBuckets);
 	}
 	
 	/**
@@ -102,15 +121,17 @@ public class BitHistory {
 		}
 		
 		// Get the duty cycle stored for this bucket.
-		int statsLen = stats.size() - 1;
-		if(bucketIdx > statsLen) {
-			stats.add(new double[bucketIdx - statsLen]);
+		if(bucketIdx >= numBuckets) {
+			if(bucketIdx >= stats.length) {
+				stats = Arrays.copyOf(stats, Math.max(bucketIdx + 1, stats.length * 2));
+			}
+			numBuckets = bucketIdx + 1;
 		}
 		
 		// Update it now.
 	    // duty cycle n steps ago is dc{-n}
 	    // duty cycle for current iteration is (1-alpha)*dc{-n}*(1-alpha)**(n)+alpha
-		double dc = stats.get(bucketIdx);
+		double dc = stats[bucketIdx];
 		
 		// To get the duty cycle from n iterations ago that when updated to the
 	    // current iteration would equal the dc of the current iteration we simply
@@ -118,32 +139,30 @@ public class BitHistory {
 	    // dc'{-n} = dc{-n} + alpha/(1-alpha)**n where the apostrophe symbol is used
 	    // to denote that this is the new duty cycle at that iteration. This is
 	    // equivalent to the duty cycle dc{-n}
-		double denom = Math.pow((1.0 - classifier.alpha), (iteration - lastTotalUpdate));
+		double denom = classifier.decay(iteration - lastTotalUpdate);
 		
 		double dcNew = 0;
 		if(denom > 0) dcNew = dc + (classifier.alpha / denom);
 		
 		// This is to prevent errors associated with infinite rescale if too large
 		if(denom == 0 || dcNew > DUTY_CYCLE_UPDATE_INTERVAL) {
-			double exp = Math.pow((1.0 - classifier.alpha), (iteration - lastTotalUpdate));
-			double dcT = 0;
-			for(int i = 0;i < stats.size();i++) {
-				dcT *= exp;
-				stats.set(i, dcT);
+			// Bring all of the duty cycles up to the current iteration
+			for(int i = 0;i < numBuckets;i++) {
+				stats[i] *= denom;
 			}
 			
 			// Reset time since last update
 			lastTotalUpdate = iteration;
 			
 			// Add alpha since now exponent is 0
-			dc = stats.get(bucketIdx) + classifier.alpha;
+			dc = stats[bucketIdx] + classifier.alpha;
 		} else {
 			dc = dcNew;
 		}
 		
-		stats.set(bucketIdx, dc);
+		stats[bucketIdx] = (float)dc;
 		if(classifier.verbosity >= 2) {
-			System.out.println(String.format("updated DC for %s,  bucket %d to %f", id, bucketIdx, dc));
+			System.out.println(String.format("updated DC for %s,  bucket %d to %f", getId(), bucketIdx, dc));
 		}
 	}
 	
@@ -160,8 +179,8 @@ public class BitHistory {
 		// Place the duty cycle into the votes and update the running total for
 	    // normalization
 		double total = 0;
-		for(int i = 0;i < stats.size();i++) {
-			double dc = stats.get(i);
+		for(int i = 0;i < numBuckets;i++) {
+			double dc = stats[i];
 			if(dc > 0.0) {
 				votes[i] = dc;
 				total += dc;
@@ -170,12 +189,11 @@ public class BitHistory {
 		
 		// Experiment... try normalizing the votes from each bit
 		if(total > 0) {
-			double[] temp = ArrayUtils.divide(votes, total);
-			for(int i = 0;i < temp.length;i++) votes[i] = temp[i];
+			for(int i = 0;i < votes.length;i++) votes[i] /= total;
 		}
 		
 		if(classifier.verbosity >= 2) {
-			System.out.println(String.format("bucket votes for %s:", id, pFormatArray(votes)));
+			System.out.println(String.format("bucket votes for %s:", getId(), pFormatArray(votes)));
 		}
 	}
 	
@@ -23,17 +23,16 @@
 package org.numenta.nupic.algorithms;
 
 import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.numenta.nupic.util.ArrayUtils;
-import org.numenta.nupic.util.Deque;
-import org.numenta.nupic.util.Tuple;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -101,14 +100,15 @@ public class CLAClassifier {
      * these so that we can associate the current iteration's classification
      * with the activationPattern from N steps ago
 	 */
-	Deque<Tuple> patternNZHistory;
+	PatternHistory patternNZHistory;
 	/**
 	 * These are the bit histories. Each one is a BitHistory instance, stored in
-     * this dict, where the key is (bit, nSteps). The 'bit' is the index of the
+     * this map, where the key is (bit, nSteps) packed into a long by
+     * {@link #bitHistoryKey(int, int)}. The 'bit' is the index of the
      * bit in the activation pattern and nSteps is the number of steps of
      * prediction desired for that bit.
 	 */
-	Map<Tuple, BitHistory> activeBitHistory = new HashMap<Tuple, BitHistory>();
+	TLongObjectHashMap<BitHistory> activeBitHistory = new TLongObjectHashMap<BitHistory>();
 	/**
 	 * This keeps track of the actual value to use for each bucket index. We
      * start with 1 bucket, no actual value so that the first infer has something
@@ -118,6 +118,58 @@ public class CLAClassifier {
 	
 	String g_debugPrefix = "CLAClassifier";
 	
+	/** Number of low order powers held in {@link #lowPowers} */
+	private static final int POWER_BLOCK = 1024;
+	/** (1 - alpha)^n for n in [0, POWER_BLOCK) */
+	private double[] lowPowers;
+	/** (1 - alpha)^(n * POWER_BLOCK), extended as larger n are requested */
+	private TDoubleArrayList highPowers;
+	/** The alpha the power tables were computed for */
+	private double powersAlpha = Double.NaN;
+	
+	
+	/**
+	 * Returns the key of the {@link BitHistory} of the specified bit and number
+	 * of steps within {@link #activeBitHistory}: the bit in the high 32 bits
+	 * and the number of steps in the low 32 bits.
+	 * 
+	 * @param bit		index of the bit in the activation pattern
+	 * @param nSteps	number of steps of prediction
+	 * @return
+	 */
+	static long bitHistoryKey(int bit, int nSteps) {
+		return ((long)bit << 32) | (nSteps & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Returns (1 - alpha)^n, the factor by which a duty cycle decays over n
+	 * iterations, from a table shared by all the {@link BitHistory}s of this
+	 * classifier. The table is split into low and high order powers so that
+	 * it stays small however large n gets.
+	 * 
+	 * @param n		the number of iterations
+	 * @return
+	 */
+	double decay(int n) {
+		if(n < 0) {
+			return Math.pow(1.0 - alpha, n);
+		}
+		if(powersAlpha != alpha) {
+			double base = 1.0 - alpha;
+			lowPowers = new double[POWER_BLOCK];
+			for(int i = 0;i < POWER_BLOCK;i++) {
+				lowPowers[i] = Math.pow(base, i);
+			}
+			highPowers = new TDoubleArrayList();
+			highPowers.add(1.0);
+			powersAlpha = alpha;
+		}
+		int high = n / POWER_BLOCK;
+		while(highPowers.size() <= high) {
+			highPowers.add(Math.pow(1.0 - alpha, (long)highPowers.size() * POWER_BLOCK));
+		}
+		return highPowers.getQuick(high) * lowPowers[n % POWER_BLOCK];
+	}
 	
 	/**
 	 * CLAClassifier no-arg constructor with defaults
@@ -142,7 +194,7 @@ public class CLAClassifier {
 		this.actValueAlpha = actValueAlpha;
 		this.verbosity = verbosity;
 		actualValues.add(null);
-		patternNZHistory = new Deque<Tuple>(steps.size() + 1);
+		patternNZHistory = new PatternHistory(steps.isEmpty() ? 0 : steps.max());
 	}
 	
 	/**
@@ -199,7 +251,7 @@ public class CLAClassifier {
 			System.out.println(" classificationIn: " + classification);
 		}
 		
-		patternNZHistory.append(new Tuple(learnIteration, patternNZ));
+		patternNZHistory.append(learnIteration, patternNZ);
 		
 		//------------------------------------------------------------------------
 	    // Inference:
@@ -233,13 +285,14 @@ public class CLAClassifier {
 				double[] bitVotes = new double[maxBucketIdx + 1];
 				
 				for(int bit : patternNZ) {
-					Tuple key = new Tuple(bit, nSteps);
-					BitHistory history = activeBitHistory.get(key);
+					BitHistory history = activeBitHistory.get(bitHistoryKey(bit, nSteps));
 					if(history == null) continue;
 					
 					history.infer(learnIteration, bitVotes);
 					
-					sumVotes = ArrayUtils.d_add(sumVotes, bitVotes);
+					for(int i = 0;i < sumVotes.length;i++) {
+						sumVotes[i] += bitVotes[i];
+					}
 				}
 				
 				// Return the votes for each bucket, normalized
@@ -293,30 +346,21 @@ public class CLAClassifier {
 			
 			// Train each pattern that we have in our history that aligns with the
 		    // steps we have in steps
-			int nSteps = -1;
-			int iteration = 0;
-			int[] learnPatternNZ = null;
-			for(int n : steps.toArray()) {
-				nSteps = n;
+			for(int i = 0;i < steps.size();i++) {
+				int nSteps = steps.get(i);
 				// Do we have the pattern that should be assigned to this classification
 		        // in our pattern history? If not, skip it
-				boolean found = false;
-				for(Tuple t : patternNZHistory) {
-					iteration = (int)t.get(0);
-					learnPatternNZ = (int[]) t.get(1);
-					if(iteration == learnIteration - nSteps) {
-						found = true;
-						break;
-					}
-					iteration++;
-				}
-				if(!found) continue;
+				int slot = patternNZHistory.find(learnIteration - nSteps);
+				if(slot == -1) continue;
 				
 				// Store classification info for each active bit from the pattern
 		        // that we got nSteps time steps ago.
-				for(int bit : learnPatternNZ) {
+				int[] learnPatternNZ = patternNZHistory.getPattern(slot);
+				int numBits = patternNZHistory.getLength(slot);
+				for(int j = 0;j < numBits;j++) {
+					int bit = learnPatternNZ[j];
 					// Get the history structure for this bit and step
-					Tuple key = new Tuple(bit, nSteps);
+					long key = bitHistoryKey(bit, nSteps);
 					BitHistory history = activeBitHistory.get(key);
 					if(history == null) {
 						activeBitHistory.put(key, history = new BitHistory(this, bit, nSteps));
@@ -387,4 +431,117 @@ public class CLAClassifier {
 		
 		return c;
 	}
+	
+	/**
+	 * Ring buffer of the activation patterns of the last maxSteps + 1 learn
+	 * iterations, where the pattern of an iteration is held in the slot given
+	 * by the iteration modulo the number of slots. Looking up the pattern of
+	 * an iteration is therefore a single index computation. As with a deque
+	 * holding the last maxSteps + 1 patterns, a pattern is only held while it
+	 * is among the last maxSteps + 1 appended, and a slot whose stored iteration
+	 * differs from the one requested (because of a missing record) is reported
+	 * as absent. The slot arrays are reused, so that appending a pattern does
+	 * not allocate once they are large enough.
+	 */
+	static final class PatternHistory {
+		private final int[] iterations;
+		/** Number of patterns appended when each slot was last written */
+		private final long[] appendCounts;
+		private final int[][] patterns;
+		/** Length of the pattern in each slot, or -1 if the slot is unused */
+		private final int[] lengths;
+		private int lastIteration;
+		private long appendCount;
+		
+		/**
+		 * Constructs a new {@code PatternHistory}
+		 * 
+		 * @param maxSteps	the largest number of steps of prediction
+		 */
+		PatternHistory(int maxSteps) {
+			int size = maxSteps + 1;
+			iterations = new int[size];
+			appendCounts = new long[size];
+			patterns = new int[size][];
+			lengths = new int[size];
+			for(int i = 0;i < size;i++) {
+				patterns[i] = new int[0];
+				lengths[i] = -1;
+			}
+		}
+		
+		/**
+		 * Stores a copy of the specified pattern as the pattern of the
+		 * specified iteration, replacing the pattern of the iteration
+		 * maxSteps + 1 before it.
+		 * 
+		 * @param iteration		the learn iteration
+		 * @param patternNZ		the active bits of the pattern
+		 */
+		void append(int iteration, int[] patternNZ) {
+			int slot = slot(iteration);
+			if(patterns[slot].length < patternNZ.length) {
+				patterns[slot] = new int[patternNZ.length];
+			}
+			System.arraycopy(patternNZ, 0, patterns[slot], 0, patternNZ.length);
+			lengths[slot] = patternNZ.length;
+			iterations[slot] = iteration;
+			appendCounts[slot] = ++appendCount;
+			lastIteration = iteration;
+		}
+		
+		/**
+		 * Returns the slot holding the pattern of the specified iteration,
+		 * or -1 if it is not held.
+		 * 
+		 * @param iteration		the learn iteration
+		 * @return
+		 */
+		int find(int iteration) {
+			int slot = slot(iteration);
+			return lengths[slot] != -1 && iterations[slot] == iteration &&
+				appendCounts[slot] > appendCount - iterations.length ? slot : -1;
+		}
+		
+		/**
+		 * Returns the array holding the pattern of the specified slot. Only the
+		 * first {@link #getLength(int)} entries belong to the pattern.
+		 * 
+		 * @param slot	a slot returned by {@link #find(int)}
+		 * @return
+		 */
+		int[] getPattern(int slot) {
+			return patterns[slot];
+		}
+		
+		/**
+		 * Returns the number of active bits of the pattern of the specified slot
+		 * 
+		 * @param slot	a slot returned by {@link #find(int)}
+		 * @return
+		 */
+		int getLength(int slot) {
+			return lengths[slot];
+		}
+		
+		/**
+		 * Returns the iteration of the most recently appended pattern
+		 * @return
+		 */
+		int getLastIteration() {
+			return lastIteration;
+		}
+		
+		/**
+		 * Returns the number of slots
+		 * @return
+		 */
+		int capacity() {
+			return iterations.length;
+		}
+		
+		private int slot(int iteration) {
+			return Math.floorMod(iteration, iterations.length);
+		}
+	}
 }
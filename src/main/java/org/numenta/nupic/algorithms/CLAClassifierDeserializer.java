@@ -22,19 +22,15 @@
 
 package org.numenta.nupic.algorithms;
 
-import gnu.trove.list.TDoubleList;
 import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-import org.numenta.nupic.util.Deque;
-import org.numenta.nupic.util.Tuple;
+import org.numenta.nupic.algorithms.CLAClassifier.PatternHistory;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -67,7 +63,7 @@ public class CLAClassifierDeserializer extends JsonDeserializer<CLAClassifier> {
         retVal.steps = t;
         
         String[] tupleStrs = node.get("patternNZHistory").asText().split(";");
-        Deque<Tuple> patterns = new Deque<Tuple>(tupleStrs.length);
+        PatternHistory patterns = new PatternHistory(t.max());
         for(String tupleStr : tupleStrs) {
         	String[] tupleParts = tupleStr.split("-");
         	int iteration = Integer.parseInt(tupleParts[0]);
@@ -77,33 +73,33 @@ public class CLAClassifierDeserializer extends JsonDeserializer<CLAClassifier> {
         	for(int i = 0;i < indices.length;i++) {
         		indices[i] = Integer.parseInt(indexes[i].trim());
         	}
-        	Tuple tup = new Tuple(iteration, indices);
-        	patterns.append(tup);
+        	patterns.append(iteration, indices);
         }
         retVal.patternNZHistory = patterns;
         
-        Map<Tuple, BitHistory> bitHistoryMap = new HashMap<Tuple, BitHistory>();
+        TLongObjectHashMap<BitHistory> bitHistoryMap = new TLongObjectHashMap<BitHistory>();
         String[] bithists = node.get("activeBitHistory").asText().split(";");
         for(String bh : bithists) {
         	String[] parts = bh.split("-");
         	
         	String[] left = parts[0].split(",");
-        	Tuple iteration = new Tuple(Integer.parseInt(left[0].trim()), Integer.parseInt(left[1].trim()));
-        	
         	BitHistory bitHistory = new BitHistory();
-        	String[] right = parts[1].split("=");
-        	bitHistory.id = right[0].trim();
+        	bitHistory.bitNum = Integer.parseInt(left[0].trim());
+        	bitHistory.nSteps = Integer.parseInt(left[1].trim());
         	
-        	TDoubleList dubs = new TDoubleArrayList();
-        	String[] stats = right[1].substring(1, right[1].indexOf("}")).trim().split(",");
+        	String[] right = parts[1].split("=");
+        	String statStr = right[1].substring(1, right[1].indexOf("}")).trim();
+        	String[] stats = statStr.isEmpty() ? new String[0] : statStr.split(",");
+        	float[] floats = new float[stats.length];
         	for(int i = 0;i < stats.length;i++) {
-        		dubs.add(Double.parseDouble(stats[i].trim()));
+        		floats[i] = Float.parseFloat(stats[i].trim());
         	}
-        	bitHistory.stats = dubs;
+        	bitHistory.stats = floats;
+        	bitHistory.numBuckets = floats.length;
         	
         	bitHistory.lastTotalUpdate = Integer.parseInt(right[2].trim());
         	
-        	bitHistoryMap.put(iteration, bitHistory);
+        	bitHistoryMap.put(CLAClassifier.bitHistoryKey(bitHistory.bitNum, bitHistory.nSteps), bitHistory);
         }
         retVal.activeBitHistory = bitHistoryMap;
         
@@ -121,8 +117,8 @@ public class CLAClassifierDeserializer extends JsonDeserializer<CLAClassifier> {
         retVal.actualValues = l;
         
         //Go back and set the classifier on the BitHistory objects
-        for(Tuple tuple : bitHistoryMap.keySet()) {
-        	bitHistoryMap.get(tuple).classifier = retVal;
+        for(BitHistory bitHistory : bitHistoryMap.valueCollection()) {
+        	bitHistory.classifier = retVal;
         }
         
         return retVal;
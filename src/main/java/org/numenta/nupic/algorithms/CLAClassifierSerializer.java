@@ -22,10 +22,12 @@
 
 package org.numenta.nupic.algorithms;
 
+import gnu.trove.iterator.TLongObjectIterator;
+
 import java.io.IOException;
 import java.util.Arrays;
 
-import org.numenta.nupic.util.Tuple;
+import org.numenta.nupic.algorithms.CLAClassifier.PatternHistory;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -53,18 +55,28 @@ public class CLAClassifierSerializer extends JsonSerializer<CLAClassifier> {
 		jgen.writeStringField("steps", sb.toString());
 		
 		sb = new StringBuilder();
-		for(Tuple t : cla.patternNZHistory) {
-			sb.append(t.get(0)).append("-").append(Arrays.toString((int[])t.get(1))).append(";");
+		PatternHistory history = cla.patternNZHistory;
+		for(int i = history.capacity() - 1;i >= 0;i--) {
+			int iteration = history.getLastIteration() - i;
+			int slot = history.find(iteration);
+			if(slot == -1) continue;
+			int[] pattern = Arrays.copyOf(history.getPattern(slot), history.getLength(slot));
+			sb.append(iteration).append("-").append(Arrays.toString(pattern)).append(";");
 		}
 		sb.setLength(sb.length() - 1);
 		jgen.writeStringField("patternNZHistory", sb.toString());
 		
 		sb = new StringBuilder();
-		for(Tuple t : cla.activeBitHistory.keySet()) {
-			sb.append(t.get(0)).append(",").append(t.get(1)).append("-");
-			BitHistory bh = cla.activeBitHistory.get(t);
-			sb.append(bh.id).append("=").append(bh.stats).append("=").append(bh.lastTotalUpdate)
-			.append(";");
+		for(TLongObjectIterator<BitHistory> it = cla.activeBitHistory.iterator();it.hasNext();) {
+			it.advance();
+			BitHistory bh = it.value();
+			sb.append(bh.bitNum).append(",").append(bh.nSteps).append("-");
+			sb.append(bh.getId()).append("={");
+			for(int i = 0;i < bh.numBuckets;i++) {
+				if(i > 0) sb.append(", ");
+				sb.append(bh.stats[i]);
+			}
+			sb.append("}=").append(bh.lastTotalUpdate).append(";");
 		}
 		sb.setLength(sb.length() - 1);
 		jgen.writeStringField("activeBitHistory", sb.toString());
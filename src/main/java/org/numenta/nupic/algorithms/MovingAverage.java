@@ -27,15 +27,32 @@ import gnu.trove.list.array.TDoubleArrayList;
 
 /**
  * Helper class for computing moving average and sliding window
+ * <p>
+ * An instance keeps its sliding window in a circular buffer along with the
+ * running total, so that {@link #next(double)} takes constant time and does
+ * not allocate. An instance created by {@link #exponential(double)} computes
+ * an exponentially weighted moving average instead, and keeps no window.
  * 
  * @author Numenta
  * @author David Ray
  */
 public class MovingAverage {
-    private Calculation calc;
+    /** Circular buffer of the values in the window */
+    private double[] window;
+    /** Index of the oldest value in {@link #window} */
+    private int start;
+    /** Number of values in {@link #window} */
+    private int size;
+    private double total;
+    private double average;
     
     private int windowSize;
     
+    /** Weight of each new value in exponential mode, or 0 */
+    private double alpha;
+    /** Number of values seen in exponential mode */
+    private long count;
+    
     /**
      * Constructs a new {@code MovingAverage}
      * 
@@ -58,32 +75,53 @@ public class MovingAverage {
         }
         this.windowSize = windowSize;
         
-        calc = new Calculation();
-        calc.historicalValues = 
-            historicalValues == null || historicalValues.size() < 1 ?
-                new TDoubleArrayList(windowSize) : historicalValues;
-        calc.total = total != -1 ? total : calc.historicalValues.sum();
+        if(historicalValues != null && historicalValues.size() > windowSize) {
+            throw new IllegalArgumentException("historicalValues cannot be larger than the window size");
+        }
+        
+        window = new double[windowSize];
+        if(historicalValues != null) {
+            size = historicalValues.size();
+            historicalValues.toArray(window, 0, size);
+        }
+        this.total = total != -1 ? total : (historicalValues == null ? 0 : historicalValues.sum());
     }
     
     /**
-     * Routine for computing a moving average
+     * Constructs a new {@code MovingAverage} of an exponential moving average
+     */
+    private MovingAverage(double alpha) {
+        this.alpha = alpha;
+        this.window = new double[0];
+    }
+    
+    /**
+     * Returns a {@code MovingAverage} computing the exponentially weighted moving
+     * average: each new value is weighted by alpha, and the previous average by
+     * 1 - alpha. The first value is the first average. Such an average has no
+     * sliding window, and {@link #getTotal()} is the sum of all values seen.
      * 
-     * @param slidingWindow     a list of previous values to use in the computation that
-     *                          will be modified and returned
-     * @param total             total the sum of the values in the  slidingWindow to be used in the
-     *                          calculation of the moving average
-     * @param newVal            newVal a new number to compute the new windowed average
-     * @param windowSize        windowSize how many values to use in the moving window
+     * @param alpha     weight of each new value, in (0, 1]
      * @return
      */
-    public static Calculation compute(TDoubleList slidingWindow, double total, double newVal, int windowSize) {
-        return compute(null, slidingWindow, total, newVal, windowSize);
+    public static MovingAverage exponential(double alpha) {
+        if(!(alpha > 0 && alpha <= 1)) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        return new MovingAverage(alpha);
+    }
+    
+    /**
+     * Returns true if this computes an exponentially weighted moving average
+     * @return
+     */
+    public boolean isExponential() {
+        return alpha > 0;
     }
     
     /**
-     * Internal method which does actual calculation
+     * Routine for computing a moving average
      * 
-     * @param calc              Re-used calculation object
      * @param slidingWindow     a list of previous values to use in the computation that
      *                          will be modified and returned
      * @param total             total the sum of the values in the  slidingWindow to be used in the
@@ -92,9 +130,7 @@ public class MovingAverage {
      * @param windowSize        windowSize how many values to use in the moving window
      * @return
      */
-    private static Calculation compute(
-        Calculation calc, TDoubleList slidingWindow, double total, double newVal, int windowSize) {
-        
+    public static Calculation compute(TDoubleList slidingWindow, double total, double newVal, int windowSize) {
         if(slidingWindow == null) {
             throw new IllegalArgumentException("slidingWindow cannot be null.");
         }
@@ -105,11 +141,7 @@ public class MovingAverage {
         slidingWindow.add(newVal);
         total += newVal;
         
-        if(calc == null) {
-            return new Calculation(slidingWindow, total / (double)slidingWindow.size(), total);
-        }
-        
-        return copyInto(calc, slidingWindow, total / (double)slidingWindow.size(), total);
+        return new Calculation(slidingWindow, total / (double)slidingWindow.size(), total);
     }
     
     /**
@@ -119,16 +151,46 @@ public class MovingAverage {
      * @return
      */
     public double next(double newValue) {
-        compute(calc, calc.historicalValues, calc.total, newValue, windowSize);
-        return calc.average;
+        if(alpha > 0) {
+            average = count++ == 0 ? newValue : alpha * newValue + (1.0 - alpha) * average;
+            total += newValue;
+            return average;
+        }
+        
+        if(size == windowSize) {
+            total -= window[start];
+            window[start] = newValue;
+            start = start + 1 == windowSize ? 0 : start + 1;
+        }else{
+            int end = start + size;
+            window[end < windowSize ? end : end - windowSize] = newValue;
+            size++;
+        }
+        total += newValue;
+        average = total / (double)size;
+        return average;
     }
     
     /**
-     * Returns the sliding window buffer used to calculate the moving average.
+     * Returns the current moving average, or 0 if no value was
+     * added with {@link #next(double)}
+     * @return
+     */
+    public double getAverage() {
+        return average;
+    }
+    
+    /**
+     * Returns a copy of the values in the sliding window used to calculate 
+     * the moving average, oldest first.
      * @return
      */
     public TDoubleList getSlidingWindow() {
-        return calc.historicalValues;
+        TDoubleList retVal = new TDoubleArrayList(Math.max(size, 1));
+        for(int i = 0;i < size;i++) {
+            retVal.add(window[(start + i) % window.length]);
+        }
+        return retVal;
     }
     
     /**
@@ -136,7 +198,7 @@ public class MovingAverage {
      * @return
      */
     public double getTotal() {
-        return calc.total;
+        return total;
     }
     
     /**
@@ -153,7 +215,14 @@ public class MovingAverage {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((calc == null) ? 0 : calc.hashCode());
+        result = prime * result + getSlidingWindow().hashCode();
+        long temp = Double.doubleToLongBits(total);
+        result = prime * result + (int)(temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(average);
+        result = prime * result + (int)(temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(alpha);
+        result = prime * result + (int)(temp ^ (temp >>> 32));
+        result = prime * result + (int)(count ^ (count >>> 32));
         result = prime * result + windowSize;
         return result;
     }
@@ -167,32 +236,19 @@ public class MovingAverage {
         if(getClass() != obj.getClass())
             return false;
         MovingAverage other = (MovingAverage)obj;
-        if(calc == null) {
-            if(other.calc != null)
-                return false;
-        } else if(!calc.equals(other.calc))
-            return false;
         if(windowSize != other.windowSize)
             return false;
+        if(Double.doubleToLongBits(alpha) != Double.doubleToLongBits(other.alpha) || count != other.count)
+            return false;
+        if(Double.doubleToLongBits(total) != Double.doubleToLongBits(other.total))
+            return false;
+        if(Double.doubleToLongBits(average) != Double.doubleToLongBits(other.average))
+            return false;
+        if(!getSlidingWindow().equals(other.getSlidingWindow()))
+            return false;
         return true;
     }
 
-    /**
-     * Internal method to update running totals.
-     * 
-     * @param c
-     * @param slidingWindow
-     * @param value
-     * @param total
-     * @return
-     */
-    private static Calculation copyInto(Calculation c, TDoubleList slidingWindow, double average, double total) {
-        c.historicalValues = slidingWindow;
-        c.average = average;
-        c.total = total;
-        return c;
-    }
-    
     /**
      * Container for calculated data
      */
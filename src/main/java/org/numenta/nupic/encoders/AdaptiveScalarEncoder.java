@@ -1,5 +1,7 @@
 package org.numenta.nupic.encoders;
 
+import gnu.trove.list.TIntList;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -118,18 +120,33 @@ public class AdaptiveScalarEncoder extends ScalarEncoder {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void encodeIntoArray(Double input, int[] output) {
+	public void encodeIntoArray(double input, int[] output, int offset) {
+		adapt(input);
+		super.encodeIntoArray(input, output, offset);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoIndices(double input, TIntList output, int offset) {
+		adapt(input);
+		super.encodeIntoIndices(input, output, offset);
+	}
+
+	/**
+	 * Records the input and adapts the range of the encoder to it
+	 * @param input
+	 */
+	private void adapt(double input) {
 		this.recordNum += 1;
 		boolean learn = false;
 		if (!this.encLearningEnabled) {
 			learn = true;
 		}
-		if (input == AdaptiveScalarEncoder.SENTINEL_VALUE_FOR_MISSING_DATA) {
-			Arrays.fill(output, 0);
-		} else if (!Double.isNaN(input)) {
+		if (input != AdaptiveScalarEncoder.SENTINEL_VALUE_FOR_MISSING_DATA && !Double.isNaN(input)) {
 			this.setMinAndMax(input, learn);
 		}
-		super.encodeIntoArray(input, output);
 	}
 
 	private void setMinAndMax(Double input, boolean learn) {
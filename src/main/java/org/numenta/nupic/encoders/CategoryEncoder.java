@@ -23,7 +23,9 @@
 package org.numenta.nupic.encoders;
 
 import gnu.trove.list.TDoubleList;
+import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
@@ -91,6 +93,9 @@ public class CategoryEncoder extends Encoder<String> {
 
 	private ScalarEncoder scalarEncoder;
 
+	/** Encodings keyed by category index, or null if not caching */
+	private EncodingCache encodingCache;
+
 	/**
 	 * Constructs a new {@code CategoryEncoder}
 	 */
@@ -172,18 +177,91 @@ public class CategoryEncoder extends Encoder<String> {
 	 */
 	@Override
 	public void encodeIntoArray(String input, int[] output) {
+		encodeIntoArray(input, output, 0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoArray(String input, int[] output, int offset) {
 		String val = null;
 		double value = 0;
 		if(input == null) {
 			val = "<missing>";
+			Arrays.fill(output, offset, offset + getWidth(), 0);
 		}else{
 			value = categoryToIndex.get(input);
 			value = value == categoryToIndex.getNoEntryValue() ? 0 : value;
-			scalarEncoder.encodeIntoArray(value, output);
+			if(encodingCache != null) {
+				Arrays.fill(output, offset, offset + getWidth(), 0);
+				for(int bit : cachedOnBits((int)value)) {
+					output[offset + bit] = 1;
+				}
+			}else{
+				scalarEncoder.encodeIntoArray(value, output, offset);
+			}
+		}
+
+		if(LOG.isTraceEnabled()) {
+			LOG.trace("input: {}, val: {}, value: {}, output: {}",
+					input, val, value, Arrays.toString(Arrays.copyOfRange(output, offset, offset + getWidth())));
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoIndices(String input, TIntList output, int offset) {
+		if(input != null) {
+			int value = categoryToIndex.get(input);
+			value = value == categoryToIndex.getNoEntryValue() ? 0 : value;
+			if(encodingCache != null) {
+				for(int bit : cachedOnBits(value)) {
+					output.add(offset + bit);
+				}
+			}else{
+				scalarEncoder.encodeIntoIndices(value, output, offset);
+			}
+		}
+	}
+
+	/**
+	 * Returns the sorted indexes of the on bits of the encoding of the
+	 * specified category index, computing and caching them if not yet cached.
+	 *
+	 * @param categoryIndex	the category index, 0 for unknown categories
+	 * @return	the indexes of the on bits
+	 */
+	private int[] cachedOnBits(int categoryIndex) {
+		int[] onBits = encodingCache.get(categoryIndex);
+		if(onBits == null) {
+			TIntList bits = new TIntArrayList(getW());
+			scalarEncoder.encodeIntoIndices(categoryIndex, bits, 0);
+			onBits = bits.toArray();
+			encodingCache.put(categoryIndex, onBits);
 		}
+		return onBits;
+	}
+
+	/**
+	 * Returns the cache of encodings, which counts its hits and misses,
+	 * or null if encodings are not cached.
+	 *
+	 * @return	the {@link EncodingCache} or null
+	 */
+	public EncodingCache getEncodingCache() {
+		return encodingCache;
+	}
 
-		LOG.trace("input: {}, val: {}, value: {}, output: {}",
-					input, val, value, Arrays.toString(output));
+	/**
+	 * Sets the cache of encodings, keyed by category index, or null to stop caching.
+	 *
+	 * @param encodingCache	the {@link EncodingCache} or null
+	 */
+	public void setEncodingCache(EncodingCache encodingCache) {
+		this.encodingCache = encodingCache;
 	}
 
 	/**
@@ -327,6 +405,7 @@ public class CategoryEncoder extends Encoder<String> {
 	 */
 	public static class Builder extends Encoder.Builder<CategoryEncoder.Builder, CategoryEncoder> {
 		private List<String> categoryList;
+		private int encodingCacheSize;
 
 		private Builder() {}
 
@@ -350,6 +429,9 @@ public class CategoryEncoder extends Encoder<String> {
 			((CategoryEncoder)encoder).setCategoryList(this.categoryList);
 			//Call init
 			((CategoryEncoder)encoder).init();
+			if(encodingCacheSize > 0) {
+				((CategoryEncoder)encoder).setEncodingCache(new EncodingCache(encodingCacheSize));
+			}
 
 			return (CategoryEncoder)encoder;
 		}
@@ -367,6 +449,21 @@ public class CategoryEncoder extends Encoder<String> {
 			this.categoryList = categoryList;
 			return this;
 		}
+
+		/**
+		 * Caches up to the specified number of encodings, keyed by category
+		 * index. Zero (the default) disables caching.
+		 *
+		 * @param encodingCacheSize	the maximum number of cached encodings
+		 * @return	this builder
+		 */
+		public CategoryEncoder.Builder encodingCacheSize(int encodingCacheSize) {
+			if(encodingCacheSize < 0) {
+				throw new IllegalArgumentException("Encoding cache size must not be negative");
+			}
+			this.encodingCacheSize = encodingCacheSize;
+			return this;
+		}
 	}
 
 	@Override
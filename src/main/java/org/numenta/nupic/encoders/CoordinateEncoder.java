@@ -22,17 +22,49 @@
 
 package org.numenta.nupic.encoders;
 
-import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.MersenneTwister;
-import org.numenta.nupic.util.SortablePair;
 import org.numenta.nupic.util.Tuple;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Encodes an N-dimensional integer coordinate and a radius into an SDR, by
+ * choosing the top w coordinates of the neighborhood of the coordinate
+ * according to a pseudo random order, and setting one pseudo random bit
+ * for each of them.
+ * 
+ * The order and the bit of a coordinate are computed by a stateless 64-bit
+ * mixing hash of the coordinate, so that an encoder may be used by many threads
+ * at once. In compatibility mode they are instead drawn from a Mersenne Twister
+ * seeded with the coordinate, which reproduces the encodings of earlier versions
+ * (and of NuPIC), at a higher cost; each thread then uses its own generator.
+ */
 public class CoordinateEncoder extends Encoder<Tuple> implements CoordinateOrder {
-	private static MersenneTwister random = new MersenneTwister();
+	/** Generators of the compatibility mode, which are reseeded for every coordinate */
+	private static final ThreadLocal<MersenneTwister> RANDOM = new ThreadLocal<MersenneTwister>() {
+		@Override protected MersenneTwister initialValue() {
+			return new MersenneTwister();
+		}
+	};
+	
+	/** Distinguishes the hash of the bit of a coordinate from the hash of its order */
+	private static final long ORDER_SEED = 0x2545F4914F6CDD1DL;
+	private static final long BIT_SEED = 0x6A09E667F3BCC909L;
+	
+	private boolean compatibilityMode;
+	
+	/**
+	 * Per thread scratch buffers of {@link #encodeIntoArray(Tuple, int[], int)},
+	 * shared by all encoders. They hold no reference to an encoder between
+	 * encodings, so that no encoder is kept alive by a long lived thread.
+	 */
+	private static final ThreadLocal<Encoding> ENCODINGS = new ThreadLocal<Encoding>() {
+		@Override protected Encoding initialValue() {
+			return new Encoding();
+		}
+	};
 
 	/**
 	 * Package private to encourage construction using the Builder Pattern
@@ -48,6 +80,25 @@ public class CoordinateEncoder extends Encoder<Tuple> implements CoordinateOrder
         description.add(desc2);
     }
 
+	/**
+	 * Sets whether coordinates are ordered and assigned bits by a seeded
+	 * {@link MersenneTwister}, as in earlier versions, rather than by a hash.
+	 * 
+	 * @param compatibilityMode
+	 */
+	public void setCompatibilityMode(boolean compatibilityMode) {
+		this.compatibilityMode = compatibilityMode;
+	}
+	
+	/**
+	 * Returns true if coordinates are ordered and assigned bits
+	 * by a seeded {@link MersenneTwister}.
+	 * @return
+	 */
+	public boolean isCompatibilityMode() {
+		return compatibilityMode;
+	}
+
 	/**
 	 * @see Encoder for more information
 	 */
@@ -75,6 +126,21 @@ public class CoordinateEncoder extends Encoder<Tuple> implements CoordinateOrder
 		return new CoordinateEncoder.Builder();
 	}
 
+	/**
+	 * Receives the coordinates enumerated by
+	 * {@link CoordinateEncoder#forEachNeighbor(int[], double, NeighborVisitor)}
+	 */
+	public interface NeighborVisitor {
+		/**
+		 * Visits one neighbor. The array is reused for the next neighbor,
+		 * and must be copied to be kept.
+		 * 
+		 * @param neighbor	the coordinate of the neighbor
+		 * @param index		the index of the neighbor in the enumeration
+		 */
+		public void visit(int[] neighbor, int index);
+	}
+
 	/**
 	 * Returns coordinates around given coordinate, within given radius.
      * Includes given coordinate.
@@ -84,28 +150,51 @@ public class CoordinateEncoder extends Encoder<Tuple> implements CoordinateOrder
 	 * @return
 	 */
 	public List<int[]> neighbors(int[] coordinate, double radius) {
-		int[][] ranges = new int[coordinate.length][];
+		final List<int[]> retVal = new ArrayList<int[]>();
+		forEachNeighbor(coordinate, radius, new NeighborVisitor() {
+			@Override public void visit(int[] neighbor, int index) {
+				retVal.add(neighbor.clone());
+			}
+		});
+		return retVal;
+	}
+	
+	/**
+	 * Visits the coordinates around given coordinate, within given radius
+	 * (including given coordinate), in the order of {@link #neighbors(int[], double)}:
+	 * each dimension ranges from the coordinate minus the radius to the coordinate
+	 * plus the radius, with the last dimension varying fastest. No objects
+	 * are created besides the visited array.
+	 * 
+	 * @param coordinate	Coordinate whose neighbors to visit
+	 * @param radius		Radius around `coordinate`
+	 * @param visitor		receives each neighbor
+	 */
+	public void forEachNeighbor(int[] coordinate, double radius, NeighborVisitor visitor) {
+		forEachNeighbor(coordinate, radius, new int[coordinate.length], visitor);
+	}
+	
+	private void forEachNeighbor(int[] coordinate, double radius, int[] neighbor, NeighborVisitor visitor) {
+		int r = (int)radius;
 		for(int i = 0;i < coordinate.length;i++) {
-			ranges[i] = ArrayUtils.range(coordinate[i] - (int)radius, coordinate[i] + (int)radius + 1);
+			neighbor[i] = coordinate[i] - r;
 		}
-
-		List<int[]> retVal = new ArrayList<int[]>();
-		int len = ranges.length == 1 ? 1 : ranges[0].length;
-		for(int k = 0;k < ranges[0].length;k++) {
-			for(int j = 0;j < len;j++) {
-				int[] entry = new int[ranges.length];
-				entry[0] = ranges[0][k];
-				for(int i = 1;i < ranges.length;i++) {
-					entry[i] = ranges[i][j];
-				}
-				retVal.add(entry);
+		for(int index = 0;;index++) {
+			visitor.visit(neighbor, index);
+			// Advance like an odometer
+			int d = coordinate.length - 1;
+			while(d >= 0 && neighbor[d] == coordinate[d] + r) {
+				neighbor[d] = coordinate[d] - r;
+				d--;
 			}
+			if(d < 0) return;
+			neighbor[d]++;
 		}
-		return retVal;
 	}
 
 	/**
-	 * Returns the top W coordinates by order.
+	 * Returns the top W coordinates by order, in increasing order. Coordinates
+	 * of equal order are ranked by their position in the specified array.
 	 *
 	 * @param co			Implementation of {@link CoordinateOrder}
 	 * @param coordinates	A 2D array, where each element
@@ -113,19 +202,16 @@ public class CoordinateEncoder extends Encoder<Tuple> implements CoordinateOrder
 	 * @param w				(int) Number of top coordinates to return
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public int[][] topWCoordinates(CoordinateOrder co, int[][] coordinates, int w) {
-		SortablePair<Double, Integer>[] pairs = new SortablePair[coordinates.length];
+		TopW top = new TopW(w, 0);
 		for(int i = 0; i < coordinates.length;i++) {
-		    pairs[i] = new SortablePair<Double, Integer>(co.orderForCoordinate(coordinates[i]), i);
+		    top.offer(co.orderForCoordinate(coordinates[i]), i, null);
 		}
+		top.sort();
 
-		Arrays.sort(pairs);
-
-		int[][] topCoordinates = new int[w][];
-		for(int i = 0, wIdx = pairs.length - w; i < w; i++, wIdx++) {
-		    int index = pairs[wIdx].second();
-		    topCoordinates[i] = coordinates[index];
+		int[][] topCoordinates = new int[top.size][];
+		for(int i = 0;i < top.size;i++) {
+		    topCoordinates[i] = coordinates[top.indexes[i]];
 		}
 		return topCoordinates;
 	}
@@ -140,12 +226,17 @@ public class CoordinateEncoder extends Encoder<Tuple> implements CoordinateOrder
 	 */
 	@Override
 	public double orderForCoordinate(int[] coordinate) {
-		random.setSeed(coordinate);
-		return random.nextDouble();
+		if(compatibilityMode) {
+			MersenneTwister random = RANDOM.get();
+			random.setSeed(coordinate);
+			return random.nextDouble();
+		}
+		return (hash(coordinate, ORDER_SEED) >>> 11) * 0x1.0p-53;
 	}
 
 	/**
-	 * Returns the order for a coordinate.
+	 * Returns the bit for a coordinate, as drawn from a {@link MersenneTwister}
+	 * seeded with the coordinate (the compatibility mode).
 	 *
 	 * @param coordinate	coordinate array
 	 * @param n				the number of available bits in the SDR
@@ -153,24 +244,224 @@ public class CoordinateEncoder extends Encoder<Tuple> implements CoordinateOrder
 	 * @return	The index to a bit in the SDR
 	 */
 	public static int bitForCoordinate(int[] coordinate, int n) {
+		MersenneTwister random = RANDOM.get();
 		random.setSeed(coordinate);
 		return random.nextInt(n);
 	}
+	
+	/**
+	 * Returns the bit for a coordinate, as used by this encoder's mode.
+	 *
+	 * @param coordinate	coordinate array
+	 * @param n				the number of available bits in the SDR
+	 *
+	 * @return	The index to a bit in the SDR
+	 */
+	public int bitFor(int[] coordinate, int n) {
+		if(compatibilityMode) {
+			return bitForCoordinate(coordinate, n);
+		}
+		// Maps the top 31 bits of the hash onto [0, n) without division
+		return (int)(((hash(coordinate, BIT_SEED) >>> 33) * n) >>> 31);
+	}
+	
+	/**
+	 * Returns a 64-bit hash of the specified coordinate, in which every bit
+	 * depends on every bit of every dimension.
+	 * 
+	 * @param coordinate	coordinate array
+	 * @param seed			distinguishes independent hashes of the same coordinate
+	 * @return
+	 */
+	static long hash(int[] coordinate, long seed) {
+		long h = seed ^ coordinate.length;
+		for(int i = 0;i < coordinate.length;i++) {
+			h = mix(h + 0x9E3779B97F4A7C15L + (coordinate[i] & 0xFFFFFFFFL));
+		}
+		return mix(h);
+	}
+	
+	/**
+	 * The finalizer of the SplitMix64 generator
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void encodeIntoArray(Tuple inputData, int[] output) {
-		List<int[]> neighs = neighbors((int[])inputData.get(0), (double)inputData.get(1));
-		int[][] neighbors = new int[neighs.size()][];
-		for(int i = 0;i < neighs.size();i++) neighbors[i] = neighs.get(i);
+		encodeIntoArray(inputData, output, 0);
+	}
 
-		int[][] winners = topWCoordinates(this, neighbors, w);
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoArray(Tuple inputData, int[] output, int offset) {
+		Arrays.fill(output, offset, offset + n, 0);
+		int[] coordinate = (int[])inputData.get(0);
+		Encoding encoding = ENCODINGS.get();
+		encoding.reset(this, w, coordinate.length);
+		try {
+			forEachNeighbor(coordinate, (double)inputData.get(1), encoding.neighbor, encoding);
+		}finally{
+			encoding.order = null;
+		}
 
-		for(int i = 0;i < winners.length;i++) {
-			int bit = bitForCoordinate(winners[i], n);
-			output[bit] = 1;
+		TopW winners = encoding.winners;
+		for(int i = 0;i < winners.size;i++) {
+			winners.copyCoordinate(i, encoding.neighbor);
+			int bit = bitFor(encoding.neighbor, n);
+			output[offset + bit] = 1;
+		}
+	}
+	
+	/**
+	 * Streams the neighbors of a coordinate into the top w heap,
+	 * reusing its buffers from one encoding to the next.
+	 */
+	private static final class Encoding implements NeighborVisitor {
+		final TopW winners = new TopW(0, 0);
+		int[] neighbor = new int[0];
+		/** The order of the encoder using the buffers, only while encoding */
+		CoordinateOrder order;
+		
+		void reset(CoordinateOrder order, int w, int dimensions) {
+			this.order = order;
+			winners.reset(w, dimensions);
+			if(neighbor.length != dimensions) {
+				neighbor = new int[dimensions];
+			}
+		}
+		
+		@Override public void visit(int[] neighbor, int index) {
+			winners.offer(order.orderForCoordinate(neighbor), index, neighbor);
+		}
+	}
+	
+	/**
+	 * Keeps the top w (order, index) pairs offered, in a min-heap ordered
+	 * by order and then by index, optionally along with their coordinates.
+	 */
+	static final class TopW {
+		double[] orders;
+		int[] indexes;
+		int[] coordinates;
+		int size;
+		private int w;
+		private int dimensions;
+		
+		TopW(int w, int dimensions) {
+			reset(w, dimensions);
+		}
+		
+		/**
+		 * Empties the heap, growing its buffers as needed
+		 */
+		void reset(int w, int dimensions) {
+			if(orders == null || orders.length < w) {
+				orders = new double[w];
+				indexes = new int[w];
+			}
+			if(coordinates == null || coordinates.length < w * dimensions) {
+				coordinates = new int[w * dimensions];
+			}
+			this.w = w;
+			this.dimensions = dimensions;
+			this.size = 0;
+		}
+		
+		/**
+		 * Offers a pair, which is kept if it ranks among the top w
+		 * @param order			the order of the coordinate
+		 * @param index			the index of the coordinate
+		 * @param coordinate	the coordinate to copy, or null
+		 */
+		void offer(double order, int index, int[] coordinate) {
+			int slot;
+			if(size < w) {
+				slot = size++;
+				// Sift up
+				while(slot > 0) {
+					int parent = (slot - 1) >>> 1;
+					if(!precedes(order, index, orders[parent], indexes[parent])) break;
+					move(parent, slot);
+					slot = parent;
+				}
+			}else if(w > 0 && precedes(orders[0], indexes[0], order, index)) {
+				slot = 0;
+				// Sift down
+				for(int child;(child = 2 * slot + 1) < size;slot = child) {
+					if(child + 1 < size && precedes(orders[child + 1], indexes[child + 1], orders[child], indexes[child])) {
+						child++;
+					}
+					if(!precedes(orders[child], indexes[child], order, index)) break;
+					move(child, slot);
+				}
+			}else{
+				return;
+			}
+			orders[slot] = order;
+			indexes[slot] = index;
+			if(coordinate != null) {
+				System.arraycopy(coordinate, 0, coordinates, slot * dimensions, dimensions);
+			}
+		}
+		
+		/**
+		 * Sorts the kept pairs in increasing order, which
+		 * leaves them in a sorted array rather than a heap.
+		 */
+		void sort() {
+			int n = size;
+			double[] sortedOrders = new double[n];
+			int[] sortedIndexes = new int[n];
+			for(int i = n - 1;i >= 0;i--) {
+				// Removes the smallest remaining pair from the heap
+				sortedOrders[n - 1 - i] = orders[0];
+				sortedIndexes[n - 1 - i] = indexes[0];
+				double order = orders[i];
+				int index = indexes[i];
+				size = i;
+				int slot = 0;
+				for(int child;(child = 2 * slot + 1) < size;slot = child) {
+					if(child + 1 < size && precedes(orders[child + 1], indexes[child + 1], orders[child], indexes[child])) {
+						child++;
+					}
+					if(!precedes(orders[child], indexes[child], order, index)) break;
+					orders[slot] = orders[child];
+					indexes[slot] = indexes[child];
+				}
+				orders[slot] = order;
+				indexes[slot] = index;
+			}
+			System.arraycopy(sortedOrders, 0, orders, 0, n);
+			System.arraycopy(sortedIndexes, 0, indexes, 0, n);
+			size = n;
+		}
+		
+		/**
+		 * Copies the coordinate kept in the specified slot into the specified array
+		 */
+		void copyCoordinate(int slot, int[] coordinate) {
+			System.arraycopy(coordinates, slot * dimensions, coordinate, 0, dimensions);
+		}
+		
+		private void move(int from, int to) {
+			orders[to] = orders[from];
+			indexes[to] = indexes[from];
+			if(dimensions > 0) {
+				System.arraycopy(coordinates, from * dimensions, coordinates, to * dimensions, dimensions);
+			}
+		}
+		
+		private static boolean precedes(double order, int index, double otherOrder, int otherIndex) {
+			return order < otherOrder || (order == otherOrder && index < otherIndex);
 		}
 	}
 
@@ -189,6 +480,8 @@ public class CoordinateEncoder extends Encoder<Tuple> implements CoordinateOrder
 	 * @see ScalarEncoder.Builder#setStuff(int)
 	 */
 	public static class Builder extends Encoder.Builder<CoordinateEncoder.Builder, CoordinateEncoder> {
+		private boolean compatibilityMode;
+		
 		private Builder() {}
 
 		@Override
@@ -218,8 +511,22 @@ public class CoordinateEncoder extends Encoder<Tuple> implements CoordinateOrder
 			if(name == null || name.equals("None")) {
 				name = new StringBuilder("[").append(n).append(":").append(w).append("]").toString();
 			}
+			
+			((CoordinateEncoder)encoder).compatibilityMode = compatibilityMode;
 
 			return (CoordinateEncoder)encoder;
 		}
+		
+		/**
+		 * Whether to order coordinates and choose their bits with a seeded
+		 * {@link MersenneTwister}, reproducing the encodings of earlier versions,
+		 * rather than with a (faster) hash. Defaults to false.
+		 * @param compatibilityMode
+		 * @return
+		 */
+		public Builder compatibilityMode(boolean compatibilityMode) {
+			this.compatibilityMode = compatibilityMode;
+			return this;
+		}
 	}
 }
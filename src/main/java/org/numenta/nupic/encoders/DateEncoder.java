@@ -111,6 +111,12 @@ public class DateEncoder extends Encoder<Date> {
             new Tuple(12, 25)
     );
 
+    /** The sub-encoders and their offsets, compiled from the encoder tuples */
+    private Encoder<?>[] childEncoders;
+    private int[] childOffsets;
+    /** Scratch list of the sub-field scalars of the date being encoded */
+    private TDoubleArrayList scalarBuffer = new TDoubleArrayList();
+
     /**
      * Constructs a new {@code DateEncoder}
      *
@@ -248,6 +254,7 @@ public class DateEncoder extends Encoder<Date> {
     @SuppressWarnings({ "rawtypes", "unchecked" })
     public void addEncoder(String name, Encoder child) {
         super.addEncoder(this, name, child, width);
+        childEncoders = null;
 
         for (Object d : child.getDescription()) {
             Tuple dT = (Tuple) d;
@@ -385,29 +392,80 @@ public class DateEncoder extends Encoder<Date> {
      * {@inheritDoc}
      */
     // Adapted from MultiEncoder
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
     public void encodeIntoArray(Date inputData, int[] output) {
+        encodeIntoArray(inputData, output, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void encodeIntoArray(Date inputData, int[] output, int offset) {
 
         if(inputData == null) {
             throw new IllegalArgumentException("DateEncoder requires a valid Date object but got null");
         }
 
         // Get the scalar values for each sub-field
-        TDoubleList scalars = getScalars(inputData);
+        scalarBuffer.resetQuick();
+        addScalars(inputData, scalarBuffer);
+
+        if(childEncoders == null) {
+            compileEncoders();
+        }
+        for(int i = 0;i < childEncoders.length;i++) {
+            Encoder encoder = childEncoders[i];
+            if(encoder instanceof ScalarEncoder) {
+                ((ScalarEncoder)encoder).encodeIntoArray(scalarBuffer.get(i), output, offset + childOffsets[i]);
+            }else{
+                encoder.encodeIntoArray(scalarBuffer.get(i), output, offset + childOffsets[i]);
+            }
+        }
+    }
 
-        int fieldCounter = 0;
-        for (EncoderTuple t : getEncoders(this)) {
-            Encoder encoder = t.getEncoder();
-            int offset = t.getOffset();
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void encodeIntoIndices(Date inputData, TIntList output, int offset) {
 
-            int[] tempArray = new int[encoder.getWidth()];
-            encoder.encodeIntoArray(scalars.get(fieldCounter), tempArray);
+        if(inputData == null) {
+            throw new IllegalArgumentException("DateEncoder requires a valid Date object but got null");
+        }
 
-            System.arraycopy(tempArray, 0, output, offset, tempArray.length);
+        scalarBuffer.resetQuick();
+        addScalars(inputData, scalarBuffer);
 
-            ++fieldCounter;
+        if(childEncoders == null) {
+            compileEncoders();
         }
+        for(int i = 0;i < childEncoders.length;i++) {
+            Encoder encoder = childEncoders[i];
+            if(encoder instanceof ScalarEncoder) {
+                ((ScalarEncoder)encoder).encodeIntoIndices(scalarBuffer.get(i), output, offset + childOffsets[i]);
+            }else{
+                encoder.encodeIntoIndices(scalarBuffer.get(i), output, offset + childOffsets[i]);
+            }
+        }
+    }
+
+    /**
+     * Copies the sub-encoders and their offsets out of the encoder tuples
+     */
+    private void compileEncoders() {
+        List<EncoderTuple> tuples = getEncoders(this);
+        int size = tuples == null ? 0 : tuples.size();
+        Encoder<?>[] encoders = new Encoder<?>[size];
+        int[] offsets = new int[size];
+        for(int i = 0;i < size;i++) {
+            encoders[i] = tuples.get(i).getEncoder();
+            offsets[i] = tuples.get(i).getOffset();
+        }
+        childOffsets = offsets;
+        childEncoders = encoders;
     }
 
     /**
@@ -452,7 +510,18 @@ public class DateEncoder extends Encoder<Date> {
         }
 
         TDoubleList values = new TDoubleArrayList();
+        addScalars(inputData, values);
+        return values;
+    }
 
+    /**
+     * Adds the sub-field scalar value(s) of the inputData to the specified list,
+     * in the order of the sub-encoders.
+     *
+     * @param inputData	the input value, in this case a date object
+     * @param values	the list to add to
+     */
+    private void addScalars(Date inputData, TDoubleList values) {
         DateTime date = new DateTime(inputData);
 
         //Get the scalar values for each sub-field
@@ -532,8 +601,6 @@ public class DateEncoder extends Encoder<Date> {
         if(timeOfDayEncoder != null) {
             values.add(timeOfDay);
         }
-
-        return values;
     }
 
     /**
@@ -22,11 +22,12 @@
 
 package org.numenta.nupic.encoders;
 
+import gnu.trove.list.TIntList;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.numenta.nupic.Connections;
 
 public class DeltaEncoder extends AdaptiveScalarEncoder {
 	
@@ -86,29 +87,45 @@ public class DeltaEncoder extends AdaptiveScalarEncoder {
 	}
 
 	/**
-	 * Encodes inputData and puts the encoded value into the output array,
-     * which is a 1-D array of length returned by {@link Connections#getW()}.
+	 * Encodes inputData into the {@link #getN()} bits of the output array
+	 * starting at {@code offset}.
 	 *
-     * Note: The output array is reused, so clear it before updating it.
-	 * @param inputData Data to encode. This should be validated by the encoder.
-	 * @param output 1-D array of same length returned by {@link Connections#getW()}
+	 * @param input		Data to encode. This should be validated by the encoder.
+	 * @param output	the array to encode into
+	 * @param offset	the index of the first bit of this encoder's output
      */
 	@Override
-	public void encodeIntoArray(Double input, int[] output) {
-		if (!(input instanceof Double)) {
-			throw new IllegalArgumentException(
-					String.format("Expected a Double input but got input of type %s", input.toString()));
-		}
-		double delta = 0;
+	public void encodeIntoArray(double input, int[] output, int offset) {
 		if (input == DeltaEncoder.SENTINEL_VALUE_FOR_MISSING_DATA) {
-			output = new int[this.n];
-			Arrays.fill(output, 0);
+			Arrays.fill(output, offset, offset + getN(), 0);
 		} else {
+			super.encodeIntoArray(input, output, offset);
+		}
+		updateState(input);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoIndices(double input, TIntList output, int offset) {
+		if (input != DeltaEncoder.SENTINEL_VALUE_FOR_MISSING_DATA) {
+			super.encodeIntoIndices(input, output, offset);
+		}
+		updateState(input);
+	}
+
+	/**
+	 * Records the input as the previous absolute value, unless the state is locked
+	 * @param input
+	 */
+	private void updateState(double input) {
+		double delta = 0;
+		if (input != DeltaEncoder.SENTINEL_VALUE_FOR_MISSING_DATA) {
 			if (this.prevAbsolute == 0) {
 				this.prevAbsolute = input;
 			}
 			delta = input - this.prevAbsolute;
-			super.encodeIntoArray(input, output);
 		}
 		if (!this.stateLock) {
 			this.prevAbsolute = input;
@@ -590,6 +590,65 @@ public abstract class Encoder<T> {
 	 */
 	public abstract void encodeIntoArray(T inputData, int[] output);
 
+	/**
+	 * Encodes inputData into the {@link #getWidth()} bits of the output array
+	 * starting at {@code offset}. Every bit of that slice is written, and the
+	 * bits outside of it are left untouched. This is how composite encoders such
+	 * as the {@link MultiEncoder} and the {@link DateEncoder} lay out the output
+	 * of their sub-encoders, without an intermediate array per sub-encoder.
+	 *
+	 * The default implementation encodes into an array of its own and copies
+	 * it into place, so that it may be called concurrently and from within
+	 * the encoding of a composite encoder; encoders override it to write the
+	 * slice directly.
+	 *
+	 * @param inputData	Data to encode. This should be validated by the encoder.
+	 * @param output	the array to encode into
+	 * @param offset	the index of the first bit of this encoder's output
+	 */
+	public void encodeIntoArray(T inputData, int[] output, int offset) {
+		int[] buffer = new int[getWidth()];
+		encodeIntoArray(inputData, buffer);
+		System.arraycopy(buffer, 0, output, offset, buffer.length);
+	}
+
+	/**
+	 * Encodes inputData into the sorted indexes of the on bits of its encoding,
+	 * which replace the contents of the specified list. This is the sparse
+	 * counterpart of {@link #encodeIntoArray(Object, int[])}, see
+	 * {@link org.numenta.nupic.research.SpatialPooler#computeSparse(org.numenta.nupic.Connections, int[], int[], boolean, boolean)}.
+	 *
+	 * @param inputData	Data to encode. This should be validated by the encoder.
+	 * @param output	the list to fill with the indexes of the on bits
+	 */
+	public void encodeIntoIndices(T inputData, TIntList output) {
+		output.clear();
+		encodeIntoIndices(inputData, output, 0);
+	}
+
+	/**
+	 * Appends to the specified list the sorted indexes of the on bits of the
+	 * encoding of inputData, each shifted by {@code offset}. Composite encoders
+	 * append the indexes of their sub-encoders in the order of their offsets,
+	 * so that the whole list stays sorted.
+	 *
+	 * The default implementation scans the dense encoding, held in an array
+	 * of its own; encoders override it to produce the indexes directly.
+	 *
+	 * @param inputData	Data to encode. This should be validated by the encoder.
+	 * @param output	the list to append the indexes of the on bits to
+	 * @param offset	the index of the first bit of this encoder's output
+	 */
+	public void encodeIntoIndices(T inputData, TIntList output, int offset) {
+		int[] buffer = new int[getWidth()];
+		encodeIntoArray(inputData, buffer);
+		for(int i = 0;i < buffer.length;i++) {
+			if(buffer[i] != 0) {
+				output.add(offset + i);
+			}
+		}
+	}
+
 	/**
 	 * Set whether learning is enabled.
 	 * @param 	learningEnabled		flag indicating whether learning is enabled
@@ -0,0 +1,124 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.encoders;
+
+/**
+ * A bounded cache of sparse encodings, keyed by bucket index, for encoders
+ * of low cardinality fields whose inputs repeat often. Each bucket index maps
+ * to a single slot (the cache is direct mapped), so looking up or replacing
+ * an entry costs the same whatever the number of entries held. The number of
+ * hits and misses is counted so that the benefit of the cache can be checked.
+ *
+ * An encoding must be fully determined by its bucket index for it to be cached.
+ *
+ * @see CategoryEncoder.Builder#encodingCacheSize(int)
+ */
+public class EncodingCache {
+	private final int[] bucketIndexes;
+	private final int[][] encodings;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructs a new {@code EncodingCache}
+	 *
+	 * @param capacity	the maximum number of encodings held
+	 */
+	public EncodingCache(int capacity) {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be greater than 0");
+		}
+		bucketIndexes = new int[capacity];
+		encodings = new int[capacity][];
+	}
+
+	/**
+	 * Returns the sorted indexes of the on bits of the encoding of the specified
+	 * bucket, or null if it is not held, in which case it should be added with
+	 * {@link #put(int, int[])}.
+	 *
+	 * @param bucketIndex	the bucket index
+	 * @return	the indexes of the on bits, which must not be modified, or null
+	 */
+	public int[] get(int bucketIndex) {
+		int slot = slot(bucketIndex);
+		if(encodings[slot] != null && bucketIndexes[slot] == bucketIndex) {
+			hits++;
+			return encodings[slot];
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Holds the encoding of the specified bucket, replacing the encoding of
+	 * any other bucket which shares its slot.
+	 *
+	 * @param bucketIndex	the bucket index
+	 * @param onBits		the sorted indexes of the on bits
+	 */
+	public void put(int bucketIndex, int[] onBits) {
+		int slot = slot(bucketIndex);
+		bucketIndexes[slot] = bucketIndex;
+		encodings[slot] = onBits;
+	}
+
+	private int slot(int bucketIndex) {
+		return Math.floorMod(bucketIndex, encodings.length);
+	}
+
+	/**
+	 * Removes all encodings and resets the hit and miss counts.
+	 */
+	public void clear() {
+		for(int i = 0;i < encodings.length;i++) {
+			encodings[i] = null;
+		}
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Returns the maximum number of encodings held
+	 * @return
+	 */
+	public int getCapacity() {
+		return encodings.length;
+	}
+
+	/**
+	 * Returns the number of lookups which found the encoding
+	 * @return
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups which did not find the encoding
+	 * @return
+	 */
+	public long getMisses() {
+		return misses;
+	}
+}
@@ -53,14 +53,14 @@ public class GeospatialCoordinateEncoder extends CoordinateEncoder {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void encodeIntoArray(Tuple inputData, int[] output) {
+	public void encodeIntoArray(Tuple inputData, int[] output, int offset) {
 		double longitude = (double)inputData.get(0);
 		double lattitude = (double)inputData.get(1);
 		double speed = (double)inputData.get(2);
 		int[] coordinate = coordinateForPosition(longitude, lattitude);
 		double radius = radiusForSpeed(speed);
 		
-		super.encodeIntoArray(new Tuple(coordinate, radius), output);
+		super.encodeIntoArray(new Tuple(coordinate, radius), output, offset);
 	}
 	
 	public int[] coordinateForPosition(double longitude, double lattitude) {
@@ -128,6 +128,7 @@ public class GeospatialCoordinateEncoder extends CoordinateEncoder {
 	public static class Builder extends Encoder.Builder<GeospatialCoordinateEncoder.Builder, GeospatialCoordinateEncoder> {
 		private int scale;
 		private int timestep;
+		private boolean compatibilityMode;
 		
 		private Builder() {}
 
@@ -150,6 +151,7 @@ public class GeospatialCoordinateEncoder extends CoordinateEncoder {
 			
 			((GeospatialCoordinateEncoder)encoder).scale = scale;
 			((GeospatialCoordinateEncoder)encoder).timestep = timestep;
+			((GeospatialCoordinateEncoder)encoder).setCompatibilityMode(compatibilityMode);
 			
 			if(w <= 0 || w % 2 == 0) {
 				throw new IllegalArgumentException("w must be odd, and must be a positive integer");
@@ -189,5 +191,17 @@ public class GeospatialCoordinateEncoder extends CoordinateEncoder {
 			this.timestep = timestep;
 			return this;
 		}
+		
+		/**
+		 * Whether to order coordinates and choose their bits with a seeded
+		 * {@link org.numenta.nupic.util.MersenneTwister}, reproducing the encodings
+		 * of earlier versions, rather than with a (faster) hash. Defaults to false.
+		 * @param compatibilityMode
+		 * @return
+		 */
+		public Builder compatibilityMode(boolean compatibilityMode) {
+			this.compatibilityMode = compatibilityMode;
+			return this;
+		}
 	}
 }
@@ -196,15 +196,24 @@ public class LogEncoder extends Encoder<Double> {
 		if(input == SENTINEL_VALUE_FOR_MISSING_DATA) {
 			return null;
 		} else {
-			double val = input;
-			if (val < getMinVal()) {
-				val = getMinVal();
-			} else if (val > getMaxVal()) {
-				val = getMaxVal();
-			}
+			return logValue(input);
+		}
+	}
 
-			return Math.log10(val);
+	/**
+	 * Clips the input to the range of this encoder and converts it into log space
+	 * @param input Value in normal space.
+	 * @return Value in log space.
+	 */
+	private double logValue(double input) {
+		double val = input;
+		if (val < getMinVal()) {
+			val = getMinVal();
+		} else if (val > getMaxVal()) {
+			val = getMaxVal();
 		}
+
+		return Math.log10(val);
 	}
 
 	/**
@@ -235,16 +244,26 @@ public class LogEncoder extends Encoder<Double> {
 	 */
 	@Override
 	public void encodeIntoArray(Double input, int[] output) {
-		Double scaledVal = getScaledValue(input);
+		encodeIntoArray(input, output, 0);
+	}
 
-		if (scaledVal == null) {
-			Arrays.fill(output, 0);
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoArray(Double input, int[] output, int offset) {
+		double value = input;
+		if (value == SENTINEL_VALUE_FOR_MISSING_DATA) {
+			Arrays.fill(output, offset, offset + getWidth(), 0);
 		} else {
-			encoder.encodeIntoArray(scaledVal, output);
+			double scaledVal = logValue(value);
+			encoder.encodeIntoArray(scaledVal, output, offset);
 
-			LOG.trace("input: " + input);
-			LOG.trace(" scaledVal: " + scaledVal);
-			LOG.trace(" output: " + Arrays.toString(output));
+			if (LOG.isTraceEnabled()) {
+				LOG.trace("input: " + input);
+				LOG.trace(" scaledVal: " + scaledVal);
+				LOG.trace(" output: " + Arrays.toString(Arrays.copyOfRange(output, offset, offset + getWidth())));
+			}
 		}
 	}
 
@@ -22,15 +22,19 @@
 
 package org.numenta.nupic.encoders;
 
+import gnu.trove.list.TIntList;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import org.numenta.nupic.Parameters;
+import org.numenta.nupic.util.BeanUtil;
 import org.numenta.nupic.util.Tuple;
 
 /**
@@ -51,6 +55,14 @@ public class MultiEncoder extends Encoder<Object> {
 
 	protected int width;
 
+	/** The sub-encoders, their field names and offsets, compiled from the encoder tuples */
+	private Encoder<?>[] fieldEncoders;
+	private String[] fieldNames;
+	private int[] fieldOffsets;
+	/** Reads each field of the inputs of type {@link #accessorType} */
+	private FieldAccessor[] fieldAccessors;
+	private Class<?> accessorType;
+
 	/**
 	 * Constructs a new {@code MultiEncoder}
 	 */
@@ -82,18 +94,180 @@ public class MultiEncoder extends Encoder<Object> {
 	/**
 	 * {@inheritDoc}
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void encodeIntoArray(Object input, int[] output) {
-		for (EncoderTuple t : getEncoders(this)) {
-			String name = t.getName();
-			Encoder encoder = t.getEncoder();
-			int offset = t.getOffset();
+		encodeIntoArray(input, output, 0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	public void encodeIntoArray(Object input, int[] output, int offset) {
+		FieldAccessor[] accessors = getFieldAccessors(input);
+		for(int i = 0;i < fieldEncoders.length;i++) {
+			Encoder encoder = fieldEncoders[i];
+			encoder.encodeIntoArray(accessors[i].get(input), output, offset + fieldOffsets[i]);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	public void encodeIntoIndices(Object input, TIntList output, int offset) {
+		FieldAccessor[] accessors = getFieldAccessors(input);
+		for(int i = 0;i < fieldEncoders.length;i++) {
+			Encoder encoder = fieldEncoders[i];
+			encoder.encodeIntoIndices(accessors[i].get(input), output, offset + fieldOffsets[i]);
+		}
+	}
+
+	/**
+	 * Gets the value of a given field from the input record, which may be a
+	 * {@link Map} of field names to values or a bean with a getter for the field.
+	 *
+	 * @param inputObject	input object
+	 * @param fieldName		the name of the field containing the input object.
+	 * @return
+	 */
+	@Override
+	public Object getInputValue(Object inputObject, String fieldName) {
+		return accessorFor(inputObject.getClass(), fieldName).get(inputObject);
+	}
+
+	/**
+	 * Returns the accessors of the fields of the sub-encoders for inputs of the
+	 * type of the specified input, resolving them only when the type changes.
+	 *
+	 * @param input		the input record
+	 * @return
+	 */
+	private FieldAccessor[] getFieldAccessors(Object input) {
+		if(fieldEncoders == null) {
+			compileEncoders();
+		}
+		Class<?> type = input.getClass();
+		if(type != accessorType) {
+			FieldAccessor[] accessors = new FieldAccessor[fieldNames.length];
+			for(int i = 0;i < accessors.length;i++) {
+				accessors[i] = accessorFor(type, fieldNames[i]);
+			}
+			fieldAccessors = accessors;
+			accessorType = type;
+		}
+		return fieldAccessors;
+	}
+
+	/**
+	 * Copies the sub-encoders, their names and offsets out of the encoder tuples
+	 */
+	private void compileEncoders() {
+		List<EncoderTuple> tuples = getEncoders(this);
+		int size = tuples == null ? 0 : tuples.size();
+		Encoder<?>[] encoders = new Encoder<?>[size];
+		String[] names = new String[size];
+		int[] offsets = new int[size];
+		for(int i = 0;i < size;i++) {
+			EncoderTuple t = tuples.get(i);
+			encoders[i] = t.getEncoder();
+			names[i] = t.getName();
+			offsets[i] = t.getOffset();
+		}
+		fieldNames = names;
+		fieldOffsets = offsets;
+		fieldEncoders = encoders;
+		accessorType = null;
+	}
+
+	/**
+	 * Returns a {@link FieldAccessor} reading the specified field from inputs
+	 * of the specified type.
+	 *
+	 * @param type			the type of the input records
+	 * @param fieldName		the name of the field
+	 * @return
+	 */
+	static FieldAccessor accessorFor(Class<?> type, String fieldName) {
+		if(Map.class.isAssignableFrom(type)) {
+			return new MapFieldAccessor(fieldName);
+		}
+		BeanUtil.PropertyInfo info = BeanUtil.getInstance().getPropertyInfo(type, fieldName);
+		if(info == null || info.getReadMethod() == null) {
+			return FieldAccessor.NONE;
+		}
+		return new GetterFieldAccessor(info.getReadMethod());
+	}
 
-			int[] tempArray = new int[encoder.getWidth()];
-			encoder.encodeIntoArray(getInputValue(input, name), tempArray);
+	/**
+	 * Reads the value of one field from input records. Accessors are resolved
+	 * once per type of input, rather than for every field of every record.
+	 */
+	static abstract class FieldAccessor {
+		/** Accessor of fields unknown to the type of input */
+		static final FieldAccessor NONE = new FieldAccessor() {
+			@Override
+			Object get(Object input) {
+				return null;
+			}
+		};
+
+		/**
+		 * Returns the value of the field in the specified input record
+		 * @param input
+		 * @return
+		 */
+		abstract Object get(Object input);
+	}
 
-			System.arraycopy(tempArray, 0, output, offset, tempArray.length);
+	/**
+	 * Reads a field from {@link Map} inputs keyed by field name
+	 */
+	private static final class MapFieldAccessor extends FieldAccessor {
+		private final String fieldName;
+
+		MapFieldAccessor(String fieldName) {
+			this.fieldName = fieldName;
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		Object get(Object input) {
+			Map map = (Map)input;
+			Object value = map.get(fieldName);
+			if(value == null && !map.containsKey(fieldName)) {
+				throw new IllegalArgumentException("Unknown field name " + fieldName +
+					" known fields are: " + map.keySet() + ". ");
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Reads a field from bean inputs through its getter
+	 */
+	private static final class GetterFieldAccessor extends FieldAccessor {
+		private static final Object[] NO_ARGS = new Object[0];
+
+		private final Method getter;
+
+		GetterFieldAccessor(Method getter) {
+			this.getter = getter;
+		}
+
+		@Override
+		Object get(Object input) {
+			try {
+				return getter.invoke(input, NO_ARGS);
+			}catch(IllegalAccessException e) {
+				throw new IllegalArgumentException("Cannot invoke " + getter.getDeclaringClass().getName() +
+					"." + getter.getName() + " - " + e.getMessage(), e);
+			}catch(InvocationTargetException e) {
+				throw new IllegalArgumentException("Error invoking " + getter.getDeclaringClass().getName() +
+					"." + getter.getName() + " - " + e.getTargetException().getMessage(), e.getTargetException());
+			}
 		}
 	}
 
@@ -127,6 +301,7 @@ public class MultiEncoder extends Encoder<Object> {
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public void addEncoder(String name, Encoder child) {
 		super.addEncoder(this, name, child, width);
+		fieldEncoders = null;
 
 		for (Object d : child.getDescription()) {
 			Tuple dT = (Tuple) d;
@@ -22,10 +22,11 @@
 
 package org.numenta.nupic.encoders;
 
+import gnu.trove.list.TIntList;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 
 import org.numenta.nupic.FieldMetaType;
@@ -100,7 +101,12 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 	int maxIndex;
 	int numRetry;
 
-	HashMap<Integer, List<Integer>> bucketMap;
+	BucketMap bucketMap;
+
+	/** Scratch bitset of the candidate representation being checked */
+	private long[] overlapBuffer;
+	/** Scratch for the candidate representation of a new bucket */
+	private int[] representationBuffer;
 
 	RandomDistributedScalarEncoder() {
 	}
@@ -189,16 +195,25 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 		setOffset(offset);
 
 		/*
-		 * This HashMap maps a bucket index into its bit representation We
-		 * initialize the HashMap with a single bucket with index 0
+		 * This BucketMap maps a bucket index into its bit representation We
+		 * initialize the BucketMap with a single bucket with index minIndex
 		 */
-		bucketMap = new HashMap<Integer, List<Integer>>();
-		// generate the random permutation
-		ArrayList<Integer> temp = new ArrayList<Integer>(getN());
+		bucketMap = new BucketMap(maxBuckets, getW());
+		overlapBuffer = new long[(getN() + 63) >>> 6];
+		representationBuffer = new int[getW()];
+
+		// generate the random permutation, drawing from the rng exactly as
+		// Collections.shuffle() does so that seeded encodings are unchanged
+		int[] temp = new int[getN()];
 		for (int i = 0; i < getN(); i++)
-			temp.add(i, i);
-		java.util.Collections.shuffle(temp, rng);
-		bucketMap.put(getMinIndex(), temp.subList(0, getW()));
+			temp[i] = i;
+		for (int i = temp.length; i > 1; i--) {
+			int j = rng.nextInt(i);
+			int swap = temp[i - 1];
+			temp[i - 1] = temp[j];
+			temp[j] = swap;
+		}
+		bucketMap.put(getMinIndex(), temp, 0);
 
 		// How often we need to retry when generating valid encodings
 		setNumRetry(0);
@@ -218,7 +233,7 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 				 * Create a new representation that has exactly w-1 overlapping
 				 * bits as the min representation
 				 */
-				bucketMap.put(index, newRepresentation(getMinIndex(), index));
+				bucketMap.put(index, createRepresentation(getMinIndex(), index), 0);
 				setMinIndex(index);
 			} else {
 				// Recursively create all the indices above and then this index
@@ -231,7 +246,7 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 				 * Create a new representation that has exactly w-1 overlapping
 				 * bits as the max representation
 				 */
-				bucketMap.put(index, newRepresentation(getMaxIndex(), index));
+				bucketMap.put(index, createRepresentation(getMaxIndex(), index), 0);
 				setMaxIndex(index);
 			} else {
 				// Recursively create all the indices below and then this index
@@ -251,8 +266,27 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 	 */
 	public List<Integer> newRepresentation(int index, int newIndex)
 			throws IllegalStateException {
-		List<Integer> newRepresentation = new ArrayList<Integer>(
-				bucketMap.get(index));
+		int[] newRep = createRepresentation(index, newIndex);
+		List<Integer> newRepresentation = new ArrayList<Integer>(newRep.length);
+		for (int bit : newRep)
+			newRepresentation.add(bit);
+		return newRepresentation;
+	}
+
+	/**
+	 * Fills the representation buffer with a new representation for newIndex
+	 * that overlaps with the representation at index by exactly w-1 bits
+	 *
+	 * @param index
+	 * @param newIndex
+	 * @return the representation buffer
+	 * @throws IllegalStateException
+	 */
+	private int[] createRepresentation(int index, int newIndex)
+			throws IllegalStateException {
+		int[] newRepresentation = representationBuffer;
+		System.arraycopy(bucketMap.bits, bucketMap.offset(index),
+				newRepresentation, 0, getW());
 
 		/*
 		 * Choose the bit we will replace in this representation. We need to
@@ -265,12 +299,12 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 
 		// Now we choose a bit such that the overlap rules are satisfied.
 		int newBit = rng.nextInt(getN());
-		newRepresentation.set(ri, newBit);
-		while (bucketMap.get(index).contains(newBit)
+		newRepresentation[ri] = newBit;
+		while (bucketMap.contains(index, newBit)
 				|| !newRepresentationOK(newRepresentation, newIndex)) {
 			setNumRetry(getNumRetry() + 1);
 			newBit = rng.nextInt(getN());
-			newRepresentation.set(ri, newBit);
+			newRepresentation[ri] = newBit;
 		}
 
 		return newRepresentation;
@@ -289,34 +323,69 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 	public boolean newRepresentationOK(List<Integer> newRep, int newIndex) {
 		if (newRep.size() != getW())
 			return false;
+
+		int[] rep = new int[newRep.size()];
+		for (int i = 0; i < rep.length; i++)
+			rep[i] = newRep.get(i);
+		return newRepresentationOK(rep, newIndex);
+	}
+
+	/**
+	 * Check if the new candidate representation, an array of exactly w bits,
+	 * satisfies all our overlap rules.
+	 *
+	 * @param newRep Encoded SDR to be considered
+	 * @param newIndex The index being considered
+	 * @return {@code true} if newRep satisfies all our overlap rules
+	 * @throws IllegalStateException
+	 */
+	private boolean newRepresentationOK(int[] newRep, int newIndex) {
 		if (newIndex < getMinIndex() - 1 || newIndex > getMaxIndex() + 1)
 			throw new IllegalStateException(
 					"newIndex must be within one of existing indices");
 
 		// A binary representation of newRep. We will use this to test
 		// containment
-		boolean[] newRepBinary = new boolean[getN()];
-		Arrays.fill(newRepBinary, false);
-		for (int index : newRep)
-			newRepBinary[index] = true;
+		long[] newRepBinary = overlapBuffer;
+		for (int bit : newRep)
+			newRepBinary[bit >>> 6] |= 1L << bit;
+
+		boolean ok = runningOverlapsOK(newRepBinary, newIndex);
+
+		for (int bit : newRep)
+			newRepBinary[bit >>> 6] = 0;
+		return ok;
+	}
+
+	/**
+	 * Verifies the overlap of the candidate representation with every
+	 * existing bucket, from minIndex to maxIndex.
+	 *
+	 * @param newRepBinary the candidate representation as a bitset
+	 * @param newIndex The index being considered
+	 * @return {@code true} if all overlaps are acceptable
+	 */
+	private boolean runningOverlapsOK(long[] newRepBinary, int newIndex) {
+		int w = getW();
+		int[] bits = bucketMap.bits;
 
 		// Midpoint
 		int midIdx = getMaxBuckets() / 2;
 
 		// Start by checking the overlap at minIndex
-		int runningOverlap = countOverlap(bucketMap.get(getMinIndex()), newRep);
+		int runningOverlap = countOverlap(newRepBinary, getMinIndex());
 		if (!overlapOK(getMinIndex(), newIndex, runningOverlap))
 			return false;
 
 		// Compute running overlaps all the way to the midpoint
 		for (int i = getMinIndex() + 1; i < midIdx + 1; i++) {
 			// This is the bit that is going to change
-			int newBit = (i - 1) % getW();
+			int newBit = (i - 1) % w;
 
 			// Update our running overlap
-			if (newRepBinary[bucketMap.get(i - 1).get(newBit)])
+			if (isSet(newRepBinary, bits[(i - 1) * w + newBit]))
 				runningOverlap--;
-			if (newRepBinary[bucketMap.get(i).get(newBit)])
+			if (isSet(newRepBinary, bits[i * w + newBit]))
 				runningOverlap++;
 
 			// Verify our rules
@@ -327,12 +396,12 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 		// At this point, runningOverlap contains the overlap for midIdx
 		// Compute running overlaps all the way to maxIndex
 		for (int i = midIdx + 1; i <= getMaxIndex(); i++) {
-			int newBit = i % getW();
+			int newBit = i % w;
 
 			// Update our running overlap
-			if (newRepBinary[bucketMap.get(i - 1).get(newBit)])
+			if (isSet(newRepBinary, bits[(i - 1) * w + newBit]))
 				runningOverlap--;
-			if (newRepBinary[bucketMap.get(i).get(newBit)])
+			if (isSet(newRepBinary, bits[i * w + newBit]))
 				runningOverlap++;
 
 			// Verify our rules
@@ -342,6 +411,29 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 		return true;
 	}
 
+	private static boolean isSet(long[] bitset, int bit) {
+		return (bitset[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Get the overlap between a representation held as a bitset and the
+	 * bucket at the given index.
+	 *
+	 * @param repBinary the representation as a bitset
+	 * @param index The index of the bucket
+	 * @return The number of 'on' bits that overlap
+	 */
+	private int countOverlap(long[] repBinary, int index) {
+		int[] bits = bucketMap.bits;
+		int from = bucketMap.offset(index);
+		int overlap = 0;
+		for (int i = from; i < from + getW(); i++) {
+			if (isSet(repBinary, bits[i]))
+				overlap++;
+		}
+		return overlap;
+	}
+
 	/**
 	 * Get the overlap between two representations. rep1 and rep2 are
 	 * {@link List} of non-zero indices.
@@ -420,9 +512,17 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 		boolean containsI = bucketMap.containsKey(i);
 		boolean containsJ = bucketMap.containsKey(j);
 		if (containsI && containsJ) {
-			List<Integer> rep1 = bucketMap.get(i);
-			List<Integer> rep2 = bucketMap.get(j);
-			return countOverlap(rep1, rep2);
+			long[] repBinary = overlapBuffer;
+			int[] bits = bucketMap.bits;
+			int from = bucketMap.offset(i);
+			for (int k = from; k < from + getW(); k++)
+				repBinary[bits[k] >>> 6] |= 1L << bits[k];
+
+			int overlap = countOverlap(repBinary, j);
+
+			for (int k = from; k < from + getW(); k++)
+				repBinary[bits[k] >>> 6] = 0;
+			return overlap;
 		} else if (!containsI && !containsJ)
 			throw new IllegalStateException("index " + i + " and " + j + " don't exist");
 		else if(!containsI)
@@ -442,6 +542,18 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 	 */
 	public List<Integer> mapBucketIndexToNonZeroBits(int index)
 			throws IllegalStateException {
+		return bucketMap.get(createdBucketIndex(index));
+	}
+
+	/**
+	 * Clips the given bucket index to our range and creates the bucket if
+	 * it does not exist.
+	 *
+	 * @param index The bucket index
+	 * @return the clipped bucket index
+	 * @throws IllegalStateException
+	 */
+	private int createdBucketIndex(int index) throws IllegalStateException {
 		if (index < 0)
 			index = 0;
 
@@ -452,7 +564,7 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 			LOG.trace("Adding additional buckets to handle index={}", index);
 			createBucket(index);
 		}
-		return bucketMap.get(index);
+		return index;
 	}
 
 	/**
@@ -632,7 +744,7 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 		dumpString.append("  numTries: " + getNumRetry() + "\n");
 		dumpString.append("  name: " + getName() + "\n");
 		dumpString.append("  buckets : \n");
-		for (int index : bucketMap.keySet()) {
+		for (int index : bucketMap.keys()) {
 			dumpString.append("  [ " + index + " ]: "
 					+ Arrays.deepToString(bucketMap.get(index).toArray())
 					+ "\n");
@@ -732,31 +844,61 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 	 */
 	@Override
 	public void encodeIntoArray(Double inputData, int[] output) {
+		encodeIntoArray(inputData, output, 0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoArray(Double inputData, int[] output, int offset) {
 		int[] bucketIdx = getBucketIndices(inputData);
-		Arrays.fill(output, 0);
+		Arrays.fill(output, offset, offset + getWidth(), 0);
 
 		if (bucketIdx.length == 0)
 			return;
 
 		if (bucketIdx[0] != Integer.MIN_VALUE) {
-			List<Integer> indices;
 			try {
-				indices = mapBucketIndexToNonZeroBits(bucketIdx[0]);
-				for (int index : indices)
-					output[index] = 1;
+				int from = bucketMap.offset(createdBucketIndex(bucketIdx[0]));
+				int[] bits = bucketMap.bits;
+				for (int i = from; i < from + getW(); i++)
+					output[offset + bits[i]] = 1;
 			} catch (IllegalStateException e) {
 				e.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoIndices(Double inputData, TIntList output, int offset) {
+		int[] bucketIdx = getBucketIndices(inputData);
+
+		if (bucketIdx.length == 0 || bucketIdx[0] == Integer.MIN_VALUE)
+			return;
+
+		try {
+			int from = bucketMap.offset(createdBucketIndex(bucketIdx[0]));
+			int[] bits = bucketMap.bits;
+			int start = output.size();
+			for (int i = from; i < from + getW(); i++)
+				output.add(offset + bits[i]);
+			output.sort(start, output.size());
+		} catch (IllegalStateException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@SuppressWarnings("unchecked")
 	@Override
 	public <S> List<S> getBucketValues(Class<S> returnType) {
-		return new ArrayList<>((Collection<S>)this.bucketMap.keySet());
+		return new ArrayList<>((Collection<S>)this.bucketMap.keys());
 	}
 
 	/**
@@ -766,4 +908,105 @@ public class RandomDistributedScalarEncoder extends Encoder<Double> {
 	public List<FieldMetaType> getDecoderOutputFieldTypes() {
 		return Arrays.asList(FieldMetaType.FLOAT);
 	}
+
+	/**
+	 * Maps a bucket index to its representation. The w bits of every bucket
+	 * are held in one flat array indexed by the bucket index, so looking up
+	 * and comparing representations needs no hashing or boxing.
+	 */
+	static final class BucketMap {
+		private final int w;
+		/** The bits of the bucket at index i are at [i * w, (i + 1) * w) */
+		int[] bits;
+		private boolean[] created;
+		private int size;
+
+		BucketMap(int maxBuckets, int w) {
+			this.w = w;
+			this.bits = new int[Math.max(maxBuckets, 1) * w];
+			this.created = new boolean[Math.max(maxBuckets, 1)];
+		}
+
+		/**
+		 * @return the number of buckets created
+		 */
+		int size() {
+			return size;
+		}
+
+		boolean containsKey(int index) {
+			return index >= 0 && index < created.length && created[index];
+		}
+
+		/**
+		 * @return the position in {@link #bits} of the first bit of the bucket
+		 */
+		int offset(int index) {
+			return index * w;
+		}
+
+		/**
+		 * @return {@code true} if the bucket at index has the given bit on
+		 */
+		boolean contains(int index, int bit) {
+			for (int i = index * w; i < (index + 1) * w; i++) {
+				if (bits[i] == bit)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * @return a copy of the bits of the bucket at index, or {@code null}
+		 *         if it does not exist
+		 */
+		List<Integer> get(int index) {
+			if (!containsKey(index))
+				return null;
+
+			List<Integer> rep = new ArrayList<Integer>(w);
+			for (int i = index * w; i < (index + 1) * w; i++)
+				rep.add(bits[i]);
+			return rep;
+		}
+
+		/**
+		 * Sets the bucket at index to the w bits of rep starting at from
+		 */
+		void put(int index, int[] rep, int from) {
+			if (index >= created.length) {
+				int length = Math.max(index + 1, created.length * 2);
+				created = Arrays.copyOf(created, length);
+				bits = Arrays.copyOf(bits, length * w);
+			}
+			System.arraycopy(rep, from, bits, index * w, w);
+			if (!created[index]) {
+				created[index] = true;
+				size++;
+			}
+		}
+
+		void put(int index, List<Integer> rep) {
+			if (rep.size() != w)
+				throw new IllegalArgumentException("Representation must have "
+						+ w + " bits");
+
+			int[] array = new int[w];
+			for (int i = 0; i < w; i++)
+				array[i] = rep.get(i);
+			put(index, array, 0);
+		}
+
+		/**
+		 * @return the indices of the created buckets in ascending order
+		 */
+		List<Integer> keys() {
+			List<Integer> keys = new ArrayList<Integer>(size);
+			for (int i = 0; i < created.length; i++) {
+				if (created[i])
+					keys.add(i);
+			}
+			return keys;
+		}
+	}
 }
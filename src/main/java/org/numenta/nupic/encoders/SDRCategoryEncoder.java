@@ -22,7 +22,11 @@
 package org.numenta.nupic.encoders;
 
 import gnu.trove.list.TDoubleList;
+import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 
@@ -39,11 +43,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * Encodes a list of discrete categories (described by strings), that aren't
@@ -61,51 +63,174 @@ public class SDRCategoryEncoder extends Encoder<String> {
 
     private Random random;
     private int thresholdOverlap;
-    private final SDRByCategoryMap sdrByCategory = new SDRByCategoryMap();
+    private SDRByCategoryMap sdrByCategory;
 
     /**
-     * Inner class for keeping Categories and SDRs in ordered way
+     * Inner class for keeping Categories and SDRs in ordered way. Each category
+     * is given the index it was added at, and its SDR is held as its sorted on
+     * bits in one flat array, so lookups either way take constant time. The
+     * categories having each bit on are indexed as well, so that decoding only
+     * visits the categories which overlap the encoding.
      */
-    @SuppressWarnings("serial")
-	private static final class SDRByCategoryMap extends LinkedHashMap<String, int[]> {
+    private static final class SDRByCategoryMap {
+        private final int n;
+        private final int w;
+        private final TObjectIntMap<String> indexByCategory = new TObjectIntHashMap<String>(16, 0.5f, -1);
+        private final List<String> categories = new ArrayList<>();
+        /** The on bits of the category at index i are at [i * w, (i + 1) * w) */
+        private int[] onBits = new int[0];
+        /** The indexes of the categories having each bit on, in ascending order */
+        private final TIntArrayList[] categoriesByBit;
+
+        //////////// Scratch buffers for decoding ////////////
+        private int[] overlaps = new int[0];
+        private final TIntArrayList overlapping = new TIntArrayList();
+
+        private SDRByCategoryMap(int n, int w) {
+            this.n = n;
+            this.w = w;
+            this.categoriesByBit = new TIntArrayList[n];
+            for (int i = 0; i < n; i++) {
+                categoriesByBit[i] = new TIntArrayList();
+            }
+        }
 
-        public int[] getSdr(int index) {
-            Map.Entry<String, int[]> entry = this.getEntry(index);
-            if (entry == null) return null;
-            return entry.getValue();
+        public int size() {
+            return categories.size();
+        }
+
+        public boolean containsKey(String category) {
+            return indexByCategory.containsKey(category);
         }
 
         public String getCategory(int index) {
-            Map.Entry<String, int[]> entry = this.getEntry(index);
-            if (entry == null) return null;
-            return entry.getKey();
+            checkIndex(index);
+            return index == categories.size() ? null : categories.get(index);
         }
 
         public int getIndexByCategory(String category) {
-            Set<String> categories = this.keySet();
-            int inx = 0;
-            for (String s : categories) {
-                if (s.equals(category)) {
-                    return inx;
+            int index = indexByCategory.get(category);
+            return index == -1 ? 0 : index;
+        }
+
+        /**
+         * Returns the SDR of the category at the specified index as a new bit array
+         */
+        public int[] getSdr(int index) {
+            checkIndex(index);
+            if (index == categories.size()) return null;
+            int[] sdr = new int[n];
+            for (int i = index * w; i < (index + 1) * w; i++) {
+                sdr[onBits[i]] = 1;
+            }
+            return sdr;
+        }
+
+        private void checkIndex(int i) {
+            if (i < 0 || i > categories.size()) {
+                throw new IllegalArgumentException("Index should be in following range:[0," + categories.size() + "]");
+            }
+        }
+
+        /**
+         * Sets the bits of the SDR of the category at index in the output, which
+         * must be cleared.
+         */
+        public void setOnBits(int index, int[] output, int offset) {
+            for (int i = index * w; i < (index + 1) * w; i++) {
+                output[offset + onBits[i]] = 1;
+            }
+        }
+
+        /**
+         * Appends the sorted on bits of the SDR of the category at index, shifted
+         * by offset.
+         */
+        public void addOnBits(int index, TIntList output, int offset) {
+            for (int i = index * w; i < (index + 1) * w; i++) {
+                output.add(offset + onBits[i]);
+            }
+        }
+
+        /**
+         * Returns true if a category already has the SDR with the specified sorted on bits
+         */
+        public boolean containsSdr(int[] sortedOnBits) {
+            TIntArrayList candidates = categoriesByBit[sortedOnBits[0]];
+            for (int k = 0; k < candidates.size(); k++) {
+                int from = candidates.getQuick(k) * w;
+                boolean equal = true;
+                for (int i = 0; i < w && equal; i++) {
+                    equal = onBits[from + i] == sortedOnBits[i];
                 }
-                inx++;
+                if (equal) return true;
             }
-            return 0;
+            return false;
         }
 
-        private Map.Entry<String, int[]> getEntry(int i) {
-            Set<Map.Entry<String, int[]>> entries = entrySet();
-            if (i < 0 || i > entries.size()) {
-                throw new IllegalArgumentException("Index should be in following range:[0," + entries.size() + "]");
+        /**
+         * Adds a category, with the SDR having the specified sorted on bits,
+         * at the next index.
+         */
+        public void put(String category, int[] sortedOnBits) {
+            int index = categories.size();
+            if (onBits.length < (index + 1) * w) {
+                onBits = Arrays.copyOf(onBits, Math.max((index + 1) * w, onBits.length * 2));
+            }
+            System.arraycopy(sortedOnBits, 0, onBits, index * w, w);
+            for (int bit : sortedOnBits) {
+                categoriesByBit[bit].add(index);
             }
-            int j = 0;
-            for (Map.Entry<String, int[]> entry : entries)
-                if (j++ == i) return entry;
+            categories.add(category);
+            indexByCategory.put(category, index);
+        }
 
-            return null;
+        /**
+         * Returns the number of bits on in both the encoding and the SDR of the
+         * category at index.
+         */
+        public int overlap(int index, int[] encoded) {
+            int overlap = 0;
+            for (int i = index * w; i < (index + 1) * w; i++) {
+                if (encoded[onBits[i]] == 1) overlap++;
+            }
+            return overlap;
+        }
 
+        /**
+         * Returns the ascending indexes of the categories whose SDR overlaps the
+         * encoding by more than the threshold.
+         */
+        public int[] getMatchingCategories(int[] encoded, int thresholdOverlap) {
+            if (overlaps.length < categories.size()) {
+                overlaps = new int[Math.max(categories.size(), overlaps.length * 2)];
+            }
+            overlapping.resetQuick();
+            for (int bit = 0; bit < n; bit++) {
+                if (encoded[bit] != 1) continue;
+                TIntArrayList bitCategories = categoriesByBit[bit];
+                for (int k = 0; k < bitCategories.size(); k++) {
+                    int index = bitCategories.getQuick(k);
+                    if (overlaps[index]++ == 0) {
+                        overlapping.add(index);
+                    }
+                }
+            }
+            TIntArrayList matching = new TIntArrayList();
+            for (int k = 0; k < overlapping.size(); k++) {
+                int index = overlapping.getQuick(k);
+                if (overlaps[index] > thresholdOverlap) {
+                    matching.add(index);
+                }
+                overlaps[index] = 0;
+            }
+            matching.sort();
+            return matching.toArray();
         }
 
+        public List<String> categories() {
+            return categories;
+        }
     }
 
     /**
@@ -135,6 +260,7 @@ public class SDRCategoryEncoder extends Encoder<String> {
         forced (default False) : if True, skip checks for parameters' settings; see encoders/scalar.py for details*/
         this.n = n;
         this.w = w;
+        this.sdrByCategory = new SDRByCategoryMap(n, w);
         this.encLearningEnabled = true;
         this.random = new Random();
         if (encoderSeed != -1) {
@@ -210,17 +336,38 @@ public class SDRCategoryEncoder extends Encoder<String> {
      */
     @Override
     public void encodeIntoArray(String input, int[] output) {
+        encodeIntoArray(input, output, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encodeIntoArray(String input, int[] output, int offset) {
         int index;
+        Arrays.fill(output, offset, offset + getWidth(), 0);
         if (input == null || input.isEmpty()) {
-            Arrays.fill(output, 0);
             index = 0;
         } else {
             index = getBucketIndices(input)[0];
-            int[] categoryEncoding = sdrByCategory.getSdr(index);
-            System.arraycopy(categoryEncoding, 0, output, 0, categoryEncoding.length);
+            sdrByCategory.setOnBits(index, output, offset);
+        }
+        if (LOG.isTraceEnabled()) {
+            int[] encoded = Arrays.copyOfRange(output, offset, offset + getWidth());
+            LOG.trace("input:" + input + ", index:" + index + ", output:" + ArrayUtils.intArrayToString(encoded));
+            LOG.trace("decoded:" + decodedToStr(decode(encoded, "")));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encodeIntoIndices(String input, TIntList output, int offset) {
+        if (input == null || input.isEmpty()) {
+            return;
         }
-        LOG.trace("input:" + input + ", index:" + index + ", output:" + ArrayUtils.intArrayToString(output));
-        LOG.trace("decoded:" + decodedToStr(decode(output, "")));
+        sdrByCategory.addOnBits(getBucketIndices(input)[0], output, offset);
     }
 
     /**
@@ -243,7 +390,7 @@ public class SDRCategoryEncoder extends Encoder<String> {
             result.add(0);
             return result;
         }
-        if (!sdrByCategory.containsKey(input)) {
+        if (!sdrByCategory.containsKey(inputCasted)) {
             if (isEncoderLearningEnabled()) {
                 index = sdrByCategory.size();
                 addCategory(inputCasted);
@@ -278,31 +425,15 @@ public class SDRCategoryEncoder extends Encoder<String> {
                 return i <= 1;
             }
         });
-        //overlaps =  (self.sdrs * encoded[0:self.n]).sum(axis=1)
-        int[] overlap = new int[sdrByCategory.size()];
-        for (int i = 0; i < sdrByCategory.size(); i++) {
-            int[] sdr = sdrByCategory.getSdr(i);
-            for (int j = 0; j < sdr.length; j++) {
-                if (sdr[j] == encoded[j] && encoded[j] == 1) {
-                    overlap[i]++;
-                }
-            }
-        }
         LOG.trace("Overlaps for decoding:");
         if (LOG.isTraceEnabled()){
-            int inx = 0;
-            for (String category : sdrByCategory.keySet()) {
-                LOG.trace(overlap[inx] + " " + category);
-                inx++;
+            for (int inx = 0; inx < sdrByCategory.size(); inx++) {
+                LOG.trace(sdrByCategory.overlap(inx, encoded) + " " + sdrByCategory.getCategory(inx));
             }
         }
+        //overlaps =  (self.sdrs * encoded[0:self.n]).sum(axis=1)
         //matchingCategories =  (overlaps > self.thresholdOverlap).nonzero()[0]
-        int[] matchingCategories = ArrayUtils.where(overlap, new Condition.Adapter<Integer>() {
-            @Override
-            public boolean eval(int overlaps) {
-                return overlaps > thresholdOverlap;
-            }
-        });
+        int[] matchingCategories = sdrByCategory.getMatchingCategories(encoded, thresholdOverlap);
         StringBuilder resultString = new StringBuilder();
         List<MinMax> resultRanges = new ArrayList<>();
         String fieldName;
@@ -362,13 +493,8 @@ public class SDRCategoryEncoder extends Encoder<String> {
         if (topDownMapping == null) {
             topDownMapping = new SparseObjectMatrix<>(
                     new int[]{sdrByCategory.size()});
-            int[] outputSpace = new int[getN()];
-            Set<String> categories = sdrByCategory.keySet();
-            int inx = 0;
-            for (String category : categories) {
-                encodeIntoArray(category, outputSpace);
-                topDownMapping.set(inx, Arrays.copyOf(outputSpace, outputSpace.length));
-                inx++;
+            for (int inx = 0; inx < sdrByCategory.size(); inx++) {
+                topDownMapping.set(inx, sdrByCategory.getSdr(inx));
             }
         }
         return topDownMapping;
@@ -380,7 +506,7 @@ public class SDRCategoryEncoder extends Encoder<String> {
     @SuppressWarnings("unchecked")
 	@Override
     public <S> List<S> getBucketValues(Class<S> returnType) {
-        return new ArrayList<>((Collection<S>)this.sdrByCategory.keySet());
+        return new ArrayList<>((Collection<S>)this.sdrByCategory.categories());
     }
 
     /**
@@ -389,7 +515,11 @@ public class SDRCategoryEncoder extends Encoder<String> {
      * @return {@link Collection}
      */
     public Collection<int[]> getSDRs() {
-        return Collections.unmodifiableCollection(sdrByCategory.values());
+        List<int[]> sdrs = new ArrayList<>(sdrByCategory.size());
+        for (int inx = 0; inx < sdrByCategory.size(); inx++) {
+            sdrs.add(sdrByCategory.getSdr(inx));
+        }
+        return Collections.unmodifiableCollection(sdrs);
     }
 
 
@@ -423,25 +553,16 @@ public class SDRCategoryEncoder extends Encoder<String> {
     }
 
 
+    /**
+     * Returns the sorted on bits of a new SDR, distinct from all existing ones
+     */
     private int[] newRep() {
         int maxAttempts = 1000;
         boolean foundUnique = true;
-        int[] oneBits;
-        int sdr[] = new int[n];
+        int[] oneBits = null;
         for (int index = 0; index < maxAttempts; index++) {
-            foundUnique = true;
             oneBits = getSortedSample(n, w);
-            sdr = new int[n];
-            for (int i = 0; i < oneBits.length; i++) {
-                int oneBitInx = oneBits[i];
-                sdr[oneBitInx] = 1;
-            }
-            for (int[] existingSdr : this.sdrByCategory.values()) {
-                if (Arrays.equals(sdr, existingSdr)) {
-                    foundUnique = false;
-                    break;
-                }
-            }
+            foundUnique = !sdrByCategory.containsSdr(oneBits);
             if (foundUnique) {
                 break;
             }
@@ -450,7 +571,7 @@ public class SDRCategoryEncoder extends Encoder<String> {
             throw new RuntimeException(String.format("Error, could not find unique pattern %d after %d attempts",
                                                      sdrByCategory.size(), maxAttempts));
         }
-        return sdr;
+        return oneBits;
     }
 
     /**
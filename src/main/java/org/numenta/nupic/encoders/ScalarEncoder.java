@@ -23,6 +23,7 @@
 package org.numenta.nupic.encoders;
 
 import gnu.trove.list.TDoubleList;
+import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TDoubleArrayList;
 import org.numenta.nupic.Connections;
 import org.numenta.nupic.FieldMetaType;
@@ -307,15 +308,25 @@ public class ScalarEncoder extends Encoder<Double> {
 	public Integer getFirstOnBit(double input) {
 		if(input == SENTINEL_VALUE_FOR_MISSING_DATA) {
 			return null;
-		}else{
-			if(input < getMinVal()) {
-				if(clipInput() && !isPeriodic()) {
-					LOGGER.info("Clipped input " + getName() + "=" + input + " to minval " + getMinVal());
-					input = getMinVal();
-				}else{
-					throw new IllegalStateException("input (" + input +") less than range (" +
-						getMinVal() + " - " + getMaxVal());
-				}
+		}
+		return firstOnBit(input);
+	}
+
+	/**
+	 * Unboxed form of {@link #getFirstOnBit(double)}, for an input which is
+	 * known not to be missing.
+	 *
+	 * @param input		the input data
+	 * @return			the bit offset of the first bit to be set
+	 */
+	private int firstOnBit(double input) {
+		if(input < getMinVal()) {
+			if(clipInput() && !isPeriodic()) {
+				LOGGER.info("Clipped input " + getName() + "=" + input + " to minval " + getMinVal());
+				input = getMinVal();
+			}else{
+				throw new IllegalStateException("input (" + input +") less than range (" +
+					getMinVal() + " - " + getMaxVal());
 			}
 		}
 
@@ -413,42 +424,100 @@ public class ScalarEncoder extends Encoder<Double> {
      */
 	@Override
 	public void encodeIntoArray(Double input, int[] output) {
+		encodeIntoArray(input.doubleValue(), output, 0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoArray(Double input, int[] output, int offset) {
+		encodeIntoArray(input.doubleValue(), output, offset);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void encodeIntoIndices(Double input, TIntList output, int offset) {
+		encodeIntoIndices(input.doubleValue(), output, offset);
+	}
+
+	/**
+	 * Appends the sorted indexes of the on bits of the encoding of the unboxed
+	 * input to the specified list, each shifted by {@code offset}. Missing (NaN
+	 * or sentinel) inputs have no on bits.
+	 *
+	 * @param input		the input scalar
+	 * @param output	the list to append the indexes of the on bits to
+	 * @param offset	the index of the first bit of this encoder's output
+	 */
+	public void encodeIntoIndices(double input, TIntList output, int offset) {
 		if(Double.isNaN(input)) {
-			Arrays.fill(output, 0);
 			return;
 		}
 
-		Integer bucketVal = getFirstOnBit(input);
-		if(bucketVal != null) {
-			int bucketIdx = bucketVal;
-			Arrays.fill(output, 0);
-			int minbin = bucketIdx;
-			int maxbin = minbin + 2*getHalfWidth();
-			if(isPeriodic()) {
-				if(maxbin >= getN()) {
-					int bottombins = maxbin - getN() + 1;
-					int[] range = ArrayUtils.range(0, bottombins);
-					ArrayUtils.setIndexesTo(output, range, 1);
-					maxbin = getN() - 1;
-				}
-				if(minbin < 0) {
-					int topbins = -minbin;
-					ArrayUtils.setIndexesTo(
-						output, ArrayUtils.range(getN() - topbins, getN()), 1);
-					minbin = 0;
-				}
+		int n = getN();
+		int minbin = firstOnBit(input);
+		int maxbin = minbin + 2*getHalfWidth();
+		if(isPeriodic() && maxbin >= n) {
+			for(int i = 0;i <= maxbin - n;i++) {
+				output.add(offset + i);
+			}
+		}
+		for(int i = Math.max(minbin, 0);i <= Math.min(maxbin, n - 1);i++) {
+			output.add(offset + i);
+		}
+		if(isPeriodic() && minbin < 0) {
+			for(int i = n + minbin;i < n;i++) {
+				output.add(offset + i);
 			}
+		}
+	}
+
+	/**
+	 * Encodes the unboxed input into the {@link #getN()} bits of the output
+	 * array starting at {@code offset}, without allocating. Missing (NaN or
+	 * sentinel) inputs clear the slice.
+	 *
+	 * @param input		the input scalar
+	 * @param output	the array to encode into
+	 * @param offset	the index of the first bit of this encoder's output
+	 */
+	public void encodeIntoArray(double input, int[] output, int offset) {
+		int n = getN();
+		Arrays.fill(output, offset, offset + n, 0);
+		if(Double.isNaN(input)) {
+			return;
+		}
 
-			ArrayUtils.setIndexesTo(output, ArrayUtils.range(minbin, maxbin + 1), 1);
+		int minbin = firstOnBit(input);
+		int maxbin = minbin + 2*getHalfWidth();
+		if(isPeriodic()) {
+			if(maxbin >= n) {
+				int bottombins = maxbin - n + 1;
+				Arrays.fill(output, offset, offset + bottombins, 1);
+				maxbin = n - 1;
+			}
+			if(minbin < 0) {
+				int topbins = -minbin;
+				Arrays.fill(output, offset + n - topbins, offset + n, 1);
+				minbin = 0;
+			}
 		}
 
-		LOGGER.trace("");
-		LOGGER.trace("input: " + input);
-		LOGGER.trace("range: " + getMinVal() + " - " + getMaxVal());
-		LOGGER.trace("n:" + getN() + "w:" + getW() + "resolution:" + getResolution() +
-				"radius:" + getRadius() + "periodic:" + isPeriodic());
-		LOGGER.trace("output: " + Arrays.toString(output));
-		LOGGER.trace("input desc: " + decode(output, ""));
+		Arrays.fill(output, offset + minbin, offset + maxbin + 1, 1);
+
+		if(LOGGER.isTraceEnabled()) {
+			int[] encoded = Arrays.copyOfRange(output, offset, offset + n);
+			LOGGER.trace("");
+			LOGGER.trace("input: " + input);
+			LOGGER.trace("range: " + getMinVal() + " - " + getMaxVal());
+			LOGGER.trace("n:" + getN() + "w:" + getW() + "resolution:" + getResolution() +
+					"radius:" + getRadius() + "periodic:" + isPeriodic());
+			LOGGER.trace("output: " + Arrays.toString(encoded));
+			LOGGER.trace("input desc: " + decode(encoded, ""));
+		}
 	}
 
 	/**
@@ -97,10 +97,7 @@ public class Cell implements Comparable<Cell> {
      * @return           a newly created {@link DistalDendrite}
      */
     public DistalDendrite createSegment(Connections c, int index) {
-        DistalDendrite dd = new DistalDendrite(this, index);
-        c.getSegments(this).add(dd);
-        
-        return dd;
+        return c.createSegment(this, index);
     }
     
     /**
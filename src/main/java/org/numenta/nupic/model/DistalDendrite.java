@@ -44,6 +44,8 @@ import org.numenta.nupic.Connections;
 public class DistalDendrite extends Segment {
     private Cell cell;
     private int index;
+    /** The slot of this segment in the {@link FlatSynapseStore} holding it, if any */
+    int slot = FlatSynapseStore.NIL;
     
     private static final Set<Synapse> EMPTY_SYNAPSE_SET = Collections.emptySet();
     
@@ -67,6 +69,14 @@ public class DistalDendrite extends Segment {
         return cell;
     }
     
+    /**
+     * Returns this {@code DistalDendrite}'s index.
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+    
     /**
      * Creates and returns a newly created {@link Synapse} with the specified
      * source cell, permanence, and index.
@@ -79,10 +89,7 @@ public class DistalDendrite extends Segment {
      * @return
      */
     public Synapse createSynapse(Connections c, Cell sourceCell, double permanence, int index) {
-    	Pool pool = new Pool(1);
-    	Synapse s = super.createSynapse(c, c.getSynapses(this), sourceCell, pool, index, sourceCell.getIndex());
-    	pool.setPermanence(c, s, permanence);
-        return s;
+        return c.createSynapse(this, sourceCell, permanence, index);
     }
     
     /**
@@ -0,0 +1,143 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import org.numenta.nupic.Connections;
+
+/**
+ * A lightweight {@link Synapse} which holds no state of its own, but reads and
+ * writes the values stored in a slot of a {@link FlatSynapseStore}. Two
+ * {@code FlatSynapse}s are equal if they refer to the same generation of the
+ * same slot of the same store.
+ *
+ * Views are only valid for as long as the synapse they refer to isn't destroyed;
+ * their accessors throw an {@link IllegalStateException} once it is, even if
+ * the slot has been reused by another synapse.
+ *
+ * @see FlatSynapseStore
+ */
+public class FlatSynapse extends Synapse {
+    private final FlatSynapseStore store;
+    private final int slot;
+    private final int generation;
+
+    /**
+     * Constructs a new {@code FlatSynapse} view of the synapse
+     * currently occupying the specified slot
+     *
+     * @param store     the store holding the synapse data
+     * @param slot      the slot occupied by the synapse
+     */
+    public FlatSynapse(FlatSynapseStore store, int slot) {
+        this.store = store;
+        this.slot = slot;
+        this.generation = store.getGeneration(slot);
+    }
+
+    /**
+     * Returns the slot in the {@link FlatSynapseStore} this synapse occupies.
+     * @return
+     * @throws IllegalStateException if the synapse has been destroyed
+     */
+    public int getSlot() {
+        if(store.getGeneration(slot) != generation) {
+            throw new IllegalStateException("Synapse in slot " + slot + " has been destroyed");
+        }
+        return slot;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getIndex() {
+        return store.getSynapseIndex(getSlot());
+    }
+
+    /**
+     * Returns the index of the source cell.
+     */
+    @Override
+    public int getInputIndex() {
+        return store.getSourceCell(getSlot());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPermanence() {
+        return store.getPermanence(getSlot());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPermanence(Connections c, double perm) {
+        store.setPermanence(getSlot(), (float)perm);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Segment getSegment() {
+        return store.getSegment(store.getSynapseSegment(getSlot()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cell getSourceCell() {
+        return store.getCell(store.getSourceCell(getSlot()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * (31 * System.identityHashCode(store) + slot) + generation;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) return true;
+        if(!(obj instanceof FlatSynapse)) return false;
+        FlatSynapse other = (FlatSynapse)obj;
+        return store == other.store && slot == other.slot && generation == other.generation;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return store.getGeneration(slot) == generation ? "" + getIndex() : "destroyed";
+    }
+}
@@ -0,0 +1,687 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Stores the distal topology of the temporal memory (segments and their
+ * synapses) in "struct of arrays" form. Each segment and synapse occupies a
+ * slot in a set of parallel primitive arrays. The segments of a cell and the
+ * synapses of a segment are kept (in insertion order) in contiguous blocks of
+ * slots, so that they may be accessed by position, while the receptor synapses
+ * of a source cell are kept as doubly linked lists threaded through the synapse
+ * arrays. Slots released by {@link #destroySegment(int)} and
+ * {@link #destroySynapse(int)} are recycled; the generation of a synapse slot is
+ * incremented whenever it is released, so that views of destroyed synapses may
+ * be told apart from those of the synapses reusing their slots.
+ *
+ * Permanences are stored with float precision.
+ *
+ * Algorithms iterate the slots directly ({@link #segmentAt(int, int)},
+ * {@link #synapseAt(int, int)}, {@link #firstReceptor(int)} and
+ * {@link #nextReceptor(int)}) and read and write the values of a synapse by
+ * its slot, so that no object is created per synapse visited. The
+ * {@link #segments(int)}, {@link #synapses(int)} and {@link #receptors(int)}
+ * methods return read-only views which allow this store to sit behind the
+ * object oriented API of the {@link org.numenta.nupic.Connections} object.
+ *
+ * @see org.numenta.nupic.FlatConnections
+ */
+public class FlatSynapseStore {
+    /** Marks the end of a linked list */
+    public static final int NIL = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Cell[] cells;
+
+    ////////////////// Per cell ////////////////////
+    private final SlotLists cellSegments;
+    private final int[] cellFirstReceptor;
+    private final int[] cellLastReceptor;
+    private final int[] cellNumReceptors;
+
+    ////////////////// Per segment /////////////////
+    private DistalDendrite[] segmentObjects;
+    private int[] segmentCell;
+    private final SlotLists segmentSynapses;
+    private int segmentHighWater;
+    private final TIntArrayList freeSegments = new TIntArrayList();
+    private int numSegments;
+
+    ////////////////// Per synapse /////////////////
+    private int[] synapseSourceCell;
+    private int[] synapseSegment;
+    private float[] synapsePermanence;
+    private int[] synapseIndex;
+    private int[] synapseGeneration;
+    private int[] receptorPrev;
+    private int[] receptorNext;
+    private int synapseHighWater;
+    private final TIntArrayList freeSynapses = new TIntArrayList();
+    private int numSynapses;
+
+
+    /**
+     * Constructs a new {@code FlatSynapseStore} for the specified cells.
+     *
+     * @param cells     the flat array of all cells, indexed by cell index.
+     */
+    public FlatSynapseStore(Cell[] cells) {
+        this.cells = cells;
+
+        int numCells = cells.length;
+        cellSegments = new SlotLists(numCells, INITIAL_CAPACITY);
+        cellFirstReceptor = filled(numCells);
+        cellLastReceptor = filled(numCells);
+        cellNumReceptors = new int[numCells];
+
+        segmentObjects = new DistalDendrite[INITIAL_CAPACITY];
+        segmentCell = new int[INITIAL_CAPACITY];
+        segmentSynapses = new SlotLists(INITIAL_CAPACITY, INITIAL_CAPACITY);
+
+        synapseSourceCell = new int[INITIAL_CAPACITY];
+        synapseSegment = new int[INITIAL_CAPACITY];
+        synapsePermanence = new float[INITIAL_CAPACITY];
+        synapseIndex = new int[INITIAL_CAPACITY];
+        synapseGeneration = new int[INITIAL_CAPACITY];
+        receptorPrev = new int[INITIAL_CAPACITY];
+        receptorNext = new int[INITIAL_CAPACITY];
+    }
+
+    /////////////////////////////// Segments //////////////////////////////////
+
+    /**
+     * Adds the specified {@link DistalDendrite} to the end of its parent
+     * cell's segment list and returns the slot it occupies.
+     *
+     * @param dd    the segment to store
+     * @return      the slot of the stored segment
+     */
+    public int createSegment(DistalDendrite dd) {
+        int seg;
+        if(!freeSegments.isEmpty()) {
+            seg = freeSegments.removeAt(freeSegments.size() - 1);
+        }else{
+            if(segmentHighWater == segmentCell.length) {
+                growSegments();
+            }
+            seg = segmentHighWater++;
+        }
+
+        int cell = dd.getParentCell().getIndex();
+        segmentObjects[seg] = dd;
+        segmentCell[seg] = cell;
+        cellSegments.add(cell, seg);
+        dd.slot = seg;
+        numSegments++;
+
+        return seg;
+    }
+
+    /**
+     * Removes the segment occupying the specified slot together with all
+     * of its synapses, and releases the slot for reuse.
+     *
+     * @param seg   the slot of the segment to destroy
+     */
+    public void destroySegment(int seg) {
+        checkSegment(seg);
+        for(int i = 0;i < segmentSynapses.size(seg);i++) {
+            releaseSynapse(segmentSynapses.get(seg, i));
+        }
+        segmentSynapses.clear(seg);
+        cellSegments.remove(segmentCell[seg], seg);
+
+        segmentObjects[seg].slot = NIL;
+        segmentObjects[seg] = null;
+        segmentCell[seg] = NIL;
+        freeSegments.add(seg);
+        numSegments--;
+    }
+
+    /**
+     * Returns the slot occupied by the specified segment or {@link #NIL}
+     * if the segment isn't stored here.
+     *
+     * @param dd    the segment to look up
+     * @return      the slot of the segment
+     */
+    public int segmentSlot(DistalDendrite dd) {
+        int seg = dd.slot;
+        return seg != NIL && seg < segmentHighWater && segmentObjects[seg] == dd ? seg : NIL;
+    }
+
+    /**
+     * Returns the {@link DistalDendrite} stored at the specified slot.
+     * @param seg   the segment slot
+     * @return
+     */
+    public DistalDendrite getSegment(int seg) {
+        return segmentObjects[seg];
+    }
+
+    /**
+     * Returns the index of the cell owning the segment at the specified slot.
+     * @param seg   the segment slot
+     * @return
+     */
+    public int getSegmentCell(int seg) {
+        return segmentCell[seg];
+    }
+
+    /**
+     * Returns the slot of the segment at the specified position on the specified cell.
+     * @param cell  the cell index
+     * @param i     the position of the segment, less than {@link #getNumSegments(int)}
+     * @return
+     */
+    public int segmentAt(int cell, int i) {
+        return cellSegments.get(cell, i);
+    }
+
+    /**
+     * Returns the number of segments on the specified cell.
+     * @param cell  the cell index
+     * @return
+     */
+    public int getNumSegments(int cell) {
+        return cellSegments.size(cell);
+    }
+
+    /**
+     * Returns the number of segments currently stored.
+     * @return
+     */
+    public int getNumSegments() {
+        return numSegments;
+    }
+
+    /**
+     * Returns one more than the highest segment slot ever used, which
+     * is the size needed by arrays indexed by segment slot.
+     * @return
+     */
+    public int getSegmentCapacity() {
+        return segmentHighWater;
+    }
+
+    /////////////////////////////// Synapses //////////////////////////////////
+
+    /**
+     * Adds a new synapse to the end of the specified segment's synapse list
+     * and to the end of the source cell's receptor list.
+     *
+     * @param seg           the slot of the owning segment
+     * @param sourceCell    the index of the cell which activates the synapse
+     * @param permanence    the initial permanence
+     * @param index         the synapse's externally visible index
+     * @return              the slot of the new synapse
+     */
+    public int createSynapse(int seg, int sourceCell, float permanence, int index) {
+        checkSegment(seg);
+        int syn;
+        if(!freeSynapses.isEmpty()) {
+            syn = freeSynapses.removeAt(freeSynapses.size() - 1);
+        }else{
+            if(synapseHighWater == synapseSegment.length) {
+                growSynapses();
+            }
+            syn = synapseHighWater++;
+        }
+
+        synapseSourceCell[syn] = sourceCell;
+        synapseSegment[syn] = seg;
+        synapsePermanence[syn] = permanence;
+        synapseIndex[syn] = index;
+        segmentSynapses.add(seg, syn);
+
+        receptorNext[syn] = NIL;
+        receptorPrev[syn] = cellLastReceptor[sourceCell];
+        if(cellLastReceptor[sourceCell] == NIL) {
+            cellFirstReceptor[sourceCell] = syn;
+        }else{
+            receptorNext[cellLastReceptor[sourceCell]] = syn;
+        }
+        cellLastReceptor[sourceCell] = syn;
+        cellNumReceptors[sourceCell]++;
+        numSynapses++;
+
+        return syn;
+    }
+
+    /**
+     * Removes the synapse occupying the specified slot from its segment and
+     * from its source cell's receptors, and releases the slot for reuse.
+     *
+     * @param syn   the slot of the synapse to destroy
+     */
+    public void destroySynapse(int syn) {
+        int seg = synapseSegment[syn];
+        if(seg == NIL) {
+            throw new IllegalArgumentException("Synapse slot " + syn + " is not in use");
+        }
+        segmentSynapses.remove(seg, syn);
+        releaseSynapse(syn);
+    }
+
+    /**
+     * Removes the synapse occupying the specified slot from its source cell's
+     * receptors, and releases the slot for reuse under a new generation.
+     */
+    private void releaseSynapse(int syn) {
+        int cell = synapseSourceCell[syn];
+        int prev = receptorPrev[syn];
+        int next = receptorNext[syn];
+        if(prev == NIL) cellFirstReceptor[cell] = next; else receptorNext[prev] = next;
+        if(next == NIL) cellLastReceptor[cell] = prev; else receptorPrev[next] = prev;
+        cellNumReceptors[cell]--;
+
+        synapseSegment[syn] = NIL;
+        synapseGeneration[syn]++;
+        freeSynapses.add(syn);
+        numSynapses--;
+    }
+
+    /**
+     * Relinks the receptor synapses of the specified cell in the order of
+     * their synapse indexes.
+     *
+     * @param cell  the index of the source cell
+     */
+    public void sortReceptors(int cell) {
+        int n = cellNumReceptors[cell];
+        if(n < 2) return;
+
+        long[] keys = new long[n];
+        int i = 0;
+        for(int syn = cellFirstReceptor[cell];syn != NIL;syn = receptorNext[syn]) {
+            keys[i++] = ((long)synapseIndex[syn] << 32) | syn;
+        }
+        Arrays.sort(keys);
+
+        int prev = NIL;
+        for(long key : keys) {
+            int syn = (int)key;
+            receptorPrev[syn] = prev;
+            if(prev == NIL) cellFirstReceptor[cell] = syn; else receptorNext[prev] = syn;
+            prev = syn;
+        }
+        receptorNext[prev] = NIL;
+        cellLastReceptor[cell] = prev;
+    }
+
+    /**
+     * Returns the index of the cell which activates the synapse at the specified slot.
+     * @param syn   the synapse slot
+     * @return
+     */
+    public int getSourceCell(int syn) {
+        return synapseSourceCell[syn];
+    }
+
+    /**
+     * Returns the slot of the segment owning the synapse at the specified slot.
+     * @param syn   the synapse slot
+     * @return
+     */
+    public int getSynapseSegment(int syn) {
+        return synapseSegment[syn];
+    }
+
+    /**
+     * Returns the permanence of the synapse at the specified slot.
+     * @param syn   the synapse slot
+     * @return
+     */
+    public float getPermanence(int syn) {
+        return synapsePermanence[syn];
+    }
+
+    /**
+     * Sets the permanence of the synapse at the specified slot.
+     * @param syn           the synapse slot
+     * @param permanence    the new permanence
+     */
+    public void setPermanence(int syn, float permanence) {
+        synapsePermanence[syn] = permanence;
+    }
+
+    /**
+     * Returns the externally visible index of the synapse at the specified slot.
+     * @param syn   the synapse slot
+     * @return
+     */
+    public int getSynapseIndex(int syn) {
+        return synapseIndex[syn];
+    }
+
+    /**
+     * Returns the generation of the synapse slot, which is incremented
+     * every time the synapse occupying the slot is destroyed.
+     * @param syn   the synapse slot
+     * @return
+     */
+    public int getGeneration(int syn) {
+        return synapseGeneration[syn];
+    }
+
+    /**
+     * Returns the slot of the synapse at the specified position on the specified segment.
+     * @param seg   the segment slot
+     * @param i     the position of the synapse, less than {@link #getNumSynapses(int)}
+     * @return
+     */
+    public int synapseAt(int seg, int i) {
+        return segmentSynapses.get(seg, i);
+    }
+
+    /**
+     * Returns the slot of the first synapse activated by the specified cell, or {@link #NIL}.
+     * @param cell  the source cell index
+     * @return
+     */
+    public int firstReceptor(int cell) {
+        return cellFirstReceptor[cell];
+    }
+
+    /**
+     * Returns the slot of the next synapse activated by the same source
+     * cell as the specified one, or {@link #NIL}.
+     * @param syn   the synapse slot
+     * @return
+     */
+    public int nextReceptor(int syn) {
+        return receptorNext[syn];
+    }
+
+    /**
+     * Returns the number of synapses on the specified segment.
+     * @param seg   the segment slot
+     * @return
+     */
+    public int getNumSynapses(int seg) {
+        return segmentSynapses.size(seg);
+    }
+
+    /**
+     * Returns the number of synapses which the specified cell activates.
+     * @param cell  the source cell index
+     * @return
+     */
+    public int getNumReceptors(int cell) {
+        return cellNumReceptors[cell];
+    }
+
+    /**
+     * Returns the number of synapses currently stored.
+     * @return
+     */
+    public int getNumSynapses() {
+        return numSynapses;
+    }
+
+    /**
+     * Returns one more than the highest synapse slot ever used, which
+     * is the size needed by arrays indexed by synapse slot.
+     * @return
+     */
+    public int getSynapseCapacity() {
+        return synapseHighWater;
+    }
+
+    /////////////////////////////// Views //////////////////////////////////
+
+    /**
+     * Returns a read-only view of the specified cell's segments.
+     * @param cell  the cell index
+     * @return
+     */
+    public List<DistalDendrite> segments(final int cell) {
+        return new SlotList<DistalDendrite>() {
+            @Override public DistalDendrite get(int i) {
+                return segmentObjects[cellSegments.get(cell, checkIndex(i))];
+            }
+            @Override public int size() { return cellSegments.size(cell); }
+        };
+    }
+
+    /**
+     * Returns a read-only view of the synapses on the specified segment.
+     * @param seg   the segment slot
+     * @return
+     */
+    public List<Synapse> synapses(final int seg) {
+        return new SlotList<Synapse>() {
+            @Override public Synapse get(int i) {
+                return new FlatSynapse(FlatSynapseStore.this, segmentSynapses.get(seg, checkIndex(i)));
+            }
+            @Override public int size() { return segmentSynapses.size(seg); }
+        };
+    }
+
+    /**
+     * Returns a read-only view of the synapses activated by the specified cell.
+     * @param cell  the source cell index
+     * @return
+     */
+    public Set<Synapse> receptors(final int cell) {
+        return new AbstractSet<Synapse>() {
+            @Override public int size() { return cellNumReceptors[cell]; }
+            @Override public Iterator<Synapse> iterator() {
+                return new Iterator<Synapse>() {
+                    private int slot = cellFirstReceptor[cell];
+                    @Override public boolean hasNext() {
+                        return slot != NIL;
+                    }
+                    @Override public Synapse next() {
+                        if(slot == NIL) throw new NoSuchElementException();
+                        int current = slot;
+                        slot = receptorNext[current];
+                        return new FlatSynapse(FlatSynapseStore.this, current);
+                    }
+                    @Override public void remove() {
+                        throw new UnsupportedOperationException("The view is read-only");
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns the {@link Cell} at the specified index.
+     * @param index     the cell index
+     * @return
+     */
+    Cell getCell(int index) {
+        return cells[index];
+    }
+
+    /**
+     * Read-only view of a block of slots, whose elements are looked up by position.
+     * @param <T>   the type of the materialized element
+     */
+    private abstract static class SlotList<T> extends AbstractList<T> implements RandomAccess {
+        int checkIndex(int i) {
+            if(i < 0 || i >= size()) throw new IndexOutOfBoundsException("" + i);
+            return i;
+        }
+    }
+
+    /**
+     * Lists of slots, one per owner, each held in a contiguous block of a shared
+     * array. Blocks have power of two capacities and are moved to a block of
+     * twice the capacity when full; released blocks are recycled through a free
+     * list per capacity. The position of every slot in the shared array is kept,
+     * so that a slot is removed without a search.
+     */
+    private static final class SlotLists {
+        private static final int MIN_BLOCK = 4;
+
+        private int[] blocks;
+        private int blocksHighWater;
+        private final int[] freeBlocks = filled(32);
+
+        private int[] starts;
+        private int[] capacities;
+        private int[] sizes;
+        private int[] positions;
+
+        SlotLists(int numOwners, int numSlots) {
+            blocks = new int[Math.max(numSlots, MIN_BLOCK)];
+            starts = new int[numOwners];
+            capacities = new int[numOwners];
+            sizes = new int[numOwners];
+            positions = new int[numSlots];
+        }
+
+        int size(int owner) {
+            return sizes[owner];
+        }
+
+        int get(int owner, int i) {
+            return blocks[starts[owner] + i];
+        }
+
+        /**
+         * Appends the slot to the owner's list
+         */
+        void add(int owner, int slot) {
+            if(slot >= positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(positions.length * 2, slot + 1));
+            }
+            int size = sizes[owner];
+            if(size == capacities[owner]) {
+                int capacity = Math.max(MIN_BLOCK, size * 2);
+                int start = allocate(capacity);
+                System.arraycopy(blocks, starts[owner], blocks, start, size);
+                for(int i = start;i < start + size;i++) {
+                    positions[blocks[i]] = i;
+                }
+                release(starts[owner], capacities[owner]);
+                starts[owner] = start;
+                capacities[owner] = capacity;
+            }
+            int position = starts[owner] + size;
+            blocks[position] = slot;
+            positions[slot] = position;
+            sizes[owner] = size + 1;
+        }
+
+        /**
+         * Removes the slot from the owner's list, keeping the order of the others
+         */
+        void remove(int owner, int slot) {
+            int position = positions[slot];
+            int end = starts[owner] + --sizes[owner];
+            System.arraycopy(blocks, position + 1, blocks, position, end - position);
+            for(int i = position;i < end;i++) {
+                positions[blocks[i]] = i;
+            }
+            if(sizes[owner] == 0) {
+                clear(owner);
+            }
+        }
+
+        /**
+         * Empties the owner's list and releases its block
+         */
+        void clear(int owner) {
+            release(starts[owner], capacities[owner]);
+            starts[owner] = 0;
+            capacities[owner] = 0;
+            sizes[owner] = 0;
+        }
+
+        /**
+         * Makes room for the specified number of owners
+         */
+        void growOwners(int numOwners) {
+            starts = Arrays.copyOf(starts, numOwners);
+            capacities = Arrays.copyOf(capacities, numOwners);
+            sizes = Arrays.copyOf(sizes, numOwners);
+        }
+
+        private int allocate(int capacity) {
+            int log = Integer.numberOfTrailingZeros(capacity);
+            int start = freeBlocks[log];
+            if(start != NIL) {
+                freeBlocks[log] = blocks[start];
+                return start;
+            }
+            if(blocksHighWater + capacity > blocks.length) {
+                blocks = Arrays.copyOf(blocks, Math.max(blocks.length * 2, blocksHighWater + capacity));
+            }
+            start = blocksHighWater;
+            blocksHighWater += capacity;
+            return start;
+        }
+
+        private void release(int start, int capacity) {
+            if(capacity == 0) return;
+            int log = Integer.numberOfTrailingZeros(capacity);
+            blocks[start] = freeBlocks[log];
+            freeBlocks[log] = start;
+        }
+    }
+
+    private void checkSegment(int seg) {
+        if(seg < 0 || seg >= segmentHighWater || segmentCell[seg] == NIL) {
+            throw new IllegalArgumentException("Segment slot " + seg + " is not in use");
+        }
+    }
+
+    private void growSegments() {
+        int capacity = segmentCell.length * 2;
+        segmentObjects = Arrays.copyOf(segmentObjects, capacity);
+        segmentCell = Arrays.copyOf(segmentCell, capacity);
+        segmentSynapses.growOwners(capacity);
+    }
+
+    private void growSynapses() {
+        int capacity = synapseSegment.length * 2;
+        synapseSourceCell = Arrays.copyOf(synapseSourceCell, capacity);
+        synapseSegment = Arrays.copyOf(synapseSegment, capacity);
+        synapsePermanence = Arrays.copyOf(synapsePermanence, capacity);
+        synapseIndex = Arrays.copyOf(synapseIndex, capacity);
+        synapseGeneration = Arrays.copyOf(synapseGeneration, capacity);
+        receptorPrev = Arrays.copyOf(receptorPrev, capacity);
+        receptorNext = Arrays.copyOf(receptorNext, capacity);
+    }
+
+    private static int[] filled(int size) {
+        int[] retVal = new int[size];
+        Arrays.fill(retVal, NIL);
+        return retVal;
+    }
+}
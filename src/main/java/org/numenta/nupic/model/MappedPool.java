@@ -0,0 +1,151 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.model;
+
+import org.numenta.nupic.Connections;
+
+/**
+ * A read-only potential {@link Pool} whose synapses are held by a
+ * {@link MappedSynapseStore}. A synapse is connected if its permanence
+ * is above the connected permanence, as in {@link Pool#updatePool(Connections, Synapse, double)}.
+ * The sparse arrays are in the order of the pool's synapses.
+ *
+ * @see MappedSynapseStore
+ */
+public class MappedPool extends Pool {
+    private final MappedSynapseStore store;
+    private final int column;
+
+    /**
+     * Constructs a new {@code MappedPool}
+     *
+     * @param store     the store holding the synapse data
+     * @param column    the index of the column owning this pool
+     */
+    public MappedPool(MappedSynapseStore store, int column) {
+        super(store.getPoolSize(column));
+        this.store = store;
+        this.column = column;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPermanence(Synapse s) {
+        return getSynapseWithInput(s.getInputIndex()).getPermanence();
+    }
+
+    /**
+     * Always throws, as mapped pools are read-only.
+     */
+    @Override
+    public void setPermanence(Connections c, Synapse s, double permanence) {
+        throw new UnsupportedOperationException("Mapped pools are read-only");
+    }
+
+    /**
+     * Always throws, as mapped pools are read-only.
+     */
+    @Override
+    public void updatePool(Connections c, Synapse s, double permanence) {
+        throw new UnsupportedOperationException("Mapped pools are read-only");
+    }
+
+    /**
+     * Always throws, as mapped pools are read-only.
+     */
+    @Override
+    public void resetConnections() {
+        throw new UnsupportedOperationException("Mapped pools are read-only");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Synapse getSynapseWithInput(int inputIndex) {
+        int start = store.getPoolStart(column);
+        for(int slot = start;slot < start + size;slot++) {
+            if(store.getPoolInput(slot) == inputIndex) {
+                return new MappedSynapse(store, slot, column);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double[] getSparsePermanences() {
+        double[] retVal = new double[size];
+        int start = store.getPoolStart(column);
+        for(int i = 0;i < size;i++) {
+            retVal[i] = store.getPoolPermanence(start + i);
+        }
+        return retVal;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double[] getDensePermanences(Connections c) {
+        double[] retVal = new double[c.getNumInputs()];
+        int start = store.getPoolStart(column);
+        for(int slot = start;slot < start + size;slot++) {
+            retVal[store.getPoolInput(slot)] = store.getPoolPermanence(slot);
+        }
+        return retVal;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getSparseConnections() {
+        int[] retVal = new int[size];
+        int start = store.getPoolStart(column);
+        for(int i = 0;i < size;i++) {
+            retVal[i] = store.getPoolInput(start + i);
+        }
+        return retVal;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getDenseConnections(Connections c) {
+        int[] retVal = new int[c.getNumInputs()];
+        int start = store.getPoolStart(column);
+        for(int slot = start;slot < start + size;slot++) {
+            if(store.getPoolPermanence(slot) > c.getSynPermConnected()) {
+                retVal[store.getPoolInput(slot)] = 1;
+            }
+        }
+        return retVal;
+    }
+}
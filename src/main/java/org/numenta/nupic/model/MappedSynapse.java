@@ -0,0 +1,146 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.model;
+
+import org.numenta.nupic.Connections;
+
+/**
+ * A read-only {@link Synapse} which holds no state of its own, but reads the
+ * values stored in a slot of a {@link MappedSynapseStore}. Proximal and distal
+ * synapses occupy separate slot ranges; two {@code MappedSynapse}s are equal if
+ * they refer to the same slot of the same range of the same store.
+ *
+ * @see MappedSynapseStore
+ */
+public class MappedSynapse extends Synapse {
+    private final MappedSynapseStore store;
+    private final int slot;
+    private final int column;
+
+    /**
+     * Constructs a new {@code MappedSynapse} view
+     *
+     * @param store     the store holding the synapse data
+     * @param slot      the slot occupied by the synapse
+     * @param column    the index of the column owning a proximal synapse,
+     *                  or {@link MappedSynapseStore#NIL} for a distal synapse
+     */
+    public MappedSynapse(MappedSynapseStore store, int slot, int column) {
+        this.store = store;
+        this.slot = slot;
+        this.column = column;
+    }
+
+    /**
+     * Returns the slot in the {@link MappedSynapseStore} this synapse occupies.
+     * @return
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns true if this is a synapse on a {@link ProximalDendrite}
+     * @return
+     */
+    public boolean isProximal() {
+        return column != MappedSynapseStore.NIL;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getIndex() {
+        return isProximal() ? store.getProximalIndex(column, slot) : store.getSynapseIndex(slot);
+    }
+
+    /**
+     * Returns the index of the input bit, or of the source cell.
+     */
+    @Override
+    public int getInputIndex() {
+        return isProximal() ? store.getPoolInput(slot) : store.getSourceCell(slot);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPermanence() {
+        return isProximal() ? store.getPoolPermanence(slot) : store.getPermanence(slot);
+    }
+
+    /**
+     * Always throws, as mapped synapses are read-only.
+     */
+    @Override
+    public void setPermanence(Connections c, double perm) {
+        throw new UnsupportedOperationException("Mapped synapses are read-only");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Segment getSegment() {
+        return isProximal() ? store.getConnections().getColumn(column).getProximalDendrite() : 
+            store.getSegment(store.getSynapseSegment(slot));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cell getSourceCell() {
+        return isProximal() ? null : store.getConnections().getCell(store.getSourceCell(slot));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * (31 * System.identityHashCode(store) + slot) + (isProximal() ? 1 : 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) return true;
+        if(!(obj instanceof MappedSynapse)) return false;
+        MappedSynapse other = (MappedSynapse)obj;
+        return store == other.store && slot == other.slot && isProximal() == other.isProximal();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "" + getIndex();
+    }
+}
@@ -0,0 +1,598 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.util.MappedFile;
+import org.numenta.nupic.util.MappedFile.DoubleArray;
+import org.numenta.nupic.util.MappedFile.IntArray;
+import org.numenta.nupic.util.SparseBinaryMatrix;
+
+/**
+ * Read-only store of the proximal and distal topology of a trained model,
+ * whose arrays are views of a memory mapped {@link MappedFile} rather than
+ * Java heap arrays, so that models larger than 2GB may be mapped. The layout
+ * is "compressed sparse row": the potential pool of each column, the segments
+ * of each cell, the synapses of each segment and the receptor synapses of each
+ * cell occupy contiguous ranges of flat primitive arrays, whose offsets are
+ * given by a "starts" array.
+ *
+ * {@link Synapse}s are materialized as {@link MappedSynapse} views on every
+ * access, while the {@link DistalDendrite} and {@link Pool} of each slot are
+ * created when first accessed and then reused, so that they may be used as
+ * keys by the {@link org.numenta.nupic.research.TemporalMemory}.
+ *
+ * The arrays are written by {@link #write(Connections, DataOutputStream, boolean, boolean)},
+ * each preceded by its length and aligned to 8 bytes.
+ *
+ * @see org.numenta.nupic.MappedConnections
+ */
+public class MappedSynapseStore {
+    /** Returned by {@link #segmentSlot(DistalDendrite)} for unknown segments */
+    public static final int NIL = -1;
+
+    private final Connections c;
+
+    ////////////////// Proximal ////////////////////
+    private IntArray poolStarts;
+    private IntArray poolFirstSynapse;
+    private IntArray poolInputs;
+    private DoubleArray poolPermanences;
+    private IntArray connectedStarts;
+    private IntArray connectedInputs;
+    private IntArray trueCounts;
+    private AtomicReferenceArray<Pool> poolObjects;
+
+    ////////////////// Distal //////////////////////
+    private IntArray cellSegmentStarts;
+    private IntArray segmentCells;
+    private IntArray segmentIndexes;
+    private IntArray segmentSynapseStarts;
+    private IntArray synapseSegments;
+    private IntArray synapseSources;
+    private IntArray synapseIndexes;
+    private DoubleArray synapsePermanences;
+    private IntArray cellReceptorStarts;
+    private IntArray receptorSynapses;
+    private AtomicReferenceArray<DistalDendrite> segmentObjects;
+
+
+    /**
+     * Constructs a new {@code MappedSynapseStore} over the arrays starting at
+     * the specified position of the file.
+     *
+     * @param c         the {@link Connections} holding the columns and cells
+     * @param file      the file holding the arrays
+     * @param position  the position of the first array
+     * @param spatial   whether the arrays include the potential pools
+     * @param temporal  whether the arrays include the distal segments
+     */
+    public MappedSynapseStore(Connections c, MappedFile file, long position, boolean spatial, boolean temporal) {
+        this.c = c;
+        MappedFile.Input in = file.newInput(position);
+        if(spatial) {
+            poolStarts = ints(file, in);
+            poolFirstSynapse = ints(file, in);
+            poolInputs = ints(file, in);
+            poolPermanences = doubles(file, in);
+            connectedStarts = ints(file, in);
+            connectedInputs = ints(file, in);
+            trueCounts = ints(file, in);
+            poolObjects = new AtomicReferenceArray<Pool>(poolFirstSynapse.length());
+        }
+        if(temporal) {
+            cellSegmentStarts = ints(file, in);
+            segmentCells = ints(file, in);
+            segmentIndexes = ints(file, in);
+            segmentSynapseStarts = ints(file, in);
+            synapseSegments = ints(file, in);
+            synapseSources = ints(file, in);
+            synapseIndexes = ints(file, in);
+            synapsePermanences = doubles(file, in);
+            cellReceptorStarts = ints(file, in);
+            receptorSynapses = ints(file, in);
+            segmentObjects = new AtomicReferenceArray<DistalDendrite>(segmentCells.length());
+        }
+    }
+
+    /**
+     * Writes the topology of the specified {@link Connections} in the
+     * layout read by this store.
+     *
+     * @param c         the {@link Connections} to write
+     * @param out       the stream to write to, which is padded relative to the
+     *                  start of the stream (the start of the file)
+     * @param spatial   whether to write the potential pools
+     * @param temporal  whether to write the distal segments
+     * @throws IOException
+     */
+    public static void write(Connections c, DataOutputStream out, boolean spatial, boolean temporal) throws IOException {
+        if(spatial) {
+            int numColumns = c.getNumColumns();
+            int[] starts = new int[numColumns + 1];
+            int[] firstSynapses = new int[numColumns];
+            for(int i = 0;i < numColumns;i++) {
+                List<Synapse> synapses = c.getSynapses(c.getColumn(i).getProximalDendrite());
+                starts[i + 1] = starts[i] + synapses.size();
+                firstSynapses[i] = synapses.isEmpty() ? 0 : synapses.get(0).getIndex();
+            }
+            writeInts(out, starts);
+            writeInts(out, firstSynapses);
+            writeLength(out, starts[numColumns]);
+            for(int i = 0;i < numColumns;i++) {
+                for(Synapse s : c.getSynapses(c.getColumn(i).getProximalDendrite())) {
+                    out.writeInt(s.getInputIndex());
+                }
+            }
+            writeLength(out, starts[numColumns]);
+            for(int i = 0;i < numColumns;i++) {
+                for(Synapse s : c.getSynapses(c.getColumn(i).getProximalDendrite())) {
+                    out.writeDouble(s.getPermanence());
+                }
+            }
+            
+            SparseBinaryMatrix connectedCounts = c.getConnectedCounts();
+            int[] connectedStarts = new int[numColumns + 1];
+            int[][] rows = new int[numColumns][];
+            for(int i = 0;i < numColumns;i++) {
+                int[] row = (int[])connectedCounts.getSlice(i);
+                int count = 0;
+                for(int j = 0;j < row.length;j++) {
+                    if(row[j] != 0) row[count++] = j;
+                }
+                rows[i] = Arrays.copyOf(row, count);
+                connectedStarts[i + 1] = connectedStarts[i] + count;
+            }
+            writeInts(out, connectedStarts);
+            writeLength(out, connectedStarts[numColumns]);
+            for(int[] row : rows) {
+                for(int input : row) {
+                    out.writeInt(input);
+                }
+            }
+            writeInts(out, connectedCounts.getTrueCounts());
+        }
+        
+        if(temporal) {
+            // Slots are assigned positionally: cell by cell, segment by segment
+            Cell[] cells = c.getCells();
+            int[] cellStarts = new int[cells.length + 1];
+            for(int i = 0;i < cells.length;i++) {
+                cellStarts[i + 1] = cellStarts[i] + c.getSegments(cells[i]).size();
+            }
+            int numSegments = cellStarts[cells.length];
+            int[] segmentStarts = new int[numSegments + 1];
+            for(int i = 0, seg = 0;i < cells.length;i++) {
+                for(DistalDendrite dd : c.getSegments(cells[i])) {
+                    segmentStarts[seg + 1] = segmentStarts[seg] + c.getSynapses(dd).size();
+                    seg++;
+                }
+            }
+            int numSynapses = segmentStarts[numSegments];
+            
+            writeInts(out, cellStarts);
+            writeLength(out, numSegments);
+            for(int i = 0;i < cells.length;i++) {
+                for(int j = cellStarts[i];j < cellStarts[i + 1];j++) {
+                    out.writeInt(i);
+                }
+            }
+            writeLength(out, numSegments);
+            for(Cell cell : cells) {
+                for(DistalDendrite dd : c.getSegments(cell)) {
+                    out.writeInt(dd.getIndex());
+                }
+            }
+            writeInts(out, segmentStarts);
+            writeLength(out, numSynapses);
+            for(int seg = 0;seg < numSegments;seg++) {
+                for(int syn = segmentStarts[seg];syn < segmentStarts[seg + 1];syn++) {
+                    out.writeInt(seg);
+                }
+            }
+            writeLength(out, numSynapses);
+            for(Cell cell : cells) {
+                for(DistalDendrite dd : c.getSegments(cell)) {
+                    for(Synapse s : c.getSynapses(dd)) {
+                        out.writeInt(s.getSourceCell().getIndex());
+                    }
+                }
+            }
+            writeLength(out, numSynapses);
+            for(Cell cell : cells) {
+                for(DistalDendrite dd : c.getSegments(cell)) {
+                    for(Synapse s : c.getSynapses(dd)) {
+                        out.writeInt(s.getIndex());
+                    }
+                }
+            }
+            writeLength(out, numSynapses);
+            for(Cell cell : cells) {
+                for(DistalDendrite dd : c.getSegments(cell)) {
+                    for(Synapse s : c.getSynapses(dd)) {
+                        out.writeDouble(s.getPermanence());
+                    }
+                }
+            }
+            
+            int[] receptorStarts = new int[cells.length + 1];
+            for(int i = 0;i < cells.length;i++) {
+                receptorStarts[i + 1] = receptorStarts[i] + c.getReceptorSynapses(cells[i]).size();
+            }
+            int[] synapseSlots = synapseSlots(c);
+            writeInts(out, receptorStarts);
+            writeLength(out, receptorStarts[cells.length]);
+            for(Cell cell : cells) {
+                for(Synapse s : c.getReceptorSynapses(cell)) {
+                    int index = s.getIndex();
+                    int slot = index >= 0 && index < synapseSlots.length ? synapseSlots[index] : NIL;
+                    if(slot == NIL) {
+                        throw new IllegalArgumentException("Receptor synapse " + s + " is not on a segment");
+                    }
+                    out.writeInt(slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the slots assigned positionally to the distal synapses by
+     * {@link #write(Connections, DataOutputStream, boolean, boolean)}, indexed
+     * by synapse index, numbering the synapses while walking each segment once.
+     * 
+     * @param c     the {@link Connections} being written
+     * @return  the slot of each synapse index, or {@link #NIL}
+     */
+    private static int[] synapseSlots(Connections c) {
+        int[] slots = new int[Math.max(16, c.getSynapseCount())];
+        Arrays.fill(slots, NIL);
+        int slot = 0;
+        for(Cell cell : c.getCells()) {
+            for(DistalDendrite dd : c.getSegments(cell)) {
+                for(Synapse s : c.getSynapses(dd)) {
+                    int index = s.getIndex();
+                    if(index < 0) {
+                        throw new IllegalArgumentException("Synapse index " + index + " is negative");
+                    }
+                    if(index >= slots.length) {
+                        int length = slots.length;
+                        slots = Arrays.copyOf(slots, Math.max(index + 1, length * 2));
+                        Arrays.fill(slots, length, slots.length, NIL);
+                    }
+                    if(slots[index] != NIL) {
+                        throw new IllegalArgumentException("Synapse index " + index + " is not unique");
+                    }
+                    slots[index] = slot++;
+                }
+            }
+        }
+        return slots;
+    }
+
+    /////////////////////////////// Proximal ///////////////////////////////
+
+    /**
+     * Returns the read-only potential {@link Pool} of the specified column.
+     * @param column    the column index
+     * @return
+     */
+    public Pool pool(int column) {
+        Pool pool = poolObjects.get(column);
+        if(pool == null) {
+            poolObjects.compareAndSet(column, null, new MappedPool(this, column));
+            pool = poolObjects.get(column);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns a read-only view of the proximal synapses of the specified column.
+     * @param column    the column index
+     * @return
+     */
+    public List<Synapse> proximalSynapses(final int column) {
+        return new AbstractList<Synapse>() {
+            @Override public Synapse get(int i) {
+                if(i < 0 || i >= size()) throw new IndexOutOfBoundsException("" + i);
+                return new MappedSynapse(MappedSynapseStore.this, getPoolStart(column) + i, column);
+            }
+            @Override public int size() { return getPoolSize(column); }
+        };
+    }
+
+    /**
+     * Sets the bits and true counts of the specified connected matrix
+     * to the stored ones.
+     * @param matrix    an empty matrix of the stored dimensions
+     */
+    public void copyConnectedCounts(SparseBinaryMatrix matrix) {
+        for(int i = 0;i < trueCounts.length();i++) {
+            for(int j = connectedStarts.get(i);j < connectedStarts.get(i + 1);j++) {
+                matrix.set(1, i, connectedInputs.get(j));
+            }
+            matrix.setTrueCount(i, trueCounts.get(i));
+        }
+    }
+
+    /**
+     * Returns the slot of the first synapse in the pool of the specified column
+     * @param column    the column index
+     * @return
+     */
+    public int getPoolStart(int column) {
+        return poolStarts.get(column);
+    }
+
+    /**
+     * Returns the number of synapses in the pool of the specified column
+     * @param column    the column index
+     * @return
+     */
+    public int getPoolSize(int column) {
+        return poolStarts.get(column + 1) - poolStarts.get(column);
+    }
+
+    /**
+     * Returns the index of the proximal synapse in the specified slot
+     * @param column    the column owning the slot
+     * @param slot      the proximal synapse slot
+     * @return
+     */
+    public int getProximalIndex(int column, int slot) {
+        return poolFirstSynapse.get(column) + slot - poolStarts.get(column);
+    }
+
+    /**
+     * Returns the input bit of the proximal synapse in the specified slot
+     * @param slot      the proximal synapse slot
+     * @return
+     */
+    public int getPoolInput(int slot) {
+        return poolInputs.get(slot);
+    }
+
+    /**
+     * Returns the permanence of the proximal synapse in the specified slot
+     * @param slot      the proximal synapse slot
+     * @return
+     */
+    public double getPoolPermanence(int slot) {
+        return poolPermanences.get(slot);
+    }
+
+    //////////////////////////////// Distal ////////////////////////////////
+
+    /**
+     * Returns the {@link DistalDendrite} in the specified slot.
+     * @param seg   the segment slot
+     * @return
+     */
+    public DistalDendrite getSegment(int seg) {
+        DistalDendrite dd = segmentObjects.get(seg);
+        if(dd == null) {
+            segmentObjects.compareAndSet(seg, null, 
+                new DistalDendrite(c.getCell(segmentCells.get(seg)), segmentIndexes.get(seg)));
+            dd = segmentObjects.get(seg);
+        }
+        return dd;
+    }
+
+    /**
+     * Returns the slot of the specified segment, or {@link #NIL}
+     * if it isn't held by this store.
+     * @param dd    the segment
+     * @return
+     */
+    public int segmentSlot(DistalDendrite dd) {
+        int cell = dd.getParentCell().getIndex();
+        if(cell < 0 || cell >= cellSegmentStarts.length() - 1) return NIL;
+        for(int seg = cellSegmentStarts.get(cell);seg < cellSegmentStarts.get(cell + 1);seg++) {
+            if(segmentIndexes.get(seg) == dd.getIndex() && getSegment(seg) == dd) {
+                return seg;
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * Returns the number of distal segments
+     * @return
+     */
+    public int getNumSegments() {
+        return segmentCells.length();
+    }
+
+    /**
+     * Returns the number of distal synapses
+     * @return
+     */
+    public int getNumSynapses() {
+        return synapseSegments.length();
+    }
+
+    /**
+     * Returns the slot of the segment of the distal synapse in the specified slot
+     * @param syn   the synapse slot
+     * @return
+     */
+    public int getSynapseSegment(int syn) {
+        return synapseSegments.get(syn);
+    }
+
+    /**
+     * Returns the source cell index of the distal synapse in the specified slot
+     * @param syn   the synapse slot
+     * @return
+     */
+    public int getSourceCell(int syn) {
+        return synapseSources.get(syn);
+    }
+
+    /**
+     * Returns the index of the distal synapse in the specified slot
+     * @param syn   the synapse slot
+     * @return
+     */
+    public int getSynapseIndex(int syn) {
+        return synapseIndexes.get(syn);
+    }
+
+    /**
+     * Returns the permanence of the distal synapse in the specified slot
+     * @param syn   the synapse slot
+     * @return
+     */
+    public double getPermanence(int syn) {
+        return synapsePermanences.get(syn);
+    }
+
+    /**
+     * Returns a read-only view of the specified cell's segments.
+     * @param cell  the cell index
+     * @return
+     */
+    public List<DistalDendrite> segments(final int cell) {
+        return new AbstractList<DistalDendrite>() {
+            @Override public DistalDendrite get(int i) {
+                if(i < 0 || i >= size()) throw new IndexOutOfBoundsException("" + i);
+                return getSegment(cellSegmentStarts.get(cell) + i);
+            }
+            @Override public int size() { return cellSegmentStarts.get(cell + 1) - cellSegmentStarts.get(cell); }
+        };
+    }
+
+    /**
+     * Returns a read-only view of the synapses on the specified segment.
+     * @param seg   the segment slot
+     * @return
+     */
+    public List<Synapse> synapses(final int seg) {
+        return new AbstractList<Synapse>() {
+            @Override public Synapse get(int i) {
+                if(i < 0 || i >= size()) throw new IndexOutOfBoundsException("" + i);
+                return new MappedSynapse(MappedSynapseStore.this, segmentSynapseStarts.get(seg) + i, NIL);
+            }
+            @Override public int size() { return segmentSynapseStarts.get(seg + 1) - segmentSynapseStarts.get(seg); }
+        };
+    }
+
+    /**
+     * Returns a read-only view of the synapses activated by the specified cell.
+     * @param cell  the source cell index
+     * @return
+     */
+    public Set<Synapse> receptors(final int cell) {
+        return new AbstractSet<Synapse>() {
+            @Override public int size() { return cellReceptorStarts.get(cell + 1) - cellReceptorStarts.get(cell); }
+            @Override public Iterator<Synapse> iterator() {
+                return new Iterator<Synapse>() {
+                    private int next = cellReceptorStarts.get(cell);
+                    private final int end = cellReceptorStarts.get(cell + 1);
+                    @Override public boolean hasNext() {
+                        return next < end;
+                    }
+                    @Override public Synapse next() {
+                        if(next >= end) throw new NoSuchElementException();
+                        return new MappedSynapse(MappedSynapseStore.this, receptorSynapses.get(next++), NIL);
+                    }
+                    @Override public void remove() {
+                        throw new UnsupportedOperationException("The view is read-only");
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns the {@link Connections} holding the columns and cells
+     * @return
+     */
+    Connections getConnections() {
+        return c;
+    }
+
+    /**
+     * Returns a view of the int array at the position of the specified
+     * input, and moves the input past it.
+     */
+    private static IntArray ints(MappedFile file, MappedFile.Input in) {
+        int length = readLength(file, in);
+        IntArray array = file.ints(in.position(), length);
+        in.advance(4L * length);
+        return array;
+    }
+
+    /**
+     * Returns a view of the double array at the position of the specified
+     * input, and moves the input past it.
+     */
+    private static DoubleArray doubles(MappedFile file, MappedFile.Input in) {
+        int length = readLength(file, in);
+        DoubleArray array = file.doubles(in.position(), length);
+        in.advance(8L * length);
+        return array;
+    }
+
+    private static int readLength(MappedFile file, MappedFile.Input in) {
+        in.align(8);
+        int length = file.getInt(in.position());
+        in.advance(4);
+        in.align(8);
+        return length;
+    }
+
+    /**
+     * Writes the length of an array, padded so that both the length
+     * and the array start at a multiple of 8 bytes.
+     */
+    private static void writeLength(DataOutputStream out, int length) throws IOException {
+        pad(out);
+        out.writeInt(length);
+        pad(out);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        writeLength(out, values.length);
+        for(int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void pad(DataOutputStream out) throws IOException {
+        while((out.size() & 7) != 0) {
+            out.writeByte(0);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.research;
+
+import java.util.Arrays;
+
+import org.numenta.nupic.Connections;
+
+/**
+ * The neighbors of the columns within a given inhibition radius, as computed
+ * by {@link SpatialPooler#getNeighborsND(Connections, int, org.numenta.nupic.util.SparseMatrix, int, boolean)}.
+ * Rather than the neighbors of every column, a single table of the flat offsets
+ * from a column to its neighbors is held, which is added to the index of any
+ * column whose neighborhood doesn't reach a border. The neighbors of the other
+ * columns are enumerated along each dimension, clipping the neighborhood at the
+ * borders or wrapping it around them.
+ * 
+ * The table only changes with the inhibition radius, so it is computed once
+ * and cached by the {@link Connections} until the radius changes, sparing local
+ * inhibition from recomputing the neighbors of every column on every cycle.
+ */
+public class ColumnNeighborhoods {
+    private final int radius;
+    private final int[] dimensions;
+    private final int[] strides;
+    private final int numColumns;
+    private final int maxSize;
+    /** Flat offsets from a column away from the borders to its neighbors */
+    private final int[] offsets;
+    
+    /**
+     * Constructs a new {@code ColumnNeighborhoods}
+     * 
+     * @param dimensions    the column dimensions
+     * @param radius        the inhibition radius
+     */
+    public ColumnNeighborhoods(int[] dimensions, int radius) {
+        this.radius = radius;
+        this.dimensions = dimensions.clone();
+        this.strides = new int[dimensions.length];
+        
+        int numColumns = 1;
+        int size = 1;
+        boolean hasInterior = true;
+        for(int d = dimensions.length - 1;d >= 0;d--) {
+            strides[d] = numColumns;
+            numColumns *= dimensions[d];
+            size *= Math.min(2 * radius + 1, dimensions[d]);
+            hasInterior &= 2 * radius + 1 <= dimensions[d];
+        }
+        this.numColumns = numColumns;
+        this.maxSize = size - 1;
+        
+        // Ordered like the neighbors, by dimension and then by ascending offset
+        int tableSize = hasInterior ? size : 0;
+        offsets = new int[Math.max(tableSize - 1, 0)];
+        for(int i = 0, count = 0;i < tableSize;i++) {
+            int offset = 0;
+            for(int d = dimensions.length - 1, rest = i;d >= 0;d--) {
+                offset += (rest % (2 * radius + 1) - radius) * strides[d];
+                rest /= 2 * radius + 1;
+            }
+            if(offset != 0) {
+                offsets[count++] = offset;
+            }
+        }
+    }
+    
+    /**
+     * Returns true if these neighborhoods may be used for the current
+     * configuration of the specified {@link Connections}
+     * 
+     * @param c             the {@link Connections} memory
+     * @return
+     */
+    public boolean fits(Connections c) {
+        return radius == c.getInhibitionRadius() && Arrays.equals(dimensions, c.getColumnDimensions());
+    }
+    
+    /**
+     * Returns the inhibition radius these neighborhoods were computed for
+     * @return
+     */
+    public int getRadius() {
+        return radius;
+    }
+    
+    /**
+     * Returns the number of columns
+     * @return
+     */
+    public int getNumColumns() {
+        return numColumns;
+    }
+    
+    /**
+     * Returns the largest number of neighbors of any column, which
+     * is the size needed by buffers passed to {@link #getNeighbors(int, boolean, int[])}
+     * @return
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Writes the neighbors of the specified column to the specified buffer,
+     * in no particular order.
+     * 
+     * @param column        the column index
+     * @param wrapAround    whether the neighborhood wraps around the borders
+     * @param neighbors     the buffer receiving the neighbors, of at least {@link #getMaxSize()}
+     * @return  the number of neighbors
+     */
+    public int getNeighbors(int column, boolean wrapAround, int[] neighbors) {
+        if(offsets.length > 0 && isInterior(column)) {
+            for(int i = 0;i < offsets.length;i++) {
+                neighbors[i] = column + offsets[i];
+            }
+            return offsets.length;
+        }
+        return addNeighbors(column, wrapAround, 0, 0, neighbors, 0);
+    }
+    
+    /**
+     * Returns the neighbors of the specified column in ascending order
+     * 
+     * @param column        the column index
+     * @param wrapAround    whether the neighborhood wraps around the borders
+     * @return
+     */
+    public int[] getNeighbors(int column, boolean wrapAround) {
+        int[] neighbors = new int[maxSize];
+        neighbors = Arrays.copyOf(neighbors, getNeighbors(column, wrapAround, neighbors));
+        Arrays.sort(neighbors);
+        return neighbors;
+    }
+    
+    /**
+     * Returns true if the neighborhood of the specified column reaches no border
+     */
+    private boolean isInterior(int column) {
+        for(int d = 0;d < dimensions.length;d++) {
+            int x = column / strides[d] % dimensions[d];
+            if(x < radius || x + radius >= dimensions[d]) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Adds the neighbors along the specified dimension and the following
+     * ones, clipping or wrapping the neighborhood at the borders.
+     * 
+     * @param column        the column index
+     * @param wrapAround    whether the neighborhood wraps around the borders
+     * @param d             the dimension
+     * @param base          the flat index of the neighbor along the preceding dimensions
+     * @param neighbors     the buffer receiving the neighbors
+     * @param count         the number of neighbors already in the buffer
+     * @return  the number of neighbors in the buffer
+     */
+    private int addNeighbors(int column, boolean wrapAround, int d, int base, int[] neighbors, int count) {
+        int x = column / strides[d] % dimensions[d];
+        int from, to;
+        if(wrapAround) {
+            from = x - radius;
+            to = Math.min(x + radius, from + dimensions[d] - 1);
+        }else{
+            from = Math.max(x - radius, 0);
+            to = Math.min(x + radius, dimensions[d] - 1);
+        }
+        boolean last = d == dimensions.length - 1;
+        for(int y = from;y <= to;y++) {
+            int index = base + (wrapAround ? Math.floorMod(y, dimensions[d]) : y) * strides[d];
+            if(!last) {
+                count = addNeighbors(column, wrapAround, d + 1, index, neighbors, count);
+            }else if(index != column) {
+                neighbors[count++] = index;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,250 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.model.DistalDendrite;
+
+/**
+ * Index based counterpart of {@link ComputeCycle} used by
+ * {@link TemporalMemory#computeIndexed(Connections, int[], boolean)}. Cells and
+ * columns are held as ints in insertion ordered index sets, and the state of the
+ * current and the previous cycle is kept in two sets of buffers which are swapped
+ * at the start of each cycle, so that no collections are created or copied
+ * while computing.
+ *
+ * One instance is owned by each {@link Connections} object, and is reused by
+ * every call to {@code computeIndexed}.
+ */
+public class IndexedComputeCycle {
+    Indexes activeCells;
+    Indexes winnerCells;
+    Indexes predictiveCells;
+    Indexes prevActiveCells;
+    Indexes prevWinnerCells;
+    Indexes prevPredictiveCells;
+    Indexes activeColumns;
+    Indexes predictedColumns;
+    List<DistalDendrite> activeSegments = new ArrayList<DistalDendrite>();
+    List<DistalDendrite> prevActiveSegments = new ArrayList<DistalDendrite>();
+    List<DistalDendrite> learningSegments = new ArrayList<DistalDendrite>();
+    /** The learning segment of each cell, or null */
+    DistalDendrite[] learningSegmentForCell;
+    /** Active synapse counts of the segments, due to the active cells */
+    SegmentActivity segmentActivity = new SegmentActivity();
+    /** Active synapse counts of the segments, due to the active cells of t-1 */
+    SegmentActivity prevSegmentActivity = new SegmentActivity();
+
+    //////////// Scratch buffers ////////////
+    /** Number of synapses on each learned segment prior to learning */
+    TIntArrayList synapseCounts = new TIntArrayList();
+    /** Candidate cells to grow new synapses to */
+    TIntArrayList candidates = new TIntArrayList();
+    /** Cells already synapsed to the segment being learned on */
+    Indexes excludedCells;
+
+    private int cellsPerColumn;
+
+    /**
+     * Constructs a new {@code IndexedComputeCycle}
+     *
+     * @param numColumns        the number of columns
+     * @param cellsPerColumn    the number of cells in each column
+     */
+    public IndexedComputeCycle(int numColumns, int cellsPerColumn) {
+        int numCells = numColumns * cellsPerColumn;
+        this.cellsPerColumn = cellsPerColumn;
+        this.activeCells = new Indexes(numCells);
+        this.winnerCells = new Indexes(numCells);
+        this.predictiveCells = new Indexes(numCells);
+        this.prevActiveCells = new Indexes(numCells);
+        this.prevWinnerCells = new Indexes(numCells);
+        this.prevPredictiveCells = new Indexes(numCells);
+        this.excludedCells = new Indexes(numCells);
+        this.activeColumns = new Indexes(numColumns);
+        this.predictedColumns = new Indexes(numColumns);
+        this.learningSegmentForCell = new DistalDendrite[numCells];
+    }
+
+    /**
+     * Returns true if this cycle may be used for the specified {@link Connections}
+     * @param c
+     * @return
+     */
+    boolean fits(Connections c) {
+        return c.getCellsPerColumn() == cellsPerColumn && c.getCells().length == learningSegmentForCell.length;
+    }
+
+    /**
+     * Moves the current state into the previous state buffers and clears
+     * the current state, in preparation for a new cycle.
+     */
+    void advance() {
+        Indexes tmp = prevActiveCells;
+        prevActiveCells = activeCells;
+        activeCells = tmp;
+        tmp = prevWinnerCells;
+        prevWinnerCells = winnerCells;
+        winnerCells = tmp;
+        tmp = prevPredictiveCells;
+        prevPredictiveCells = predictiveCells;
+        predictiveCells = tmp;
+        List<DistalDendrite> segs = prevActiveSegments;
+        prevActiveSegments = activeSegments;
+        activeSegments = segs;
+        SegmentActivity activity = prevSegmentActivity;
+        prevSegmentActivity = segmentActivity;
+        segmentActivity = activity;
+
+        activeCells.clear();
+        winnerCells.clear();
+        predictiveCells.clear();
+        activeSegments.clear();
+        segmentActivity.clear();
+        activeColumns.clear();
+        predictedColumns.clear();
+        for(DistalDendrite dd : learningSegments) {
+            learningSegmentForCell[dd.getParentCell().getIndex()] = null;
+        }
+        learningSegments.clear();
+    }
+
+    /**
+     * Clears the state of both the current and the previous cycle.
+     */
+    public void reset() {
+        advance();
+        advance();
+    }
+
+    /**
+     * Returns the sorted indexes of the active cells
+     * @return
+     */
+    public int[] activeCells() {
+        return activeCells.toSortedArray();
+    }
+
+    /**
+     * Returns the sorted indexes of the winner cells
+     * @return
+     */
+    public int[] winnerCells() {
+        return winnerCells.toSortedArray();
+    }
+
+    /**
+     * Returns the sorted indexes of the predictive cells
+     * @return
+     */
+    public int[] predictiveCells() {
+        return predictiveCells.toSortedArray();
+    }
+
+    /**
+     * Returns the sorted indexes of the predicted columns
+     * @return
+     */
+    public int[] predictedColumns() {
+        return predictedColumns.toSortedArray();
+    }
+
+    /**
+     * Returns the active {@link DistalDendrite}s in order of activation
+     * @return
+     */
+    public List<DistalDendrite> activeSegments() {
+        return activeSegments;
+    }
+
+    /**
+     * Returns the learning {@link DistalDendrite}s
+     * @return
+     */
+    public List<DistalDendrite> learningSegments() {
+        return learningSegments;
+    }
+
+    /**
+     * A set of indexes within a fixed range which remembers the order
+     * in which they were added. Clearing costs time proportional to
+     * the number of indexes held, not to the range.
+     */
+    static final class Indexes {
+        private final TIntArrayList order;
+        private final boolean[] members;
+
+        Indexes(int range) {
+            order = new TIntArrayList();
+            members = new boolean[range];
+        }
+
+        /**
+         * Adds the specified index
+         * @param index
+         * @return  true if the index was not yet contained
+         */
+        boolean add(int index) {
+            if(members[index]) return false;
+            members[index] = true;
+            order.add(index);
+            return true;
+        }
+
+        boolean contains(int index) {
+            return members[index];
+        }
+
+        /**
+         * Returns the n'th index added
+         * @param n
+         * @return
+         */
+        int get(int n) {
+            return order.getQuick(n);
+        }
+
+        int size() {
+            return order.size();
+        }
+
+        void clear() {
+            for(int i = 0;i < order.size();i++) {
+                members[order.getQuick(i)] = false;
+            }
+            order.resetQuick();
+        }
+
+        int[] toSortedArray() {
+            int[] retVal = order.toArray();
+            Arrays.sort(retVal);
+            return retVal;
+        }
+    }
+}
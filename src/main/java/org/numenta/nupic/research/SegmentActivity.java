@@ -0,0 +1,156 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.FlatSynapseStore;
+import org.numenta.nupic.model.Synapse;
+
+/**
+ * Counts the active synapses of each {@link DistalDendrite} in a single pass
+ * over the receptor synapses of the active cells. Two counts are kept per
+ * segment in dense arrays indexed by the segment's index: the number of active
+ * synapses (of any permanence) and the number of active connected synapses.
+ * This replaces building a mapping of each segment to the {@link java.util.Set} of its
+ * active synapses and filtering that set on every lookup.
+ *
+ * Segment indexes must be unique, as they are when segments are created by the
+ * {@link TemporalMemory} from the segment counter of the {@link Connections}.
+ */
+public class SegmentActivity {
+    private int[] numActivePotential = new int[64];
+    private int[] numActiveConnected = new int[64];
+    private DistalDendrite[] segments = new DistalDendrite[64];
+    /** Indexes of the segments with active synapses, in order of discovery */
+    private TIntArrayList activeSegments = new TIntArrayList();
+
+    /**
+     * Constructs a new {@code SegmentActivity}
+     */
+    public SegmentActivity() {}
+
+    /**
+     * Resets all counts to zero.
+     */
+    public void clear() {
+        for(int i = 0;i < activeSegments.size();i++) {
+            int index = activeSegments.getQuick(i);
+            numActivePotential[index] = 0;
+            numActiveConnected[index] = 0;
+        }
+        activeSegments.resetQuick();
+    }
+
+    /**
+     * Counts the synapses which have the specified {@link Cell} as their source.
+     * The receptors of {@link org.numenta.nupic.FlatConnections} are walked by slot.
+     *
+     * @param c                     the connections state of the temporal memory
+     * @param cell                  an active cell
+     * @param connectedPermanence   the permanence at or above which a synapse is connected
+     */
+    public void addActiveCell(Connections c, Cell cell, double connectedPermanence) {
+        FlatSynapseStore store = TemporalMemory.getFlatSynapseStore(c);
+        if(store != null) {
+            for(int syn = store.firstReceptor(cell.getIndex());syn != FlatSynapseStore.NIL;syn = store.nextReceptor(syn)) {
+                addActiveSynapse(store.getSegment(store.getSynapseSegment(syn)), store.getPermanence(syn) >= connectedPermanence);
+            }
+        }else{
+            for(Synapse s : c.getReceptorSynapses(cell)) {
+                addActiveSynapse((DistalDendrite)s.getSegment(), s.getPermanence() >= connectedPermanence);
+            }
+        }
+    }
+
+    /**
+     * Counts an active synapse of the specified segment
+     *
+     * @param dd            the segment of the synapse
+     * @param isConnected   whether the synapse is connected
+     */
+    private void addActiveSynapse(DistalDendrite dd, boolean isConnected) {
+        int index = dd.getIndex();
+        if(index >= segments.length) {
+            int length = Math.max(index + 1, segments.length * 2);
+            numActivePotential = Arrays.copyOf(numActivePotential, length);
+            numActiveConnected = Arrays.copyOf(numActiveConnected, length);
+            segments = Arrays.copyOf(segments, length);
+        }
+        if(numActivePotential[index] == 0) {
+            segments[index] = dd;
+            activeSegments.add(index);
+        }else if(segments[index] != dd) {
+            throw new IllegalArgumentException("Segment index " + index + " is not unique");
+        }
+        numActivePotential[index]++;
+        if(isConnected) {
+            numActiveConnected[index]++;
+        }
+    }
+
+    /**
+     * Returns the number of segments with at least one active synapse
+     * @return
+     */
+    public int size() {
+        return activeSegments.size();
+    }
+
+    /**
+     * Returns the n'th segment found to have active synapses
+     * @param n
+     * @return
+     */
+    public DistalDendrite getSegment(int n) {
+        return segments[activeSegments.getQuick(n)];
+    }
+
+    /**
+     * Returns the number of active synapses of the specified segment
+     * regardless of their permanence.
+     *
+     * @param dd    the segment
+     * @return
+     */
+    public int getNumActivePotential(DistalDendrite dd) {
+        int index = dd.getIndex();
+        return index < segments.length && segments[index] == dd ? numActivePotential[index] : 0;
+    }
+
+    /**
+     * Returns the number of active connected synapses of the specified segment.
+     *
+     * @param dd    the segment
+     * @return
+     */
+    public int getNumActiveConnected(DistalDendrite dd) {
+        int index = dd.getIndex();
+        return index < segments.length && segments[index] == dd ? numActiveConnected[index] : 0;
+    }
+}
@@ -30,6 +30,7 @@ import org.numenta.nupic.model.Column;
 import org.numenta.nupic.model.Pool;
 import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.Condition;
+import org.numenta.nupic.util.ParallelRange;
 import org.numenta.nupic.util.SparseBinaryMatrix;
 import org.numenta.nupic.util.SparseMatrix;
 import org.numenta.nupic.util.SparseObjectMatrix;
@@ -58,6 +59,9 @@ import java.util.Random;
  *
  */
 public class SpatialPooler {
+    /** Number of inputs whose overlaps are computed together by {@link #computeBatch(Connections, int[][])} */
+    private static final int BATCH_SIZE = 64;
+    
     /**
      * Constructs a new {@code SpatialPooler}
      */
@@ -167,9 +171,65 @@ public class SpatialPooler {
         if(inputVector.length != c.getNumInputs()) {
             throw new IllegalArgumentException("Input array must be same size as the defined number of inputs");
         }
+        if(learn && c.isReadOnly()) {
+            throw new IllegalArgumentException("Cannot learn on read-only Connections");
+        }
         
         updateBookeepingVars(c, learn);
         int[] overlaps = calculateOverlap(c, inputVector);
+        int[] inputIndices = learn ? ArrayUtils.where(inputVector, ArrayUtils.INT_GREATER_THAN_0) : null;
+        computeActiveColumns(c, overlaps, inputIndices, activeArray, learn, stripNeverLearned);
+    }
+    
+    /**
+     * Sparse counterpart of {@link #compute(Connections, int[], int[], boolean, boolean)},
+     * taking the indexes of the on bits of the input rather than a vector of 0's
+     * and 1's, such as produced by
+     * {@link org.numenta.nupic.encoders.Encoder#encodeIntoIndices(Object, gnu.trove.list.TIntList)}.
+     * The overlaps are accumulated from the on bits alone and learning adapts
+     * the synapses to them directly, so the input is never expanded into, nor
+     * recovered from, a dense vector.
+     * 
+     * @param inputIndices      the sorted, distinct indexes of the on input bits
+     * @param activeArray       An array whose size is equal to the number of columns.
+     *                          Before the function returns this array will be populated
+     *                          with 1's at the indices of the active columns, and 0's
+     *                          everywhere else.
+     * @param learn             whether learning should be performed
+     * @param stripNeverLearned whether to remove the columns which have never been
+     *                          active when not learning
+     */
+    public void computeSparse(Connections c, int[] inputIndices, int[] activeArray, boolean learn, boolean stripNeverLearned) {
+        int numInputs = c.getNumInputs();
+        int previous = -1;
+        for(int index : inputIndices) {
+            if(index <= previous || index >= numInputs) {
+                throw new IllegalArgumentException("Input indexes must be sorted, distinct and less than the defined number of inputs");
+            }
+            previous = index;
+        }
+        if(learn && c.isReadOnly()) {
+            throw new IllegalArgumentException("Cannot learn on read-only Connections");
+        }
+        
+        updateBookeepingVars(c, learn);
+        int[] overlaps = calculateOverlapSparse(c, inputIndices);
+        computeActiveColumns(c, overlaps, inputIndices, activeArray, learn, stripNeverLearned);
+    }
+    
+    /**
+     * Inhibits the columns given their overlaps with the input, learns if so
+     * specified, and sets the active columns in the activeArray.
+     * 
+     * @param c                 the {@link Connections} memory
+     * @param overlaps          the overlap of each column with the input
+     * @param inputIndices      the indexes of the on input bits, only used when learning
+     * @param activeArray       the array to set the active columns in
+     * @param learn             whether learning should be performed
+     * @param stripNeverLearned whether to remove the columns which have never been active
+     */
+    private void computeActiveColumns(Connections c, int[] overlaps, int[] inputIndices, int[] activeArray, 
+        boolean learn, boolean stripNeverLearned) {
         
         double[] boostedOverlaps;
         if(learn) {
@@ -181,7 +241,7 @@ public class SpatialPooler {
         int[] activeColumns = inhibitColumns(c, boostedOverlaps);
         
         if(learn) {
-        	adaptSynapses(c, inputVector, activeColumns);
+        	adaptSynapsesSparse(c, inputIndices, activeColumns);
         	updateDutyCycles(c, overlaps, activeColumns);
         	bumpUpWeakColumns(c);
         	updateBoostFactors(c);
@@ -199,6 +259,101 @@ public class SpatialPooler {
         }
     }
     
+    /**
+     * Computes the active columns of each of the specified inputs, without
+     * learning, exactly as would the same number of calls to
+     * {@link #compute(Connections, int[], int[], boolean, boolean)} with
+     * learning off. The overlaps of blocks of inputs are computed together, one
+     * row of the connected matrix at a time, and since no state is changed,
+     * the inputs are inhibited in parallel when the {@link Connections} are
+     * configured with a parallelism above 1.
+     * 
+     * @param c					the {@link Connections} memory
+     * @param inputs			the input vectors of 0's and 1's
+     * @return	the sorted indexes of the active columns of each input
+     */
+    public int[][] computeBatch(Connections c, int[][] inputs) {
+    	return computeBatch(c, inputs, false);
+    }
+    
+    /**
+     * Computes the active columns of each of the specified inputs, without
+     * learning, exactly as would the same number of calls to
+     * {@link #compute(Connections, int[], int[], boolean, boolean)} with
+     * learning off.
+     * 
+     * @param c					the {@link Connections} memory
+     * @param inputs			the input vectors of 0's and 1's
+     * @param stripNeverLearned	whether to remove the columns which have never
+     * 							been active, see {@link #stripUnlearnedColumns(Connections, int[])}
+     * @return	the sorted indexes of the active columns of each input
+     */
+    public int[][] computeBatch(final Connections c, final int[][] inputs, final boolean stripNeverLearned) {
+    	for(int[] inputVector : inputs) {
+    		if(inputVector.length != c.getNumInputs()) {
+    			throw new IllegalArgumentException("Input array must be same size as the defined number of inputs");
+    		}
+    	}
+    	if(!c.getGlobalInhibition() && c.getInhibitionRadius() <= ArrayUtils.max(c.getColumnDimensions())) {
+    		// Built up front, as they are shared by the concurrent inhibitions
+    		getColumnNeighborhoods(c);
+    	}
+    	
+    	final int[][] activeColumns = new int[inputs.length][];
+    	final SparseBinaryMatrix connectedCounts = c.getConnectedCounts();
+    	// The packed inputs and overlaps of a block are reused by the next block
+    	long[][] bitBuffers = new long[Math.min(BATCH_SIZE, inputs.length)][];
+    	int[][] overlapBuffers = new int[bitBuffers.length][c.getNumColumns()];
+    	for(int start = 0;start < inputs.length;start += BATCH_SIZE) {
+    		final int offset = start;
+    		final int size = Math.min(BATCH_SIZE, inputs.length - start);
+    		final int[][] overlaps = new int[size][];
+    		final long[][] inputBits = new long[size][];
+    		boolean binary = true;
+    		for(int i = 0;i < size && binary;i++) {
+    			long[] bits = connectedCounts.toInputBits(inputs[offset + i], bitBuffers[i]);
+    			if(bits == null) {
+    				binary = false;
+    			}else{
+    				inputBits[i] = bitBuffers[i] = bits;
+    			}
+    		}
+    		if(binary) {
+    			for(int i = 0;i < size;i++) {
+    				Arrays.fill(overlapBuffers[i], 0);
+    				overlaps[i] = overlapBuffers[i];
+    			}
+    			ParallelRange.forEach(c.getSpForkJoinPool(), c.getNumColumns(), new ParallelRange.Range() {
+    				@Override public void apply(int from, int to) {
+    					connectedCounts.rightMatSumAtNZ(inputBits, overlaps, from, to);
+    				}
+    			});
+    		}else{
+    			for(int i = 0;i < size;i++) {
+    				overlaps[i] = calculateOverlap(c, inputs[offset + i]);
+    			}
+    		}
+    		
+    		ParallelRange.forEach(c.getSpForkJoinPool(), size, new ParallelRange.Range() {
+    			@Override public void apply(int from, int to) {
+    				// The inhibitions run concurrently, so each range has its own scratch buffer
+    				int[] indexes = new int[c.getNumColumns()];
+    				for(int i = from;i < to;i++) {
+    					ArrayUtils.lessThanXThanSetToY(overlaps[i], (int)c.getStimulusThreshold(), 0);
+    					int[] active = inhibitColumns(c, ArrayUtils.toDoubleArray(overlaps[i]), indexes);
+    					if(stripNeverLearned) {
+    						active = stripUnlearnedColumns(c, active).toArray();
+    					}
+    					activeColumns[offset + i] = active;
+    				}
+    			}
+    		});
+    	}
+    	
+    	c.iterationNum += inputs.length;
+    	return activeColumns;
+    }
+    
     /**
      * Removes the set of columns who have never been active from the set of
      * active columns selected in the inhibition round. Such columns cannot
@@ -266,15 +421,20 @@ public class SpatialPooler {
      * @param c
      */
     public void updateMinDutyCyclesLocal(Connections c) {
+    	ColumnNeighborhoods n = getColumnNeighborhoods(c);
+    	int[] neighbors = new int[n.getMaxSize()];
+    	double[] overlapDutyCycles = c.getOverlapDutyCycles();
+    	double[] activeDutyCycles = c.getActiveDutyCycles();
     	int len = c.getNumColumns();
     	for(int i = 0;i < len;i++) {
-    		int[] maskNeighbors = getNeighborsND(c, i, c.getMemory(), c.getInhibitionRadius(), true).toArray();
-    		c.getMinOverlapDutyCycles()[i] = ArrayUtils.max(
-    			ArrayUtils.sub(c.getOverlapDutyCycles(), maskNeighbors)) *
-    				c.getMinPctOverlapDutyCycles();
-    		c.getMinActiveDutyCycles()[i] = ArrayUtils.max(
-    			ArrayUtils.sub(c.getActiveDutyCycles(), maskNeighbors)) *
-    				c.getMinPctActiveDutyCycles();
+    		double maxOverlapDuty = Double.MIN_VALUE;
+    		double maxActiveDuty = Double.MIN_VALUE;
+    		for(int j = 0, size = n.getNeighbors(i, true, neighbors);j < size;j++) {
+    			maxOverlapDuty = Math.max(maxOverlapDuty, overlapDutyCycles[neighbors[j]]);
+    			maxActiveDuty = Math.max(maxActiveDuty, activeDutyCycles[neighbors[j]]);
+    		}
+    		c.getMinOverlapDutyCycles()[i] = maxOverlapDuty * c.getMinPctOverlapDutyCycles();
+    		c.getMinActiveDutyCycles()[i] = maxActiveDuty * c.getMinPctActiveDutyCycles();
     	}
     }
     
@@ -376,7 +536,7 @@ public class SpatialPooler {
      */
     public void updateInhibitionRadius(Connections c) {
         if(c.getGlobalInhibition()) {
-            c.setInhibitionRadius(ArrayUtils.max(c.getColumnDimensions()));
+            setInhibitionRadius(c, ArrayUtils.max(c.getColumnDimensions()));
             return;
         }
         
@@ -389,7 +549,21 @@ public class SpatialPooler {
         double diameter = avgConnectedSpan * avgColumnsPerInput(c);
         double radius = (diameter - 1) / 2.0d;
         radius = Math.max(1, radius);
-        c.setInhibitionRadius((int)Math.round(radius));
+        setInhibitionRadius(c, (int)Math.round(radius));
+    }
+    
+    /**
+     * Sets the inhibition radius, discarding the cached column
+     * neighborhoods if it changed.
+     * 
+     * @param c			the {@link Connections} (spatial pooler memory)
+     * @param radius	the new inhibition radius
+     */
+    private void setInhibitionRadius(Connections c, int radius) {
+    	if(radius != c.getInhibitionRadius()) {
+    		c.clearColumnNeighborhoods();
+    	}
+    	c.setInhibitionRadius(radius);
     }
     
     /**
@@ -424,20 +598,35 @@ public class SpatialPooler {
      * @param activeColumns		an array containing the indices of the columns that
      *              			survived inhibition.
      */
-    public void adaptSynapses(Connections c, int[] inputVector, int[] activeColumns) {
-    	int[] inputIndices = ArrayUtils.where(inputVector, ArrayUtils.INT_GREATER_THAN_0);
-    	
-    	double[] permChanges = new double[c.getNumInputs()];
+    public void adaptSynapses(final Connections c, int[] inputVector, final int[] activeColumns) {
+    	adaptSynapsesSparse(c, ArrayUtils.where(inputVector, ArrayUtils.INT_GREATER_THAN_0), activeColumns);
+    }
+    
+    /**
+     * Sparse counterpart of {@link #adaptSynapses(Connections, int[], int[])},
+     * taking the indexes of the on input bits.
+     * 
+     * @param c					the {@link Connections} (spatial pooler memory)
+     * @param inputIndices		the indexes of the input bits which are on
+     * @param activeColumns		an array containing the indices of the columns that
+     *              			survived inhibition.
+     */
+    public void adaptSynapsesSparse(final Connections c, int[] inputIndices, final int[] activeColumns) {
+    	final double[] permChanges = new double[c.getNumInputs()];
     	Arrays.fill(permChanges, -1 * c.getSynPermInactiveDec());
     	ArrayUtils.setIndexesTo(permChanges, inputIndices, c.getSynPermActiveInc());
-    	for(int i = 0;i < activeColumns.length;i++) {
-    		Pool pool = c.getPotentialPools().getObject(activeColumns[i]);
-    		double[] perm = pool.getDensePermanences(c);
-    		int[] indexes = pool.getSparseConnections();
-    		ArrayUtils.raiseValuesBy(permChanges, perm);
-    		Column col = c.getColumn(activeColumns[i]);
-    		updatePermanencesForColumn(c, perm, col, indexes, true);
-    	}
+    	ParallelRange.forEach(c.getSpForkJoinPool(), activeColumns.length, new ParallelRange.Range() {
+    		@Override public void apply(int from, int to) {
+    			for(int i = from;i < to;i++) {
+    				Pool pool = c.getPotentialPools().getObject(activeColumns[i]);
+    				double[] perm = pool.getDensePermanences(c);
+    				int[] indexes = pool.getSparseConnections();
+    				ArrayUtils.raiseValuesBy(permChanges, perm);
+    				Column col = c.getColumn(activeColumns[i]);
+    				updatePermanencesForColumn(c, perm, col, indexes, true);
+    			}
+    		}
+    	});
     }
     
     /**
@@ -449,20 +638,24 @@ public class SpatialPooler {
      * @param c
      */
     public void bumpUpWeakColumns(final Connections c) {
-    	int[] weakColumns = ArrayUtils.where(c.getMemory().get1DIndexes(), new Condition.Adapter<Integer>() {
+    	final int[] weakColumns = ArrayUtils.where(c.getMemory().get1DIndexes(), new Condition.Adapter<Integer>() {
     		@Override public boolean eval(int i) {
     			return c.getOverlapDutyCycles()[i] < c.getMinOverlapDutyCycles()[i];
     		}
     	});
     	
-    	for(int i = 0;i < weakColumns.length;i++) {
-    		Pool pool = c.getPotentialPools().getObject(weakColumns[i]);
-    		double[] perm = pool.getSparsePermanences();
-    		ArrayUtils.raiseValuesBy(c.getSynPermBelowStimulusInc(), perm);
-    		int[] indexes = pool.getSparseConnections();
-    		Column col = c.getColumn(weakColumns[i]);
-    		updatePermanencesForColumnSparse(c, perm, col, indexes, true);
-    	}
+    	ParallelRange.forEach(c.getSpForkJoinPool(), weakColumns.length, new ParallelRange.Range() {
+    		@Override public void apply(int from, int to) {
+    			for(int i = from;i < to;i++) {
+    				Pool pool = c.getPotentialPools().getObject(weakColumns[i]);
+    				double[] perm = pool.getSparsePermanences();
+    				ArrayUtils.raiseValuesBy(c.getSynPermBelowStimulusInc(), perm);
+    				int[] indexes = pool.getSparseConnections();
+    				Column col = c.getColumn(weakColumns[i]);
+    				updatePermanencesForColumnSparse(c, perm, col, indexes, true);
+    			}
+    		}
+    	});
     }
     
     /**
@@ -778,13 +971,30 @@ public class SpatialPooler {
         TIntArrayList neighbors = new TIntArrayList(neighborList.size());
         int size = neighborList.size();
         for(int i = 0;i < size;i++) {
-        	int flatIndex = c.getInputMatrix().computeIndex(neighborList.get(i), false);
+        	int flatIndex = topology.computeIndex(neighborList.get(i), false);
             if(flatIndex == columnIndex) continue;
             neighbors.add(flatIndex);
         }
         return neighbors;
     }
     
+    /**
+     * Returns the neighborhoods of the columns within the current inhibition radius,
+     * which give the neighbors returned by {@link #getNeighborsND(Connections, int, SparseMatrix, int, boolean)}.
+     * They are computed on first use and cached by the {@link Connections} until
+     * the inhibition radius changes.
+     * 
+     * @param c				the {@link Connections} (spatial pooler memory)
+     * @return
+     */
+    public ColumnNeighborhoods getColumnNeighborhoods(Connections c) {
+    	ColumnNeighborhoods n = c.getColumnNeighborhoods();
+    	if(n == null || !n.fits(c)) {
+    		c.setColumnNeighborhoods(n = new ColumnNeighborhoods(c.getColumnDimensions(), c.getInhibitionRadius()));
+    	}
+    	return n;
+    }
+    
     /**
      * Returns true if enough rounds have passed to warrant updates of
      * duty cycles
@@ -824,13 +1034,88 @@ public class SpatialPooler {
      *                      the spatial pooler.
      * @return
      */
-    public int[] calculateOverlap(Connections c, int[] inputVector) {
+    public int[] calculateOverlap(Connections c, final int[] inputVector) {
+        final int[] overlaps = new int[c.getNumColumns()];
+        final SparseBinaryMatrix connectedCounts = c.getConnectedCounts();
+        // The input is packed, or its on bits listed, once for all the ranges
+        long[] inputBits = connectedCounts.toInputBits(inputVector);
+        if(inputBits == null) {
+            ParallelRange.forEach(c.getSpForkJoinPool(), overlaps.length, new ParallelRange.Range() {
+                @Override public void apply(int from, int to) {
+                    connectedCounts.rightVecSumAtNZ(inputVector, overlaps, from, to);
+                }
+            });
+        }else{
+            int numOnBits = 0;
+            for(long word : inputBits) {
+                numOnBits += Long.bitCount(word);
+            }
+            if(connectedCounts.prefersInputBits(numOnBits)) {
+                addOverlaps(c, inputBits, overlaps);
+            }else{
+                addOverlapsSparse(c, ArrayUtils.where(inputVector, ArrayUtils.INT_GREATER_THAN_0), overlaps);
+            }
+        }
+        ArrayUtils.lessThanXThanSetToY(overlaps, (int)c.getStimulusThreshold(), 0);
+        return overlaps;
+    }
+    
+    /**
+     * Sparse counterpart of {@link #calculateOverlap(Connections, int[])},
+     * taking the indexes of the on input bits.
+     *  
+     * @param c				the {@link Connections} memory encapsulation
+     * @param inputIndices	the distinct indexes of the input bits which are on
+     * @return
+     */
+    public int[] calculateOverlapSparse(Connections c, int[] inputIndices) {
         int[] overlaps = new int[c.getNumColumns()];
-        c.getConnectedCounts().rightVecSumAtNZ(inputVector, overlaps);
+        SparseBinaryMatrix connectedCounts = c.getConnectedCounts();
+        if(connectedCounts.prefersInputBits(inputIndices.length)) {
+            addOverlaps(c, connectedCounts.toInputBitsSparse(inputIndices), overlaps);
+        }else{
+            addOverlapsSparse(c, inputIndices, overlaps);
+        }
         ArrayUtils.lessThanXThanSetToY(overlaps, (int)c.getStimulusThreshold(), 0);
         return overlaps;
     }
     
+    /**
+     * Adds to the specified overlaps the connected counts of the columns
+     * with the specified bit packed input, in parallel ranges of columns
+     * which all share the packed input.
+     * 
+     * @param c				the {@link Connections} memory encapsulation
+     * @param inputBits		the bit packed input
+     * @param overlaps		the overlaps to add to
+     */
+    private void addOverlaps(Connections c, final long[] inputBits, final int[] overlaps) {
+        final SparseBinaryMatrix connectedCounts = c.getConnectedCounts();
+        ParallelRange.forEach(c.getSpForkJoinPool(), overlaps.length, new ParallelRange.Range() {
+            @Override public void apply(int from, int to) {
+                connectedCounts.rightVecSumAtNZ(inputBits, overlaps, from, to);
+            }
+        });
+    }
+    
+    /**
+     * Adds to the specified overlaps the connected counts of the columns
+     * with the input whose on bits are at the specified indexes, in parallel
+     * ranges of columns.
+     * 
+     * @param c				the {@link Connections} memory encapsulation
+     * @param inputIndices	the distinct indexes of the input bits which are on
+     * @param overlaps		the overlaps to add to
+     */
+    private void addOverlapsSparse(Connections c, final int[] inputIndices, final int[] overlaps) {
+        final SparseBinaryMatrix connectedCounts = c.getConnectedCounts();
+        ParallelRange.forEach(c.getSpForkJoinPool(), overlaps.length, new ParallelRange.Range() {
+            @Override public void apply(int from, int to) {
+                connectedCounts.rightVecSumAtNZSparse(inputIndices, overlaps, from, to);
+            }
+        });
+    }
+    
     /**
      * Return the overlap to connected counts ratio for a given column
      * @param c
@@ -854,6 +1139,21 @@ public class SpatialPooler {
      * @return
      */
     public int[] inhibitColumns(Connections c, double[] overlaps) {
+    	return inhibitColumns(c, overlaps, null);
+    }
+    
+    /**
+     * Performs inhibition, using the specified scratch buffer for global
+     * inhibition instead of the one held by the {@link Connections}, so
+     * that inhibitions may run concurrently.
+     * 
+     * @param c			the {@link Connections} matrix
+     * @param overlaps	an array containing the overlap score for each  column.
+     * @param indexes	a scratch buffer sized to the number of columns, or null
+     *              	to use the one of the {@link Connections}
+     * @return
+     */
+    private int[] inhibitColumns(Connections c, double[] overlaps, int[] indexes) {
     	overlaps = Arrays.copyOf(overlaps, overlaps.length);
     	
     	double density;
@@ -869,8 +1169,8 @@ public class SpatialPooler {
     	ArrayUtils.d_add(overlaps, c.getTieBreaker());
     	
     	if(c.getGlobalInhibition() || c.getInhibitionRadius() > ArrayUtils.max(c.getColumnDimensions())) {
-    		int[] nhibit = inhibitColumnsGlobal(c, overlaps, density);
-    		return nhibit;
+    		return indexes == null ? inhibitColumnsGlobal(c, overlaps, density) :
+    			inhibitColumnsGlobal(c, overlaps, density, indexes);
     	}
     	return inhibitColumnsLocal(c, overlaps, density);
     }
@@ -891,9 +1191,24 @@ public class SpatialPooler {
      * @return
      */
     public int[] inhibitColumnsGlobal(Connections c, double[] overlaps, double density) {
+    	return inhibitColumnsGlobal(c, overlaps, density, c.getInhibitionIndexes());
+    }
+    
+    /**
+     * Performs global inhibition, selecting the winning columns
+     * in the specified scratch buffer.
+     * 
+     * @param c				the {@link Connections} matrix
+     * @param overlaps		an array containing the overlap score for each  column.
+     * @param density		The fraction of columns to survive inhibition.
+     * @param indexes		a scratch buffer sized to the number of columns
+     * 
+     * @return
+     */
+    public int[] inhibitColumnsGlobal(Connections c, double[] overlaps, double density, int[] indexes) {
     	int numCols = c.getNumColumns();
     	int numActive = (int)(density * numCols);
-    	int[] winners = ArrayUtils.nGreatest(overlaps, numActive);
+    	int[] winners = Arrays.copyOf(ArrayUtils.selectGreatest(overlaps, numActive, indexes), numActive);
     	Arrays.sort(winners);
     	return winners;
     }
@@ -914,11 +1229,15 @@ public class SpatialPooler {
     	int numCols = c.getNumColumns();
     	int[] activeColumns = new int[numCols];
     	double addToWinners = ArrayUtils.max(overlaps) / 1000.0;
+    	ColumnNeighborhoods n = getColumnNeighborhoods(c);
+    	int[] neighbors = new int[n.getMaxSize()];
     	for(int i = 0;i < numCols;i++) {
-    		TIntArrayList maskNeighbors = getNeighborsND(c, i, c.getMemory(), c.getInhibitionRadius(), false);
-    		double[] overlapSlice = ArrayUtils.sub(overlaps, maskNeighbors.toArray());
-    		int numActive = (int)(0.5 + density * (maskNeighbors.size() + 1));
-    		int numBigger = ArrayUtils.valueGreaterCount(overlaps[i], overlapSlice);
+    		int size = n.getNeighbors(i, false, neighbors);
+    		int numActive = (int)(0.5 + density * (size + 1));
+    		int numBigger = 0;
+    		for(int j = 0;j < size && numBigger < numActive;j++) {
+    			if(overlaps[neighbors[j]] > overlaps[i]) numBigger++;
+    		}
     		if(numBigger < numActive) {
     			activeColumns[i] = 1;
     			overlaps[i] += addToWinners;
@@ -22,6 +22,8 @@
 
 package org.numenta.nupic.research;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -30,9 +32,11 @@ import java.util.Map;
 import java.util.Set;
 
 import org.numenta.nupic.Connections;
+import org.numenta.nupic.FlatConnections;
 import org.numenta.nupic.model.Cell;
 import org.numenta.nupic.model.Column;
 import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.FlatSynapseStore;
 import org.numenta.nupic.model.Synapse;
 import org.numenta.nupic.util.SparseObjectMatrix;
 
@@ -100,6 +104,9 @@ public class TemporalMemory {
      * @return                  {@link ComputeCycle} container for one cycle of inference values.
      */
     public ComputeCycle compute(Connections connections, int[] activeColumns, boolean learn) {
+        if(learn && connections.isReadOnly()) {
+            throw new IllegalArgumentException("Cannot learn on read-only Connections");
+        }
         ComputeCycle result = computeFn(connections, connections.getColumnSet(activeColumns), new LinkedHashSet<Cell>(connections.getPredictiveCells()), 
             new LinkedHashSet<DistalDendrite>(connections.getActiveSegments()), new LinkedHashMap<DistalDendrite, Set<Synapse>>(connections.getActiveSynapsesForSegment()), 
                 new LinkedHashSet<Cell>(connections.getWinnerCells()), learn);
@@ -114,7 +121,51 @@ public class TemporalMemory {
         
         return result; 
     }
-    
+
+    /**
+     * Feeds input record through TM, performing inferencing and learning
+     * using cell and column indexes rather than {@link Cell} and {@link Column}
+     * sets. Produces exactly the same results (and consumes the random number
+     * generator in the same order) as {@link #compute(Connections, int[], boolean)},
+     * but keeps its state in the {@link IndexedComputeCycle} owned by the
+     * specified {@link Connections}, whose buffers are reused on every call.
+     *
+     * The two compute methods keep separate state, and should not be mixed
+     * on one {@link Connections} object between calls to {@link #reset(Connections)}.
+     *
+     * @param c                 the connection memory
+     * @param activeColumns     direct proximal dendrite input
+     * @param learn             learning mode flag
+     * @return                  the reused {@link IndexedComputeCycle} holding the results of this cycle
+     */
+    public IndexedComputeCycle computeIndexed(Connections c, int[] activeColumns, boolean learn) {
+        if(learn && c.isReadOnly()) {
+            throw new IllegalArgumentException("Cannot learn on read-only Connections");
+        }
+        IndexedComputeCycle cycle = c.getIndexedComputeCycle();
+        if(cycle == null || !cycle.fits(c)) {
+            cycle = new IndexedComputeCycle(c.getCells().length / c.getCellsPerColumn(), c.getCellsPerColumn());
+            c.setIndexedComputeCycle(cycle);
+        }
+        cycle.advance();
+
+        for(int column : activeColumns) {
+            cycle.activeColumns.add(column);
+        }
+
+        activateCorrectlyPredictiveCells(c, cycle);
+
+        burstColumns(c, cycle);
+
+        if(learn) {
+            learnOnSegments(c, cycle);
+        }
+
+        computePredictiveCells(c, cycle);
+
+        return cycle;
+    }
+
     /**
      * Functional version of {@link #compute(int[], boolean)}. 
      * This method is stateless and concurrency safe.
@@ -210,6 +261,9 @@ public class TemporalMemory {
                 cycle.winnerCells.add(bestCell);
             }
             
+            // The new segment would only be used for learning
+            if(bestSegment == null && c.isReadOnly()) continue;
+            
             int segmentCounter = c.getSegmentCount();
             if(bestSegment == null) {
                 bestSegment = bestCell.createSegment(c, segmentCounter);
@@ -331,8 +385,283 @@ public class TemporalMemory {
         connections.getActiveSegments().clear();
         connections.getActiveSynapsesForSegment().clear();
         connections.getWinnerCells().clear();
+        if(connections.getIndexedComputeCycle() != null) {
+            connections.getIndexedComputeCycle().reset();
+        }
     }
-    
+
+
+    /////////////////////// INDEXED CORE FUNCTIONS /////////////////////////
+
+    /**
+     * Phase 1 of {@link #computeIndexed(Connections, int[], boolean)}
+     *
+     * @see #activateCorrectlyPredictiveCells(ComputeCycle, Set, Set)
+     * @param c         the Connections state of the temporal memory
+     * @param cycle     the indexed state of the current and previous cycle
+     */
+    void activateCorrectlyPredictiveCells(Connections c, IndexedComputeCycle cycle) {
+        int cellsPerColumn = c.getCellsPerColumn();
+        for(int i = 0;i < cycle.prevPredictiveCells.size();i++) {
+            int cell = cycle.prevPredictiveCells.get(i);
+            int column = cell / cellsPerColumn;
+            if(cycle.activeColumns.contains(column)) {
+                cycle.activeCells.add(cell);
+                cycle.winnerCells.add(cell);
+                cycle.predictedColumns.add(column);
+            }
+        }
+    }
+
+    /**
+     * Phase 2 of {@link #computeIndexed(Connections, int[], boolean)}. The
+     * numbers of active synapses of t-1 are read from the {@link SegmentActivity}
+     * counted in t-1.
+     *
+     * @see #burstColumns(ComputeCycle, Connections, Set, Set, Map)
+     * @param c         the Connections state of the temporal memory
+     * @param cycle     the indexed state of the current and previous cycle
+     */
+    void burstColumns(Connections c, IndexedComputeCycle cycle) {
+        Cell[] cells = c.getCells();
+        FlatSynapseStore store = getFlatSynapseStore(c);
+        int cellsPerColumn = c.getCellsPerColumn();
+        int minThreshold = c.getMinThreshold();
+
+        for(int i = 0;i < cycle.activeColumns.size();i++) {
+            int column = cycle.activeColumns.get(i);
+            if(cycle.predictedColumns.contains(column)) continue;
+
+            int firstCell = column * cellsPerColumn;
+            for(int cell = firstCell;cell < firstCell + cellsPerColumn;cell++) {
+                cycle.activeCells.add(cell);
+            }
+
+            // Best matching cell: the cell whose best matching segment has most active synapses
+            int bestCell = -1;
+            DistalDendrite bestSegment = null;
+            int maxSynapses = 0;
+            for(int cell = firstCell;cell < firstCell + cellsPerColumn;cell++) {
+                int maxSegmentSynapses = minThreshold;
+                DistalDendrite dd = null;
+                List<DistalDendrite> segments = store == null ? c.getSegments(cells[cell]) : null;
+                int numSegments = store == null ? segments.size() : store.getNumSegments(cell);
+                for(int s = 0;s < numSegments;s++) {
+                    DistalDendrite segment = store == null ? segments.get(s) : store.getSegment(store.segmentAt(cell, s));
+                    int numActive = cycle.prevSegmentActivity.getNumActivePotential(segment);
+                    if(numActive >= maxSegmentSynapses) {
+                        maxSegmentSynapses = numActive;
+                        dd = segment;
+                    }
+                }
+                if(dd != null && maxSegmentSynapses > maxSynapses) {
+                    maxSynapses = maxSegmentSynapses;
+                    bestCell = cell;
+                    bestSegment = dd;
+                }
+            }
+
+            if(bestCell == -1) {
+                bestCell = getLeastUsedCell(c, store, firstCell);
+            }
+            cycle.winnerCells.add(bestCell);
+
+            // The new segment would only be used for learning
+            if(bestSegment == null && c.isReadOnly()) continue;
+
+            int segmentCounter = c.getSegmentCount();
+            if(bestSegment == null) {
+                bestSegment = cells[bestCell].createSegment(c, segmentCounter);
+                c.setSegmentCount(segmentCounter + 1);
+            }
+
+            cycle.learningSegments.add(bestSegment);
+            cycle.learningSegmentForCell[bestCell] = bestSegment;
+        }
+    }
+
+    /**
+     * Phase 3 of {@link #computeIndexed(Connections, int[], boolean)}.
+     * Synapses grown during this phase were not active in t-1, so only the
+     * synapses a segment had prior to this phase are adapted as active ones.
+     * The synapses of {@link FlatConnections} are read and adapted by slot.
+     *
+     * @see #learnOnSegments(Connections, Set, Set, Map, Set, Set)
+     * @param c         the Connections state of the temporal memory
+     * @param cycle     the indexed state of the current and previous cycle
+     */
+    void learnOnSegments(Connections c, IndexedComputeCycle cycle) {
+        double permanenceIncrement = c.getPermanenceIncrement();
+        double permanenceDecrement = c.getPermanenceDecrement();
+        Cell[] cells = c.getCells();
+        FlatSynapseStore store = getFlatSynapseStore(c);
+
+        int numPrevActive = cycle.prevActiveSegments.size();
+        int numSegments = numPrevActive + cycle.learningSegments.size();
+        cycle.synapseCounts.resetQuick();
+        for(int i = 0;i < numSegments;i++) {
+            DistalDendrite dd = i < numPrevActive ? cycle.prevActiveSegments.get(i) : cycle.learningSegments.get(i - numPrevActive);
+            cycle.synapseCounts.add(store == null ? c.getSynapses(dd).size() : store.getNumSynapses(store.segmentSlot(dd)));
+        }
+
+        for(int i = 0;i < numSegments;i++) {
+            DistalDendrite dd = i < numPrevActive ? cycle.prevActiveSegments.get(i) : cycle.learningSegments.get(i - numPrevActive);
+            int parentCell = dd.getParentCell().getIndex();
+            boolean isLearningSegment = cycle.learningSegmentForCell[parentCell] == dd;
+            boolean isFromWinnerCell = cycle.winnerCells.contains(parentCell);
+
+            int numPrevSynapses = cycle.synapseCounts.getQuick(i);
+            int numActive = cycle.prevSegmentActivity.getNumActivePotential(dd);
+
+            if(isLearningSegment || isFromWinnerCell) {
+                if(store == null) {
+                    int position = 0;
+                    for(Synapse synapse : c.getSynapses(dd)) {
+                        boolean isActive = position++ < numPrevSynapses && 
+                            cycle.prevActiveCells.contains(synapse.getSourceCell().getIndex());
+                        synapse.setPermanence(c, adaptPermanence(synapse.getPermanence(), isActive, 
+                            permanenceIncrement, permanenceDecrement));
+                    }
+                }else{
+                    int seg = store.segmentSlot(dd);
+                    for(int position = 0;position < store.getNumSynapses(seg);position++) {
+                        int syn = store.synapseAt(seg, position);
+                        boolean isActive = position < numPrevSynapses && 
+                            cycle.prevActiveCells.contains(store.getSourceCell(syn));
+                        store.setPermanence(syn, (float)adaptPermanence(store.getPermanence(syn), isActive, 
+                            permanenceIncrement, permanenceDecrement));
+                    }
+                }
+            }
+
+            int n = c.getMaxNewSynapseCount() - numActive;
+            if(isLearningSegment && n > 0) {
+                // Previous winner cells which aren't yet synapsed to this segment, in ascending order
+                if(store == null) {
+                    for(Synapse synapse : c.getSynapses(dd)) {
+                        cycle.excludedCells.add(synapse.getSourceCell().getIndex());
+                    }
+                }else{
+                    int seg = store.segmentSlot(dd);
+                    for(int j = 0;j < store.getNumSynapses(seg);j++) {
+                        cycle.excludedCells.add(store.getSourceCell(store.synapseAt(seg, j)));
+                    }
+                }
+                TIntArrayList candidates = cycle.candidates;
+                candidates.resetQuick();
+                for(int j = 0;j < cycle.prevWinnerCells.size();j++) {
+                    int cell = cycle.prevWinnerCells.get(j);
+                    if(!cycle.excludedCells.contains(cell)) {
+                        candidates.add(cell);
+                    }
+                }
+                cycle.excludedCells.clear();
+                candidates.sort();
+
+                int synapseCounter = c.getSynapseCount();
+                int numPickCells = Math.min(n, candidates.size());
+                for(int x = 0;x < numPickCells;x++) {
+                    int cell = candidates.removeAt(c.getRandom().nextInt(candidates.size()));
+                    dd.createSynapse(c, cells[cell], c.getInitialPermanence(), synapseCounter);
+                    synapseCounter += 1;
+                }
+                c.setSynapseCount(synapseCounter);
+            }
+        }
+    }
+
+    /**
+     * Returns the permanence incremented if active or decremented if not,
+     * and clipped to [0, 1].
+     *
+     * @param permanence            the permanence to adapt
+     * @param isActive              whether the synapse was active
+     * @param permanenceIncrement   the amount added to active synapses
+     * @param permanenceDecrement   the amount removed from inactive synapses
+     * @return  the adapted permanence
+     */
+    private static double adaptPermanence(double permanence, boolean isActive, 
+        double permanenceIncrement, double permanenceDecrement) {
+        
+        if(isActive) {
+            permanence += permanenceIncrement;
+        }else{
+            permanence -= permanenceDecrement;
+        }
+        return Math.max(0, Math.min(1.0, permanence));
+    }
+
+    /**
+     * Phase 4 of {@link #computeIndexed(Connections, int[], boolean)}
+     *
+     * @see #computeActiveSynapses(Connections, Set)
+     * @see #computePredictiveCells(Connections, ComputeCycle, Map)
+     * @param c         the Connections state of the temporal memory
+     * @param cycle     the indexed state of the current and previous cycle
+     */
+    void computePredictiveCells(Connections c, IndexedComputeCycle cycle) {
+        Cell[] cells = c.getCells();
+        double connectedPermanence = c.getConnectedPermanence();
+        int activationThreshold = c.getActivationThreshold();
+
+        SegmentActivity activity = cycle.segmentActivity;
+        for(int i = 0;i < cycle.activeCells.size();i++) {
+            activity.addActiveCell(c, cells[cycle.activeCells.get(i)], connectedPermanence);
+        }
+
+        for(int i = 0;i < activity.size();i++) {
+            DistalDendrite dd = activity.getSegment(i);
+            if(activity.getNumActiveConnected(dd) >= activationThreshold) {
+                cycle.activeSegments.add(dd);
+                cycle.predictiveCells.add(dd.getParentCell().getIndex());
+            }
+        }
+    }
+
+    /**
+     * Index based version of {@link Column#getLeastUsedCell(Connections, java.util.Random)}
+     *
+     * @param c             the Connections state of the temporal memory
+     * @param store         the store of the {@link FlatConnections}, or null
+     * @param firstCell     the index of the column's first cell
+     * @return  the index of the least used cell
+     */
+    private int getLeastUsedCell(Connections c, FlatSynapseStore store, int firstCell) {
+        Cell[] cells = c.getCells();
+        int cellsPerColumn = c.getCellsPerColumn();
+        int minNumSegments = Integer.MAX_VALUE;
+        int numLeastUsed = 0;
+        for(int cell = firstCell;cell < firstCell + cellsPerColumn;cell++) {
+            int numSegments = store == null ? c.getSegments(cells[cell]).size() : store.getNumSegments(cell);
+            if(numSegments < minNumSegments) {
+                minNumSegments = numSegments;
+                numLeastUsed = 0;
+            }
+            if(numSegments == minNumSegments) {
+                numLeastUsed++;
+            }
+        }
+
+        int index = c.getRandom().nextInt(numLeastUsed);
+        for(int cell = firstCell;;cell++) {
+            int numSegments = store == null ? c.getSegments(cells[cell]).size() : store.getNumSegments(cell);
+            if(numSegments == minNumSegments && index-- == 0) {
+                return cell;
+            }
+        }
+    }
+
+    /**
+     * Returns the store of the specified {@link FlatConnections}, whose segments
+     * and synapses are then read by slot, or null for other {@link Connections}.
+     *
+     * @param c     the Connections state of the temporal memory
+     * @return
+     */
+    static FlatSynapseStore getFlatSynapseStore(Connections c) {
+        return c instanceof FlatConnections ? ((FlatConnections)c).getSynapseStore() : null;
+    }
+
     
     /////////////////////////// HELPER FUNCTIONS ///////////////////////////
     
@@ -1153,6 +1153,117 @@ public class ArrayUtils {
         return retVal;
     }
 
+    /**
+     * Places the indexes of the n greatest values of the specified array in
+     * the first n positions of the specified buffer, in no particular order.
+     * Unlike {@link #nGreatest(double[], int)} the array is not modified, equal
+     * values are ordered by index (lower index first), and the expected time
+     * is linear in the length of the array: a quickselect is used, which falls
+     * back to a bounded heap if its partitions turn out badly.
+     * 
+     * @param array     the values to select from
+     * @param n         the number of indexes to select
+     * @param indexes   a buffer at least as long as the array, which may be
+     *                  reused between calls, or null to allocate one
+     * @return  the buffer holding the selected indexes
+     */
+    public static int[] selectGreatest(double[] array, int n, int[] indexes) {
+        if (indexes == null || indexes.length < array.length) {
+            indexes = new int[array.length];
+        }
+        for (int i = 0; i < array.length; i++) {
+            indexes[i] = i;
+        }
+        if (n <= 0 || n >= array.length) {
+            return indexes;
+        }
+
+        int lo = 0;
+        int hi = array.length - 1;
+        int budget = 2 * (32 - Integer.numberOfLeadingZeros(array.length));
+        while (lo < hi) {
+            if (budget-- == 0) {
+                heapSelectGreatest(array, indexes, lo, hi + 1, n - lo);
+                break;
+            }
+            // Median of three pivot, moved to the end of the range
+            int mid = (lo + hi) >>> 1;
+            if (precedes(array, indexes[mid], indexes[lo])) swap(indexes, mid, lo);
+            if (precedes(array, indexes[hi], indexes[lo])) swap(indexes, hi, lo);
+            if (precedes(array, indexes[mid], indexes[hi])) swap(indexes, mid, hi);
+            int pivot = indexes[hi];
+            int store = lo;
+            for (int i = lo; i < hi; i++) {
+                if (precedes(array, indexes[i], pivot)) {
+                    swap(indexes, i, store++);
+                }
+            }
+            swap(indexes, store, hi);
+            if (store == n || store == n - 1) {
+                break;
+            } else if (store > n) {
+                hi = store - 1;
+            } else {
+                lo = store + 1;
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Moves the indexes of the k greatest values held by the positions 
+     * [from, to) of the indexes buffer to the positions [from, from + k),
+     * keeping them as a min heap while scanning the rest of the range.
+     * 
+     * @param array     the values
+     * @param indexes   the indexes of the values
+     * @param from      the first position of the range
+     * @param to        the position after the last position of the range
+     * @param k         the number of indexes to select
+     */
+    private static void heapSelectGreatest(double[] array, int[] indexes, int from, int to, int k) {
+        for (int i = k / 2 - 1; i >= 0; i--) {
+            siftDown(array, indexes, from, k, i);
+        }
+        for (int i = from + k; i < to; i++) {
+            if (precedes(array, indexes[i], indexes[from])) {
+                swap(indexes, i, from);
+                siftDown(array, indexes, from, k, 0);
+            }
+        }
+    }
+
+    /**
+     * Restores the min heap held by the positions [from, from + size) 
+     * of the indexes buffer, from the specified heap node downwards.
+     */
+    private static void siftDown(double[] array, int[] indexes, int from, int size, int node) {
+        while (true) {
+            int child = 2 * node + 1;
+            if (child >= size) return;
+            if (child + 1 < size && precedes(array, indexes[from + child], indexes[from + child + 1])) {
+                child++;
+            }
+            if (!precedes(array, indexes[from + node], indexes[from + child])) return;
+            swap(indexes, from + node, from + child);
+            node = child;
+        }
+    }
+
+    /**
+     * Returns true if the value at index a is selected before the value at index b:
+     * it is greater, or it is equal and a is the lower index.
+     */
+    private static boolean precedes(double[] array, int a, int b) {
+        return array[a] > array[b] || (array[a] == array[b] && a < b);
+    }
+
+    private static void swap(int[] indexes, int i, int j) {
+        int tmp = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = tmp;
+    }
+
     /**
      * Raises the values in the specified array by the amount specified
      * @param amount the amount to raise the values
@@ -0,0 +1,289 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file mapped read-only into memory as a sequence of {@link MappedByteBuffer}
+ * regions of a fixed power of two size, so that files of any size may be
+ * mapped although a single buffer is limited to 2GB. Values are read by their
+ * absolute position in the file; ints, longs and doubles must be aligned to
+ * their size, so that none of them spans two regions.
+ *
+ * Usage:
+ * <pre>
+ * MappedFile file = MappedFile.map(new File("model.htm"));
+ * MappedFile.IntArray starts = file.ints(position, length);
+ * int start = starts.get(i);
+ * </pre>
+ */
+public class MappedFile {
+    /** The size of the regions of {@link #map(File)}: 1GB */
+    public static final int DEFAULT_REGION_SIZE = 1 << 30;
+
+    private final MappedByteBuffer[] regions;
+    private final int regionShift;
+    private final int regionMask;
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] regions, int regionSize, long size) {
+        this.regions = regions;
+        this.regionShift = Integer.numberOfTrailingZeros(regionSize);
+        this.regionMask = regionSize - 1;
+        this.size = size;
+    }
+
+    /**
+     * Maps the specified file in regions of {@link #DEFAULT_REGION_SIZE}.
+     * The mapping remains valid after the file is closed.
+     *
+     * @param file  the file to map
+     * @return  the mapped file
+     * @throws IOException
+     */
+    public static MappedFile map(File file) throws IOException {
+        return map(file, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Maps the specified file in regions of the specified size.
+     * The mapping remains valid after the file is closed.
+     *
+     * @param file          the file to map
+     * @param regionSize    the size of the regions, a power of two of at least 8 bytes
+     * @return  the mapped file
+     * @throws IOException
+     */
+    public static MappedFile map(File file, int regionSize) throws IOException {
+        if(regionSize < 8 || Integer.bitCount(regionSize) != 1) {
+            throw new IllegalArgumentException("regionSize must be a power of two of at least 8: " + regionSize);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            MappedByteBuffer[] regions = new MappedByteBuffer[(int)((size + regionSize - 1) / regionSize)];
+            for(int i = 0;i < regions.length;i++) {
+                long position = (long)i * regionSize;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(regionSize, size - position));
+            }
+            return new MappedFile(regions, regionSize, size);
+        }finally{
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the size of the file
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the byte at the specified position
+     * @param position  the position in the file
+     * @return
+     */
+    public byte get(long position) {
+        return regions[(int)(position >>> regionShift)].get((int)position & regionMask);
+    }
+
+    /**
+     * Returns the int at the specified position, a multiple of 4
+     * @param position  the position in the file
+     * @return
+     */
+    public int getInt(long position) {
+        return regions[(int)(position >>> regionShift)].getInt((int)position & regionMask);
+    }
+
+    /**
+     * Returns the double at the specified position, a multiple of 8
+     * @param position  the position in the file
+     * @return
+     */
+    public double getDouble(long position) {
+        return regions[(int)(position >>> regionShift)].getDouble((int)position & regionMask);
+    }
+
+    /**
+     * Returns a view of the ints starting at the specified position
+     * @param position  the position of the first int, a multiple of 4
+     * @param length    the number of ints
+     * @return
+     */
+    public IntArray ints(long position, int length) {
+        checkRange(position, 4L * length);
+        return new IntArray(position, length);
+    }
+
+    /**
+     * Returns a view of the doubles starting at the specified position
+     * @param position  the position of the first double, a multiple of 8
+     * @param length    the number of doubles
+     * @return
+     */
+    public DoubleArray doubles(long position, int length) {
+        checkRange(position, 8L * length);
+        return new DoubleArray(position, length);
+    }
+
+    /**
+     * Returns a stream reading the file from the specified position
+     * @param position  the position of the first byte to read
+     * @return
+     */
+    public Input newInput(long position) {
+        checkRange(position, 0);
+        return new Input(position);
+    }
+
+    private void checkRange(long position, long length) {
+        if(position < 0 || length < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException("Range [" + position + ", " + (position + length) +
+                ") is outside of the file of size " + size);
+        }
+    }
+
+    /**
+     * A read-only view of an array of ints in the file
+     */
+    public class IntArray {
+        private final long position;
+        private final int length;
+
+        private IntArray(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+
+        /**
+         * Returns the int at the specified index
+         * @param i     the index
+         * @return
+         */
+        public int get(int i) {
+            if(i < 0 || i >= length) throw new IndexOutOfBoundsException("" + i);
+            return getInt(position + 4L * i);
+        }
+
+        /**
+         * Returns the number of ints
+         * @return
+         */
+        public int length() {
+            return length;
+        }
+    }
+
+    /**
+     * A read-only view of an array of doubles in the file
+     */
+    public class DoubleArray {
+        private final long position;
+        private final int length;
+
+        private DoubleArray(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+
+        /**
+         * Returns the double at the specified index
+         * @param i     the index
+         * @return
+         */
+        public double get(int i) {
+            if(i < 0 || i >= length) throw new IndexOutOfBoundsException("" + i);
+            return getDouble(position + 8L * i);
+        }
+
+        /**
+         * Returns the number of doubles
+         * @return
+         */
+        public int length() {
+            return length;
+        }
+    }
+
+    /**
+     * Reads the file sequentially, across regions, from a starting position
+     */
+    public class Input extends InputStream {
+        private long position;
+
+        private Input(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Returns the position of the next byte to read
+         * @return
+         */
+        public long position() {
+            return position;
+        }
+
+        /**
+         * Moves the position to the next multiple of the specified alignment
+         * @param alignment     a power of two
+         */
+        public void align(int alignment) {
+            position = (position + alignment - 1) & -alignment;
+        }
+
+        /**
+         * Moves the position past the specified number of bytes
+         * @param n     the number of bytes to skip
+         */
+        public void advance(long n) {
+            position += n;
+        }
+
+        @Override public int read() {
+            return position < size ? get(position++) & 0xFF : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if(len == 0) return 0;
+            if(position >= size) return -1;
+            int offset = (int)position & regionMask;
+            ByteBuffer region = regions[(int)(position >>> regionShift)].duplicate();
+            len = Math.min(len, region.capacity() - offset);
+            region.position(offset);
+            region.get(b, off, len);
+            position += len;
+            return len;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs work over a range of indexes [0, size) on a {@link ForkJoinPool}, by
+ * recursively splitting the range into chunks. The work done on each index
+ * must be independent of the work done on all other indexes, in which case
+ * the result is the same whatever the number of threads.
+ *
+ * Usage:
+ * <pre>
+ * ParallelRange.forEach(pool, numColumns, new ParallelRange.Range() {
+ *     public void apply(int from, int to) {
+ *         for(int i = from;i < to;i++) { ... }
+ *     }
+ * });
+ * </pre>
+ */
+public class ParallelRange extends RecursiveAction {
+    /** Default serial version */
+    private static final long serialVersionUID = 1L;
+
+    /** Number of chunks created per thread, to balance uneven work */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Work to be done on a sub range of indexes
+     */
+    public interface Range {
+        /**
+         * Does the work for each index from {@code from} (inclusive)
+         * to {@code to} (exclusive)
+         *
+         * @param from
+         * @param to
+         */
+        public void apply(int from, int to);
+    }
+
+    private final Range range;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    private ParallelRange(Range range, int from, int to, int grain) {
+        this.range = range;
+        this.from = from;
+        this.to = to;
+        this.grain = grain;
+    }
+
+    /**
+     * Applies the specified {@link Range} to all indexes from 0 to {@code size}.
+     * If the pool is null, the work is done on the calling thread.
+     *
+     * @param pool      the pool to run on, or null
+     * @param size      the number of indexes
+     * @param range     the work to do
+     */
+    public static void forEach(ForkJoinPool pool, int size, Range range) {
+        if(pool == null || pool.getParallelism() < 2 || size < 2) {
+            range.apply(0, size);
+            return;
+        }
+        int grain = Math.max(1, size / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        pool.invoke(new ParallelRange(range, 0, size, grain));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void compute() {
+        if(to - from <= grain) {
+            range.apply(from, to);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        invokeAll(new ParallelRange(range, from, mid, grain), new ParallelRange(range, mid, to, grain));
+    }
+}
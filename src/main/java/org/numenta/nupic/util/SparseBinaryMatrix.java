@@ -26,17 +26,36 @@ import gnu.trove.TIntCollection;
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.hash.TIntIntHashMap;
 
 import java.lang.reflect.Array;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+/**
+ * A {@link SparseMatrix} of 0's and 1's whose rows (the outer dimension) are
+ * stored as packed bitsets, 64 values to a {@code long}. Each row starts at a
+ * word boundary, so that different rows may be mutated concurrently. The count
+ * of 1's of each row is maintained as bits are flipped.
+ */
 @SuppressWarnings("rawtypes")
 public class SparseBinaryMatrix extends SparseMatrix {
-    private TIntIntMap sparseMap = new TIntIntHashMap();
-    private TIntList trueCounts;
-    private Object backingArray;
+    /** The bits of row i occupy the words [i * wordsPerRow, (i + 1) * wordsPerRow) */
+    private final long[] rowBits;
+    private final int wordsPerRow;
+    /** The number of values in each row, i.e. the product of the inner dimensions */
+    private final int rowLength;
+    /** Row major multiples of the dimensions, regardless of the configured ordering */
+    private final int[] rowMajorMultiples;
+    private final int[] trueCounts;
+    /**
+     * Inverted index: for each inner index, a bitset of the outer indexes
+     * whose value is non-zero. The bitset of inner index j occupies the words
+     * [j * wordsPerIndex, (j + 1) * wordsPerIndex). A word holds the bits of
+     * 64 rows, so that its bits are flipped by compare and set to let
+     * different rows be mutated concurrently without a lock.
+     */
+    private final AtomicLongArray nonZeroRows;
+    private final int wordsPerIndex;
     
     public SparseBinaryMatrix(int[] dimensions) {
         this(dimensions, false);
@@ -44,89 +63,393 @@ public class SparseBinaryMatrix extends SparseMatrix {
     
     public SparseBinaryMatrix(int[] dimensions, boolean useColumnMajorOrdering) {
         super(dimensions, useColumnMajorOrdering);
-        this.backingArray = Array.newInstance(int.class, dimensions);
-        this.trueCounts = new TIntArrayList(dimensions[0]);
-        for(int i = 0;i < dimensions[0];i++) {
-        	trueCounts.add(0);
+        this.rowMajorMultiples = new int[dimensions.length];
+        int multiple = 1;
+        for(int i = dimensions.length - 1;i >= 0;i--) {
+        	rowMajorMultiples[i] = multiple;
+        	multiple *= dimensions[i];
         }
+        this.rowLength = rowMajorMultiples[0];
+        this.wordsPerRow = (rowLength + 63) >>> 6;
+        this.rowBits = new long[dimensions[0] * wordsPerRow];
+        this.trueCounts = new int[dimensions[0]];
+        this.wordsPerIndex = (dimensions[0] + 63) >>> 6;
+        this.nonZeroRows = new AtomicLongArray(rowLength * wordsPerIndex);
     }
     
     /**
-     * Called during mutation operations to simultaneously set the value
-     * on the backing array dynamically.
-     * @param val
+     * Returns the row major flat index of the specified coordinates
      * @param coordinates
+     * @return
      */
-    private void back(int val, int... coordinates) {
-		ArrayUtils.setValue(this.backingArray, val, coordinates);
-        //update true counts
-        trueCounts.set(coordinates[0], ArrayUtils.aggregateArray(((Object[])this.backingArray)[coordinates[0]]));
-	}
+    private int rowMajorIndex(int[] coordinates) {
+    	int index = 0;
+    	for(int i = 0;i < coordinates.length;i++) {
+    		index += coordinates[i] * rowMajorMultiples[i];
+    	}
+    	return index;
+    }
+    
+    /**
+     * Converts a flat index of the configured ordering into a row major flat index
+     * @param index
+     * @return
+     */
+    private int toRowMajor(int index) {
+    	return isColumnMajor ? rowMajorIndex(computeCoordinates(index)) : index;
+    }
+    
+    /**
+     * Converts a row major flat index into a flat index of the configured ordering
+     * @param index
+     * @return
+     */
+    private int fromRowMajor(int index) {
+    	if(!isColumnMajor) return index;
+    	int[] coordinates = new int[numDimensions];
+    	for(int i = 0;i < numDimensions;i++) {
+    		coordinates[i] = index / rowMajorMultiples[i];
+    		index %= rowMajorMultiples[i];
+    	}
+    	return computeIndex(coordinates, false);
+    }
+    
+    /**
+     * Returns the bit at the specified row major flat index, or false
+     * if the index is out of range.
+     * @param index
+     * @return
+     */
+    private boolean isOn(int index) {
+    	if(index < 0 || index >= dimensions[0] * rowLength) return false;
+    	int row = index / rowLength;
+    	int inner = index - row * rowLength;
+    	return (rowBits[row * wordsPerRow + (inner >>> 6)] & (1L << inner)) != 0;
+    }
+    
+    /**
+     * Sets or clears the bit at the specified row major flat index, keeping the
+     * true count of the row (if specified) and the inverted index up to date.
+     * 
+     * @param index		the row major flat index
+     * @param on		whether the bit is set or cleared
+     * @param tally		whether the true count of the row is updated
+     */
+    private void setBit(int index, boolean on, boolean tally) {
+    	int row = index / rowLength;
+    	int inner = index - row * rowLength;
+    	int word = row * wordsPerRow + (inner >>> 6);
+    	long bit = 1L << inner;
+    	if(((rowBits[word] & bit) != 0) == on) return;
+    	rowBits[word] ^= bit;
+    	if(tally) {
+    		trueCounts[row] += on ? 1 : -1;
+    	}
+    	flipNonZeroRows(inner * wordsPerIndex + (row >>> 6), 1L << row);
+    }
+    
+    /**
+     * Flips the specified bits of the specified word of the inverted index,
+     * which other rows of the same word may be flipping concurrently.
+     * 
+     * @param word		the index of the word in the inverted index
+     * @param bits		the bits to flip
+     */
+    private void flipNonZeroRows(int word, long bits) {
+    	long value;
+    	do {
+    		value = nonZeroRows.get(word);
+    	}while(!nonZeroRows.compareAndSet(word, value, value ^ bits));
+    }
     
     /**
      * Returns the slice specified by the passed in coordinates.
      * The array is returned as an object, therefore it is the caller's
      * responsibility to cast the array to the appropriate dimensions.
+     * The returned array is a copy, changes to it are not reflected
+     * by this matrix.
      * 
      * @param coordinates	the coordinates which specify the returned array
      * @return	the array specified
      * @throws	IllegalArgumentException if the specified coordinates address
      * 			an actual value instead of the array holding it.
      */
-     public Object getSlice(int... coordinates) {
-		Object slice = backingArray;
-		for(int i = 0;i < coordinates.length;i++) {
-			Object s = Array.get(slice, coordinates[i]);
-			slice = s.getClass().isArray() ? s : s;
-		}
-		//Ensure return value is of type Array
-		if(!slice.getClass().isArray()) {
+    public Object getSlice(int... coordinates) {
+		if(coordinates.length >= numDimensions) {
 			throw new IllegalArgumentException(
 				"This method only returns the array holding the specified index: " + 
 					Arrays.toString(coordinates));
 		}
-		
+		Object slice = Array.newInstance(int.class, Arrays.copyOfRange(dimensions, coordinates.length, numDimensions));
+		fillSlice(slice, coordinates.length, rowMajorIndex(coordinates));
 		return slice;
 	}
     
+    /**
+     * Recursively fills the specified array with the values starting
+     * at the specified row major flat index.
+     * 
+     * @param slice		the array to fill
+     * @param dimension	the dimension of this matrix held by the array
+     * @param index		the row major flat index of the first value
+     * @return	the row major flat index following the last value filled
+     */
+    private int fillSlice(Object slice, int dimension, int index) {
+    	if(dimension == numDimensions - 1) {
+    		int[] values = (int[])slice;
+    		for(int i = 0;i < values.length;i++) {
+    			values[i] = isOn(index++) ? 1 : 0;
+    		}
+    		return index;
+    	}
+    	for(int i = 0;i < dimensions[dimension];i++) {
+    		index = fillSlice(Array.get(slice, i), dimension + 1, index);
+    	}
+    	return index;
+    }
+    
     /**
      * Fills the specified results array with the result of the 
-     * matrix vector multiplication.
+     * matrix vector multiplication. The inner dimensions of this
+     * matrix are indexed by the input vector in row major order.
      * 
      * @param inputVector		the right side vector
      * @param results			the results array
      */
     public void rightVecSumAtNZ(int[] inputVector, int[] results) {
-    	for(int i = 0;i < dimensions[0];i++) {
-    		int[] slice = (int[])(dimensions.length > 1 ? getSlice(i) : backingArray);
-    		for(int j = 0;j < slice.length;j++) {
-    			results[i] += (inputVector[j] * slice[j]);
+    	rightVecSumAtNZ(inputVector, results, 0, dimensions[0]);
+    }
+    
+    /**
+     * Fills the specified results array with the result of the 
+     * matrix vector multiplication, for the outer indexes from
+     * {@code from} (inclusive) to {@code to} (exclusive) only.
+     * Disjoint ranges may be computed concurrently.
+     * 
+     * Inputs of 0's and 1's with enough on bits are packed and
+     * intersected with each row a word at a time; otherwise only the
+     * non-zero input entries are visited, together with the rows 
+     * having a non-zero value at their index. The input is scanned by
+     * every call, so that callers computing many ranges of the same input
+     * should rather pack it once with {@link #toInputBits(int[])}.
+     * 
+     * @param inputVector		the right side vector
+     * @param results			the results array
+     * @param from				the first row
+     * @param to				the row after the last row
+     */
+    public void rightVecSumAtNZ(int[] inputVector, int[] results, int from, int to) {
+    	if(from >= to) return;
+    	int numInputs = Math.min(inputVector.length, rowLength);
+    	int numNonZero = 0;
+    	boolean binary = true;
+    	for(int j = 0;j < numInputs;j++) {
+    		int value = inputVector[j];
+    		if(value == 0) continue;
+    		numNonZero++;
+    		binary &= value == 1;
+    	}
+    	
+    	int firstWord = from >>> 6;
+    	int lastWord = (to - 1) >>> 6;
+    	if(binary && numNonZero * (lastWord - firstWord + 1) > (to - from) * wordsPerRow) {
+    		rightVecSumAtNZ(toInputBits(inputVector), results, from, to);
+    		return;
+    	}
+    	
+    	for(int j = 0;j < numInputs;j++) {
+    		int value = inputVector[j];
+    		if(value == 0) continue;
+    		int offset = j * wordsPerIndex;
+    		for(int w = firstWord;w <= lastWord;w++) {
+    			long bits = nonZeroRows.get(offset + w);
+    			if(w == firstWord) bits &= -1L << from;
+    			if(w == lastWord && (to & 63) != 0) bits &= -1L >>> (64 - (to & 63));
+    			while(bits != 0) {
+    				results[(w << 6) + Long.numberOfTrailingZeros(bits)] += value;
+    				bits &= bits - 1;
+    			}
     		}
     	}
     }
     
     /**
-     * Sets the value at the specified index.
+     * Adds to the specified results array the number of on bits each row
+     * has in common with the input whose on bits are at the specified inner
+     * indexes, for the outer indexes from {@code from} (inclusive) to
+     * {@code to} (exclusive). This is the same product as
+     * {@link #rightVecSumAtNZ(int[], int[], int, int)} with a vector of
+     * 0's and 1's, without the vector ever being scanned. Only the rows having
+     * a non-zero value at the input indexes are visited; inputs for which
+     * {@link #prefersInputBits(int)} is true are better packed once with
+     * {@link #toInputBitsSparse(int[])} and intersected with every range.
+     * 
+     * @param inputIndices		the distinct row major indexes of the on input bits
+     * @param results			the results array
+     * @param from				the first row
+     * @param to				the row after the last row
+     */
+    public void rightVecSumAtNZSparse(int[] inputIndices, int[] results, int from, int to) {
+    	if(from >= to) return;
+    	int firstWord = from >>> 6;
+    	int lastWord = (to - 1) >>> 6;
+    	for(int j : inputIndices) {
+    		if(j >= rowLength) continue;
+    		int offset = j * wordsPerIndex;
+    		for(int w = firstWord;w <= lastWord;w++) {
+    			long bits = nonZeroRows.get(offset + w);
+    			if(w == firstWord) bits &= -1L << from;
+    			if(w == lastWord && (to & 63) != 0) bits &= -1L >>> (64 - (to & 63));
+    			while(bits != 0) {
+    				results[(w << 6) + Long.numberOfTrailingZeros(bits)]++;
+    				bits &= bits - 1;
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * Adds to the specified results array the number of on bits each row
+     * has in common with the specified bit packed input, for the outer indexes
+     * from {@code from} (inclusive) to {@code to} (exclusive). Bit j of the
+     * input is held by bit (j % 64) of word (j / 64).
+     * 
+     * @param inputBits			the bit packed right side vector of 0's and 1's
+     * @param results			the results array
+     * @param from				the first row
+     * @param to				the row after the last row
+     */
+    public void rightVecSumAtNZ(long[] inputBits, int[] results, int from, int to) {
+    	int numWords = Math.min(inputBits.length, wordsPerRow);
+    	for(int i = from;i < to;i++) {
+    		int offset = i * wordsPerRow;
+    		int sum = 0;
+    		for(int w = 0;w < numWords;w++) {
+    			sum += Long.bitCount(rowBits[offset + w] & inputBits[w]);
+    		}
+    		results[i] += sum;
+    	}
+    }
+    
+    /**
+     * Adds to each of the specified results arrays the number of on bits each
+     * row has in common with the corresponding bit packed input, for the outer
+     * indexes from {@code from} (inclusive) to {@code to} (exclusive). Each row
+     * is intersected with all the inputs while it is at hand, which makes this
+     * a matrix matrix product rather than repeated matrix vector products.
+     * 
+     * @param inputBits			the bit packed right side vectors of 0's and 1's
+     * @param results			the results arrays, one per input
+     * @param from				the first row
+     * @param to				the row after the last row
+     * @see #toInputBits(int[])
+     */
+    public void rightMatSumAtNZ(long[][] inputBits, int[][] results, int from, int to) {
+    	for(int i = from;i < to;i++) {
+    		int offset = i * wordsPerRow;
+    		for(int b = 0;b < inputBits.length;b++) {
+    			long[] input = inputBits[b];
+    			int numWords = Math.min(input.length, wordsPerRow);
+    			int sum = 0;
+    			for(int w = 0;w < numWords;w++) {
+    				sum += Long.bitCount(rowBits[offset + w] & input[w]);
+    			}
+    			results[b][i] += sum;
+    		}
+    	}
+    }
+    
+    /**
+     * Returns true if an input with the specified number of on bits is faster
+     * intersected with all the rows a word at a time, by
+     * {@link #rightVecSumAtNZ(long[], int[], int, int)}, than looked up in the
+     * inverted index by {@link #rightVecSumAtNZSparse(int[], int[], int, int)}.
+     * 
+     * @param numOnBits		the number of on bits of the input
+     * @return
+     */
+    public boolean prefersInputBits(int numOnBits) {
+    	return (long)numOnBits * wordsPerIndex > (long)dimensions[0] * wordsPerRow;
+    }
+    
+    /**
+     * Packs the input whose on bits are at the specified inner indexes, as
+     * expected by {@link #rightVecSumAtNZ(long[], int[], int, int)}.
+     * 
+     * @param inputIndices	the row major indexes of the on input bits
+     * @return	the bit packed vector
+     */
+    public long[] toInputBitsSparse(int[] inputIndices) {
+    	long[] inputBits = new long[wordsPerRow];
+    	for(int j : inputIndices) {
+    		if(j < rowLength) inputBits[j >>> 6] |= 1L << j;
+    	}
+    	return inputBits;
+    }
+    
+    /**
+     * Packs the specified input vector of 0's and 1's, as expected by
+     * {@link #rightVecSumAtNZ(long[], int[], int, int)}.
+     * 
+     * @param inputVector	the right side vector
+     * @return	the bit packed vector, or null if the vector holds
+     * 			values other than 0 and 1
+     */
+    public long[] toInputBits(int[] inputVector) {
+    	return toInputBits(inputVector, null);
+    }
+    
+    /**
+     * Packs the specified input vector of 0's and 1's into the specified
+     * words, as expected by {@link #rightVecSumAtNZ(long[], int[], int, int)},
+     * so that the words may be reused for many inputs.
+     * 
+     * @param inputVector	the right side vector
+     * @param inputBits		the words to pack into, as returned by a previous
+     * 						call, or null to allocate them
+     * @return	the bit packed vector, or null if the vector holds
+     * 			values other than 0 and 1
+     */
+    public long[] toInputBits(int[] inputVector, long[] inputBits) {
+    	if(inputBits == null) {
+    		inputBits = new long[wordsPerRow];
+    	}else{
+    		Arrays.fill(inputBits, 0L);
+    	}
+    	int numInputs = Math.min(inputVector.length, rowLength);
+    	for(int j = 0;j < numInputs;j++) {
+    		int value = inputVector[j];
+    		if(value == 0) continue;
+    		if(value != 1) return null;
+    		inputBits[j >>> 6] |= 1L << j;
+    	}
+    	return inputBits;
+    }
+    
+    /**
+     * Sets the value at the specified index. Any non-zero
+     * value is stored as a 1.
      * 
      * @param index     the index the object will occupy
      * @param object    the object to be indexed.
      */
     @Override
     public SparseBinaryMatrix set(int index, int value) {
-    	int[] coordinates = computeCoordinates(index);
-        return set(value, coordinates);
+    	setBit(toRowMajor(index), value != 0, true);
+        return this;
     }
     
     /**
      * Sets the value to be indexed at the index
-     * computed from the specified coordinates.
+     * computed from the specified coordinates. Any non-zero
+     * value is stored as a 1.
+     * 
      * @param coordinates   the row major coordinates [outer --> ,...,..., inner]
      * @param object        the object to be indexed.
      */
     @Override
     public SparseBinaryMatrix set(int value, int... coordinates) {
-        sparseMap.put(computeIndex(coordinates), value);
-        back(value, coordinates);
+    	setBit(rowMajorIndex(coordinates), value != 0, true);
         return this;
     }
     
@@ -153,7 +476,7 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @param object    the object to be indexed.
      */
     public SparseBinaryMatrix setForTest(int index, int value) {
-        sparseMap.put(index, value);         
+    	setBit(toRowMajor(index), value != 0, false);
         return this;
     }
     
@@ -179,7 +502,7 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return
      */
     public int getTrueCount(int index) {
-    	return trueCounts.get(index);
+    	return trueCounts[index];
     }
     
     /**
@@ -188,7 +511,7 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @param count
      */
     public void setTrueCount(int index, int count) {
-    	this.trueCounts.set(index, count);
+    	this.trueCounts[index] = count;
     }
     
     /**
@@ -196,18 +519,28 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return
      */
     public int[] getTrueCounts() {
-    	return trueCounts.toArray();
+    	return trueCounts.clone();
     }
     
     /**
      * Clears the true counts prior to a cycle where they're
-     * being set
+     * being set. Rows are independent of each other, so that
+     * different rows may be cleared and set concurrently.
      */
     public void clearStatistics(int row) {
-    	int[] slice = (int[])Array.get(backingArray, row);
-    	Arrays.fill(slice, 0);
-		trueCounts.set(row, 0);
-		sparseMap.put(row, 0);
+    	int offset = row * wordsPerRow;
+    	long rowBit = 1L << row;
+    	int rowWord = row >>> 6;
+    	for(int w = 0;w < wordsPerRow;w++) {
+    		long bits = rowBits[offset + w];
+    		while(bits != 0) {
+    			int inner = (w << 6) + Long.numberOfTrailingZeros(bits);
+    			flipNonZeroRows(inner * wordsPerIndex + rowWord, rowBit);
+    			bits &= bits - 1;
+    		}
+    	}
+    	Arrays.fill(rowBits, offset, offset + wordsPerRow, 0L);
+		trueCounts[row] = 0;
     }
     
     /**
@@ -216,7 +549,9 @@ public class SparseBinaryMatrix extends SparseMatrix {
      */
     @Override
     protected int[] values() {
-    	return sparseMap.values();
+    	int[] values = new int[getSparseIndices().length];
+    	Arrays.fill(values, 1);
+    	return values;
     }
     
     /**
@@ -225,7 +560,7 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return  the indexed object
      */
     public int getIntValue(int... coordinates) {
-    	return sparseMap.get(computeIndex(coordinates));
+    	return isOn(rowMajorIndex(coordinates)) ? 1 : 0;
     }
     
     /**
@@ -236,7 +571,7 @@ public class SparseBinaryMatrix extends SparseMatrix {
      */
     @Override
     public int getIntValue(int index) {
-        return sparseMap.get(index);
+        return isOn(toRowMajor(index)) ? 1 : 0;
     }
     
     /**
@@ -245,7 +580,31 @@ public class SparseBinaryMatrix extends SparseMatrix {
      */
     @Override
     public int[] getSparseIndices() {
-        return reverse(sparseMap.keys());
+    	TIntArrayList indexes = new TIntArrayList();
+    	for(int i = 0;i < dimensions[0];i++) {
+    		int offset = i * wordsPerRow;
+    		for(int w = 0;w < wordsPerRow;w++) {
+    			long bits = rowBits[offset + w];
+    			while(bits != 0) {
+    				indexes.add(fromRowMajor(i * rowLength + (w << 6) + Long.numberOfTrailingZeros(bits)));
+    				bits &= bits - 1;
+    			}
+    		}
+    	}
+    	if(isColumnMajor) indexes.sort();
+        return indexes.toArray();
+    }
+    
+    /**
+     * Returns true if the specified matrix has the same dimensions
+     * and ordering as this matrix, so that their words may be compared
+     * directly.
+     * 
+     * @param matrix
+     * @return
+     */
+    private boolean isAligned(SparseBinaryMatrix matrix) {
+    	return isColumnMajor == matrix.isColumnMajor && Arrays.equals(dimensions, matrix.dimensions);
     }
     
     /**
@@ -257,10 +616,20 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return  this matrix
      */
     public SparseBinaryMatrix or(SparseBinaryMatrix inputMatrix) {
-        int[] mask = inputMatrix.getSparseIndices();
-        int[] ones = new int[mask.length];
-        Arrays.fill(ones, 1);
-        return set(mask, ones);
+    	if(!isAligned(inputMatrix)) {
+    		return or(inputMatrix.getSparseIndices());
+    	}
+    	for(int w = 0;w < rowBits.length;w++) {
+    		long added = inputMatrix.rowBits[w] & ~rowBits[w];
+    		if(added == 0) continue;
+    		int row = w / wordsPerRow;
+    		int base = row * rowLength + ((w - row * wordsPerRow) << 6);
+    		while(added != 0) {
+    			setBit(base + Long.numberOfTrailingZeros(added), true, true);
+    			added &= added - 1;
+    		}
+    	}
+    	return this;
     }
     
     /**
@@ -272,9 +641,10 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return  this matrix
      */
     public SparseBinaryMatrix or(TIntCollection onBitIndexes) {
-        int[] ones = new int[onBitIndexes.size()];
-        Arrays.fill(ones, 1);
-        return set(onBitIndexes.toArray(), ones);
+        for(TIntIterator i = onBitIndexes.iterator();i.hasNext();) {
+            set(i.next(), 1);
+        }
+        return this;
     }
     
     /**
@@ -286,9 +656,10 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return  this matrix
      */
     public SparseBinaryMatrix or(int[] onBitIndexes) {
-        int[] ones = new int[onBitIndexes.length];
-        Arrays.fill(ones, 1);
-        return set(onBitIndexes, ones);
+        for(int i : onBitIndexes) {
+            set(i, 1);
+        }
+        return this;
     }
     
     /**
@@ -300,7 +671,13 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return
      */
     public boolean all(SparseBinaryMatrix matrix) {
-        return sparseMap.keySet().containsAll(matrix.sparseMap.keys());
+    	if(!isAligned(matrix)) {
+    		return all(matrix.getSparseIndices());
+    	}
+    	for(int w = 0;w < rowBits.length;w++) {
+    		if((matrix.rowBits[w] & ~rowBits[w]) != 0) return false;
+    	}
+        return true;
     }
     
     /**
@@ -312,7 +689,10 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return
      */
     public boolean all(TIntCollection onBits) {
-        return sparseMap.keySet().containsAll(onBits);
+        for(TIntIterator i = onBits.iterator();i.hasNext();) {
+            if(getIntValue(i.next()) == 0) return false;
+        }
+        return true;
     }
     
     /**
@@ -324,7 +704,10 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return
      */
     public boolean all(int[] onBits) {
-        return sparseMap.keySet().containsAll(onBits);
+        for(int i : onBits) {
+            if(getIntValue(i) == 0) return false;
+        }
+        return true;
     }
     
     /**
@@ -336,9 +719,12 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return
      */
     public boolean any(SparseBinaryMatrix matrix) {
-        for(int i : matrix.sparseMap.keys()) {
-            if(sparseMap.containsKey(i)) return true;
-        }
+    	if(!isAligned(matrix)) {
+    		return any(matrix.getSparseIndices());
+    	}
+    	for(int w = 0;w < rowBits.length;w++) {
+    		if((matrix.rowBits[w] & rowBits[w]) != 0) return true;
+    	}
         return false;
     }
     
@@ -352,7 +738,7 @@ public class SparseBinaryMatrix extends SparseMatrix {
      */
     public boolean any(TIntList onBits) {
         for(TIntIterator i = onBits.iterator();i.hasNext();) {
-            if(sparseMap.containsKey(i.next())) return true;
+            if(getIntValue(i.next()) != 0) return true;
         }
         return false;
     }
@@ -367,7 +753,7 @@ public class SparseBinaryMatrix extends SparseMatrix {
      */
     public boolean any(int[] onBits) {
         for(int i : onBits) {
-            if(sparseMap.containsKey(i)) return true;
+            if(getIntValue(i) != 0) return true;
         }
         return false;
     }
@@ -0,0 +1,222 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.MersenneTwister;
+
+public class ConnectionsSnapshotTest {
+    private SpatialPooler sp = new SpatialPooler();
+    private TemporalMemory tm = new TemporalMemory();
+    private int[][] inputs;
+    
+    private Connections createConnections() {
+        Parameters parameters = Parameters.getAllDefaultParameters();
+        parameters.setParameterByKey(KEY.INPUT_DIMENSIONS, new int[] { 64 });
+        parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 128 });
+        parameters.setParameterByKey(KEY.POTENTIAL_RADIUS, 16);
+        parameters.setParameterByKey(KEY.NUM_ACTIVE_COLUMNS_PER_INH_AREA, 8.0);
+        parameters.setParameterByKey(KEY.GLOBAL_INHIBITIONS, true);
+        parameters.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        parameters.setParameterByKey(KEY.MIN_THRESHOLD, 1);
+        parameters.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 2);
+        parameters.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 6);
+        parameters.setRandom(new MersenneTwister(42));
+        
+        Connections c = new Connections();
+        parameters.apply(c);
+        sp.init(c);
+        tm.init(c);
+        
+        Random r = new Random(7);
+        inputs = new int[10][64];
+        for(int[] input : inputs) {
+            for(int i = 0;i < 12;i++) {
+                input[r.nextInt(64)] = 1;
+            }
+        }
+        return c;
+    }
+    
+    /**
+     * Runs each input through the spatial pooler and the temporal
+     * memory, returning the active cells of the last cycle.
+     */
+    private List<Integer> run(Connections c, int passes) {
+        ComputeCycle cycle = null;
+        int[] activeColumns = new int[c.getNumColumns()];
+        for(int pass = 0;pass < passes;pass++) {
+            for(int[] input : inputs) {
+                sp.compute(c, input, activeColumns, true, false);
+                cycle = tm.compute(c, ArrayUtils.where(activeColumns, ArrayUtils.WHERE_1), true);
+            }
+        }
+        return Connections.asCellIndexes(cycle.activeCells());
+    }
+    
+    private Connections roundTrip(Connections c, boolean compress, boolean floatPermanences) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConnectionsSnapshot.write(c, out, compress, floatPermanences);
+        return ConnectionsSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+    
+    private void assertSameState(Connections expected, Connections actual, double delta) {
+        assertEquals(expected.getIterationNum(), actual.getIterationNum());
+        assertEquals(expected.getSegmentCount(), actual.getSegmentCount());
+        assertEquals(expected.getSynapseCount(), actual.getSynapseCount());
+        assertEquals(expected.getInhibitionRadius(), actual.getInhibitionRadius());
+        assertArrayEquals(expected.getBoostFactors(), actual.getBoostFactors(), 0.0);
+        assertArrayEquals(expected.getActiveDutyCycles(), actual.getActiveDutyCycles(), 0.0);
+        assertArrayEquals(expected.getConnectedCounts().getTrueCounts(), actual.getConnectedCounts().getTrueCounts());
+        for(int i = 0;i < expected.getNumColumns();i++) {
+            assertArrayEquals(expected.getPotentialPools().getObject(i).getDensePermanences(expected),
+                actual.getPotentialPools().getObject(i).getDensePermanences(actual), delta);
+            assertArrayEquals((int[])expected.getConnectedCounts().getSlice(i), (int[])actual.getConnectedCounts().getSlice(i));
+        }
+        
+        for(int i = 0;i < expected.getCells().length;i++) {
+            List<DistalDendrite> expectedSegments = expected.getSegments(expected.getCell(i));
+            List<DistalDendrite> actualSegments = actual.getSegments(actual.getCell(i));
+            assertEquals(expectedSegments.size(), actualSegments.size());
+            for(int j = 0;j < expectedSegments.size();j++) {
+                assertEquals(expectedSegments.get(j).getIndex(), actualSegments.get(j).getIndex());
+                List<Synapse> expectedSynapses = expected.getSynapses(expectedSegments.get(j));
+                List<Synapse> actualSynapses = actual.getSynapses(actualSegments.get(j));
+                assertEquals(expectedSynapses.size(), actualSynapses.size());
+                for(int k = 0;k < expectedSynapses.size();k++) {
+                    assertEquals(expectedSynapses.get(k).getIndex(), actualSynapses.get(k).getIndex());
+                    assertEquals(expectedSynapses.get(k).getSourceCell().getIndex(), actualSynapses.get(k).getSourceCell().getIndex());
+                    assertEquals(expectedSynapses.get(k).getPermanence(), actualSynapses.get(k).getPermanence(), delta);
+                }
+            }
+        }
+        assertEquals(Connections.asCellIndexes(expected.getActiveCells()), Connections.asCellIndexes(actual.getActiveCells()));
+        assertEquals(Connections.asCellIndexes(expected.getPredictiveCells()), Connections.asCellIndexes(actual.getPredictiveCells()));
+        assertEquals(expected.getActiveSegments().size(), actual.getActiveSegments().size());
+    }
+    
+    @Test
+    public void testRoundTrip() throws IOException {
+        Connections c = createConnections();
+        run(c, 5);
+        assertTrue(c.getSegmentCount() > 0);
+        
+        Connections restored = roundTrip(c, false, false);
+        assertSameState(c, restored, 0.0);
+        
+        // Both continue to learn identically
+        assertEquals(run(c, 3), run(restored, 3));
+        assertSameState(c, restored, 0.0);
+    }
+    
+    @Test
+    public void testCompressedAndFloatPermanences() throws IOException {
+        Connections c = createConnections();
+        run(c, 5);
+        
+        assertSameState(c, roundTrip(c, true, false), 0.0);
+        assertSameState(c, roundTrip(c, true, true), 1e-6);
+        assertSameState(c, roundTrip(c, false, true), 1e-6);
+        
+        ByteArrayOutputStream doubles = new ByteArrayOutputStream();
+        ConnectionsSnapshot.write(c, doubles, false, false);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ConnectionsSnapshot.write(c, compressed, true, true);
+        assertTrue(compressed.size() < doubles.size());
+    }
+    
+    @Test
+    public void testSpatialOnly() throws IOException {
+        Parameters parameters = Parameters.getAllDefaultParameters();
+        parameters.setParameterByKey(KEY.INPUT_DIMENSIONS, new int[] { 32 });
+        parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 64 });
+        parameters.setRandom(new MersenneTwister(42));
+        Connections c = new Connections();
+        parameters.apply(c);
+        sp.init(c);
+        
+        Connections restored = roundTrip(c, false, false);
+        assertEquals(null, restored.getCells());
+        assertArrayEquals(c.getTieBreaker(), restored.getTieBreaker(), 0.0);
+        for(int i = 0;i < c.getNumColumns();i++) {
+            assertArrayEquals(c.getPotentialPools().getObject(i).getDensePermanences(c),
+                restored.getPotentialPools().getObject(i).getDensePermanences(restored), 0.0);
+        }
+    }
+    
+    @Test
+    public void testDataFollowingSnapshot() throws IOException {
+        Connections c = createConnections();
+        run(c, 3);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConnectionsSnapshot.write(c, out, true, false);
+        ConnectionsSnapshot.write(c, out, false, false);
+        out.write(42);
+        byte[] bytes = out.toByteArray();
+        
+        InputStream in = new ByteArrayInputStream(bytes);
+        assertSameState(c, ConnectionsSnapshot.read(in), 0.0);
+        assertSameState(c, ConnectionsSnapshot.read(in), 0.0);
+        assertEquals(42, in.read());
+        
+        // Without mark support the compressed body is read one byte at a time
+        in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override public boolean markSupported() { return false; }
+        };
+        assertSameState(c, ConnectionsSnapshot.read(in), 0.0);
+        assertSameState(c, ConnectionsSnapshot.read(in), 0.0);
+        assertEquals(42, in.read());
+    }
+    
+    @Test
+    public void testBadSnapshot() {
+        try {
+            ConnectionsSnapshot.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6 }));
+            fail();
+        }catch(IOException e) {
+            assertEquals("Not a Connections snapshot", e.getMessage());
+        }
+    }
+}
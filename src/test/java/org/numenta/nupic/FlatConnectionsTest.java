@@ -0,0 +1,324 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.FlatSynapse;
+import org.numenta.nupic.model.FlatSynapseStore;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.IndexedComputeCycle;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MersenneTwister;
+
+public class FlatConnectionsTest {
+
+    /**
+     * Uses permanence values which are exact in both float and double
+     * precision, so that both storage modes must produce identical results.
+     */
+    private Parameters getParameters() {
+        Parameters parameters = Parameters.getAllDefaultParameters();
+        parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 64 });
+        parameters.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        parameters.setParameterByKey(KEY.INITIAL_PERMANENCE, 0.25);
+        parameters.setParameterByKey(KEY.CONNECTED_PERMANENCE, 0.5);
+        parameters.setParameterByKey(KEY.MIN_THRESHOLD, 1);
+        parameters.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 6);
+        parameters.setParameterByKey(KEY.PERMANENCE_INCREMENT, 0.125);
+        parameters.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.0625);
+        parameters.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 2);
+        return parameters;
+    }
+
+    /**
+     * Creates a repeating sequence of random sparse column activations
+     */
+    private int[][] makeSequence() {
+        Random r = new Random(7);
+        int[][] sequence = new int[12][];
+        for(int i = 0;i < sequence.length;i++) {
+            sequence[i] = new int[] { r.nextInt(16), 16 + r.nextInt(16), 32 + r.nextInt(16), 48 + r.nextInt(16) };
+        }
+        return sequence;
+    }
+
+    @Test
+    public void testSameResultsAsObjectStorage() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections objects = new Connections();
+        getParameters().apply(objects);
+        objects.setRandom(new MersenneTwister(42));
+        tm.init(objects);
+
+        FlatConnections flat = new FlatConnections();
+        getParameters().apply(flat);
+        flat.setRandom(new MersenneTwister(42));
+        tm.init(flat);
+
+        int[][] sequence = makeSequence();
+        for(int pass = 0;pass < 10;pass++) {
+            for(int[] input : sequence) {
+                ComputeCycle expected = tm.compute(objects, input, true);
+                ComputeCycle actual = tm.compute(flat, input, true);
+
+                assertEquals(Connections.asCellIndexes(expected.activeCells()), Connections.asCellIndexes(actual.activeCells()));
+                assertEquals(Connections.asCellIndexes(expected.winnerCells()), Connections.asCellIndexes(actual.winnerCells()));
+                assertEquals(Connections.asCellIndexes(expected.predictiveCells()), Connections.asCellIndexes(actual.predictiveCells()));
+            }
+        }
+
+        int numSegments = 0;
+        int numSynapses = 0;
+        for(int i = 0;i < objects.getCells().length;i++) {
+            List<DistalDendrite> expectedSegments = objects.getSegments(objects.getCell(i));
+            List<DistalDendrite> actualSegments = flat.getSegments(flat.getCell(i));
+            assertEquals(expectedSegments.size(), actualSegments.size());
+            for(int j = 0;j < expectedSegments.size();j++) {
+                List<Synapse> expectedSynapses = objects.getSynapses(expectedSegments.get(j));
+                List<Synapse> actualSynapses = flat.getSynapses(actualSegments.get(j));
+                assertEquals(expectedSynapses.size(), actualSynapses.size());
+                for(int k = 0;k < expectedSynapses.size();k++) {
+                    assertEquals(expectedSynapses.get(k).getSourceCell().getIndex(), actualSynapses.get(k).getSourceCell().getIndex());
+                    assertEquals(expectedSynapses.get(k).getPermanence(), actualSynapses.get(k).getPermanence(), 0.0);
+                }
+                numSynapses += actualSynapses.size();
+            }
+            numSegments += actualSegments.size();
+            assertEquals(objects.getReceptorSynapses(objects.getCell(i)).size(), flat.getReceptorSynapses(flat.getCell(i)).size());
+        }
+        assertTrue(numSegments > 0);
+        assertEquals(numSegments, flat.getSynapseStore().getNumSegments());
+        assertEquals(numSynapses, flat.getSynapseStore().getNumSynapses());
+    }
+
+    @Test
+    public void testIndexedSameResultsAsObjectStorage() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections objects = new Connections();
+        getParameters().apply(objects);
+        objects.setRandom(new MersenneTwister(42));
+        tm.init(objects);
+
+        FlatConnections flat = new FlatConnections();
+        getParameters().apply(flat);
+        flat.setRandom(new MersenneTwister(42));
+        tm.init(flat);
+
+        int numPredicted = 0;
+        int[][] sequence = makeSequence();
+        for(int pass = 0;pass < 10;pass++) {
+            boolean learn = pass != 7;
+            for(int[] input : sequence) {
+                // The cycles are reused, so that the expected cells are copied first
+                IndexedComputeCycle expected = tm.computeIndexed(objects, input, learn);
+                int[] activeCells = expected.activeCells();
+                int[] winnerCells = expected.winnerCells();
+                int[] predictiveCells = expected.predictiveCells();
+                IndexedComputeCycle actual = tm.computeIndexed(flat, input, learn);
+
+                assertTrue(Arrays.equals(activeCells, actual.activeCells()));
+                assertTrue(Arrays.equals(winnerCells, actual.winnerCells()));
+                assertTrue(Arrays.equals(predictiveCells, actual.predictiveCells()));
+                numPredicted += predictiveCells.length;
+            }
+        }
+        assertTrue(numPredicted > 0);
+
+        for(int i = 0;i < objects.getCells().length;i++) {
+            List<DistalDendrite> expectedSegments = objects.getSegments(objects.getCell(i));
+            List<DistalDendrite> actualSegments = flat.getSegments(flat.getCell(i));
+            assertEquals(expectedSegments.size(), actualSegments.size());
+            for(int j = 0;j < expectedSegments.size();j++) {
+                List<Synapse> expectedSynapses = objects.getSynapses(expectedSegments.get(j));
+                List<Synapse> actualSynapses = flat.getSynapses(actualSegments.get(j));
+                assertEquals(expectedSynapses.size(), actualSynapses.size());
+                for(int k = 0;k < expectedSynapses.size();k++) {
+                    assertEquals(expectedSynapses.get(k).getSourceCell().getIndex(), actualSynapses.get(k).getSourceCell().getIndex());
+                    assertEquals(expectedSynapses.get(k).getPermanence(), actualSynapses.get(k).getPermanence(), 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures the bytes allocated by the indexed compute once a sequence
+     * is learned: the temporal memory reads the flat store by slot, so that
+     * it allocates no view per synapse visited, and less than it does with
+     * object storage.
+     */
+    @Test
+    public void testIndexedComputeAllocation() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+
+        Random r = new Random(7);
+        int[][] sequence = new int[20][20];
+        for(int[] input : sequence) {
+            for(int i = 0;i < input.length;i++) {
+                input[i] = r.nextInt(256);
+            }
+            Arrays.sort(input);
+        }
+
+        long[][] allocated = new long[2][2];
+        for(int mode = 0;mode < 2;mode++) {
+            Connections c = mode == 0 ? new Connections() : new FlatConnections();
+            Parameters parameters = Parameters.getAllDefaultParameters();
+            parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 256 });
+            parameters.setParameterByKey(KEY.CELLS_PER_COLUMN, 8);
+            parameters.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 20);
+            parameters.setParameterByKey(KEY.MIN_THRESHOLD, 8);
+            parameters.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 12);
+            parameters.apply(c);
+            c.setRandom(new MersenneTwister(42));
+            TemporalMemory tm = new TemporalMemory();
+            tm.init(c);
+            for(int pass = 0;pass < 20;pass++) {
+                for(int[] input : sequence) {
+                    tm.computeIndexed(c, input, true);
+                }
+            }
+
+            long thread = Thread.currentThread().getId();
+            for(int learn = 0;learn < 2;learn++) {
+                long before = bean.getThreadAllocatedBytes(thread);
+                for(int pass = 0;pass < 10;pass++) {
+                    for(int[] input : sequence) {
+                        tm.computeIndexed(c, input, learn == 1);
+                    }
+                }
+                allocated[mode][learn] = (bean.getThreadAllocatedBytes(thread) - before) / (10 * sequence.length);
+            }
+        }
+
+        // A view per synapse visited allocated tens of kilobytes per cycle
+        assertTrue(Arrays.toString(allocated[1]), allocated[1][0] < 1024);
+        assertTrue(Arrays.toString(allocated[1]), allocated[1][1] < 4096);
+        assertTrue(allocated[1][1] + " > " + allocated[0][1], allocated[1][1] <= allocated[0][1]);
+    }
+
+    @Test
+    public void testCreateAndDestroy() {
+        TemporalMemory tm = new TemporalMemory();
+        FlatConnections cn = new FlatConnections();
+        cn.setCellsPerColumn(4);
+        tm.init(cn);
+
+        DistalDendrite dd = cn.getCell(0).createSegment(cn, 0);
+        Synapse s0 = dd.createSynapse(cn, cn.getCell(23), 0.6, 0);
+        Synapse s1 = dd.createSynapse(cn, cn.getCell(37), 0.4, 1);
+        DistalDendrite dd2 = cn.getCell(0).createSegment(cn, 1);
+        Synapse s2 = dd2.createSynapse(cn, cn.getCell(23), 0.9, 2);
+
+        assertEquals(2, cn.getSegments(cn.getCell(0)).size());
+        assertEquals(dd, cn.getSegments(cn.getCell(0)).get(0));
+        assertEquals(dd2, cn.getSegments(cn.getCell(0)).get(1));
+        assertEquals(2, cn.getSynapses(dd).size());
+        assertEquals(s0, cn.getSynapses(dd).get(0));
+        assertEquals(s1, cn.getSynapses(dd).get(1));
+        assertEquals(dd, s0.getSegment());
+        assertEquals(0.6, s0.getPermanence(), 0.0001);
+        assertEquals(1, s1.getIndex());
+
+        Set<Synapse> receptors = cn.getReceptorSynapses(cn.getCell(23));
+        assertEquals(2, receptors.size());
+        assertTrue(receptors.contains(s0));
+        assertTrue(receptors.contains(s2));
+
+        s0.setPermanence(cn, 0.7);
+        assertEquals(0.7, cn.getSynapses(dd).get(0).getPermanence(), 0.0001);
+
+        // Destroyed slots are recycled
+        FlatSynapseStore store = cn.getSynapseStore();
+        int capacity = store.getSynapseCapacity();
+        cn.destroySynapse(s0);
+        assertEquals(1, cn.getSynapses(dd).size());
+        assertEquals(1, cn.getReceptorSynapses(cn.getCell(23)).size());
+        assertFalse(cn.getReceptorSynapses(cn.getCell(23)).contains(s0));
+
+        Synapse s3 = dd.createSynapse(cn, cn.getCell(51), 0.5, 3);
+        assertEquals(capacity, store.getSynapseCapacity());
+        assertEquals(s1, cn.getSynapses(dd).get(0));
+        assertEquals(s3, cn.getSynapses(dd).get(1));
+
+        // Views of destroyed synapses are not those of the synapses reusing their slots
+        assertFalse(s0.equals(s3));
+        try {
+            s0.getPermanence();
+            fail();
+        }catch(IllegalStateException e) {
+            assertEquals("Synapse in slot " + ((FlatSynapse)s3).getSlot() + " has been destroyed", e.getMessage());
+        }
+
+        cn.destroySegment(dd);
+        assertEquals(1, cn.getSegments(cn.getCell(0)).size());
+        assertEquals(dd2, cn.getSegments(cn.getCell(0)).get(0));
+        assertEquals(0, cn.getReceptorSynapses(cn.getCell(37)).size());
+        assertEquals(1, store.getNumSynapses());
+
+        int segmentCapacity = store.getSegmentCapacity();
+        DistalDendrite dd3 = cn.getCell(1).createSegment(cn, 2);
+        assertEquals(segmentCapacity, store.getSegmentCapacity());
+        assertEquals(dd3, cn.getSegments(cn.getCell(1)).get(0));
+    }
+
+    @Test
+    public void testObjectStorageDestroy() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        cn.setCellsPerColumn(4);
+        tm.init(cn);
+
+        DistalDendrite dd = cn.getCell(0).createSegment(cn, 0);
+        Synapse s0 = dd.createSynapse(cn, cn.getCell(23), 0.6, 0);
+        dd.createSynapse(cn, cn.getCell(37), 0.4, 1);
+
+        cn.destroySynapse(s0);
+        assertEquals(1, cn.getSynapses(dd).size());
+        assertTrue(cn.getReceptorSynapses(cn.getCell(23)).isEmpty());
+
+        cn.destroySegment(dd);
+        assertTrue(cn.getSegments(cn.getCell(0)).isEmpty());
+        assertTrue(cn.getReceptorSynapses(cn.getCell(37)).isEmpty());
+
+        List<Synapse> none = new ArrayList<Synapse>(cn.getSynapses(dd));
+        assertTrue(none.isEmpty());
+    }
+}
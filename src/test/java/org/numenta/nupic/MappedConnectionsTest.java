@@ -0,0 +1,237 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.MappedFile;
+import org.numenta.nupic.util.MersenneTwister;
+
+public class MappedConnectionsTest {
+    private SpatialPooler sp = new SpatialPooler();
+    private TemporalMemory tm = new TemporalMemory();
+    private int[][] inputs;
+    
+    /**
+     * Trains a spatial pooler and temporal memory on a repeating
+     * sequence of random inputs.
+     */
+    private Connections train() {
+        Parameters parameters = Parameters.getAllDefaultParameters();
+        parameters.setParameterByKey(KEY.INPUT_DIMENSIONS, new int[] { 64 });
+        parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 128 });
+        parameters.setParameterByKey(KEY.POTENTIAL_RADIUS, 16);
+        parameters.setParameterByKey(KEY.NUM_ACTIVE_COLUMNS_PER_INH_AREA, 8.0);
+        parameters.setParameterByKey(KEY.GLOBAL_INHIBITIONS, true);
+        parameters.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        parameters.setParameterByKey(KEY.MIN_THRESHOLD, 1);
+        parameters.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 2);
+        parameters.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 6);
+        parameters.setRandom(new MersenneTwister(42));
+        
+        Connections c = new Connections();
+        parameters.apply(c);
+        sp.init(c);
+        tm.init(c);
+        
+        Random r = new Random(7);
+        inputs = new int[10][64];
+        for(int[] input : inputs) {
+            for(int i = 0;i < 12;i++) {
+                input[r.nextInt(64)] = 1;
+            }
+        }
+        int[] activeColumns = new int[c.getNumColumns()];
+        for(int pass = 0;pass < 5;pass++) {
+            for(int[] input : inputs) {
+                sp.compute(c, input, activeColumns, true, false);
+                tm.compute(c, ArrayUtils.where(activeColumns, ArrayUtils.WHERE_1), true);
+            }
+        }
+        tm.reset(c);
+        return c;
+    }
+    
+    private MappedConnections writeAndOpen(Connections c) throws IOException {
+        File file = File.createTempFile("model", ".htm");
+        file.deleteOnExit();
+        MappedConnections.write(c, file);
+        return MappedConnections.open(file);
+    }
+    
+    @Test
+    public void testSameTopology() throws IOException {
+        Connections c = train();
+        MappedConnections m = writeAndOpen(c);
+        
+        assertEquals(c.getSegmentCount(), m.getSegmentCount());
+        assertEquals(c.getSynapseCount(), m.getSynapseCount());
+        assertArrayEquals(c.getBoostFactors(), m.getBoostFactors(), 0.0);
+        assertArrayEquals(c.getConnectedCounts().getTrueCounts(), m.getConnectedCounts().getTrueCounts());
+        for(int i = 0;i < c.getNumColumns();i++) {
+            assertArrayEquals(c.getPotentialPools().getObject(i).getDensePermanences(c), 
+                m.getPotentialPools().getObject(i).getDensePermanences(m), 0.0);
+            assertArrayEquals(c.getPotentialPools().getObject(i).getDenseConnections(c), 
+                m.getPotentialPools().getObject(i).getDenseConnections(m));
+            assertArrayEquals((int[])c.getConnectedCounts().getSlice(i), (int[])m.getConnectedCounts().getSlice(i));
+            List<Synapse> expected = c.getSynapses(c.getColumn(i).getProximalDendrite());
+            List<Synapse> actual = m.getSynapses(m.getColumn(i).getProximalDendrite());
+            assertEquals(expected.size(), actual.size());
+            for(int j = 0;j < expected.size();j++) {
+                assertEquals(expected.get(j).getIndex(), actual.get(j).getIndex());
+                assertEquals(expected.get(j).getInputIndex(), actual.get(j).getInputIndex());
+            }
+        }
+        
+        int numSegments = 0;
+        for(int i = 0;i < c.getCells().length;i++) {
+            List<DistalDendrite> expectedSegments = c.getSegments(c.getCell(i));
+            List<DistalDendrite> actualSegments = m.getSegments(m.getCell(i));
+            assertEquals(expectedSegments.size(), actualSegments.size());
+            for(int j = 0;j < expectedSegments.size();j++) {
+                assertEquals(expectedSegments.get(j).getIndex(), actualSegments.get(j).getIndex());
+                assertTrue(actualSegments.get(j) == m.getSegments(m.getCell(i)).get(j));
+                List<Synapse> expectedSynapses = c.getSynapses(expectedSegments.get(j));
+                List<Synapse> actualSynapses = m.getSynapses(actualSegments.get(j));
+                assertEquals(expectedSynapses.size(), actualSynapses.size());
+                for(int k = 0;k < expectedSynapses.size();k++) {
+                    assertEquals(expectedSynapses.get(k).getSourceCell().getIndex(), actualSynapses.get(k).getSourceCell().getIndex());
+                    assertEquals(expectedSynapses.get(k).getPermanence(), actualSynapses.get(k).getPermanence(), 0.0);
+                    assertEquals(actualSegments.get(j), actualSynapses.get(k).getSegment());
+                }
+            }
+            assertEquals(c.getReceptorSynapses(c.getCell(i)).size(), m.getReceptorSynapses(m.getCell(i)).size());
+            numSegments += actualSegments.size();
+        }
+        assertTrue(numSegments > 0);
+        assertEquals(numSegments, m.getSynapseStore().getNumSegments());
+    }
+    
+    @Test
+    public void testSameInference() throws IOException {
+        Connections c = train();
+        checkSameInference(c, writeAndOpen(c));
+    }
+    
+    /**
+     * Maps the model in regions much smaller than the file, as
+     * models above 2GB are, so that arrays span several regions
+     */
+    @Test
+    public void testSmallRegions() throws IOException {
+        Connections c = train();
+        File file = File.createTempFile("model", ".htm");
+        file.deleteOnExit();
+        MappedConnections.write(c, file);
+        MappedFile mapped = MappedFile.map(file, 256);
+        assertTrue(mapped.size() > 100 * 256);
+        checkSameInference(c, MappedConnections.open(mapped));
+    }
+    
+    private void checkSameInference(Connections c, MappedConnections m) {
+        int[] expectedColumns = new int[c.getNumColumns()];
+        int[] actualColumns = new int[m.getNumColumns()];
+        int numPredicted = 0;
+        for(int[] input : inputs) {
+            sp.compute(c, input, expectedColumns, false, false);
+            sp.compute(m, input, actualColumns, false, false);
+            assertArrayEquals(expectedColumns, actualColumns);
+            
+            int[] activeColumns = ArrayUtils.where(actualColumns, ArrayUtils.WHERE_1);
+            ComputeCycle expected = tm.compute(c, activeColumns, false);
+            ComputeCycle actual = tm.compute(m, activeColumns, false);
+            assertEquals(Connections.asCellIndexes(expected.activeCells()), Connections.asCellIndexes(actual.activeCells()));
+            assertEquals(Connections.asCellIndexes(expected.predictiveCells()), Connections.asCellIndexes(actual.predictiveCells()));
+            numPredicted += actual.predictiveCells().size();
+        }
+        assertTrue(numPredicted > 0);
+        
+        int[][] expected = sp.computeBatch(c, inputs);
+        int[][] actual = sp.computeBatch(m, inputs);
+        for(int i = 0;i < inputs.length;i++) {
+            assertArrayEquals(expected[i], actual[i]);
+        }
+    }
+    
+    @Test
+    public void testLearningDisabled() throws IOException {
+        MappedConnections m = writeAndOpen(train());
+        try {
+            sp.compute(m, inputs[0], new int[m.getNumColumns()], true, false);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("Cannot learn on read-only Connections", e.getMessage());
+        }
+        try {
+            tm.compute(m, new int[] { 1, 2, 3 }, true);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("Cannot learn on read-only Connections", e.getMessage());
+        }
+        try {
+            m.createSegment(m.getCell(0), m.getSegmentCount());
+            fail();
+        }catch(UnsupportedOperationException e) {
+            assertEquals("MappedConnections are read-only", e.getMessage());
+        }
+        try {
+            m.getPotentialPools().getObject(0).resetConnections();
+            fail();
+        }catch(UnsupportedOperationException e) {
+            assertEquals("Mapped pools are read-only", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void testBadFile() throws IOException {
+        File file = File.createTempFile("model", ".htm");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        out.close();
+        try {
+            MappedConnections.open(file);
+            fail();
+        }catch(IOException e) {
+            assertEquals("Not a Connections model file", e.getMessage());
+        }
+    }
+}
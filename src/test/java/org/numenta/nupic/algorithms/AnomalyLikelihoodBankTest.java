@@ -0,0 +1,151 @@
+package org.numenta.nupic.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_ESTIMATION_SAMPLES;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_HISTORIC_WINDOW_SIZE;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_IS_WEIGHTED;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_LEARNING_PERIOD;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_MODE;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_USE_MOVING_AVG;
+import static org.numenta.nupic.algorithms.Anomaly.KEY_WINDOW_SIZE;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.numenta.nupic.algorithms.Anomaly.Mode;
+import org.numenta.nupic.util.MersenneTwister;
+
+public class AnomalyLikelihoodBankTest {
+    private static final int NUM_METRICS = 5;
+    private static final int NUM_RECORDS = 4000;
+    
+    private Map<String, Object> params(boolean weighted) {
+        Map<String, Object> params = new HashMap<>();
+        params.put(KEY_MODE, Mode.LIKELIHOOD);
+        params.put(KEY_LEARNING_PERIOD, 50);
+        params.put(KEY_ESTIMATION_SAMPLES, 50);
+        params.put(KEY_HISTORIC_WINDOW_SIZE, 300);
+        params.put(KEY_USE_MOVING_AVG, true);
+        params.put(KEY_WINDOW_SIZE, 5);
+        params.put(KEY_IS_WEIGHTED, weighted);
+        return params;
+    }
+    
+    /**
+     * Random records of random metrics, several of which may belong
+     * to the same metric within a batch
+     */
+    private int[] metricIds;
+    private int[][] activeColumns;
+    private int[][] predictedColumns;
+    private double[] values;
+    private long[] timestamps;
+    
+    private void generateRecords() {
+        Random random = new MersenneTwister(42);
+        metricIds = new int[NUM_RECORDS];
+        activeColumns = new int[NUM_RECORDS][];
+        predictedColumns = new int[NUM_RECORDS][];
+        values = new double[NUM_RECORDS];
+        timestamps = new long[NUM_RECORDS];
+        for(int i = 0;i < NUM_RECORDS;i++) {
+            metricIds[i] = random.nextInt(NUM_METRICS);
+            activeColumns[i] = new int[] { 1, 3, 5, 7 };
+            predictedColumns[i] = random.nextInt(20) == 0 ? new int[0] : new int[] { 1, 3, random.nextInt(8) };
+            values[i] = 1 + random.nextDouble();
+            timestamps[i] = 1000L * i;
+        }
+    }
+    
+    private void checkMatchesAnomalyLikelihood(boolean weighted, int parallelism) {
+        generateRecords();
+        
+        Anomaly[] anomalies = new Anomaly[NUM_METRICS];
+        for(int i = 0;i < NUM_METRICS;i++) {
+            anomalies[i] = Anomaly.create(params(weighted));
+        }
+        AnomalyLikelihoodBank bank = new AnomalyLikelihoodBank(NUM_METRICS, params(weighted));
+        bank.setParallelism(parallelism);
+        
+        // Batches of 100 records
+        for(int start = 0;start < NUM_RECORDS;start += 100) {
+            int[] ids = new int[100];
+            int[][] active = new int[100][];
+            int[][] predicted = new int[100][];
+            double[] vals = new double[100];
+            long[] times = new long[100];
+            for(int i = 0;i < 100;i++) {
+                ids[i] = metricIds[start + i];
+                active[i] = activeColumns[start + i];
+                predicted[i] = predictedColumns[start + i];
+                vals[i] = values[start + i];
+                times[i] = timestamps[start + i];
+            }
+            
+            double[] results = bank.computeBatch(ids, active, predicted, vals, times);
+            for(int i = 0;i < 100;i++) {
+                double expected = anomalies[ids[i]].compute(active[i], predicted[i], vals[i], times[i]);
+                assertEquals(expected, results[i], 1e-9);
+            }
+        }
+        
+        assertEquals(timestamps[NUM_RECORDS - 1], bank.getTimestamp(metricIds[NUM_RECORDS - 1]));
+    }
+    
+    @Test
+    public void testMatchesAnomalyLikelihood() {
+        checkMatchesAnomalyLikelihood(false, 1);
+    }
+    
+    @Test
+    public void testMatchesWeightedAnomalyLikelihood() {
+        checkMatchesAnomalyLikelihood(true, 1);
+    }
+    
+    @Test
+    public void testParallelMatchesAnomalyLikelihood() {
+        checkMatchesAnomalyLikelihood(false, 4);
+    }
+    
+    @Test
+    public void testInvalidMetric() {
+        AnomalyLikelihoodBank bank = new AnomalyLikelihoodBank(2, params(false));
+        try {
+            bank.compute(2, new int[] { 1 }, new int[] { 1 }, 1.0, 0);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("Metric id must be in [0, 2): 2", e.getMessage());
+        }
+        
+        try {
+            bank.computeBatch(new int[] { 0, 1 }, new int[1][], new int[2][], new double[2], new long[2]);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("All batch arrays must have the same length", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void testInvalidConfiguration() {
+        Map<String, Object> params = params(false);
+        params.remove(KEY_HISTORIC_WINDOW_SIZE);
+        try {
+            new AnomalyLikelihoodBank(2, params);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("historicWindowSize must be set for a bank of metrics", e.getMessage());
+        }
+        
+        params.put(KEY_HISTORIC_WINDOW_SIZE, 1 << 16);
+        try {
+            new AnomalyLikelihoodBank(1 << 16, params);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("Too many metrics for historicWindowSize of 65536: 65536 metrics need more than " + 
+                (Integer.MAX_VALUE - 8) + " values", e.getMessage());
+        }
+    }
+}
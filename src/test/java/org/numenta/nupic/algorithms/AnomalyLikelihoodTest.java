@@ -542,4 +542,59 @@ public class AnomalyLikelihoodTest {
         assertEquals(expected, params.toJson(true));
     }
     
+    /**
+     * While the history is not full, the likelihoods computed from the running
+     * statistics are those computed by re-estimating from every record
+     */
+    @Test
+    public void testAnomalyProbabilityMatchesBatchEstimate() {
+        AnomalyLikelihood streaming = new AnomalyLikelihood(false, 0, false, 50, 50, 2000);
+        Random random = new MersenneTwister(42);
+        List<Sample> history = new ArrayList<>();
+        AnomalyParams params = null;
+        DateTime time = new DateTime(2015, 1, 1, 0, 0);
+        for(int i = 0;i < 1000;i++) {
+            double value = random.nextDouble();
+            double score = i % 50 == 0 ? 0.9 : random.nextDouble() * 0.2;
+            
+            double expected;
+            if(history.size() < 100) {
+                expected = 0.5;
+            }else{
+                if(params == null || i % 100 == 0) {
+                    params = an.estimateAnomalyLikelihoods(history, 10, 50).getParams();
+                }
+                AnomalyLikelihoodMetrics metrics = an.updateAnomalyLikelihoods(
+                    Arrays.asList(new Sample(time, value, score)), params);
+                params = metrics.getParams();
+                expected = 1.0 - metrics.getLikelihoods()[0];
+            }
+            history.add(new Sample(time, value, score));
+            
+            assertEquals(expected, streaming.anomalyProbability(value, score, time), 1e-9);
+        }
+    }
+    
+    /**
+     * The distribution is only estimated over the most recent records
+     */
+    @Test
+    public void testAnomalyProbabilityBoundedHistory() {
+        AnomalyLikelihood bounded = new AnomalyLikelihood(false, 0, false, 50, 50, 200);
+        AnomalyLikelihood unbounded = new AnomalyLikelihood(false, 0, false, 50, 50, 5000);
+        Random random = new MersenneTwister(42);
+        DateTime time = new DateTime(2015, 1, 1, 0, 0);
+        double boundedResult = 0;
+        double unboundedResult = 0;
+        for(int i = 0;i < 2000;i++) {
+            double value = random.nextDouble();
+            double score = i < 1500 ? 0.1 : 0.9;
+            boundedResult = bounded.anomalyProbability(value, score, time);
+            unboundedResult = unbounded.anomalyProbability(value, score, time);
+        }
+        
+        assertTrue(boundedResult < 0.6);
+        assertTrue(unboundedResult > 0.9);
+    }
+    
 }
@@ -5,11 +5,15 @@ import static org.numenta.nupic.algorithms.Anomaly.KEY_MODE;
 import static org.numenta.nupic.algorithms.Anomaly.KEY_USE_MOVING_AVG;
 import static org.numenta.nupic.algorithms.Anomaly.KEY_WINDOW_SIZE;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 import org.numenta.nupic.algorithms.Anomaly.Mode;
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.MersenneTwister;
 
 /**
  * Tests for anomaly score functions and classes.
@@ -48,6 +52,54 @@ public class AnomalyTest {
         System.out.println((2.0 / 3.0));
         assertEquals(score, 2.0 / 3.0, 0.001);
     }
+    
+    @Test
+    public void testComputeRawAnomalyScoreUnsorted() {
+        double score = Anomaly.computeRawAnomalyScore(new int[] { 6, 3, 2 }, new int[] { 7, 3, 5 });
+        assertEquals(2.0 / 3.0, score, 0.001);
+        score = Anomaly.computeRawAnomalyScore(new int[] { 2, 3, 6 }, new int[] { 7, 6, 3 });
+        assertEquals(1.0 / 3.0, score, 0.001);
+    }
+    
+    @Test
+    public void testComputeRawAnomalyScoreBitSets() {
+        Random random = new MersenneTwister(42);
+        for(int trial = 0;trial < 100;trial++) {
+            int[] active = randomColumns(random, 2048, 40);
+            int[] predicted = randomColumns(random, 2048, 40 + random.nextInt(40));
+            System.arraycopy(active, 0, predicted, 0, random.nextInt(40));
+            predicted = ArrayUtils.unique(predicted);
+            
+            double expected = Anomaly.computeRawAnomalyScore(active, ArrayUtils.reverse(predicted.clone()));
+            assertEquals(expected, Anomaly.computeRawAnomalyScore(active, predicted), 0);
+            assertEquals(expected, Anomaly.computeRawAnomalyScore(toBits(active, 2048), toBits(predicted, 2048)), 0);
+        }
+        
+        assertEquals(0.0, Anomaly.computeRawAnomalyScore(new long[2], new long[0]), 0);
+        assertEquals(1.0, Anomaly.computeRawAnomalyScore(new long[2], new long[] { 0, 4 }), 0);
+        assertEquals(1.0, Anomaly.computeRawAnomalyScore(new long[] { 1, 1 }, new long[] { 2 }), 0);
+    }
+    
+    private int[] randomColumns(Random random, int numColumns, int numActive) {
+        int[] columns = ArrayUtils.range(0, numColumns);
+        for(int i = 0;i < numActive;i++) {
+            int j = i + random.nextInt(numColumns - i);
+            int tmp = columns[i];
+            columns[i] = columns[j];
+            columns[j] = tmp;
+        }
+        int[] retVal = Arrays.copyOf(columns, numActive);
+        Arrays.sort(retVal);
+        return retVal;
+    }
+    
+    private long[] toBits(int[] columns, int numColumns) {
+        long[] bits = new long[(numColumns + 63) / 64];
+        for(int c : columns) {
+            bits[c >>> 6] |= 1L << c;
+        }
+        return bits;
+    }
 
     /////////////////////////////////////////////////////////////////
     
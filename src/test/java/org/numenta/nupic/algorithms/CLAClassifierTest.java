@@ -434,6 +434,96 @@ public class CLAClassifierTest {
 		assertEquals(34.7, result.getActualValue(0), 0.01);
 	}
 
+	/**
+	 * Bit histories are keyed by (bit, nSteps) packed into a single long
+	 */
+	@Test
+	public void testBitHistoryKeys() {
+		classifier = new CLAClassifier(new TIntArrayList(new int[] { 1, 2 }), 0.1, 0.1, 0);
+		for(int recordNum = 0;recordNum < 3;recordNum++) {
+			compute(classifier, recordNum, new int[] { 1, 5 }, 3, 30.);
+		}
+		
+		assertEquals(4, classifier.activeBitHistory.size());
+		assertTrue(CLAClassifier.bitHistoryKey(1, 2) != CLAClassifier.bitHistoryKey(2, 1));
+		BitHistory history = classifier.activeBitHistory.get(CLAClassifier.bitHistoryKey(5, 2));
+		assertEquals("5[2]", history.getId());
+		assertEquals(4, history.getStats().length);
+		assertEquals(0.0, history.getStats()[0], 0.00001);
+		assertTrue(history.getStats()[3] > 0);
+	}
+	
+	/**
+	 * Patterns are kept for the largest number of steps, not the number of steps
+	 */
+	@Test
+	public void testMultiStepHistory() {
+		classifier = new CLAClassifier(new TIntArrayList(new int[] { 1, 5 }), 0.1, 0.1, 0);
+		ClassifierResult<Double> result = null;
+		for(int recordNum = 0;recordNum < 100;recordNum++) {
+			int value = recordNum % 10;
+			result = compute(classifier, recordNum, new int[] { value }, value, (double)value);
+		}
+		
+		// Last input was bit 9
+		assertEquals(1.0, result.getStat(1, 0), 0.01);
+		assertEquals(1.0, result.getStat(5, 4), 0.01);
+	}
+	
+	@Test
+	public void testPatternHistory() {
+		CLAClassifier.PatternHistory history = new CLAClassifier.PatternHistory(2);
+		history.append(0, new int[] { 1, 2, 3 });
+		history.append(1, new int[] { 4 });
+		history.append(3, new int[] { 5, 6 });
+		
+		assertEquals(-1, history.find(0));
+		assertEquals(1, history.getLength(history.find(1)));
+		assertEquals(-1, history.find(2));
+		int slot = history.find(3);
+		assertEquals(2, history.getLength(slot));
+		assertEquals(5, history.getPattern(slot)[0]);
+		assertEquals(6, history.getPattern(slot)[1]);
+		
+		// Repeated iterations replace the pattern and push out the oldest ones
+		history.append(3, new int[] { 7 });
+		assertEquals(7, history.getPattern(history.find(3))[0]);
+		assertEquals(1, history.getLength(history.find(1)));
+		history.append(3, new int[] { 8 });
+		assertEquals(-1, history.find(1));
+	}
+	
+	@Test
+	public void testDecay() {
+		classifier = new CLAClassifier(new TIntArrayList(new int[] { 1 }), 0.001, 0.3, 0);
+		for(int n : new int[] { 0, 1, 1023, 1024, 5000, 100000 }) {
+			assertEquals(1.0, classifier.decay(n) / Math.pow(0.999, n), 1e-12);
+		}
+		
+		classifier.alpha = 0.1;
+		assertEquals(1.0, classifier.decay(3000) / Math.pow(0.9, 3000), 1e-12);
+	}
+	
+	/**
+	 * Duty cycles keep their ratios when they are brought up to date
+	 * to avoid overflow
+	 */
+	@Test
+	public void testDutyCycleRescale() {
+		classifier = new CLAClassifier(new TIntArrayList(new int[] { 1 }), 0.01, 0.3, 0);
+		BitHistory history = new BitHistory(classifier, 0, 1);
+		history.store(0, 0);
+		history.store(0, 1);
+		history.store(0, 1);
+		// Far enough for alpha / (1 - alpha)^n to overflow the update interval
+		history.store(3000, 2);
+		
+		assertEquals(3000, history.lastTotalUpdate);
+		float[] stats = history.getStats();
+		assertEquals(2.0, stats[1] / stats[0], 1e-4);
+		assertEquals(0.01, stats[2], 1e-6);
+	}
+	
 	public void checkValue(ClassifierResult<?> retVal, int index, Object value, double probability) {
 		assertEquals(retVal.getActualValue(index), value);
 		assertEquals(probability, retVal.getStat(1, index), 0.01);
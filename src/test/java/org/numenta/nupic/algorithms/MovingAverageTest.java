@@ -156,4 +156,56 @@ public class MovingAverageTest {
         assertNotEquals(ma.hashCode(), ma2.hashCode());
     }
 
+    /**
+     * The circular buffer gives the same averages as the list based computation
+     */
+    @Test
+    public void testCircularBufferMatchesList() {
+        MovingAverage ma = new MovingAverage(new TDoubleArrayList(new double[] { 1., 2. }), 4);
+        TDoubleList list = new TDoubleArrayList(new double[] { 1., 2. });
+        double total = 3;
+        for(int i = 0;i < 50;i++) {
+            double value = (i * 37 % 11) / 3.0;
+            Calculation calc = MovingAverage.compute(list, total, value, 4);
+            total = calc.getTotal();
+            assertEquals(calc.getAverage(), ma.next(value), 0);
+            assertEquals(calc.getAverage(), ma.getAverage(), 0);
+            assertEquals(total, ma.getTotal(), 0);
+            assertEquals(list, ma.getSlidingWindow());
+        }
+        
+        try {
+            new MovingAverage(new TDoubleArrayList(new double[] { 3., 4., 5., }), 2);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("historicalValues cannot be larger than the window size", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void testExponential() {
+        MovingAverage ma = MovingAverage.exponential(0.5);
+        assertTrue(ma.isExponential());
+        assertEquals(4.0, ma.next(4), 0);
+        assertEquals(6.0, ma.next(8), 0);
+        assertEquals(4.0, ma.next(2), 0);
+        assertEquals(14.0, ma.getTotal(), 0);
+        assertEquals(new TDoubleArrayList(), ma.getSlidingWindow());
+        
+        MovingAverage ma2 = MovingAverage.exponential(0.5);
+        assertFalse(ma.equals(ma2));
+        ma2.next(4);
+        ma2.next(8);
+        ma2.next(2);
+        assertTrue(ma.equals(ma2));
+        assertEquals(ma.hashCode(), ma2.hashCode());
+        
+        try {
+            MovingAverage.exponential(0);
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("alpha must be in (0, 1]", e.getMessage());
+        }
+    }
+
 }
@@ -21,6 +21,9 @@
  */
 package org.numenta.nupic.encoders;
 
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
 import org.junit.Test;
 import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.Condition;
@@ -282,4 +285,29 @@ public class CategoryEncoderTest {
 		LOGGER.info("passed"); //Just because they did it in the Python version :-)
 	}
 
+
+	@Test
+	public void testEncodingCache() {
+		String[] categories = new String[] { "ES", "GB", "US" };
+
+		setUp();
+		builder.radius(1);
+		builder.categoryList(Arrays.<String>asList(categories));
+		initCE();
+		CategoryEncoder cached = builder.encodingCacheSize(8).build();
+		EncodingCache cache = cached.getEncodingCache();
+
+		String[] inputs = new String[] { "US", "ES", "US", "NA", "GB", "US", "ES", null };
+		for(String input : inputs) {
+			assertTrue(Arrays.equals(ce.encode(input), cached.encode(input)));
+		}
+		// Unknown categories share bucket 0, missing inputs are not looked up
+		assertEquals(4, cache.getMisses());
+		assertEquals(3, cache.getHits());
+
+		TIntList indices = new TIntArrayList();
+		cached.encodeIntoIndices("GB", indices);
+		assertTrue(Arrays.equals(new int[] { 6, 7, 8 }, indices.toArray()));
+		assertEquals(4, cache.getHits());
+	}
 }
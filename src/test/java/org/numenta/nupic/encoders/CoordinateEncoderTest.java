@@ -23,6 +23,7 @@
 package org.numenta.nupic.encoders;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -31,6 +32,7 @@ import java.util.List;
 
 import org.junit.Test;
 import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.MersenneTwister;
 import org.numenta.nupic.util.Tuple;
 
 public class CoordinateEncoderTest {
@@ -153,6 +155,96 @@ public class CoordinateEncoderTest {
 		assertTrue(0 <= b4 && b4 < n);
 	}
 	
+	@Test
+	public void testCompatibilityMode() {
+		int[] coordinate = new int[] { 2497477, -923478 };
+		MersenneTwister random = new MersenneTwister();
+		random.setSeed(coordinate);
+		
+		CoordinateEncoder c = new CoordinateEncoder();
+		c.setCompatibilityMode(true);
+		assertEquals(random.nextDouble(), c.orderForCoordinate(coordinate), 0.0);
+		assertEquals(CoordinateEncoder.bitForCoordinate(coordinate, 1000), c.bitFor(coordinate, 1000));
+		
+		// Compatible encoders reproduce the encodings of the shared generator
+		setUp();
+		builder.n(999);
+		builder.w(25);
+		builder.compatibilityMode(true);
+		initCE();
+		assertTrue(ce.isCompatibilityMode());
+		int[] output = encode(ce, new int[] { 100, 200 }, 5);
+		int[][] neighbors = ce.neighbors(new int[] { 100, 200 }, 5).toArray(new int[0][]);
+		int[] expected = new int[999];
+		for(int[] winner : ce.topWCoordinates(ce, neighbors, 25)) {
+			random.setSeed(winner);
+			expected[random.nextInt(999)] = 1;
+		}
+		assertTrue(Arrays.equals(expected, output));
+	}
+	
+	@Test
+	public void testHashOrderingDistribution() {
+		CoordinateEncoder c = new CoordinateEncoder();
+		assertFalse(c.isCompatibilityMode());
+		assertEquals(c.orderForCoordinate(new int[] { 2, 5, 10 }), c.orderForCoordinate(new int[] { 2, 5, 10 }), 0.0);
+		assertTrue(c.orderForCoordinate(new int[] { 2, 5 }) != c.orderForCoordinate(new int[] { 2, 5, 0 }));
+		
+		// Orders and bits of neighboring coordinates are uniform and independent
+		int n = 100;
+		int[] bitCounts = new int[n];
+		int[] orderCounts = new int[10];
+		int count = 0;
+		for(int x = -50;x < 50;x++) {
+			for(int y = -50;y < 50;y++) {
+				int[] coordinate = new int[] { x, y };
+				double order = c.orderForCoordinate(coordinate);
+				assertTrue(0 <= order && order < 1);
+				orderCounts[(int)(order * 10)]++;
+				bitCounts[c.bitFor(coordinate, n)]++;
+				count++;
+			}
+		}
+		for(int i = 0;i < orderCounts.length;i++) {
+			assertEquals(count / 10, orderCounts[i], count / 10 * 0.1);
+		}
+		for(int i = 0;i < n;i++) {
+			assertEquals(count / n, bitCounts[i], count / n * 0.4);
+		}
+	}
+	
+	@Test
+	public void testConcurrentEncoding() throws Exception {
+		setUp();
+		builder.n(999);
+		builder.w(25);
+		initCE();
+		
+		final int[][] expected = new int[200][];
+		for(int i = 0;i < expected.length;i++) {
+			expected[i] = encode(ce, new int[] { i * 3, i * 7 }, 4);
+		}
+		
+		final boolean[] failed = new boolean[1];
+		Thread[] threads = new Thread[4];
+		for(int t = 0;t < threads.length;t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for(int i = 0;i < expected.length;i++) {
+						if(!Arrays.equals(expected[i], encode(ce, new int[] { i * 3, i * 7 }, 4))) {
+							failed[0] = true;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertFalse(failed[0]);
+	}
+	
 	@Test
 	public void testTopWCoordinates() {
 		final int[][] coordinates = new int[][] { { 1 }, { 2 }, { 3 }, { 4 }, { 5 } };
@@ -209,6 +301,57 @@ public class CoordinateEncoderTest {
 		assertTrue(ArrayUtils.contains(new int[] { 100, 200, 300 }, neighbors));
 	}
 	
+	@Test
+	public void testNeighbors3D() {
+		CoordinateEncoder ce = new CoordinateEncoder();
+		
+		List<int[]> neighbors = ce.neighbors(new int[] { 100, 200, 300 }, 1);
+		assertEquals(27, neighbors.size());
+		assertTrue(Arrays.equals(new int[] { 99, 199, 299 }, neighbors.get(0)));
+		assertTrue(Arrays.equals(new int[] { 99, 199, 300 }, neighbors.get(1)));
+		assertTrue(Arrays.equals(new int[] { 99, 200, 299 }, neighbors.get(3)));
+		assertTrue(Arrays.equals(new int[] { 100, 200, 300 }, neighbors.get(13)));
+		assertTrue(Arrays.equals(new int[] { 101, 201, 301 }, neighbors.get(26)));
+	}
+	
+	@Test
+	public void testTopWCoordinatesTies() {
+		int[][] coordinates = new int[][] { { 1 }, { 2 }, { 3 }, { 4 }, { 5 }, { 6 } };
+		CoordinateOrder constant = new CoordinateOrder() {
+			@Override public double orderForCoordinate(int[] coordinate) {
+				return coordinate[0] == 2 ? 0.9 : 0.5;
+			}
+		};
+		
+		// Equal orders rank by position
+		int[][] top = new CoordinateEncoder().topWCoordinates(constant, coordinates, 3);
+		assertTrue(Arrays.equals(new int[] { 5 } , top[0]));
+		assertTrue(Arrays.equals(new int[] { 6 } , top[1]));
+		assertTrue(Arrays.equals(new int[] { 2 } , top[2]));
+		
+		// Fewer coordinates than w
+		assertEquals(6, new CoordinateEncoder().topWCoordinates(constant, coordinates, 10).length);
+	}
+	
+	@Test
+	public void testEncodeStreamsTopW() {
+		setUp();
+		builder.n(1999);
+		builder.w(25);
+		initCE();
+		
+		for(int[] coordinate : new int[][] { { 7 }, { 100, 200 }, { -3, 40, 17 } }) {
+			for(int radius : new int[] { 0, 3, 10 }) {
+				int[][] neighbors = ce.neighbors(coordinate, radius).toArray(new int[0][]);
+				int[] expected = new int[ce.getWidth()];
+				for(int[] winner : ce.topWCoordinates(ce, neighbors, ce.w)) {
+					expected[ce.bitFor(winner, ce.n)] = 1;
+				}
+				assertTrue(Arrays.equals(expected, encode(ce, coordinate, radius)));
+			}
+		}
+	}
+	
 	@Test
 	public void testEncodeIntoArray() {
 		setUp();
@@ -507,6 +650,7 @@ public class CoordinateEncoderTest {
 			 {105, 205 } };
 		
 		CoordinateEncoder c = new CoordinateEncoder();
+		c.setCompatibilityMode(true);
 		int[][] results = c.topWCoordinates(c, input, 3);
 		int[][] expected = new int[][] { {95, 200}, {99, 202}, {102, 198} };
 		
@@ -261,5 +261,28 @@ public class DateEncoderTest {
             }
         }
     }
+
+    /**
+     * Encoding into a slice of a larger, reused output array
+     */
+    @Test
+    public void testEncodeIntoOffset() {
+        setUp();
+        initDE();
+
+        int offset = 7;
+        int[] output = new int[de.getWidth() + 2 * offset];
+        Arrays.fill(output, 9);
+        for (int i = 0; i < 100; i++) {
+            Date date = dt.plusHours(i * 13).toDate();
+            de.encodeIntoArray(date, output, offset);
+
+            assertArrayEquals(de.encode(date), Arrays.copyOfRange(output, offset, offset + de.getWidth()));
+            for (int j = 0; j < offset; j++) {
+                assertEquals(9, output[j]);
+                assertEquals(9, output[output.length - 1 - j]);
+            }
+        }
+    }
 }
 
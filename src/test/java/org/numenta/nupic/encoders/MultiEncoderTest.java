@@ -24,14 +24,20 @@ package org.numenta.nupic.encoders;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.joda.time.DateTime;
 import org.junit.Test;
 import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.MinMax;
 import org.numenta.nupic.util.Tuple;
 
@@ -212,4 +218,127 @@ public class MultiEncoderTest {
 		assertTrue(myvalActual.equals(myvalExpected));
 		assertTrue(myCatActual.equals(myCatExpected));
 	}
+	
+	/**
+	 * Test encoding into a slice of a larger, reused output array
+	 */
+	@Test
+	public void testEncodeIntoOffset() {
+		setUp();
+		initME();
+		addMixedEncoders(me);
+		
+		int offset = 5;
+		int[] output = new int[me.getWidth() + 2 * offset];
+		Arrays.fill(output, 9);
+		String[] categories = { "run", "pass", "kick", null };
+		for (int i = 0; i < 40; i++) {
+			Map<String, Object> d = new HashMap<String, Object>();
+			d.put("dow", 1. + i % 7);
+			d.put("myval", 1. + i % 10);
+			d.put("myCat", categories[i % 4]);
+			d.put("when", new DateTime(2010, 11, 4, 14, 55).plusHours(i * 7).toDate());
+			me.encodeIntoArray(d, output, offset);
+			
+			List<int[]> fields = me.encodeEachField(d);
+			int[] expected = ArrayUtils.concatAll(fields.get(0), fields.subList(1, fields.size()).toArray(new int[0][]));
+			assertTrue(Arrays.equals(expected, Arrays.copyOfRange(output, offset, offset + me.getWidth())));
+			assertTrue(Arrays.equals(expected, me.encode(d)));
+			for (int j = 0; j < offset; j++) {
+				assertEquals(9, output[j]);
+				assertEquals(9, output[output.length - 1 - j]);
+			}
+		}
+	}
+	
+	/**
+	 * Test that the indexes of the on bits match the dense encoding
+	 */
+	@Test
+	public void testEncodeIntoIndices() {
+		setUp();
+		initME();
+		addMixedEncoders(me);
+		
+		TIntList indices = new TIntArrayList();
+		String[] categories = { "run", "pass", "kick", null };
+		for (int i = 0; i < 40; i++) {
+			Map<String, Object> d = new HashMap<String, Object>();
+			d.put("dow", 1. + i % 7);
+			d.put("myval", 1. + i % 10);
+			d.put("myCat", categories[i % 4]);
+			d.put("when", new DateTime(2010, 11, 4, 14, 55).plusHours(i * 7).toDate());
+			me.encodeIntoIndices(d, indices);
+			
+			int[] expected = ArrayUtils.where(me.encode(d), ArrayUtils.INT_GREATER_THAN_0);
+			assertTrue(Arrays.equals(expected, indices.toArray()));
+		}
+	}
+	
+	/**
+	 * Test encoding of bean inputs, whose fields are read through their getters
+	 */
+	@Test
+	public void testBeanInput() {
+		setUp();
+		initME();
+		addMixedEncoders(me);
+		
+		Record r = new Record(4., 6., "pass", new DateTime(2010, 11, 4, 14, 55).toDate());
+		Map<String, Object> d = new HashMap<String, Object>();
+		d.put("dow", r.getDow());
+		d.put("myval", r.getMyval());
+		d.put("myCat", r.getMyCat());
+		d.put("when", r.getWhen());
+		
+		assertTrue(Arrays.equals(me.encode(d), me.encode(r)));
+		assertTrue(Arrays.equals(me.encode(d), me.encode(r)));
+		assertEquals(6., me.getInputValue(r, "myval"));
+		assertEquals(null, me.getInputValue(r, "unknown"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownField() {
+		setUp();
+		initME();
+		addMixedEncoders(me);
+		
+		Map<String, Object> d = new HashMap<String, Object>();
+		d.put("dow", 4.);
+		d.put("myval", 6.);
+		me.encode(d);
+	}
+	
+	private void addMixedEncoders(MultiEncoder me) {
+		me.addEncoder("dow", ScalarEncoder.builder()
+				.w(3).resolution(1).minVal(1).maxVal(8).periodic(true)
+				.name("day of week").forced(true).build());
+		me.addEncoder("myval", ScalarEncoder.builder()
+				.w(5).resolution(1).minVal(1).maxVal(10).periodic(false)
+				.name("aux").forced(true).build());
+		me.addEncoder("myCat", CategoryEncoder.builder()
+				.radius(2).w(3).categoryList(Arrays.asList("run", "pass", "kick"))
+				.forced(true).build());
+		me.addEncoder("when", DateEncoder.builder()
+				.dayOfWeek(1).timeOfDay(5).build());
+	}
+	
+	public static class Record {
+		private final Double dow;
+		private final Double myval;
+		private final String myCat;
+		private final Date when;
+		
+		public Record(Double dow, Double myval, String myCat, Date when) {
+			this.dow = dow;
+			this.myval = myval;
+			this.myCat = myCat;
+			this.when = when;
+		}
+		
+		public Double getDow() { return dow; }
+		public Double getMyval() { return myval; }
+		public String getMyCat() { return myCat; }
+		public Date getWhen() { return when; }
+	}
 }
\ No newline at end of file
@@ -6,6 +6,9 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertThat;
 import static org.hamcrest.CoreMatchers.*;
 
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -15,6 +18,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.numenta.nupic.FieldMetaType;
+import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.Tuple;
 
 /**
@@ -493,6 +497,50 @@ public class RandomDistributedScalarEncoderTest {
 		return true;
 	}
 
+	@Test
+	public void testEncodeIntoIndices() {
+		builder = RandomDistributedScalarEncoder.builder()
+				.name("enc")
+				.resolution(1)
+				.w(23)
+				.n(500)
+				.setOffset(0);
+		rdse = builder.build();
+
+		TIntList indices = new TIntArrayList();
+		for (double v = -30; v < 30; v += 2.5) {
+			rdse.encodeIntoIndices(v, indices);
+			int[] expected = ArrayUtils.where(rdse.encode(v), ArrayUtils.INT_GREATER_THAN_0);
+			assertTrue(Arrays.equals(expected, indices.toArray()));
+		}
+		rdse.encodeIntoIndices(Double.NaN, indices);
+		assertEquals(0, indices.size());
+	}
+
+	@Test
+	public void testSeededEncodings() {
+		builder = RandomDistributedScalarEncoder.builder()
+				.resolution(1)
+				.w(5)
+				.n(40)
+				.setOffset(0);
+		rdse = builder.build();
+
+		// Encodings for seed 42 must not change with the bucket storage
+		assertTrue(Arrays.equals(new int[] { 1, 8, 15, 20, 31 },
+				ArrayUtils.where(rdse.encode(0.0), ArrayUtils.INT_GREATER_THAN_0)));
+		assertTrue(Arrays.equals(new int[] { 5, 13, 20, 28, 31 },
+				ArrayUtils.where(rdse.encode(3.0), ArrayUtils.INT_GREATER_THAN_0)));
+		assertTrue(Arrays.equals(new int[] { 8, 15, 21, 31, 39 },
+				ArrayUtils.where(rdse.encode(-2.0), ArrayUtils.INT_GREATER_THAN_0)));
+		assertTrue(Arrays.equals(new int[] { 3, 9, 14, 25, 29 },
+				ArrayUtils.where(rdse.encode(12.0), ArrayUtils.INT_GREATER_THAN_0)));
+		assertEquals(3, rdse.getNumRetry());
+		List<Integer> bits = rdse.mapBucketIndexToNonZeroBits(rdse.getBucketIndices(0.0)[0]);
+		java.util.Collections.sort(bits);
+		assertEquals(Arrays.asList(1, 8, 15, 20, 31), bits);
+	}
+
 	private int computeOverlap(int[] result1, int[] result2) {
 		if (result1.length != result2.length)
 			return Integer.MIN_VALUE;
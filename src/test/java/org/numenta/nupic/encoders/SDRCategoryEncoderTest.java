@@ -22,6 +22,9 @@
 
 package org.numenta.nupic.encoders;
 
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
 import org.junit.Test;
 import org.numenta.nupic.util.ArrayUtils;
 
@@ -250,4 +253,50 @@ public class SDRCategoryEncoderTest {
 
     }
 
+    @Test
+    public void testEncodeIntoIndices() {
+        SDRCategoryEncoder sdrCategoryEncoder = SDRCategoryEncoder.builder()
+                .n(100)
+                .w(10)
+                .categoryList(Arrays.asList("ES", "GB", "US"))
+                .name("foo")
+                .forced(true).build();
+
+        TIntList indices = new TIntArrayList();
+        for (String category : new String[] { "ES", "GB", "US", "unknown", "" }) {
+            sdrCategoryEncoder.encodeIntoIndices(category, indices);
+            int[] expected = ArrayUtils.where(sdrCategoryEncoder.encode(category), ArrayUtils.INT_GREATER_THAN_0);
+            assertTrue(Arrays.equals(expected, indices.toArray()));
+        }
+    }
+
+    @Test
+    public void testManyCategories() {
+        SDRCategoryEncoder sdrCategoryEncoder = SDRCategoryEncoder.builder()
+                .n(400)
+                .w(21)
+                .name("host")
+                .forced(true).build();
+
+        int numCategories = 5000;
+        int[] encoded = new int[400];
+        for (int i = 0; i < numCategories; i++) {
+            sdrCategoryEncoder.encodeIntoArray("host" + i, encoded);
+        }
+        assertEquals(numCategories + 1, sdrCategoryEncoder.getSDRs().size());
+        assertEquals("host0", sdrCategoryEncoder.getBucketValues(String.class).get(1));
+
+        for (int i = 0; i < numCategories; i++) {
+            String category = "host" + i;
+            assertEquals(i + 1, sdrCategoryEncoder.getScalars(category).get(0), 0);
+            sdrCategoryEncoder.encodeIntoArray(category, encoded);
+            DecodeResult decoded = sdrCategoryEncoder.decode(encoded);
+            RangeList ranges = decoded.getFields().get("host");
+            assertEquals(category, ranges.getDescription());
+            assertEquals(i + 1, ranges.getRange(0).min(), 0);
+        }
+
+        Arrays.fill(encoded, 0);
+        assertEquals(0, sdrCategoryEncoder.decode(encoded).getFields().get("host").size());
+    }
 }
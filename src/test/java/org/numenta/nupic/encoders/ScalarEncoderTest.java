@@ -22,7 +22,9 @@
 package org.numenta.nupic.encoders;
 
 import gnu.trove.list.TDoubleList;
+import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import org.junit.Test;
 import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.MinMax;
@@ -465,4 +467,32 @@ public class ScalarEncoderTest {
             .build();
         encoder.topDownCompute( new int[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 } );
     }
+	
+	/**
+	 * The indexes of the on bits match the dense encoding, including
+	 * periodic encodings which wrap around
+	 */
+	@Test
+	public void testEncodeIntoIndices() {
+		setUp();
+		initSE();
+		ScalarEncoder nonPeriodic = ScalarEncoder.builder()
+			.n(14).w(5).minVal(1.0).maxVal(8.0).forced(true).build();
+		
+		TIntList indices = new TIntArrayList();
+		for(ScalarEncoder encoder : new ScalarEncoder[] { se, nonPeriodic }) {
+			for(double v = 1.0;v < 8.0;v += 0.25) {
+				encoder.encodeIntoIndices(v, indices);
+				int[] expected = ArrayUtils.where(encoder.encode(v), ArrayUtils.INT_GREATER_THAN_0);
+				assertTrue(Arrays.equals(expected, indices.toArray()));
+			}
+			encoder.encodeIntoIndices(Encoder.SENTINEL_VALUE_FOR_MISSING_DATA, indices);
+			assertEquals(0, indices.size());
+		}
+		
+		// Appended after the existing indexes, shifted by the offset
+		indices.add(3);
+		se.encodeIntoIndices(7.5, indices, 10);
+		assertTrue(Arrays.equals(new int[] { 3, 10, 22, 23 }, indices.toArray()));
+	}
 }
@@ -24,6 +24,7 @@ package org.numenta.nupic.research;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.set.hash.TIntHashSet;
 
@@ -39,7 +40,6 @@ import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.Condition;
 import org.numenta.nupic.util.MersenneTwister;
 import org.numenta.nupic.util.SparseBinaryMatrix;
-import org.numenta.nupic.util.SparseMatrix;
 import org.numenta.nupic.util.SparseObjectMatrix;
 
 public class SpatialPoolerTest {
@@ -819,6 +819,25 @@ public class SpatialPoolerTest {
     	}
     }
     
+    /**
+     * Returns a {@link SpatialPooler} whose column neighborhoods
+     * are the specified neighbors of each column
+     */
+    private SpatialPooler mockNeighborhoods(final int[][] neighbors) {
+    	return new SpatialPooler() {
+    		@Override
+    		public ColumnNeighborhoods getColumnNeighborhoods(Connections c) {
+    			return new ColumnNeighborhoods(new int[] { neighbors.length }, neighbors.length) {
+    				@Override
+    				public int getNeighbors(int column, boolean wrapAround, int[] buffer) {
+    					System.arraycopy(neighbors[column], 0, buffer, 0, neighbors[column].length);
+    					return neighbors[column].length;
+    				}
+    			};
+    		}
+    	};
+    }
+    
     @Test
     public void testUpdateMinDutyCycleLocal() {
     	setupParameters();
@@ -826,20 +845,12 @@ public class SpatialPoolerTest {
     	parameters.setColumnDimensions(new int[] { 5 });
     	initSP();
     	
-    	SpatialPooler mockSP = new SpatialPooler() {
-    		int returnIndex = 0;
-    		int[][] returnVals =  {
+    	SpatialPooler mockSP = mockNeighborhoods(new int[][] {
 				{0, 1, 2},
 				{1, 2, 3},
 				{2, 3, 4},
 				{0, 2, 3},
-				{0, 1, 3}};
-    		@Override
-    		public TIntArrayList getNeighborsND(
-    			Connections c, int columnIndex, SparseMatrix<?> topology, int radius, boolean wrapAround) {
-    			return new TIntArrayList(returnVals[returnIndex++]);
-    		}
-    	};
+				{0, 1, 3}});
     	
     	mem.setMinPctOverlapDutyCycles(0.04);
     	mem.setOverlapDutyCycles(new double[] { 1.4, 0.5, 1.2, 0.8, 0.1 });
@@ -868,9 +879,7 @@ public class SpatialPoolerTest {
     	parameters.setColumnDimensions(new int[] { 8 });
     	initSP();
     	
-    	mockSP = new SpatialPooler() {
-    		int returnIndex = 0;
-    		int[][] returnVals =  {
+    	mockSP = mockNeighborhoods(new int[][] {
 				{0, 1, 2, 3, 4},
 				{1, 2, 3, 4, 5},
 				{2, 3, 4, 6, 7},
@@ -878,13 +887,7 @@ public class SpatialPoolerTest {
 				{1, 6},
 				{3, 5, 7},
 				{1, 4, 5, 6},
-				{2, 3, 6, 7}};
-    		@Override
-    		public TIntArrayList getNeighborsND(
-    			Connections c, int columnIndex, SparseMatrix<?> topology, int radius, boolean wrapAround) {
-    			return new TIntArrayList(returnVals[returnIndex++]);
-    		}
-    	};
+				{2, 3, 6, 7}});
     	
     	mem.setMinPctOverlapDutyCycles(0.01);
     	mem.setOverlapDutyCycles(new double[] { 1.2, 2.7, 0.9, 1.1, 4.3, 7.1, 2.3, 0.0 });
@@ -1817,4 +1820,203 @@ public class SpatialPoolerTest {
     	trueConnected = new int[] { 0, 1, 2, 3, 4, 5, 6, 8, 9 };
     	assertTrue(Arrays.equals(trueConnected, ArrayUtils.where(perm, cond)));
     }
+    
+    /**
+     * Checks that computing with several threads gives exactly the
+     * same results as computing serially
+     */
+    @Test
+    public void testParallelCompute() {
+        setupParameters();
+        parameters.setInputDimensions(new int[] { 64 });
+        parameters.setColumnDimensions(new int[] { 256 });
+        parameters.setPotentialRadius(64);
+        parameters.setGlobalInhibition(true);
+        parameters.setNumActiveColumnsPerInhArea(10);
+        
+        parameters.setRandom(new MersenneTwister(42));
+        initSP();
+        Connections serial = mem;
+        parameters.setRandom(new MersenneTwister(42));
+        parameters.setSpParallelism(4);
+        initSP();
+        Connections parallel = mem;
+        assertEquals(4, parallel.getSpParallelism());
+        assertTrue(parallel.getSpForkJoinPool() != null);
+        assertTrue(serial.getSpForkJoinPool() == null);
+        
+        MersenneTwister random = new MersenneTwister(7);
+        int[] serialActive = new int[256];
+        int[] parallelActive = new int[256];
+        for(int i = 0;i < 50;i++) {
+            int[] input = new int[64];
+            for(int j = 0;j < 10;j++) {
+                input[random.nextInt(64)] = 1;
+            }
+            sp.compute(serial, input, serialActive, true, true);
+            sp.compute(parallel, input, parallelActive, true, true);
+            assertTrue(Arrays.equals(serialActive, parallelActive));
+        }
+        
+        assertTrue(Arrays.equals(serial.getConnectedCounts().getTrueCounts(), parallel.getConnectedCounts().getTrueCounts()));
+        for(int i = 0;i < 256;i++) {
+            Pool serialPool = serial.getPotentialPools().getObject(i);
+            Pool parallelPool = parallel.getPotentialPools().getObject(i);
+            assertTrue(Arrays.equals(serialPool.getDensePermanences(serial), parallelPool.getDensePermanences(parallel)));
+            assertTrue(Arrays.equals((int[])serial.getConnectedCounts().getSlice(i), (int[])parallel.getConnectedCounts().getSlice(i)));
+        }
+        int[] serialIndices = serial.getConnectedCounts().getSparseIndices();
+        int[] parallelIndices = parallel.getConnectedCounts().getSparseIndices();
+        Arrays.sort(serialIndices);
+        Arrays.sort(parallelIndices);
+        assertTrue(Arrays.equals(serialIndices, parallelIndices));
+        
+        parallel.setSpParallelism(1);
+        assertTrue(parallel.getSpForkJoinPool() == null);
+    }
+
+    /**
+     * Checks that the cached column neighborhoods match the
+     * neighbors computed for each column, and follow the radius.
+     * Neighborhoods lie in the column topology, so they are flattened
+     * with the column dimensions whatever the input dimensions.
+     */
+    @Test
+    public void testColumnNeighborhoods() {
+        for(int[] columnDimensions : new int[][] { { 8, 10 }, { 5, 7 } }) {
+            setupParameters();
+            parameters.setInputDimensions(new int[] { 8, 10 });
+            parameters.setColumnDimensions(columnDimensions);
+            initSP();
+            
+            for(int radius = 1;radius < 7;radius++) {
+                mem.setInhibitionRadius(radius);
+                ColumnNeighborhoods n = sp.getColumnNeighborhoods(mem);
+                assertEquals(radius, n.getRadius());
+                assertTrue(n == sp.getColumnNeighborhoods(mem));
+                for(boolean wrapAround : new boolean[] { false, true }) {
+                    for(int i = 0;i < mem.getNumColumns();i++) {
+                        int[] expected = sp.getNeighborsND(mem, i, mem.getMemory(), radius, wrapAround).toArray();
+                        assertTrue(Arrays.equals(expected, n.getNeighbors(i, wrapAround)));
+                    }
+                }
+            }
+        }
+        
+        // Column [1, 1] of the 5x7 columns over 8x10 inputs
+        mem.setInhibitionRadius(1);
+        int[] expected = new int[] { 0, 1, 2, 7, 9, 14, 15, 16 };
+        assertTrue(Arrays.equals(expected, sp.getNeighborsND(mem, 8, mem.getMemory(), 1, false).toArray()));
+        assertTrue(Arrays.equals(expected, sp.getColumnNeighborhoods(mem).getNeighbors(8, false)));
+        
+        // A change of radius discards the cached neighborhoods
+        mem.setInhibitionRadius(0);
+        sp.updateInhibitionRadius(mem);
+        assertTrue(mem.getColumnNeighborhoods() == null);
+    }
+
+    /**
+     * Checks that computing a batch of inputs gives the same active
+     * columns as computing them one at a time without learning
+     */
+    @Test
+    public void testComputeBatch() {
+        for(boolean global : new boolean[] { true, false }) {
+            for(int parallelism : new int[] { 1, 4 }) {
+                setupParameters();
+                parameters.setInputDimensions(new int[] { 100 });
+                parameters.setColumnDimensions(new int[] { 200 });
+                parameters.setPotentialRadius(20);
+                parameters.setGlobalInhibition(global);
+                parameters.setNumActiveColumnsPerInhArea(10);
+                parameters.setSpParallelism(parallelism);
+                parameters.setRandom(new MersenneTwister(42));
+                initSP();
+                
+                MersenneTwister random = new MersenneTwister(7);
+                int[][] inputs = new int[150][100];
+                for(int[] input : inputs) {
+                    for(int j = 0;j < 20;j++) {
+                        input[random.nextInt(100)] = 1;
+                    }
+                }
+                int[] activeArray = new int[200];
+                for(int i = 0;i < 20;i++) {
+                    sp.compute(mem, inputs[i], activeArray, true, true);
+                }
+                
+                for(boolean strip : new boolean[] { false, true }) {
+                    int iterationNum = mem.getIterationNum();
+                    int[][] batch = sp.computeBatch(mem, inputs, strip);
+                    assertEquals(iterationNum + inputs.length, mem.getIterationNum());
+                    assertEquals(inputs.length, batch.length);
+                    for(int i = 0;i < inputs.length;i++) {
+                        sp.compute(mem, inputs[i], activeArray, false, strip);
+                        int[] expected = ArrayUtils.where(activeArray, ArrayUtils.INT_GREATER_THAN_0);
+                        assertTrue(Arrays.equals(expected, batch[i]));
+                    }
+                }
+            }
+        }
+        
+        try {
+            sp.computeBatch(mem, new int[][] { new int[99] });
+            fail();
+        }catch(IllegalArgumentException e) {
+            assertEquals("Input array must be same size as the defined number of inputs", e.getMessage());
+        }
+    }
+    
+    /**
+     * Checks that computing from the indexes of the on input bits gives the
+     * same active columns and learns the same permanences as computing from
+     * the dense input vectors
+     */
+    @Test
+    public void testComputeSparse() {
+        setupParameters();
+        parameters.setInputDimensions(new int[] { 100 });
+        parameters.setColumnDimensions(new int[] { 200 });
+        parameters.setPotentialRadius(20);
+        parameters.setGlobalInhibition(false);
+        parameters.setNumActiveColumnsPerInhArea(10);
+        parameters.setRandom(new MersenneTwister(42));
+        initSP();
+        Connections dense = mem;
+        parameters.setRandom(new MersenneTwister(42));
+        initSP();
+        Connections sparse = mem;
+        
+        MersenneTwister random = new MersenneTwister(7);
+        int[] denseActive = new int[200];
+        int[] sparseActive = new int[200];
+        for(int i = 0;i < 60;i++) {
+            int[] input = new int[100];
+            // Some inputs dense enough for the overlaps to be bit packed
+            int numOn = i % 3 == 0 ? 70 : 15;
+            for(int j = 0;j < numOn;j++) {
+                input[random.nextInt(100)] = 1;
+            }
+            boolean learn = i < 40;
+            sp.compute(dense, input, denseActive, learn, true);
+            sp.computeSparse(sparse, ArrayUtils.where(input, ArrayUtils.INT_GREATER_THAN_0), sparseActive, learn, true);
+            assertTrue(Arrays.equals(denseActive, sparseActive));
+        }
+        
+        for(int i = 0;i < 200;i++) {
+            Pool densePool = dense.getPotentialPools().getObject(i);
+            Pool sparsePool = sparse.getPotentialPools().getObject(i);
+            assertTrue(Arrays.equals(densePool.getDensePermanences(dense), sparsePool.getDensePermanences(sparse)));
+        }
+        assertTrue(Arrays.equals(dense.getConnectedCounts().getTrueCounts(), sparse.getConnectedCounts().getTrueCounts()));
+        
+        for(int[] invalid : new int[][] { { 3, 3 }, { 5, 2 }, { -1 }, { 100 } }) {
+            try {
+                sp.computeSparse(sparse, invalid, sparseActive, true, true);
+                fail();
+            }catch(IllegalArgumentException e) {
+                assertEquals("Input indexes must be sorted, distinct and less than the defined number of inputs", e.getMessage());
+            }
+        }
+    }
 }
@@ -24,9 +24,11 @@ package org.numenta.nupic.research;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -42,6 +44,7 @@ import org.numenta.nupic.model.DistalDendrite;
 import org.numenta.nupic.model.Synapse;
 import org.numenta.nupic.research.ComputeCycle;
 import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MersenneTwister;
 
 
 /**
@@ -291,6 +294,62 @@ public class TemporalMemoryTest {
         
     }
     
+    @Test
+    public void testSegmentActivity() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        tm.init(cn);
+        
+        int segmentCounter = 0;
+        int synapseCounter = 0;
+        
+        DistalDendrite dd = cn.getCell(0).createSegment(cn, segmentCounter++);
+        dd.createSynapse(cn, cn.getCell(23), 0.6, synapseCounter++);
+        dd.createSynapse(cn, cn.getCell(37), 0.4, synapseCounter++);
+        dd.createSynapse(cn, cn.getCell(477), 0.9, synapseCounter++);
+        
+        DistalDendrite dd1 = cn.getCell(1).createSegment(cn, segmentCounter++);
+        dd1.createSynapse(cn, cn.getCell(733), 0.7, synapseCounter++);
+        
+        DistalDendrite dd2 = cn.getCell(8).createSegment(cn, segmentCounter++);
+        dd2.createSynapse(cn, cn.getCell(486), 0.9, synapseCounter++);
+        
+        DistalDendrite dd3 = cn.getCell(100).createSegment(cn, 200);
+        dd3.createSynapse(cn, cn.getCell(37), 0.1, synapseCounter++);
+        
+        SegmentActivity activity = new SegmentActivity();
+        for(int cell : new int[] { 23, 37, 733, 4973 }) {
+            activity.addActiveCell(cn, cn.getCell(cell), cn.getConnectedPermanence());
+        }
+        
+        assertEquals(3, activity.size());
+        assertEquals(dd, activity.getSegment(0));
+        assertEquals(dd3, activity.getSegment(1));
+        assertEquals(dd1, activity.getSegment(2));
+        assertEquals(2, activity.getNumActivePotential(dd));
+        assertEquals(1, activity.getNumActiveConnected(dd));
+        assertEquals(1, activity.getNumActivePotential(dd1));
+        assertEquals(1, activity.getNumActiveConnected(dd1));
+        assertEquals(0, activity.getNumActivePotential(dd2));
+        assertEquals(1, activity.getNumActivePotential(dd3));
+        assertEquals(0, activity.getNumActiveConnected(dd3));
+        
+        activity.clear();
+        assertEquals(0, activity.size());
+        assertEquals(0, activity.getNumActivePotential(dd));
+        assertEquals(0, activity.getNumActivePotential(dd3));
+        
+        // Segment indexes must be unique
+        DistalDendrite duplicate = cn.getCell(2).createSegment(cn, 0);
+        duplicate.createSynapse(cn, cn.getCell(23), 0.5, synapseCounter++);
+        try {
+            activity.addActiveCell(cn, cn.getCell(23), cn.getConnectedPermanence());
+            fail();
+        }catch(Exception e) {
+            assertEquals(IllegalArgumentException.class, e.getClass());
+        }
+    }
+    
     @SuppressWarnings("unused")
     @Test
     public void testComputePredictiveCells() {
@@ -680,4 +739,82 @@ public class TemporalMemoryTest {
         List<Cell> learnCells = new ArrayList<Cell>(dd.pickCellsToLearnOn(cn, 2, winnerCells, cn.getRandom()));
         assertTrue(learnCells.isEmpty());
     }
+    
+    @Test
+    public void testComputeIndexedSameAsCompute() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections expected = getIndexedTestConnections();
+        tm.init(expected);
+        Connections actual = getIndexedTestConnections();
+        tm.init(actual);
+        
+        Random r = new Random(7);
+        int[][] sequence = new int[10][];
+        for(int i = 0;i < sequence.length;i++) {
+            sequence[i] = new int[] { r.nextInt(16), 16 + r.nextInt(16), 32 + r.nextInt(16), 48 + r.nextInt(16) };
+        }
+        
+        int numPredicted = 0;
+        for(int pass = 0;pass < 12;pass++) {
+            boolean learn = pass != 5 && pass != 11;
+            for(int[] input : sequence) {
+                ComputeCycle cycle = tm.compute(expected, input, learn);
+                IndexedComputeCycle indexed = tm.computeIndexed(actual, input, learn);
+                
+                assertTrue(Arrays.equals(sortedIndexes(cycle.activeCells()), indexed.activeCells()));
+                assertTrue(Arrays.equals(sortedIndexes(cycle.winnerCells()), indexed.winnerCells()));
+                assertTrue(Arrays.equals(sortedIndexes(cycle.predictiveCells()), indexed.predictiveCells()));
+                assertEquals(cycle.activeSegments().size(), indexed.activeSegments().size());
+                
+                List<Integer> predictedColumns = Connections.asColumnIndexes(cycle.predictedColumns());
+                Collections.sort(predictedColumns);
+                assertEquals(predictedColumns.toString(), Arrays.toString(indexed.predictedColumns()));
+                numPredicted += predictedColumns.size();
+            }
+            if(pass == 8) {
+                tm.reset(expected);
+                tm.reset(actual);
+            }
+        }
+        assertTrue(numPredicted > 0);
+        
+        assertEquals(expected.getSegmentCount(), actual.getSegmentCount());
+        assertEquals(expected.getSynapseCount(), actual.getSynapseCount());
+        for(int i = 0;i < expected.getCells().length;i++) {
+            List<DistalDendrite> expectedSegments = expected.getSegments(expected.getCell(i));
+            List<DistalDendrite> actualSegments = actual.getSegments(actual.getCell(i));
+            assertEquals(expectedSegments.size(), actualSegments.size());
+            for(int j = 0;j < expectedSegments.size();j++) {
+                List<Synapse> expectedSynapses = expected.getSynapses(expectedSegments.get(j));
+                List<Synapse> actualSynapses = actual.getSynapses(actualSegments.get(j));
+                assertEquals(expectedSynapses.size(), actualSynapses.size());
+                for(int k = 0;k < expectedSynapses.size();k++) {
+                    assertEquals(expectedSynapses.get(k).getSourceCell().getIndex(), actualSynapses.get(k).getSourceCell().getIndex());
+                    assertEquals(expectedSynapses.get(k).getPermanence(), actualSynapses.get(k).getPermanence(), 0.0);
+                }
+            }
+        }
+    }
+    
+    private Connections getIndexedTestConnections() {
+        Connections cn = new Connections();
+        cn.setColumnDimensions(new int[] { 64 });
+        cn.setCellsPerColumn(4);
+        cn.setMinThreshold(1);
+        cn.setActivationThreshold(2);
+        cn.setMaxNewSynapseCount(6);
+        cn.setInitialPermanence(0.3);
+        cn.setRandom(new MersenneTwister(42));
+        return cn;
+    }
+    
+    private int[] sortedIndexes(Set<Cell> cells) {
+        int[] indexes = new int[cells.size()];
+        int i = 0;
+        for(Cell cell : cells) {
+            indexes[i++] = cell.getIndex();
+        }
+        Arrays.sort(indexes);
+        return indexes;
+    }
 }
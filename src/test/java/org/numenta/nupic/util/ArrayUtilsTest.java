@@ -28,6 +28,7 @@ import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -309,4 +310,46 @@ public class ArrayUtilsTest {
 		assertTrue(Arrays.equals(new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 0},
 				ArrayUtils.concatAll(new int[]{1, 2}, new int[]{3, 4, 5, 6, 7}, new int[]{8, 9, 0})));
 	}
+
+	@Test
+	public void testSelectGreatest() {
+		Random random = new Random(42);
+		int[] buffer = null;
+		for(int length : new int[] { 1, 2, 10, 100, 1000 }) {
+			for(int pattern = 0;pattern < 4;pattern++) {
+				double[] array = new double[length];
+				for(int i = 0;i < length;i++) {
+					switch(pattern) {
+						case 0: array[i] = random.nextDouble(); break;
+						case 1: array[i] = random.nextInt(5); break;
+						case 2: array[i] = i; break;
+						default: array[i] = 1; break;
+					}
+				}
+				double[] copy = array.clone();
+				
+				// Reference: indexes ordered by descending value, then ascending index
+				Integer[] order = new Integer[length];
+				for(int i = 0;i < length;i++) order[i] = i;
+				final double[] values = array;
+				Arrays.sort(order, new java.util.Comparator<Integer>() {
+					@Override public int compare(Integer a, Integer b) {
+						int c = Double.compare(values[b], values[a]);
+						return c != 0 ? c : a - b;
+					}
+				});
+				
+				for(int n : new int[] { 0, 1, length / 3, length / 2, length - 1, length }) {
+					buffer = ArrayUtils.selectGreatest(array, n, buffer);
+					int[] selected = Arrays.copyOf(buffer, n);
+					Arrays.sort(selected);
+					int[] expected = new int[n];
+					for(int i = 0;i < n;i++) expected[i] = order[i];
+					Arrays.sort(expected);
+					assertTrue(Arrays.equals(expected, selected));
+				}
+				assertTrue(Arrays.equals(copy, array));
+			}
+		}
+	}
 }
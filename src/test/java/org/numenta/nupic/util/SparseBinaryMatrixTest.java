@@ -29,6 +29,8 @@ import java.util.Arrays;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class SparseBinaryMatrixTest {
@@ -214,5 +216,174 @@ public class SparseBinaryMatrixTest {
 
     }
 
+    @Test
+    public void testRightVecSumAtNZSparseInput() {
+        int rows = 150;
+        int cols = 40;
+        int[][] expected = new int[rows][cols];
+        SparseBinaryMatrix sm = new SparseBinaryMatrix(new int[] { rows, cols });
+        Random random = new Random(42);
+        for(int i = 0;i < rows;i++) {
+            for(int j = 0;j < cols;j++) {
+                if(random.nextInt(5) == 0) {
+                    sm.set(1, i, j);
+                    expected[i][j] = 1;
+                }
+            }
+        }
+        // Clear a few rows, and unset a few entries
+        for(int i = 0;i < rows;i += 7) {
+            sm.clearStatistics(i);
+            Arrays.fill(expected[i], 0);
+        }
+        for(int i = 1;i < rows;i += 9) {
+            sm.set(0, i, 3);
+            expected[i][3] = 0;
+        }
+
+        for(int n = 0;n < 10;n++) {
+            int[] inputVector = new int[cols];
+            for(int j = 0;j < 4;j++) {
+                inputVector[random.nextInt(cols)] = 1;
+            }
+            int[] trueResults = new int[rows];
+            for(int i = 0;i < rows;i++) {
+                for(int j = 0;j < cols;j++) {
+                    trueResults[i] += inputVector[j] * expected[i][j];
+                }
+            }
+
+            int[] results = new int[rows];
+            sm.rightVecSumAtNZ(inputVector, results);
+            assertEquals(Arrays.toString(trueResults), Arrays.toString(results));
+
+            // In ranges which don't align with 64 rows
+            results = new int[rows];
+            sm.rightVecSumAtNZ(inputVector, results, 0, 37);
+            sm.rightVecSumAtNZ(inputVector, results, 37, 64);
+            sm.rightVecSumAtNZ(inputVector, results, 64, 129);
+            sm.rightVecSumAtNZ(inputVector, results, 129, rows);
+            assertEquals(Arrays.toString(trueResults), Arrays.toString(results));
+            
+            // From the indexes of the on bits only
+            int[] inputIndices = ArrayUtils.where(inputVector, ArrayUtils.INT_GREATER_THAN_0);
+            results = new int[rows];
+            sm.rightVecSumAtNZSparse(inputIndices, results, 0, 37);
+            sm.rightVecSumAtNZSparse(inputIndices, results, 37, rows);
+            assertEquals(Arrays.toString(trueResults), Arrays.toString(results));
+        }
+
+        // Packed
+        int[] inputVector = new int[cols];
+        Arrays.fill(inputVector, 1);
+        int[] trueResults = new int[rows];
+        sm.rightVecSumAtNZ(inputVector, trueResults);
+        int[] inputIndices = ArrayUtils.range(0, cols);
+        int[] results = new int[rows];
+        sm.rightVecSumAtNZSparse(inputIndices, results, 0, rows);
+        assertEquals(Arrays.toString(trueResults), Arrays.toString(results));
+        results = new int[rows];
+        sm.rightVecSumAtNZ(sm.toInputBitsSparse(inputIndices), results, 0, rows);
+        assertEquals(Arrays.toString(trueResults), Arrays.toString(results));
+    }
 
+    @Test
+    public void testConcurrentRows() throws InterruptedException {
+        final int rows = 256;
+        final int cols = 30;
+        final SparseBinaryMatrix sm = new SparseBinaryMatrix(new int[] { rows, cols });
+        // Adjacent rows share the words of the inverted index
+        Thread[] threads = new Thread[4];
+        for(int t = 0;t < threads.length;t++) {
+            final int first = t;
+            final int step = threads.length;
+            threads[t] = new Thread() {
+                @Override public void run() {
+                    Random random = new Random(first);
+                    for(int n = 0;n < 20;n++) {
+                        for(int i = first;i < rows;i += step) {
+                            sm.clearStatistics(i);
+                            for(int j = 0;j < cols;j++) {
+                                if(random.nextInt(3) == 0) sm.set(1, i, j);
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        for(int j = 0;j < cols;j++) {
+            int[] trueResults = new int[rows];
+            for(int i = 0;i < rows;i++) {
+                trueResults[i] = sm.getIntValue(i, j);
+            }
+            int[] results = new int[rows];
+            sm.rightVecSumAtNZSparse(new int[] { j }, results, 0, rows);
+            assertEquals(Arrays.toString(trueResults), Arrays.toString(results));
+        }
+    }
+
+    @Test
+    public void testPackedRows() {
+        // Rows longer than a word
+        int rows = 7;
+        int cols = 150;
+        SparseBinaryMatrix sm = new SparseBinaryMatrix(new int[] { rows, cols });
+        sm.set(1, 2, 0);
+        sm.set(1, 2, 64);
+        sm.set(1, 2, 149);
+        sm.set(1, 2, 149);
+        sm.set(1, 5, 70);
+        assertEquals(3, sm.getTrueCount(2));
+        assertEquals(1, sm.getTrueCount(5));
+        sm.set(0, 2, 64);
+        sm.set(0, 2, 63);
+        assertEquals(2, sm.getTrueCount(2));
+        assertEquals(0, sm.getIntValue(2, 64));
+        assertEquals(1, sm.getIntValue(2 * cols + 149));
+        assertEquals("[300, 449, 820]", Arrays.toString(sm.getSparseIndices()));
+
+        // Word level or, all and any
+        SparseBinaryMatrix other = new SparseBinaryMatrix(new int[] { rows, cols });
+        other.set(1, 2, 149);
+        assertTrue(sm.all(other));
+        assertTrue(sm.any(other));
+        other.set(1, 6, 100);
+        assertFalse(sm.all(other));
+        sm.or(other);
+        assertTrue(sm.all(other));
+        assertEquals(1, sm.getTrueCount(6));
+        assertEquals(2, sm.getTrueCount(2));
+        other.clearStatistics(2);
+        other.clearStatistics(6);
+        other.set(1, 0, 0);
+        assertFalse(sm.any(other));
+
+        // Dense inputs are intersected a word at a time
+        assertTrue(sm.prefersInputBits(cols));
+        assertFalse(sm.prefersInputBits(5));
+        int[] inputVector = new int[cols];
+        Arrays.fill(inputVector, 1);
+        int[] results = new int[rows];
+        sm.rightVecSumAtNZ(inputVector, results);
+        assertEquals(Arrays.toString(sm.getTrueCounts()), Arrays.toString(results));
+        long[] inputBits = new long[3];
+        inputBits[1] = 1L << (70 - 64);
+        results = new int[rows];
+        sm.rightVecSumAtNZ(inputBits, results, 0, rows);
+        assertEquals("[0, 0, 0, 0, 0, 1, 0]", Arrays.toString(results));
+
+        // Column major ordering
+        SparseBinaryMatrix cm = new SparseBinaryMatrix(new int[] { 3, 4 }, true);
+        cm.set(cm.computeIndex(new int[] { 1, 2 }), 1);
+        assertEquals(1, cm.getIntValue(1, 2));
+        assertEquals(1, cm.getTrueCount(1));
+        assertEquals(0, ((int[])cm.getSlice(1))[1]);
+        assertEquals(1, ((int[])cm.getSlice(1))[2]);
+        assertEquals("[" + cm.computeIndex(new int[] { 1, 2 }) + "]", Arrays.toString(cm.getSparseIndices()));
+    }
 }